@@ -0,0 +1,116 @@
+package eit.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eit.linecode.CodeTable;
+
+/**
+ * This class measures the lookups of the {@code CodeTable} the encoder and decoder make for every byte.
+ * <p>
+ * Each benchmark looks up all 256 code groups once, so the score is the time of one lookup.
+ * The lookup of a word given as a {@code String} is the search of the text encoding; it is kept
+ * to show what the lookup of a word given as an integer saves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeTableBenchmark {
+    private final static int CODES = 256; // the number of code groups
+    private CodeTable codeTable; // the table looked up
+    private final int[] plusWords = new int[CODES]; // the RD+ word of every code group
+    private final int[] minusWords = new int[CODES]; // the RD- word of every code group
+    private final String[] plusStrings = new String[CODES]; // the RD+ word of every code group as text
+
+    /**
+     * Collects the words of all code groups.
+     */
+    @Setup
+    public void setUp() {
+        codeTable = new CodeTable();
+        for (int i = 0; i < CODES; i++) {
+            plusWords[i] = codeTable.getRdPlusCode(i);
+            minusWords[i] = codeTable.getRdMinusCode(i);
+            StringBuilder word = new StringBuilder(Integer.toBinaryString(plusWords[i]));
+            while (word.length() < 10) {
+                word.insert(0, '0');
+            }
+            plusStrings[i] = word.toString();
+        }
+    }
+
+    /**
+     * Looks up the words of the code groups, as the encoder does.
+     *
+     * @return the sum of the words.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int codes() {
+        int sum = 0;
+        for (int i = 0; i < CODES; i++) {
+            sum += (i & 1) == 0 ? codeTable.getRdPlusCode(i) : codeTable.getRdMinusCode(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Looks up the code groups of words, as the decoder does.
+     *
+     * @return the sum of the code groups.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int positions() {
+        int sum = 0;
+        for (int i = 0; i < CODES; i++) {
+            sum += (i & 1) == 0 ? codeTable.getRdPlusPosition(plusWords[i])
+                    : codeTable.getRdMinusPosition(minusWords[i]);
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the disparity of words, as the encoder and decoder do to follow the running disparity.
+     *
+     * @return the sum of the disparities.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int disparity() {
+        int sum = 0;
+        for (int i = 0; i < CODES; i++) {
+            sum += codeTable.calculateDisparity(plusWords[i]);
+        }
+        return sum;
+    }
+
+    /**
+     * Looks up the code groups of words given as text.
+     *
+     * @return the sum of the code groups.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CODES)
+    public int positionsOfText() {
+        int sum = 0;
+        for (int i = 0; i < CODES; i++) {
+            sum += codeTable.getRdPlusPosition(plusStrings[i]);
+        }
+        return sum;
+    }
+}
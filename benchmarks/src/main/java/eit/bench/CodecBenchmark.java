@@ -0,0 +1,116 @@
+package eit.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * This class measures the 8b/10b encoder and decoder on buffers, the way the hosts use them.
+ * <p>
+ * The sizes are those of a header alone and of the largest dataframe in a datagram of 1500 bytes,
+ * of 9000 bytes and of 65507 bytes. The entropy of the payload decides how often the running disparity
+ * flips: random bytes flip it about half of the time, zeros never and text in between.
+ * The score is in calls per second; multiplied by the size it gives the bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private final static byte[] TEXT = ("The quick brown fox jumps over the lazy dog. ")
+            .getBytes(StandardCharsets.US_ASCII); // repeated for the text payload
+    @Param({"12", "148", "898", "6548"})
+    private int size; // the number of bytes of the payload
+    @Param({"random", "zeros", "text"})
+    private String entropy; // the kind of payload
+    private Encoder encoder; // encodes the payload
+    private Decoder decoder; // decodes the encoded payload
+    private ByteBuffer payload; // the payload to be encoded
+    private ByteBuffer encoded; // the encoded payload, written by encode and read by decode
+    private ByteBuffer decoded; // the decoded payload
+
+    /**
+     * Builds the payload and encodes it once for the decoder.
+     */
+    @Setup
+    public void setUp() {
+        CodeTable codeTable = new CodeTable();
+        encoder = new Encoder(codeTable);
+        decoder = new Decoder(codeTable);
+        payload = ByteBuffer.wrap(payload(entropy, size));
+        encoded = ByteBuffer.allocateDirect(Encoder.encodedLength(size));
+        decoded = ByteBuffer.allocate(size);
+        encoder.encode(payload, encoded);
+        encoded.flip();
+        payload.flip();
+    }
+
+    /**
+     * Encodes the payload into a buffer.
+     *
+     * @return the number of bytes encoded.
+     */
+    @Benchmark
+    public int encode() {
+        payload.rewind();
+        encoded.clear();
+        return encoder.encode(payload, encoded);
+    }
+
+    /**
+     * Decodes the encoded payload into a buffer.
+     *
+     * @return the number of bytes decoded.
+     */
+    @Benchmark
+    public int decode() {
+        encoded.rewind();
+        decoded.clear();
+        return decoder.decode(encoded, decoded);
+    }
+
+    /**
+     * Builds a payload of the given kind.
+     *
+     * @param entropy the kind of payload: random, zeros or text.
+     * @param size    the number of bytes.
+     * @return the payload.
+     */
+    static byte[] payload(String entropy, int size) {
+        byte[] payload = new byte[size];
+        switch (entropy) {
+            case "random":
+                new Random(42).nextBytes(payload);
+                break;
+            case "text":
+                for (int i = 0; i < size; i++) {
+                    payload[i] = TEXT[i % TEXT.length];
+                }
+                break;
+            default:
+                Arrays.fill(payload, (byte) 0);
+                break;
+        }
+        return payload;
+    }
+}
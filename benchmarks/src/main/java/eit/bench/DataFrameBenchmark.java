@@ -0,0 +1,100 @@
+package eit.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import eit.linecode.DataFrame;
+import eit.linecode.Utils.Flag;
+
+/**
+ * This class measures how a dataframe is written and parsed.
+ * <p>
+ * The hosts write the header into a buffer followed by the payload and read the fields of a received
+ * dataframe in place. The {@code DataFrame} objects built from and turned into arrays are measured as well,
+ * their allocations show with {@code -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataFrameBenchmark {
+    @Param({"0", "136", "1024"})
+    private int size; // the number of bytes of the payload
+    private byte[] payload; // the payload of the dataframe
+    private byte[] bytes; // the dataframe as an array
+    private ByteBuffer frame; // the dataframe as a buffer
+    private int seq; // the sequence number of the next dataframe written
+
+    /**
+     * Builds the payload and the dataframe parsed.
+     */
+    @Setup
+    public void setUp() {
+        payload = CodecBenchmark.payload("random", size);
+        frame = ByteBuffer.allocate(DataFrame.HEADER_LENGTH + size);
+        DataFrame.writeHeader(frame, 7, 11, Flag.DEFAULT, 3);
+        frame.put(payload);
+        bytes = frame.array().clone();
+    }
+
+    /**
+     * Writes a dataframe into a buffer, as the hosts do.
+     *
+     * @return the buffer written.
+     */
+    @Benchmark
+    public ByteBuffer write() {
+        frame.clear();
+        DataFrame.writeHeader(frame, seq++, 11, Flag.DEFAULT, 3);
+        return frame.put(payload);
+    }
+
+    /**
+     * Reads the fields of a dataframe in a buffer, as the hosts do.
+     *
+     * @param blackhole consumes the fields.
+     */
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        frame.rewind();
+        blackhole.consume(DataFrame.readSeqNumber(frame));
+        blackhole.consume(DataFrame.readAckNumber(frame));
+        blackhole.consume(DataFrame.readFlag(frame));
+        blackhole.consume(DataFrame.readStreamId(frame));
+    }
+
+    /**
+     * Builds a {@code DataFrame} object and turns it into an array.
+     *
+     * @return the dataframe as an array.
+     */
+    @Benchmark
+    public byte[] toArray() {
+        return new DataFrame(seq++, 11, Flag.DEFAULT, 3, payload).getDataFrame();
+    }
+
+    /**
+     * Builds a {@code DataFrame} object from an array.
+     *
+     * @return the dataframe.
+     */
+    @Benchmark
+    public DataFrame fromArray() {
+        return new DataFrame(bytes);
+    }
+}
@@ -0,0 +1,171 @@
+package eit.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eit.host.Client;
+import eit.host.Server;
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * This class measures a {@code Client} sending to a {@code Server} over the loopback interface,
+ * both in the process of the benchmark.
+ * <p>
+ * The throughput is measured with a window of 64 dataframes, a call returns as soon as its dataframe
+ * is sent. The latency is measured with a window of 1, a call returns when its dataframe has been
+ * acknowledged, so a sample is one round trip. The server discards the data it receives.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    /**
+     * Sends a dataframe of the given size with the window of the connection.
+     *
+     * @param connection a connection with a window of 64 dataframes.
+     */
+    @Benchmark
+    public void throughput(Windowed connection) {
+        connection.client.sendData(connection.payload, true);
+    }
+
+    /**
+     * Sends a dataframe of the given size and waits for its acknowledgement.
+     *
+     * @param connection a connection with a window of 1 dataframe.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency(StopAndWait connection) {
+        connection.client.sendData(connection.payload, true);
+    }
+
+    /**
+     * This class represents a client connected to a server of its own, set up for each trial.
+     */
+    @State(Scope.Thread)
+    public abstract static class Connection {
+        @Param({"64", "1024"})
+        int size; // the number of bytes of the payload
+        Server server; // receives the data
+        Client client; // sends the data
+        byte[] payload; // the data sent by every call
+
+        /**
+         * Starts the server and connects the client.
+         *
+         * @throws IOException if an I/O error occurs or the client could not connect.
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            CodeTable codeTable = new CodeTable();
+            server = new Server(new Encoder(codeTable), new Decoder(codeTable),
+                    new InetSocketAddress("127.0.0.1", 0));
+            server.subscribe(new Discard());
+            server.start();
+            client = new Client(new Encoder(codeTable), new Decoder(codeTable),
+                    (InetSocketAddress) server.getLocalAddress());
+            client.setWindowSize(getWindowSize());
+            if (!client.connect()) {
+                throw new IOException("client not connected");
+            }
+            payload = CodecBenchmark.payload("random", size);
+        }
+
+        /**
+         * Waits for the data sent to be acknowledged, so the next iteration starts with an empty window.
+         */
+        @TearDown(Level.Iteration)
+        public void flush() {
+            client.flush();
+        }
+
+        /**
+         * Disconnects the client and stops the server.
+         *
+         * @throws IOException          if an I/O error occurs.
+         * @throws InterruptedException if the thread is interrupted while the server stops.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, InterruptedException {
+            client.disconnect();
+            server.join(1000);
+            client.close();
+            server.close();
+        }
+
+        /**
+         * Returns the window of the client.
+         *
+         * @return the number of dataframes sent without waiting for their acknowledgement.
+         */
+        abstract int getWindowSize();
+    }
+
+    /**
+     * This class represents a connection with a window of 64 dataframes.
+     */
+    public static class Windowed extends Connection {
+        @Override
+        int getWindowSize() {
+            return 64;
+        }
+    }
+
+    /**
+     * This class represents a connection with a window of 1 dataframe.
+     */
+    public static class StopAndWait extends Connection {
+        @Override
+        int getWindowSize() {
+            return 1;
+        }
+    }
+
+    /**
+     * This class represents a subscriber which requests everything and keeps nothing.
+     */
+    private static class Discard implements Flow.Subscriber<byte[]> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(byte[] item) {
+            // the data is discarded
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // the benchmark fails on the side of the client
+        }
+
+        @Override
+        public void onComplete() {
+            // the server keeps receiving until it stops
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package eit.cli;
+
+/**
+ * This class represents a histogram of latencies in nanoseconds, with buckets of log-linear width.
+ * <p>
+ * The values are counted in buckets of powers of 2, each split into 64 equal sub-buckets, as in an
+ * HDR histogram with two significant digits: a value is known to within 1/64 of itself, whether it is
+ * a few microseconds or several seconds, and the histogram has a fixed size of 29 KB. Recording a value
+ * is a few shifts and an increment, it allocates nothing. The largest value is kept exactly.
+ * <p>
+ * A histogram is not thread-safe. Every thread records into its own, the histograms are merged with {@code add}.
+ */
+public class LatencyHistogram {
+    private final static int SUBBITS = 6; // the number of bits of a sub-bucket
+    private final static int SUBBUCKETS = 1 << SUBBITS; // the sub-buckets of a power of 2
+    private final static int BUCKETS = Long.SIZE - SUBBITS; // the powers of 2 above the linear range
+    private final long[] counts = new long[(BUCKETS + 1) * SUBBUCKETS]; // the number of values of each sub-bucket
+    private long totalCount; // the number of values recorded
+    private long max; // the largest value recorded
+
+    /**
+     * Records a value.
+     *
+     * @param value the value in nanoseconds, negative values are counted as 0.
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        counts[index(recorded)]++;
+        totalCount++;
+        max = Math.max(max, recorded);
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     *
+     * @param other the histogram added.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return the largest value, 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the values lies.
+     * The value is the upper end of its sub-bucket, so it is never reported too small.
+     *
+     * @param percentile the percentage, from 0 to 100.
+     * @return the value, 0 if nothing has been recorded.
+     * @throws IllegalArgumentException if the percentage is out of range.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the sub-bucket a value is counted in. The values below 128 have a sub-bucket of their own,
+     * above, every power of 2 has 64 sub-buckets.
+     *
+     * @param value the value, not negative.
+     * @return the index of the sub-bucket.
+     */
+    static int index(long value) {
+        int bucket = Math.max(0, Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUBBITS);
+        return (bucket + 1) * SUBBUCKETS + (int) (value >>> bucket) - SUBBUCKETS;
+    }
+
+    /**
+     * Returns the largest value counted in a sub-bucket.
+     *
+     * @param index the index of the sub-bucket.
+     * @return the largest value.
+     */
+    static long highest(int index) {
+        if (index < 2 * SUBBUCKETS) {
+            return index;
+        }
+        int bucket = index / SUBBUCKETS - 1;
+        long sub = index % SUBBUCKETS + SUBBUCKETS;
+        return ((sub + 1) << bucket) - 1;
+    }
+}
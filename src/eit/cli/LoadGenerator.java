@@ -0,0 +1,252 @@
+package eit.cli;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.concurrent.locks.LockSupport;
+
+import eit.host.Client;
+import eit.host.exception.HostException;
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+import eit.linecode.Utils;
+
+/**
+ * This class represents a load generator which sends messages of a fixed size to a server
+ * and measures how long each of them takes.
+ * <p>
+ * Every connection is a {@code Client} of its own, driven by a thread of its own, with a window of 1:
+ * a message counts as delivered when the server has acknowledged it, so its latency is a round trip.
+ * The messages are spread evenly over the connections.
+ * <p>
+ * With a target rate, each connection sends its messages on a fixed schedule, and the latency of a message
+ * is measured from the time it was due, not from the time it could be sent. A stall of the server then counts
+ * for every message held up behind it, as with a client which does not wait for the server, instead of
+ * hiding in one slow sample. Without a rate, every connection sends its next message as soon as the last
+ * one has been acknowledged.
+ * <p>
+ * A client disconnects once all its messages have been acknowledged, before it is closed; a client whose
+ * connection failed is only closed. A single {@code Server} stops when the first client disconnects,
+ * so the load is best run against a {@code ShardedServer} or a {@code StagedServer}.
+ * The bytes allocated per message are those of the sending threads, as counted by the JVM,
+ * -1 if the JVM does not count them.
+ */
+public class LoadGenerator {
+    private final CodeTable codeTable; // creates the encoders and decoders of the clients
+    private final InetSocketAddress server; // the address of the server
+    private final int size; // the number of bytes of a message
+    private final int count; // the number of messages
+    private final int concurrency; // the number of connections
+    private final int rate; // the messages per second of all connections, 0 if not limited
+    private final LatencyHistogram histogram = new LatencyHistogram(); // the latencies of all messages
+    private long elapsed; // the nanoseconds the run took
+    private long delivered; // the number of messages acknowledged
+    private long retransmits; // the number of dataframes the clients sent again
+    private long allocated; // the bytes allocated by the sending threads, -1 if not counted
+    private HostException failure; // the first failure of a connection, null if there is none
+
+    /**
+     * Initialises a load generator.
+     *
+     * @param codeTable   the code table the encoders and decoders of the clients are created with.
+     * @param server      the address of the server.
+     * @param size        the number of bytes of a message, at least 1.
+     * @param count       the number of messages, at least 1.
+     * @param concurrency the number of connections, from 1 to the number of messages.
+     * @param rate        the messages per second of all connections together, 0 to send as fast as possible.
+     * @throws IllegalArgumentException if a value is out of range.
+     */
+    public LoadGenerator(CodeTable codeTable, InetSocketAddress server, int size, int count, int concurrency,
+                         int rate) {
+        if (size < 1 || count < 1 || concurrency < 1 || concurrency > count || rate < 0) {
+            throw new IllegalArgumentException("size, count and concurrency must be at least 1, "
+                    + "concurrency at most count and rate not negative");
+        }
+        this.codeTable = codeTable;
+        this.server = server;
+        this.size = size;
+        this.count = count;
+        this.concurrency = concurrency;
+        this.rate = rate;
+    }
+
+    /**
+     * Connects the clients, sends the messages and waits until all of them have been acknowledged
+     * or a connection has failed, then disconnects the clients.
+     *
+     * @throws IOException          if a client cannot be created, connected or disconnected.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void run() throws IOException, InterruptedException {
+        Client[] clients = new Client[concurrency];
+        Thread[] senders = new Thread[concurrency];
+        LatencyHistogram[] histograms = new LatencyHistogram[concurrency];
+        int[] messages = new int[concurrency];
+        long[] sent = new long[concurrency];
+        long[] bytes = new long[concurrency];
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                clients[i] = new Client(new Encoder(codeTable), new Decoder(codeTable), server);
+                if (!clients[i].connect()) {
+                    throw new IOException("Connection failed");
+                }
+            }
+            long interval = rate == 0 ? 0 : concurrency * 1_000_000_000L / rate;
+            long start = System.nanoTime();
+            for (int i = 0; i < concurrency; i++) {
+                int connection = i;
+                messages[i] = count / concurrency + (i < count % concurrency ? 1 : 0);
+                histograms[i] = new LatencyHistogram();
+                senders[i] = new Thread(() -> bytes[connection] = send(clients[connection], messages[connection],
+                        start + connection * interval / concurrency, interval, histograms[connection],
+                        sent, connection), "load-" + i);
+                senders[i].start();
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            elapsed = System.nanoTime() - start;
+            allocated = 0;
+            for (int i = 0; i < concurrency; i++) {
+                histogram.add(histograms[i]);
+                delivered += sent[i];
+                retransmits += clients[i].getRetransmitCount();
+                allocated = bytes[i] < 0 || allocated < 0 ? -1 : allocated + bytes[i];
+            }
+            for (int i = 0; i < concurrency; i++) {
+                if (sent[i] == messages[i]) {
+                    clients[i].disconnect();
+                }
+            }
+        } finally {
+            for (Client client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the messages of one connection, run by its own thread.
+     *
+     * @param client     the client of the connection.
+     * @param messages   the number of messages.
+     * @param first      the time the first message is due.
+     * @param interval   the nanoseconds between two messages, 0 to send the next one right away.
+     * @param latencies  the histogram the latencies are recorded in.
+     * @param sent       the number of messages acknowledged by each connection.
+     * @param connection the number of the connection.
+     * @return the bytes allocated by the thread, -1 if they are not counted.
+     */
+    private long send(Client client, int messages, long first, long interval, LatencyHistogram latencies,
+                      long[] sent, int connection) {
+        byte[] message = Utils.getRandomBytes(size);
+        long before = allocatedBytes();
+        long due = first;
+        try {
+            for (int i = 0; i < messages; i++) {
+                long now = System.nanoTime();
+                if (interval == 0) {
+                    due = now;
+                } else if (due - now > 0) {
+                    LockSupport.parkNanos(due - now);
+                }
+                client.sendData(message);
+                latencies.record(System.nanoTime() - due);
+                sent[connection]++;
+                due += interval;
+            }
+        } catch (HostException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        long after = allocatedBytes();
+        return before < 0 || after < 0 ? -1 : after - before;
+    }
+
+    /**
+     * Returns the bytes the current thread has allocated so far.
+     *
+     * @return the bytes allocated, -1 if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        if (!counting.isThreadAllocatedMemorySupported() || !counting.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the latencies of the messages acknowledged.
+     *
+     * @return the histogram of the latencies in nanoseconds.
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Returns how long the run took, from the first message to the last acknowledgement.
+     *
+     * @return the nanoseconds of the run.
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Returns the number of messages the server acknowledged.
+     *
+     * @return the number of messages delivered.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Returns the number of bytes of the messages the server acknowledged.
+     *
+     * @return the number of bytes delivered.
+     */
+    public long getBytes() {
+        return delivered * size;
+    }
+
+    /**
+     * Returns the number of dataframes the clients sent again.
+     *
+     * @return the number of retransmissions.
+     */
+    public long getRetransmits() {
+        return retransmits;
+    }
+
+    /**
+     * Returns the bytes allocated by the sending threads during the run.
+     *
+     * @return the bytes allocated, -1 if the JVM does not count them.
+     */
+    public long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Returns the first failure of a connection, e.g. since the server stopped answering.
+     *
+     * @return the failure, null if all messages were delivered.
+     */
+    public synchronized HostException getFailure() {
+        return failure;
+    }
+}
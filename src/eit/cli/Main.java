@@ -1,11 +1,16 @@
 package eit.cli;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Locale;
 
 import edu.fra.uas.oop.Terminal;
 import eit.host.Client;
 import eit.host.Server;
+import eit.host.ShardedServer;
 import eit.host.exception.HostException;
 import eit.linecode.CodeTable;
 import eit.linecode.Decoder;
@@ -30,6 +35,14 @@ public class Main {
      * Without this command, the client cannot send dataframes to the server.
      * The send  command in combination of the amount of bytes to sent  is used
      * to transfer random data with a certain length from the client to the server
+     * The sendfile command followed by a path sends the file to the server, which has to be
+     * told where to store it with the recvfile command followed by a path first.
+     * The file is received in the background, a message is shown when it is complete.
+     * The bench command followed by the message size, the number of messages and optionally the number
+     * of connections, the messages per second and the host:port of a server sends random messages from
+     * several clients and prints the throughput, the latency percentiles, the retransmissions and the
+     * bytes allocated per message. Without an address a server of its own is started on the loopback address
+     * for the run and closed afterwards, so the data received by the local server is left alone.
      * The disconnect command is used to terminate the connection between client and server.
      * if the received command  is enter, the server displays the data it has
      * received from the server and clears its buffer.
@@ -53,7 +66,7 @@ public class Main {
                         try {
                             Terminal.printLine("Client and Server started!");
                             server = new Server(encoder, decoder);
-                            client = new Client(encoder, decoder);
+                            client = new Client(new Encoder(codeTable), new Decoder(codeTable));
                         } catch (IOException e) {
                             Terminal.printError(e.toString());
                         }
@@ -92,6 +105,82 @@ public class Main {
                         Terminal.printError(e.toString());
                     }
                     break;
+                case "sendfile":
+                    try {
+                        if (client != null && server != null) {
+                            Path path = Paths.get(input[1]);
+                            Terminal.printLine("send file " + path);
+                            if (client.sendFile(path)) {
+                                Terminal.printLine("File sent!");
+                            } else {
+                                Terminal.printError("File not acknowledged");
+                            }
+                        } else {
+                            Terminal.printError("Not initialized");
+                        }
+                    } catch (IndexOutOfBoundsException e) {
+                        Terminal.printError("Please type in a path");
+                    } catch (IOException | HostException e) {
+                        Terminal.printError(e.toString());
+                    }
+                    break;
+                case "recvfile":
+                    try {
+                        if (server != null) {
+                            Path path = Paths.get(input[1]);
+                            Server receiver = server;
+                            Thread thread = new Thread(() -> {
+                                try {
+                                    long size = receiver.receiveFile(path);
+                                    Terminal.printLine("received file " + path + " of " + size + " bytes");
+                                } catch (IOException | InterruptedException e) {
+                                    Terminal.printError(e.toString());
+                                }
+                            });
+                            thread.setDaemon(true);
+                            thread.start();
+                            Terminal.printLine("waiting for file " + path);
+                        } else {
+                            Terminal.printError("Not initialized");
+                        }
+                    } catch (IndexOutOfBoundsException e) {
+                        Terminal.printError("Please type in a path");
+                    }
+                    break;
+                case "bench":
+                    try {
+                        String[] arguments = input[1].split(" ");
+                        int size = Integer.parseInt(arguments[0]);
+                        int count = Integer.parseInt(arguments[1]);
+                        int concurrency = arguments.length > 2 ? Integer.parseInt(arguments[2]) : 1;
+                        int rate = arguments.length > 3 ? Integer.parseInt(arguments[3]) : 0;
+                        if (arguments.length > 4) {
+                            int colon = arguments[4].lastIndexOf(':');
+                            InetSocketAddress address = new InetSocketAddress(arguments[4].substring(0, colon),
+                                    Integer.parseInt(arguments[4].substring(colon + 1)));
+                            bench(new LoadGenerator(codeTable, address, size, count, concurrency, rate));
+                        } else {
+                            // a server of one shard keeps running while the clients disconnect
+                            ShardedServer target = new ShardedServer(codeTable,
+                                    new InetSocketAddress("127.0.0.1", 0), 1);
+                            try {
+                                target.start();
+                                bench(new LoadGenerator(codeTable, target.getLocalAddress(), size, count,
+                                        concurrency, rate));
+                            } finally {
+                                target.close();
+                            }
+                        }
+                    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                        Terminal.printError(
+                                "Please type in size, count and optionally concurrency, rate and host:port");
+                    } catch (IllegalArgumentException | UnsupportedOperationException | IOException e) {
+                        Terminal.printError(e.toString());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        Terminal.printError(e.toString());
+                    }
+                    break;
                 case "received":
                     try {
                         byte[] bytes = server.read();
@@ -125,4 +214,29 @@ public class Main {
             }
         }
     }
+
+    /**
+     * Runs a load generator and prints what it measured.
+     *
+     * @param load the load generator.
+     * @throws IOException          if a client cannot be created, connected or disconnected.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private static void bench(LoadGenerator load) throws IOException, InterruptedException {
+        load.run();
+        long delivered = load.getDelivered();
+        double seconds = load.getElapsed() / 1e9;
+        LatencyHistogram latencies = load.getHistogram();
+        Terminal.printLine(String.format(Locale.ROOT, "%d messages in %.3f s: %.1f msgs/s, %.3f MB/s",
+                delivered, seconds, delivered / seconds, load.getBytes() / seconds / 1e6));
+        Terminal.printLine(String.format(Locale.ROOT, "latency us: p50 %.1f p99 %.1f p99.9 %.1f max %.1f",
+                latencies.getValueAtPercentile(50) / 1e3, latencies.getValueAtPercentile(99) / 1e3,
+                latencies.getValueAtPercentile(99.9) / 1e3, latencies.getMax() / 1e3));
+        String allocated = load.getAllocated() < 0 || delivered == 0 ? "n/a"
+                : Long.toString(load.getAllocated() / delivered);
+        Terminal.printLine("retransmits " + load.getRetransmits() + ", allocated bytes per message " + allocated);
+        if (load.getFailure() != null) {
+            Terminal.printError(load.getFailure().toString());
+        }
+    }
 }
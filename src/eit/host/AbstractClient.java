@@ -3,13 +3,13 @@ package eit.host;
 import eit.host.exception.HostException;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * This class represents an abstract client for sending and receiving datagram packets.
@@ -18,19 +18,30 @@ import java.util.Arrays;
  */
 abstract class AbstractClient {
 
-    private DatagramSocket socket;
-    private InetAddress address;
+    private final Transport transport; // sends the datagrams to the server and receives its replies
+    private final SocketAddress address; // the address of the server
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAXDATAGRAM); // reused for every reply
+    private volatile IdleStrategy idleStrategy; // backs off between polls for a reply, null to block instead
     private final static int SERVERPORT = 65000;
     private final static int TIMEOUT = 500;
+    /**
+     * The maximum size of a datagram received by the client in bytes.
+     */
+    protected final static int MAXDATAGRAM = 1500;
+    /**
+     * The largest datagram a client can be set to send, the largest payload of a UDP packet over IPv4.
+     */
+    protected final static int LARGESTDATAGRAM = 65507;
 
     /**
-     * Constructs a client datagram socket and binds it to any available port
+     * Constructs a client datagram channel and binds it to any available port
      * on the local host machine.
      * It tries to resolve the local host IP address.
      * This is achieved by retrieving the name of the host from the system.
-     * Enable the socket timeout with 500 milliseconds.
-     * With this option set, a call to receive() for this DatagramSocket
-     * will block for only this amount of time.
+     * The channel is connected to the server, so it only receives datagrams sent by the server.
+     * <p>
+     * The channel is non-blocking and registered with a selector, a call to receive()
+     * waits for at most 500 milliseconds.
      * If the timeout expires, a <strong>java.net.SocketTimeoutException</strong> is raised.
      *
      * <p>If there is a security manager,
@@ -42,14 +53,37 @@ abstract class AbstractClient {
      *                              or the socket could not bind to the specified local port.
      * @throws UnknownHostException if the local host name could not
      *                              be resolved into an address.
+     * @throws IOException          if an I/O error occurs.
      * @throws SecurityException    if a security manager exists and its
      *                              {@code checkListen} method doesn't allow the operation.
      */
-    protected AbstractClient() throws SocketException, UnknownHostException {
-        socket = new DatagramSocket();
-        address = InetAddress.getByName("127.0.0.1");
-        socket.setSoTimeout(TIMEOUT);
+    protected AbstractClient() throws IOException {
+        this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), SERVERPORT));
+    }
 
+    /**
+     * Constructs a client datagram channel bound to any available port
+     * and connects it to the server at the given address.
+     *
+     * @param address the address of the server.
+     * @throws IOException       if an I/O error occurs.
+     * @throws SecurityException if a security manager exists and doesn't allow the operation.
+     */
+    protected AbstractClient(InetSocketAddress address) throws IOException {
+        this(UdpTransport.connect(address), address);
+    }
+
+    /**
+     * Constructs a client exchanging datagrams with the server on the given transport,
+     * e.g. a {@code MemoryTransport} to run the protocol without sockets.
+     * Datagrams from other senders than the server are ignored. The transport is closed together with the client.
+     *
+     * @param transport the transport of the client.
+     * @param address   the address of the server.
+     */
+    protected AbstractClient(Transport transport, SocketAddress address) {
+        this.transport = transport;
+        this.address = address;
     }
 
     /**
@@ -69,14 +103,105 @@ abstract class AbstractClient {
      * @throws IOException            if an I/O error occurs.
      */
     protected byte[] sendRecv(byte[] buffer) throws SocketTimeoutException, IOException {
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, SERVERPORT);
-        socket.send(packet);
-        packet = new DatagramPacket(buffer, buffer.length);
-        socket.receive(packet);
-        byte[] receivedData = Arrays.copyOf(packet.getData(), packet.getLength());
+        ByteBuffer received = sendRecv(ByteBuffer.wrap(buffer));
+        byte[] receivedData = new byte[received.remaining()];
+        received.get(receivedData);
         return receivedData;
     }
 
+    /**
+     * Sends the remaining bytes of the buffer as one datagram to the server
+     * and waits for the reply.
+     * <p>
+     * The reply is placed into a direct buffer owned by this client, which is reused
+     * by the next call; its position and limit frame the received datagram.
+     * Neither sending nor receiving allocates any objects.
+     *
+     * @param buffer the buffer to be sent.
+     * @return the buffer containing the received datagram, valid until the next receive.
+     * @throws SocketTimeoutException if timeout of 500 milliseconds has expired.
+     * @throws IOException            if an I/O error occurs.
+     */
+    protected ByteBuffer sendRecv(ByteBuffer buffer) throws SocketTimeoutException, IOException {
+        send(buffer);
+        return receive();
+    }
+
+    /**
+     * Waits for the next datagram from the server for at most 500 milliseconds.
+     *
+     * @return the buffer containing the received datagram, valid until the next receive.
+     * @throws SocketTimeoutException if timeout of 500 milliseconds has expired.
+     * @throws IOException            if an I/O error occurs.
+     */
+    protected ByteBuffer receive() throws SocketTimeoutException, IOException {
+        long deadline = System.nanoTime() + TIMEOUT * 1_000_000L;
+        ByteBuffer received;
+        while ((received = poll()) == null) {
+            long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Receive timed out");
+            }
+            await(remaining);
+        }
+        return received;
+    }
+
+    /**
+     * Waits until a datagram from the server has arrived or the time has passed,
+     * without receiving it. Several threads may wait at the same time.
+     * With an idle strategy, it only backs off by one step, the caller then polls again.
+     *
+     * @param millis the maximum time to wait in milliseconds.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void await(long millis) throws IOException {
+        IdleStrategy strategy = idleStrategy;
+        if (strategy == null) {
+            transport.await(millis);
+        } else {
+            strategy.idle();
+        }
+    }
+
+    /**
+     * Returns the next datagram from the server if one has already arrived, without waiting.
+     *
+     * @return the buffer containing the received datagram, valid until the next receive,
+     * or null if no datagram is available.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected ByteBuffer poll() throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress sender = transport.receive(receiveBuffer);
+            if (sender == null) {
+                return null;
+            }
+            if (address.equals(sender) && receiveBuffer.position() > 0) {
+                IdleStrategy strategy = idleStrategy;
+                if (strategy != null) {
+                    strategy.reset();
+                }
+                receiveBuffer.flip();
+                return receiveBuffer;
+            }
+        }
+    }
+
+    /**
+     * Makes the client poll for replies without blocking, backing off as the strategy says
+     * while no reply arrives, instead of waiting in the kernel to be woken up.
+     * A small request and its acknowledgement then take a few microseconds instead of two wakeups,
+     * at the cost of the CPU the waiting thread spins on. The strategy is meant for a client
+     * whose streams are used by one thread; waits never take longer than without it.
+     *
+     * @param idleStrategy the backoff between empty polls, null to block again.
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
     /**
      * Sends a datagram packet from this socket. The
      * {@code DatagramPacket} includes information indicating the
@@ -87,8 +212,21 @@ abstract class AbstractClient {
      * @throws IOException if an I/O error occurs.
      */
     protected void send(byte[] buffer) throws IOException {
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, SERVERPORT);
-        socket.send(packet);
+        send(ByteBuffer.wrap(buffer));
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer as one datagram to the server.
+     * The position of the buffer is moved to its limit.
+     * A datagram the transport has no room for is dropped, it is sent again by the retransmission.
+     *
+     * @param buffer the buffer to be sent.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void send(ByteBuffer buffer) throws IOException {
+        if (!transport.send(buffer, address)) {
+            buffer.position(buffer.limit());
+        }
     }
 
     /**
@@ -99,7 +237,7 @@ abstract class AbstractClient {
      * method has no effect.
      */
     public void close() {
-        socket.close();
+        transport.close();
     }
 
     /**
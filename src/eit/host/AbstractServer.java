@@ -1,11 +1,10 @@
 package eit.host;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 
 import edu.fra.uas.oop.Terminal;
 
@@ -15,8 +14,8 @@ import edu.fra.uas.oop.Terminal;
  * A server is the receiving point for data packets.
  * This class provides a skeletal implementation of such a server.
  * To implement a server with it specific behavior, the programmer
- * needs only to extend this class and implement the methods <code>accept</code>
- * and <code>isDisconnected</code>.
+ * needs only to extend this class and implement the method <code>onDatagram</code>,
+ * which handles a datagram and tells whether the server stops, so the datagram is parsed only once.
  * <p>
  * This class is a subclass of <code>Thread</code>. This
  * subclass overrides the <code>run</code> method of class
@@ -28,17 +27,10 @@ import edu.fra.uas.oop.Terminal;
  * <hr><pre>
  * class Server extends AbstractServer {
  * &commat;Override
- * protected void accept(String received) throws IOException {
- * sendPacket(received);
- * }
- *
- * &commat;Override
- * protected boolean isDisconnect(String received) {
- * if (received.equals("end")) {
- * return true;
- * } else {
- * return false;
- * }
+ * protected boolean onDatagram(ByteBuffer received) throws IOException {
+ * boolean end = received.equals(ByteBuffer.wrap("end".getBytes()));
+ * send(received);
+ * return end;
  * }
  * }
  * </pre><hr>
@@ -51,21 +43,88 @@ import edu.fra.uas.oop.Terminal;
  */
 
 abstract class AbstractServer extends Thread {
-    private DatagramSocket socket;
+    private final Transport transport; // receives and sends the datagrams, null for a server fed by deliver
+    private final DatagramSink sink; // the destination of the datagrams sent, null to send on the transport
     private boolean active = true;
-    private InetAddress address;
-    private int port;
-    private byte[] buf = new byte[1500];
-    private final static int SERVERPORT = 65000;
+    private SocketAddress address;
+    private ByteBuffer buf = ByteBuffer.allocateDirect(MAXDATAGRAM); // reused for every datagram
+    private final TimingWheel timers = new TimingWheel(TICK, WHEELSIZE); // the timers run by the server thread
+    private final TimingWheel.Timeout timeout = new TimingWheel.Timeout(() -> timedOut = true); // of setTimeout
+    private boolean timedOut; // true if the timeout set with setTimeout expired and onTimeout is due
+    private IdleStrategy idleStrategy; // backs off between polls of the transport, null to block instead
+    private EgressScheduler egress; // queues the datagrams sent per client, null to send them right away
+    private int batched; // the datagrams received since the queued datagrams were last sent
+    private final static long TICK = 1; // the duration of a tick of the timers in milliseconds
+    private final static int WHEELSIZE = 1024; // the number of ticks in a round of the timers
+    private final static int EGRESSBATCH = 32; // the datagrams received before the queued datagrams are sent
+    private final static int EGRESSCAPACITY = 4096; // the maximum number of datagrams queued for sending
+    /**
+     * The port the server binds to if no address is given.
+     */
+    public final static int SERVERPORT = 65000;
+    /**
+     * The maximum size of a datagram received by the server in bytes.
+     */
+    protected final static int MAXDATAGRAM = 1500;
+    /**
+     * The largest datagram a server can be set to receive, the largest payload of a UDP packet over IPv4.
+     */
+    protected final static int LARGESTDATAGRAM = 65507;
 
     /**
-     * Constructs a server datagram socket and binds it to port 65000
+     * Constructs a server datagram channel and binds it to port 65000
      * on the local host machine.
+     * <p>
+     * Datagrams are received into a single direct buffer which is reused
+     * for the lifetime of the server, so that the receive path does not allocate.
+     * The transport is non-blocking and waited on with a time limit, which allows the
+     * server to wake up for its timers.
      *
      * @throws IOException if an I/O error occurs.
      */
     protected AbstractServer() throws IOException {
-        socket = new DatagramSocket(SERVERPORT);
+        this(new InetSocketAddress(SERVERPORT), false);
+    }
+
+    /**
+     * Constructs a server datagram channel and binds it to the given address.
+     * <p>
+     * With {@code reusePort} set, the {@code SO_REUSEPORT} option is enabled before binding,
+     * so that several servers can bind to the same address. The kernel then distributes
+     * the datagrams among them by a hash of the address of the client, which keeps all
+     * datagrams of a client on the same server.
+     *
+     * @param address   the address to bind to, a port of 0 binds to any free port.
+     * @param reusePort true if other servers may bind to the same address.
+     * @throws IOException                   if an I/O error occurs.
+     * @throws UnsupportedOperationException if {@code reusePort} is set but not supported by the platform.
+     */
+    protected AbstractServer(InetSocketAddress address, boolean reusePort) throws IOException {
+        this(UdpTransport.bind(address, reusePort));
+    }
+
+    /**
+     * Constructs a server receiving and sending on the given transport,
+     * e.g. a {@code MemoryTransport} to run the protocol without sockets.
+     * The transport is closed together with the server.
+     *
+     * @param transport the transport the server is bound to.
+     */
+    protected AbstractServer(Transport transport) {
+        this.transport = transport;
+        this.sink = null;
+    }
+
+    /**
+     * Constructs a server without a transport of its own, which is fed with datagrams
+     * by {@code deliver} and sends its datagrams to the given sink.
+     * It is not started as a thread, its datagrams and timers are processed by the caller.
+     *
+     * @param sink the destination of the datagrams sent by the server.
+     */
+    AbstractServer(DatagramSink sink) {
+        this.transport = null;
+        this.sink = sink;
     }
 
     /**
@@ -74,31 +133,258 @@ abstract class AbstractServer extends Thread {
      * <p>
      * It performs the main run loop to execute the servers behavior.
      * <p>
-     * For adapting the behavior the methods <code>accept</code>
-     * and <code>isDisconnected</code> should be used in the inherited class.
+     * For adapting the behavior the method <code>onDatagram</code>
+     * should be used in the inherited class.
      */
     public void run() {
         active = true;
         while (active) {
             try {
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
-                socket.receive(packet);
-                address = packet.getAddress();
-                port = packet.getPort();
-                byte[] receivedData = Arrays.copyOf(packet.getData(), packet.getLength());
-                accept(receivedData);
-                if (isDisconnect(receivedData)) {
+                buf.clear();
+                SocketAddress sender = transport.receive(buf);
+                if (sender == null) {
+                    if (idleStrategy == null) {
+                        await();
+                    } else {
+                        expireTimers();
+                        flushEgress();
+                        idleStrategy.idle();
+                    }
+                    continue;
+                }
+                if (idleStrategy != null) {
+                    idleStrategy.reset();
+                }
+                address = sender;
+                buf.flip();
+                if (onDatagram(buf)) {
+                    flushEgress();
                     active = false;
                     continue;
                 }
-            } catch (SocketException e) {
+                expireTimers();
+                if (egress != null && ++batched >= EGRESSBATCH) {
+                    flushEgress();
+                }
+            } catch (ClosedChannelException e) {
                 active = false;
             } catch (IOException e) {
                 Terminal.printError(e.toString());
                 active = false;
             }
         }
-        socket.close();
+        if (egress != null) {
+            egress.clear();
+        }
+        onStop();
+        close();
+    }
+
+    /**
+     * Waits until a datagram arrives or the next tick of the timers ends,
+     * and runs the timers which have expired. While queued datagrams could not be sent,
+     * it waits for one tick at most before trying again.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void await() throws IOException {
+        expireTimers();
+        long millis = flushEgress() ? 0 : TICK;
+        if (!timers.isEmpty()) {
+            long remaining = timers.nextTick() - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            long tick = Math.max(1, (remaining + 999_999L) / 1_000_000L);
+            millis = millis == 0 ? tick : Math.min(millis, tick);
+        }
+        transport.await(millis);
+    }
+
+    /**
+     * Sends the datagrams queued by the egress scheduler as far as the transport takes them.
+     *
+     * @return true if no datagram is left in the queues.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean flushEgress() throws IOException {
+        batched = 0;
+        return egress == null || egress.isEmpty() || egress.drain(transport);
+    }
+
+    /**
+     * Makes the server thread poll its transport without blocking, backing off as the strategy says
+     * while no datagram arrives, instead of waiting in the kernel to be woken up.
+     * This saves the wakeup latency of every datagram at the cost of the CPU the thread spins on.
+     * Must be called before the server is started.
+     *
+     * @param idleStrategy the backoff between empty polls, null to block again.
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
+    /**
+     * Sets the largest datagram the server receives. A longer datagram is cut off and dropped as faulty,
+     * so clients sending larger dataframes, e.g. after probing a loopback path, need a server set to take them.
+     * Must be called before the server is started.
+     *
+     * @param size the maximum size of a datagram in bytes, from 1500 to 65507.
+     * @throws IllegalArgumentException if the size is out of range.
+     */
+    public void setMaxDatagram(int size) {
+        if (size < MAXDATAGRAM || size > LARGESTDATAGRAM) {
+            throw new IllegalArgumentException("datagram size must be between " + MAXDATAGRAM + " and "
+                    + LARGESTDATAGRAM);
+        }
+        buf = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Returns the largest datagram the server receives.
+     *
+     * @return the maximum size of a datagram in bytes.
+     */
+    protected int getMaxDatagram() {
+        return buf.capacity();
+    }
+
+    /**
+     * Makes the server queue the datagrams it sends per client and send them fairly, instead of
+     * in the order they are produced. The datagrams are sent after every 32 datagrams received,
+     * whenever no datagram is waiting and while the transport has room for them. Datagrams which
+     * open, close or reset a session are sent before all others, the acknowledgements of the clients
+     * by deficit round robin, so that the acknowledgements of a client sending interactively
+     * do not wait behind those of a bulk transfer. Must be called before the server is started,
+     * and has no effect on a server without a transport of its own.
+     *
+     * @param fair true to schedule the datagrams sent, false to send them right away.
+     */
+    public void setFairEgress(boolean fair) {
+        egress = fair && transport != null ? new EgressScheduler(EGRESSCAPACITY, BufferPool.shared()) : null;
+    }
+
+    /**
+     * Sets the share of the egress a client gets while several clients have datagrams queued.
+     * A client of weight 4 may send four times the bytes of a client of weight 1. May be called
+     * from any thread while the server runs.
+     *
+     * @param client the address of the client.
+     * @param weight the weight from 1 to 64, 1 for every client by default.
+     * @throws IllegalStateException    if fair egress is not enabled.
+     * @throws IllegalArgumentException if the weight is out of range.
+     */
+    public void setWeight(SocketAddress client, int weight) {
+        EgressScheduler scheduler = egress;
+        if (scheduler == null) {
+            throw new IllegalStateException("fair egress is not enabled");
+        }
+        scheduler.setWeight(client, weight);
+    }
+
+    /**
+     * Processes a datagram received for a server without a transport of its own.
+     * The datagram is handled like one received by {@code run}, but it does not stop the server.
+     *
+     * @param datagram the buffer containing the datagram, ready for reading.
+     * @param sender   the address of the client.
+     * @throws IOException if an I/O error occurs.
+     */
+    void deliver(ByteBuffer datagram, SocketAddress sender) throws IOException {
+        address = sender;
+        onDatagram(datagram);
+        expireTimers();
+    }
+
+    /**
+     * Runs the expired timers of a server without a transport of its own.
+     *
+     * @return the nanoseconds until the timers have to be run again, -1 if no timer is pending.
+     * @throws IOException if an I/O error occurs.
+     */
+    long runTimers() throws IOException {
+        expireTimers();
+        if (timers.isEmpty()) {
+            return -1;
+        }
+        return Math.max(1, timers.nextTick() - System.nanoTime());
+    }
+
+    /**
+     * Runs the timers whose tick has ended, and {@code onTimeout} if the timeout set with
+     * {@code setTimeout} was one of them. The timers are checked after every datagram,
+     * so they are not held back while datagrams keep arriving without pause.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void expireTimers() throws IOException {
+        if (timers.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - timers.nextTick() >= 0) {
+            timers.advance(now);
+            if (timedOut) {
+                timedOut = false;
+                onTimeout();
+            }
+        }
+    }
+
+    /**
+     * Returns the timers run by the server thread.
+     * Tasks scheduled on them are run by the server thread and need no locking
+     * of the state of the server, they expire up to one millisecond late.
+     *
+     * @return the timing wheel of the server.
+     */
+    protected TimingWheel getTimers() {
+        return timers;
+    }
+
+    /**
+     * Sets a timeout after which {@code onTimeout} is called by the server thread,
+     * unless it is cancelled or set again before. Only one such timeout is pending at a time,
+     * further timeouts are scheduled on {@code getTimers}.
+     *
+     * @param delayMillis the delay in milliseconds.
+     */
+    protected void setTimeout(long delayMillis) {
+        timedOut = false;
+        timers.schedule(timeout, delayMillis);
+    }
+
+    /**
+     * Cancels the timeout set with {@code setTimeout}.
+     */
+    protected void cancelTimeout() {
+        timedOut = false;
+        timers.cancel(timeout);
+    }
+
+    /**
+     * Answers whether a timeout set with {@code setTimeout} is pending.
+     *
+     * @return true if {@code onTimeout} will be called.
+     */
+    protected boolean isTimeoutPending() {
+        return timedOut || timers.isPending(timeout);
+    }
+
+    /**
+     * Called by the server thread when the timeout set with {@code setTimeout} has expired.
+     * The default implementation does nothing.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void onTimeout() throws IOException {
+    }
+
+    /**
+     * Called by the server thread when it stops, before the server is closed, e.g. to give back
+     * the buffers it holds. The default implementation does nothing.
+     */
+    protected void onStop() {
     }
 
     /**
@@ -108,8 +394,71 @@ abstract class AbstractServer extends Thread {
      * @throws IOException if an I/O error occurs.
      */
     protected void send(byte[] buffer) throws IOException {
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, port);
-        socket.send(packet);
+        send(ByteBuffer.wrap(buffer));
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer as one datagram to the client
+     * the last datagram was received from.
+     * The position of the buffer is moved to its limit.
+     *
+     * @param buffer the data to be sent.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void send(ByteBuffer buffer) throws IOException {
+        send(buffer, address);
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer as one datagram to the given client.
+     * The position of the buffer is moved to its limit.
+     *
+     * @param buffer the data to be sent.
+     * @param target the address of the client.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void send(ByteBuffer buffer, SocketAddress target) throws IOException {
+        send(buffer, target, false);
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer as one datagram to the given client.
+     * With fair egress, a control datagram is sent ahead of the datagrams queued for all clients.
+     * Without it, a datagram the transport has no room for is dropped like a lost datagram.
+     * The position of the buffer is moved to its limit.
+     *
+     * @param buffer  the data to be sent.
+     * @param target  the address of the client.
+     * @param control true if the datagram opens, closes or resets a session.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void send(ByteBuffer buffer, SocketAddress target, boolean control) throws IOException {
+        if (sink != null) {
+            sink.send(buffer, target);
+        } else if (egress != null) {
+            egress.offer(buffer, target, control);
+        } else if (!transport.send(buffer, target)) {
+            buffer.position(buffer.limit());
+        }
+    }
+
+    /**
+     * Returns the address of the client the last datagram was received from.
+     *
+     * @return the address of the client, null if no datagram was received yet.
+     */
+    protected SocketAddress getRemoteAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return the local address of the server, null if it has no transport of its own.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        return transport == null ? null : transport.getLocalAddress();
     }
 
     /**
@@ -139,26 +488,22 @@ abstract class AbstractServer extends Thread {
      * method has no effect.
      */
     public void close() {
-        socket.close();
+        if (transport != null) {
+            transport.close();
+        }
     }
 
     /**
-     * This method analyses the data received from the client.
-     * It checks the received data and reacts accordingly
-     *
-     * @param receivedData the data as {@code byte[]} received from the client.
-     * @throws IOException if an I/O error occurs.
-     */
-    protected abstract void accept(byte[] receivedData) throws IOException;
-
-    /**
-     * Checks if the clients message is to want to disconnect.
+     * This method analyses the datagram received from the client, reacts accordingly
+     * and answers whether the client wants to disconnect, which stops the server.
+     * <p>
+     * The buffer is reused for the next datagram, its content must not be kept after this method returns.
      *
-     * @param receivedData contains the data as {@code byte[]} received from the client.
-     * @return true if the client sent a FIN flag.
+     * @param receivedData the buffer containing the datagram received from the client.
+     * @return true if the server stops after this datagram.
      * @throws IOException if an I/O error occurs.
      */
-    protected abstract boolean isDisconnect(byte[] receivedData) throws IOException;
+    protected abstract boolean onDatagram(ByteBuffer receivedData) throws IOException;
 
     /**
      * Reads the bytes received from the client.
@@ -0,0 +1,74 @@
+package eit.host;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class represents an idle strategy which spins first, then yields and finally parks.
+ * <p>
+ * While spinning, the thread stays on its core and sees a datagram within the time of one check,
+ * which is what makes round trips of a few microseconds possible. Yielding lets other threads
+ * run while the thread stays ready; parking gives the core back, starting with a short park
+ * which doubles up to a maximum. With an unlimited number of spins the thread never leaves its core,
+ * which only makes sense if a core is dedicated to it.
+ */
+public class BackoffIdleStrategy implements IdleStrategy {
+    private final static boolean SINGLECORE =
+            Runtime.getRuntime().availableProcessors() < 2; // true if spinning cannot overlap with other threads
+    private final long maxSpins; // the number of empty checks spent spinning
+    private final long maxYields; // the number of empty checks spent yielding after spinning
+    private final long minParkNanos; // the first park in nanoseconds
+    private final long maxParkNanos; // the longest park in nanoseconds
+    private long spins; // the empty checks spent spinning since the last reset
+    private long yields; // the empty checks spent yielding since the last reset
+    private long parkNanos; // the next park in nanoseconds
+
+    /**
+     * Constructs a strategy with the given backoff.
+     *
+     * @param maxSpins     the number of empty checks spent spinning, {@code Long.MAX_VALUE} to spin forever.
+     * @param maxYields    the number of empty checks spent yielding after spinning.
+     * @param minParkNanos the first park in nanoseconds, at least 1.
+     * @param maxParkNanos the longest park in nanoseconds, at least {@code minParkNanos}.
+     * @throws IllegalArgumentException if a count is negative or the parks are out of range.
+     */
+    public BackoffIdleStrategy(long maxSpins, long maxYields, long minParkNanos, long maxParkNanos) {
+        if (maxSpins < 0 || maxYields < 0 || minParkNanos < 1 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("invalid backoff");
+        }
+        this.maxSpins = maxSpins;
+        this.maxYields = maxYields;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+        this.parkNanos = minParkNanos;
+    }
+
+    /**
+     * Constructs a strategy spinning for 10000 empty checks, then yielding for 100 and parking
+     * from 1 microsecond up to 1 millisecond. On a single processor, spinning and yielding only
+     * delay the thread the datagram is waited for, so the strategy parks right away.
+     */
+    public BackoffIdleStrategy() {
+        this(SINGLECORE ? 0 : 10_000, SINGLECORE ? 0 : 100, 1_000, 1_000_000);
+    }
+
+    @Override
+    public void idle() {
+        if (spins < maxSpins) {
+            spins++;
+            Thread.onSpinWait();
+        } else if (yields < maxYields) {
+            yields++;
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+        }
+    }
+
+    @Override
+    public void reset() {
+        spins = 0;
+        yields = 0;
+        parkNanos = minParkNanos;
+    }
+}
@@ -0,0 +1,180 @@
+package eit.host;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class represents a pool of direct buffers for dataframes, shared by the stages a datagram
+ * passes through, e.g. the window of a stream, the queues of a server and the history of a multicast.
+ * <p>
+ * The buffers come in size classes, powers of 2 from 256 bytes to 64 KB, so any datagram fits
+ * into one of them. {@code acquire} hands out a {@code PooledBuffer} of the smallest class that fits;
+ * it is counted by reference and goes back to the pool when its last reference is released.
+ * A buffer is only allocated when its class has none left, so the pool allocates nothing once it holds
+ * as many buffers as are in use at the same time. Up to 1024 free buffers are kept per class.
+ * <p>
+ * The pool holds the datagrams on their way out and the dataframes on their way in. A server decodes
+ * a datagram into a pooled buffer and hands its payload on in that buffer; a {@code ServerStream},
+ * a {@code StripeGroup} or a {@code MulticastReceiver} keeping a payload ahead of a gap keeps a slice
+ * of it, see {@code PooledBuffer.slice}, and the next datagram takes another buffer. A payload is copied
+ * once, when it leaves for the {@code byte[]} of a subscriber or of {@code read}. Once warmed up and
+ * without loss, those arrays are all the receive side allocates.
+ * <p>
+ * In debug mode, the pool remembers where every buffer in use was acquired, so that buffers
+ * which are never released can be found with {@code getLeaks}, and fills a released buffer with zeros,
+ * which makes a use after the release visible. The shared pool is in debug mode when the system property
+ * {@code eit.host.BufferPool.debug} is true. The methods may be called from any thread.
+ */
+public class BufferPool {
+    /**
+     * The size of the smallest buffer in bytes.
+     */
+    public final static int MIN_SIZE = 256;
+    /**
+     * The size of the largest buffer in bytes, which takes any datagram.
+     */
+    public final static int MAX_SIZE = 64 << 10;
+    private final static int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1; // the size classes
+    private final static int MAXFREE = 1024; // the number of free buffers kept per class
+    private final static BufferPool SHARED =
+            new BufferPool(Boolean.getBoolean("eit.host.BufferPool.debug")); // the pool of the clients and servers
+    private final PooledBuffer[][] free = new PooledBuffer[CLASSES][MAXFREE]; // the free buffers of each class
+    private final int[] freeCount = new int[CLASSES]; // the number of free buffers of each class
+    private final Set<PooledBuffer> inUse; // the buffers acquired and not released yet, null unless debugging
+    private final boolean debug; // true if the acquisitions are tracked
+    private long allocated; // the number of buffers allocated
+    private long acquired; // the number of buffers handed out
+    private int outstanding; // the number of buffers in use
+
+    /**
+     * Initialises an empty pool.
+     *
+     * @param debug true if the pool tracks where the buffers in use were acquired.
+     */
+    public BufferPool(boolean debug) {
+        this.debug = debug;
+        this.inUse = debug ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
+    }
+
+    /**
+     * Returns the pool shared by the clients and servers of this process.
+     *
+     * @return the shared pool.
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Hands out a buffer which holds at least the given number of bytes, with one reference.
+     * The buffer is cleared, its limit is its capacity.
+     *
+     * @param size the number of bytes needed, at most 64 KB.
+     * @return the buffer.
+     * @throws IllegalArgumentException if the size is negative or larger than 64 KB.
+     */
+    public synchronized PooledBuffer acquire(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("no buffer of " + size + " bytes");
+        }
+        int sizeClass = sizeClass(size);
+        PooledBuffer buffer;
+        if (freeCount[sizeClass] > 0) {
+            buffer = free[sizeClass][--freeCount[sizeClass]];
+            free[sizeClass][freeCount[sizeClass]] = null;
+        } else {
+            buffer = new PooledBuffer(this, ByteBuffer.allocateDirect(MIN_SIZE << sizeClass), sizeClass);
+            allocated++;
+        }
+        buffer.reset(debug ? new Throwable("acquired here") : null);
+        acquired++;
+        outstanding++;
+        if (debug) {
+            inUse.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the number of buffers the pool has allocated. It stops growing once the pool
+     * holds as many buffers as are used at the same time.
+     *
+     * @return the number of buffers allocated.
+     */
+    public synchronized long getAllocatedCount() {
+        return allocated;
+    }
+
+    /**
+     * Returns the number of buffers handed out by {@code acquire}.
+     *
+     * @return the number of buffers acquired.
+     */
+    public synchronized long getAcquiredCount() {
+        return acquired;
+    }
+
+    /**
+     * Returns the number of buffers acquired and not released yet.
+     *
+     * @return the number of buffers in use.
+     */
+    public synchronized int getOutstandingCount() {
+        return outstanding;
+    }
+
+    /**
+     * Returns where the buffers in use were acquired, e.g. to find the buffers which are never released
+     * once the clients and servers are closed. Only a pool in debug mode tracks the buffers.
+     *
+     * @return the stack traces of the acquisitions, empty unless the pool is in debug mode.
+     */
+    public synchronized List<Throwable> getLeaks() {
+        List<Throwable> leaks = new ArrayList<>();
+        if (debug) {
+            for (PooledBuffer buffer : inUse) {
+                leaks.add(buffer.getAcquiredAt());
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * Takes back a buffer whose last reference was released.
+     * A buffer beyond the free buffers kept of its class is left to the garbage collector.
+     *
+     * @param buffer the buffer.
+     */
+    synchronized void release(PooledBuffer buffer) {
+        outstanding--;
+        if (debug) {
+            inUse.remove(buffer);
+            ByteBuffer bytes = buffer.bytes();
+            bytes.clear();
+            while (bytes.hasRemaining()) {
+                bytes.put((byte) 0);
+            }
+        }
+        int sizeClass = buffer.getSizeClass();
+        if (freeCount[sizeClass] < MAXFREE) {
+            free[sizeClass][freeCount[sizeClass]++] = buffer;
+        }
+    }
+
+    /**
+     * Returns the smallest size class which holds the given number of bytes.
+     *
+     * @param size the number of bytes.
+     * @return the size class, 0 for buffers of 256 bytes.
+     */
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return Integer.SIZE - Integer.numberOfLeadingZeros((size - 1) / MIN_SIZE);
+    }
+}
@@ -1,29 +1,84 @@
 package eit.host;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import eit.host.exception.HostException;
+import eit.linecode.CodeTable;
 import eit.linecode.DataFrame;
 import eit.linecode.Decoder;
 import eit.linecode.Encoder;
 import eit.linecode.Utils.Flag;
+import eit.linecode.exception.DecodeException;
+import eit.linecode.exception.EndOfPacketException;
+import eit.linecode.exception.StartOfPacketException;
 
 /**
  * This class represents a client for sending and receiving datagram packets.
  * It contains helpful methods like {@code connect} and {@code disconnect} to
  * successfully establish or terminate a connection to the server respectively.
  * <p>
+ * Data is sent on the default stream with {@code sendData}. A client which has connected before
+ * can send its first data without a new handshake with {@code resume}. Further logical streams
+ * can be opened with {@code openStream}, they share the connection but each has its own
+ * sequence space and window, so a slow stream does not hold back the others.
+ * <p>
+ * Dataframes are sized to fill a datagram of 1500 bytes after encoding. On a path which carries
+ * larger datagrams, like loopback, {@code probeMaxDatagram} finds the largest one that gets through,
+ * so that fewer and larger dataframes carry the same data.
+ * <p>
  * A client is the sending point for data packets.
  */
 public class Client extends AbstractClient {
-    private int seq = 1; // sequence number of the dataframe to be sent.
-    private int ack = 0; // acknowledgement number of the dataframe.
-    private final static int MAXTRIALS = 4; // maximum number of times to try to send a package.
+    private final static int MINDATAGRAM =
+            Encoder.encodedLength(DataFrame.HEADER_LENGTH + Long.BYTES + 1); // carries at least one byte of a file
+    private final static long PROBETIMEOUT = 100; // the milliseconds a probe waits for its acknowledgement
+    private final static int PROBETRIES = 2; // the number of times a probe is sent before its size counts as too large
+    private final static int FILEWINDOW = 64; // the window of the stream a file is sent on
+    private final static int OFFSETTRIES = 4; // the number of times the offset of a resumed file is asked for
+    private final static long REGION = 1L << 28; // the bytes of a file mapped at a time
     private final Encoder encoder; // needed to encrypt the dataframes from server.
     private final Decoder decoder; // needed to decrypt the dataframes before sending them to the server.
+    private ByteBuffer frame = ByteBuffer.allocate(DataFrame.HEADER_LENGTH); // the dataframe to be sent
+    private final ByteBuffer encoded =
+            ByteBuffer.allocateDirect(Encoder.encodedLength(DataFrame.HEADER_LENGTH)); // the encoded control frame
+    private final ByteBuffer reply = ByteBuffer.allocate(
+            DataFrame.HEADER_LENGTH + Integer.BYTES + Long.BYTES); // the decoded response
+    private final ClientStream defaultStream = new ClientStream(this, 0); // the stream used by sendData
+    private final Map<Integer, ClientStream> streams = new HashMap<>(); // the open streams by their id
+    private int nextStreamId = 1; // the id of the next stream to be opened
+    private long resumptionToken; // the token of the last handshake, 0 if there is none
+    private long lastSent = System.nanoTime(); // the System.nanoTime() the last dataframe was built at
+    private TimingWheel keepAliveTimers; // the timing wheel running the keepalive, null if it is off
+    private TimingWheel.Timeout keepAlive; // the timer of the keepalive, null if it is off
+    private long keepAliveInterval; // the time in milliseconds after which a silent client sends a keepalive
+    private int fecSize; // the FEC group size of the streams opened, see setFec
+    private int fecParity; // the number of parity dataframes of the streams opened, 0 without FEC
+    private boolean fecAdaptive; // true if the FEC of the streams opened is tuned from the observed loss
+    private long coalesceDelay; // the coalescing delay of the streams opened in microseconds, 0 if it is off
+    private final Set<ClientStream> coalescing = ConcurrentHashMap.newKeySet(); // streams with data to be flushed
+    private volatile Thread flusher; // sends coalesced data when its delay has passed, null until first needed
+    private volatile boolean closed; // true after close, stops the flusher
+    private volatile int maxDatagram = MAXDATAGRAM; // the largest datagram sent, sets the size of the dataframes
+    private volatile BufferPool bufferPool = BufferPool.shared(); // holds the encoded dataframes of the streams
+    private long retransmitCount; // the number of dataframes sent again by all streams
+    private int probeSeq; // the number of the last probe sent
+    private int probeAcked; // the number of the last probe acknowledged by the server
 
     /**
      * Initialises the client Object.
@@ -35,11 +90,44 @@ public class Client extends AbstractClient {
      *                              or the socket could not bind to the specified local port.
      * @throws UnknownHostException if the local host name could not
      *                              be resolved into an address.
+     * @throws IOException          if an I/O error occurs.
      */
-    public Client(Encoder encoder, Decoder decoder) throws SocketException, UnknownHostException {
+    public Client(Encoder encoder, Decoder decoder) throws IOException {
         super();
         this.encoder = encoder;
         this.decoder = decoder;
+        streams.put(defaultStream.getId(), defaultStream);
+    }
+
+    /**
+     * Initialises the client Object for the server at the given address.
+     *
+     * @param encoder An encoder needed for encrypting dataframes before being sent to the server.
+     * @param decoder A decoder needed for decrypting dataframes received from the server.
+     * @param server  the address of the server.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Client(Encoder encoder, Decoder decoder, InetSocketAddress server) throws IOException {
+        super(server);
+        this.encoder = encoder;
+        this.decoder = decoder;
+        streams.put(defaultStream.getId(), defaultStream);
+    }
+
+    /**
+     * Initialises the client Object exchanging datagrams with the server on the given transport,
+     * e.g. a {@code MemoryTransport} to run the protocol inside one process.
+     *
+     * @param encoder   An encoder needed for encrypting dataframes before being sent to the server.
+     * @param decoder   A decoder needed for decrypting dataframes received from the server.
+     * @param transport the transport of the client.
+     * @param server    the address of the server.
+     */
+    public Client(Encoder encoder, Decoder decoder, Transport transport, SocketAddress server) {
+        super(transport, server);
+        this.encoder = encoder;
+        this.decoder = decoder;
+        streams.put(defaultStream.getId(), defaultStream);
     }
 
     /**
@@ -47,19 +135,18 @@ public class Client extends AbstractClient {
      * It sends a {@code SYN} flag to the server and awaits a {@code SYNACK} flag from the server.
      * <p>
      * The connection is successful if the {@code SYNACK} flag is received from the server.
+     * The resumption token carried by the {@code SYNACK} is kept for {@code resume}.
      *
      * @return True if the request to establish a connection with the server was successful
      * @throws SocketTimeoutException if the specified socket timeout duration expires.
      * @throws IOException            if an I/O error occurs.
      */
     @Override
-    public boolean connect() throws SocketTimeoutException, IOException {
-        DataFrame data = new DataFrame(Flag.SYN);
-        byte[] encodedData = encoder.encode(data.getDataFrame()).getBytes();
-        DataFrame response = new DataFrame(decoder.decode(new String(sendRecv(encodedData))));
-        if (response.getFlagAndRes().equals(Flag.SYNACK)) {
-            data = new DataFrame(Flag.ACK);
-            send(encoder.encode(data.getDataFrame()).getBytes());
+    public synchronized boolean connect() throws SocketTimeoutException, IOException {
+        if (exchange(Flag.SYN, Flag.SYNACK, defaultStream)) {
+            resumptionToken = reply.remaining() >= DataFrame.HEADER_LENGTH + Long.BYTES
+                    ? reply.getLong(DataFrame.HEADER_LENGTH) : 0;
+            send(prepare(encoded, 0, 0, Flag.ACK, 0, null));
             return true;
         }
         return false;
@@ -69,18 +156,121 @@ public class Client extends AbstractClient {
      * This method makes a disconnect request to the server.
      * It creates a dataframe with the {@code FIN} flag and sends it to the server.
      * <p>
+     * Dataframes of the default stream which are not acknowledged yet are flushed first.
      * If the server accepts the request, the connection between the server and the client will be terminated.
      *
      * @return true if the disconnect request is accepted by the server.
      * @throws SocketTimeoutException if the specified socket timeout duration expires.
      * @throws IOException            if an I/O error occurs.
+     * @throws HostException          when the outstanding dataframes could not be delivered.
      */
     @Override
     public boolean disconnect() throws SocketTimeoutException, IOException {
-        DataFrame data = new DataFrame(Flag.FIN);
-        byte[] encodedData = encoder.encode(data.getDataFrame()).getBytes();
-        DataFrame response = new DataFrame(decoder.decode(new String(sendRecv(encodedData))));
-        return response.getFlagAndRes().equals(Flag.FINACK);
+        defaultStream.flush();
+        synchronized (this) {
+            setKeepAlive(null, 0);
+            return exchange(Flag.FIN, Flag.FINACK, defaultStream);
+        }
+    }
+
+    /**
+     * Keeps the session of this client alive on a server which evicts idle sessions.
+     * When the client has sent nothing for the given interval, it sends an {@code ACK} dataframe.
+     * <p>
+     * The keepalive is run by the given timing wheel, which has to be driven by its own
+     * timer thread and may be shared by many clients. The keepalive ends with {@code disconnect}.
+     *
+     * @param timers         the timing wheel running the keepalive, null to turn it off.
+     * @param intervalMillis the interval in milliseconds, 0 to turn the keepalive off.
+     * @throws IllegalArgumentException if the interval is negative.
+     * @see Server#setIdleTimeout(long)
+     */
+    public synchronized void setKeepAlive(TimingWheel timers, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("keepalive interval must not be negative");
+        }
+        if (keepAlive != null) {
+            keepAliveTimers.cancel(keepAlive);
+            keepAlive = null;
+            keepAliveTimers = null;
+        }
+        if (timers != null && intervalMillis > 0) {
+            keepAliveTimers = timers;
+            keepAliveInterval = intervalMillis;
+            keepAlive = new TimingWheel.Timeout(this::keepAlive);
+            timers.schedule(keepAlive, intervalMillis);
+        }
+    }
+
+    /**
+     * Closes the channel of the client and ends the keepalive and the flusher of coalesced data.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            setKeepAlive(null, 0);
+            for (ClientStream stream : streams.values()) {
+                stream.releaseWindow();
+            }
+        }
+        closed = true;
+        Thread current = flusher;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+        super.close();
+    }
+
+    /**
+     * Sends data to the server without a new handshake, using the resumption token of an earlier
+     * {@code connect}; the data travels in the first dataframe, which saves a round trip.
+     * This also works after {@code disconnect} and from a new client given the token with
+     * {@code setResumptionToken}.
+     * <p>
+     * A token opens one session only, the server hands out a new one with the acknowledgement of the data.
+     * If there is no token, or the server rejects it because it is unknown, expired or already used,
+     * a regular handshake is made and the data is sent after it.
+     *
+     * @param data the data as {@code byte[]} to be sent
+     * @return true if the data was delivered, false if the fallback handshake failed.
+     * @throws SocketTimeoutException if the specified socket timeout duration expires.
+     * @throws IOException            if an I/O error occurs.
+     * @throws HostException          when the max number of trails ist exceeded without a response from the server.
+     */
+    public boolean resume(byte[] data) throws SocketTimeoutException, IOException {
+        long token;
+        synchronized (this) {
+            token = resumptionToken;
+        }
+        if (token != 0 && defaultStream.resume(token, data)) {
+            return true;
+        }
+        synchronized (this) {
+            resumptionToken = 0;
+        }
+        if (!connect()) {
+            return false;
+        }
+        sendData(data);
+        return true;
+    }
+
+    /**
+     * Returns the resumption token issued by the server with the last handshake.
+     *
+     * @return the token, 0 if there is none.
+     */
+    public synchronized long getResumptionToken() {
+        return resumptionToken;
+    }
+
+    /**
+     * Sets the resumption token used by {@code resume}, e.g. one kept from an earlier client.
+     *
+     * @param resumptionToken the token, 0 for none.
+     */
+    public synchronized void setResumptionToken(long resumptionToken) {
+        this.resumptionToken = resumptionToken;
     }
 
     /**
@@ -88,43 +278,732 @@ public class Client extends AbstractClient {
      *  This method is used to send data to the server.
      * It builds a dataframe with the appropriate
      * sequence- and acknowledgement number and sends it to the server.
+     * <p>
+     * Up to {@code windowSize} dataframes may be sent without waiting for their acknowledgement,
+     * this method only blocks when the window is full. With the default window size of 1 it
+     * returns when the dataframe has been acknowledged.
+     * The server may acknowledge several dataframes at once, an acknowledgement
+     * covers all dataframes up to its sequence number.
+     * <p>
+     * The dataframe is built and encoded in buffers owned by the client, which only grow
+     * when the data is larger than any data sent before; retries resend the encoded buffer.
      *
      * @param data the data as {@code byte[]} to be sent
      * @throws HostException when the max number of trails ist exceeded without a response from the server.
      */
     @Override
     public void sendData(byte[] data) {
-        DataFrame dataFrame = new DataFrame(seq, ack, Flag.DEFAULT, data);
-        byte[] encodedData = encoder.encode(dataFrame.getDataFrame()).getBytes();
-        int timeout = 0;
-        while (true) {
-            try {
-                DataFrame response = new DataFrame(decoder.decode(new String(sendRecv(encodedData))));
-                if (isValid(response)) {
-                    this.seq++;
-                    this.ack++;
+        defaultStream.sendData(data);
+    }
+
+    /**
+     * Blocks until all dataframes sent on the default stream have been acknowledged by the server.
+     *
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    public void flush() {
+        defaultStream.flush();
+    }
+
+    /**
+     * Sets the number of dataframes which may be sent on the default stream without waiting
+     * for their acknowledgement. Dataframes not acknowledged yet are flushed first.
+     *
+     * @param windowSize the number of unacknowledged dataframes, at least 1.
+     * @throws IllegalArgumentException if the window size is less than 1.
+     * @throws HostException            when the outstanding dataframes could not be delivered.
+     */
+    public void setWindowSize(int windowSize) {
+        defaultStream.setWindowSize(windowSize);
+    }
+
+    /**
+     * Sends a dataframe which arrived encoded on the default stream, see {@code ClientStream.forward}.
+     *
+     * @param encoded the buffer whose remaining bytes are the encoded dataframe.
+     * @return true if the dataframe was sent, false if it has to be sent decoded instead.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    boolean forward(PooledBuffer encoded) {
+        return defaultStream.forward(encoded);
+    }
+
+    /**
+     * Returns the window size of the default stream.
+     *
+     * @return the number of dataframes which may be sent without waiting for their acknowledgement.
+     */
+    int getWindowSize() {
+        return defaultStream.getWindowSize();
+    }
+
+    /**
+     * Sets the forward error correction of the default stream and of the streams opened afterwards,
+     * including the streams of {@code sendFile}.
+     *
+     * @param size     the number of dataframes in a group, 1 to 32.
+     * @param parity   the number of parity dataframes of a group, 0 to 8 and at most {@code size}; 0 turns FEC off.
+     * @param adaptive true if the number of parity dataframes is tuned from the observed loss.
+     * @throws IllegalArgumentException if the size or the parity is out of range.
+     * @see ClientStream#setFec(int, int, boolean)
+     */
+    public void setFec(int size, int parity, boolean adaptive) {
+        defaultStream.setFec(size, parity, adaptive);
+        synchronized (this) {
+            fecSize = size;
+            fecParity = parity;
+            fecAdaptive = adaptive;
+        }
+    }
+
+    /**
+     * Sends data on the default stream, coalesced with other small writes unless it is immediate.
+     *
+     * @param data      the data as {@code byte[]} to be sent
+     * @param immediate true if the data must not wait for more data to be coalesced.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     * @see ClientStream#sendData(byte[], boolean)
+     */
+    public void sendData(byte[] data, boolean immediate) {
+        defaultStream.sendData(data, immediate);
+    }
+
+    /**
+     * Sets how long small writes are coalesced into one dataframe on the default stream
+     * and on the streams opened afterwards.
+     *
+     * @param delayMicros the microseconds the first byte of a dataframe waits for more data, 0 to turn it off.
+     * @throws IllegalArgumentException if the delay is negative.
+     * @throws HostException            when the coalesced data could not be delivered.
+     * @see ClientStream#setCoalescing(long)
+     */
+    public void setCoalescing(long delayMicros) {
+        defaultStream.setCoalescing(delayMicros);
+        synchronized (this) {
+            coalesceDelay = delayMicros;
+        }
+    }
+
+    /**
+     * Sets the largest datagram the client sends. The dataframes of all streams are sized to fill it
+     * after encoding, a {@code sendData} with more data is split into several dataframes.
+     * The server has to be set to receive datagrams of that size, see {@code Server.setMaxDatagram}.
+     *
+     * @param size the maximum size of a datagram in bytes, from 230 to 65507.
+     * @throws IllegalArgumentException if the size is out of range.
+     */
+    public void setMaxDatagram(int size) {
+        if (size < MINDATAGRAM || size > LARGESTDATAGRAM) {
+            throw new IllegalArgumentException("datagram size must be between " + MINDATAGRAM + " and "
+                    + LARGESTDATAGRAM);
+        }
+        maxDatagram = size;
+    }
+
+    /**
+     * Returns the largest datagram the client sends.
+     *
+     * @return the maximum size of a datagram in bytes.
+     */
+    public int getMaxDatagram() {
+        return maxDatagram;
+    }
+
+    /**
+     * Returns the number of payload bytes of a dataframe which fill the largest datagram after encoding.
+     *
+     * @return the maximum length of a payload.
+     */
+    int getMaxPayload() {
+        return Encoder.decodedLength(maxDatagram) - DataFrame.HEADER_LENGTH;
+    }
+
+    /**
+     * Sets the pool the streams keep their encoded dataframes in, e.g. a pool in debug mode
+     * to find buffers which are never given back. The shared pool is used by default.
+     * Buffers taken before go back to the pool they came from.
+     *
+     * @param bufferPool the pool of the buffers.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Returns the number of dataframes the streams of this client have sent again, because their
+     * acknowledgement timed out or the server reported a gap. Parity dataframes are not counted.
+     *
+     * @return the number of dataframes sent again.
+     */
+    public synchronized long getRetransmitCount() {
+        return retransmitCount;
+    }
+
+    /**
+     * Counts dataframes sent again by a stream. Must be called with the lock of the client held.
+     *
+     * @param count the number of dataframes.
+     */
+    void countRetransmits(int count) {
+        retransmitCount += count;
+    }
+
+    /**
+     * Returns the pool the streams keep their encoded dataframes in.
+     *
+     * @return the pool of the buffers.
+     */
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Finds the largest datagram which reaches the server and is taken in by it, and sizes
+     * the dataframes to fill it, see {@code setMaxDatagram}.
+     * <p>
+     * Probe dataframes padded to the size in question are sent and answered by the server with
+     * {@code PROBEACK}; a probe which is not answered in time is sent once more before its size counts
+     * as too large. The size is found by binary search in steps of one encoded byte, starting with
+     * the limit itself, which on loopback is usually taken right away.
+     *
+     * @param limit the largest size tried in bytes, from 230 to 65507.
+     * @return the largest size which got through, or 230 if not even that did.
+     * @throws IllegalArgumentException if the limit is out of range.
+     */
+    public int probeMaxDatagram(int limit) {
+        if (limit < MINDATAGRAM || limit > LARGESTDATAGRAM) {
+            throw new IllegalArgumentException("datagram size must be between " + MINDATAGRAM + " and "
+                    + LARGESTDATAGRAM);
+        }
+        int high = Encoder.encodedLength(Encoder.decodedLength(limit));
+        int low = MINDATAGRAM;
+        if (probe(high)) {
+            low = high;
+        }
+        while (high - low > Encoder.encodedLength(1) - Encoder.encodedLength(0)) {
+            int middle = Encoder.encodedLength(Encoder.decodedLength(low + (high - low) / 2));
+            if (probe(middle)) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        maxDatagram = low;
+        return low;
+    }
+
+    /**
+     * Sends a probe dataframe padded to the given size and waits for the server to acknowledge it.
+     * The streams of the client keep sending while the probe waits.
+     *
+     * @param size the encoded size of the probe in bytes.
+     * @return true if the probe was acknowledged.
+     */
+    private boolean probe(int size) {
+        byte[] padding = new byte[Encoder.decodedLength(size) - DataFrame.HEADER_LENGTH];
+        for (int i = 0; i < PROBETRIES; i++) {
+            int number;
+            synchronized (this) {
+                number = ++probeSeq;
+                try {
+                    send(prepare(null, number, 0, Flag.PROBE, 0, padding));
+                } catch (IOException e) {
+                    return false; // the datagram is larger than the socket or the path allows
+                }
+            }
+            long deadline = System.nanoTime() + PROBETIMEOUT * 1_000_000L;
+            while (true) {
+                synchronized (this) {
+                    drainReplies();
+                    if (probeAcked == number) {
+                        return true;
+                    }
+                }
+                long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remaining <= 0) {
                     break;
                 }
-                if (timeout++ == MAXTRIALS) {
-                    throw new HostException("Max entries exceeded");
+                awaitReply(remaining);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Has the coalesced data of a stream sent when its delay has passed.
+     * The flusher thread is started with the first stream which needs it.
+     *
+     * @param stream the stream whose coalesced data waits.
+     */
+    void scheduleFlush(ClientStream stream) {
+        coalescing.add(stream);
+        Thread current = flusher;
+        if (current == null) {
+            synchronized (this) {
+                if (flusher == null) {
+                    Thread created = new Thread(this::runFlusher, "coalescing-flusher");
+                    created.setDaemon(true);
+                    flusher = created;
+                    created.start();
                 }
-            } catch (IOException e) {
-                if (timeout++ == MAXTRIALS) {
-                    throw new HostException("Max retries exceeded");
+                current = flusher;
+            }
+        }
+        LockSupport.unpark(current);
+    }
+
+    /**
+     * Sends the coalesced data of the streams as it falls due, parking until the next one is due
+     * or a stream has new data, run by the flusher thread. A stream never blocks the flusher,
+     * see {@code ClientStream.flushCoalesced}.
+     */
+    private void runFlusher() {
+        while (!closed) {
+            long wait = 0;
+            long now = System.nanoTime();
+            for (ClientStream stream : coalescing) {
+                coalescing.remove(stream);
+                long remaining = stream.flushCoalesced(now);
+                if (remaining > 0) {
+                    coalescing.add(stream);
+                    wait = wait == 0 ? remaining : Math.min(wait, remaining);
                 }
             }
+            if (wait == 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, wait);
+            }
         }
     }
 
     /**
-     *<p>
-     *  This method is primarily used to validate the dataframe received from the server.
-     * It compares its acknowledgement and sequence number and returns its validity.
+     * Sends a file to the server, which writes it to disk with {@code Server.receiveFile}.
+     * <p>
+     * The file is sent on a stream of its own and mapped into memory region by region; every dataframe
+     * carries the offset of its data in the file and is encoded straight from the mapping.
+     * The heap used therefore does not depend on the size of the file. Up to 64 dataframes
+     * are sent without waiting for their acknowledgement, as far as the server's receive window allows.
+     *
+     * @param path the path of the file.
+     * @return true if the server acknowledged the end of the file.
+     * @throws IOException   if the file cannot be read.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    public boolean sendFile(Path path) throws IOException {
+        ClientStream stream = openStream();
+        stream.setWindowSize(FILEWINDOW);
+        return sendFile(stream, path, 0);
+    }
+
+    /**
+     * Sends a file to the server under a transfer id, so that it can be resumed where it broke off.
+     * The server writes it to disk with {@code Server.receiveFile(Path, long)}.
+     * <p>
+     * The server is asked first for the end of the data of this transfer it has received without a gap,
+     * and only the rest of the file is sent. When sending fails, e.g. with {@code HostException} after
+     * the link went down, calling this method again with the same id, after {@code connect} if needed,
+     * continues from there instead of starting at byte zero. This also works with a new client
+     * or after the server was started again.
+     *
+     * @param path       the path of the file.
+     * @param transferId the id of the transfer, the same for every attempt to send this file.
+     * @return true if the server acknowledged the end of the file.
+     * @throws SocketTimeoutException if the server did not tell the offset, e.g. because it does not expect the file.
+     * @throws IOException            if the file cannot be read.
+     * @throws HostException          when the max number of trails ist exceeded without a response from the server.
+     */
+    public boolean sendFile(Path path, long transferId) throws SocketTimeoutException, IOException {
+        ClientStream stream = openStream();
+        stream.setWindowSize(FILEWINDOW);
+        return sendFile(stream, path, queryOffset(stream, transferId));
+    }
+
+    /**
+     * Sends a file from the given offset on a stream of its own and closes the stream.
+     *
+     * @param stream the stream the file is sent on.
+     * @param path   the path of the file.
+     * @param offset the offset of the first byte sent.
+     * @return true if the server acknowledged the end of the file.
+     * @throws IOException   if the file cannot be read.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    private boolean sendFile(ClientStream stream, Path path, long offset) throws IOException {
+        int chunk = getMaxPayload() - Long.BYTES;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = file.size();
+            for (long start = offset; start < size; start += REGION) {
+                MappedByteBuffer region = file.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(REGION, size - start));
+                while (region.hasRemaining()) {
+                    long position = start + region.position();
+                    region.limit(Math.min(region.capacity(), region.position() + chunk));
+                    stream.sendFile(position, region);
+                    region.limit(region.capacity());
+                }
+            }
+        }
+        return stream.close();
+    }
+
+    /**
+     * Asks the server for the offset a file transfer resumes at and makes the stream carry the transfer.
+     * The question is repeated a few times, since the server only answers once it expects the file.
+     *
+     * @param stream     the stream the file is sent on.
+     * @param transferId the id of the transfer.
+     * @return the offset of the first byte to be sent.
+     * @throws SocketTimeoutException if the server did not answer.
+     * @throws IOException            if an I/O error occurs.
+     */
+    private synchronized long queryOffset(ClientStream stream, long transferId)
+            throws SocketTimeoutException, IOException {
+        byte[] payload = ByteBuffer.allocate(Long.BYTES).putLong(transferId).array();
+        for (int trial = 1; ; trial++) {
+            try {
+                ByteBuffer received = sendRecv(prepare(null, stream.getSeq(), stream.getAck(), Flag.OFFSET,
+                        stream.getId(), payload));
+                while (dispatch(received) || DataFrame.readStreamId(reply) != stream.getId()
+                        || !Flag.OFFSETACK.equals(DataFrame.readFlag(reply))) {
+                    received = receive();
+                }
+                return reply.remaining() >= DataFrame.HEADER_LENGTH + Long.BYTES
+                        ? reply.getLong(DataFrame.HEADER_LENGTH) : 0;
+            } catch (SocketTimeoutException e) {
+                if (trial == OFFSETTRIES) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a new logical stream on the connection of this client.
+     * The stream needs no handshake of its own, the server learns about it with its first dataframe.
+     *
+     * @return the new stream.
+     * @throws HostException if all stream ids of the connection have been used.
+     */
+    public synchronized ClientStream openStream() {
+        if (nextStreamId > DataFrame.MAX_STREAM_ID) {
+            throw new HostException("No stream id left");
+        }
+        ClientStream stream = new ClientStream(this, nextStreamId++);
+        if (fecParity > 0 || fecAdaptive) {
+            stream.setFec(fecSize, fecParity, fecAdaptive);
+        }
+        if (coalesceDelay > 0) {
+            stream.setCoalescing(coalesceDelay);
+        }
+        streams.put(stream.getId(), stream);
+        return stream;
+    }
+
+    /**
+     * Tells the server that no more data follows on the stream and forgets the stream.
+     *
+     * @param stream the stream to be closed.
+     * @return true if the server acknowledged the end of the stream.
+     */
+    synchronized boolean closeStream(ClientStream stream) {
+        if (stream == defaultStream) {
+            return false;
+        }
+        streams.remove(stream.getId());
+        try {
+            return exchange(Flag.FIN, Flag.FINACK, stream);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            stream.releaseWindow();
+        }
+    }
+
+    /**
+     * Sends an encoded dataframe to the server. A dataframe that could not be sent
+     * is treated like a lost one and sent again when no acknowledgement arrives.
+     *
+     * @param encodedFrame the buffer containing the encoded dataframe.
+     */
+    void transmit(ByteBuffer encodedFrame) {
+        try {
+            send(encodedFrame);
+        } catch (IOException e) {
+            // it is sent again when no acknowledgement arrives
+        }
+    }
+
+    /**
+     * Processes all replies of the server which have arrived, without waiting.
+     * Acknowledgements are handed to the stream they belong to, faulty replies are dropped.
+     * Must be called with the lock of the client held.
+     */
+    void drainReplies() {
+        try {
+            ByteBuffer received;
+            while ((received = poll()) != null) {
+                dispatch(received);
+            }
+        } catch (IOException e) {
+            // lost replies are covered by the retransmission timeout
+        }
+    }
+
+    /**
+     * Waits until a reply of the server has arrived or the time has passed.
+     * Must be called without holding the lock of the client.
+     *
+     * @param millis the maximum time to wait in milliseconds.
+     */
+    void awaitReply(long millis) {
+        try {
+            await(millis);
+        } catch (IOException e) {
+            // the caller checks its state again in any case
+        }
+    }
+
+    /**
+     * Sends an {@code ACK} dataframe if the client has been silent for the keepalive interval
+     * and schedules the next check, run by the timer thread of the keepalive.
+     */
+    private synchronized void keepAlive() {
+        if (keepAlive == null) {
+            return;
+        }
+        long silent = (System.nanoTime() - lastSent) / 1_000_000L;
+        if (silent >= keepAliveInterval) {
+            try {
+                send(prepare(encoded, 0, 0, Flag.ACK, 0, null));
+            } catch (IOException e) {
+                // tried again at the next interval
+            }
+            silent = 0;
+        }
+        keepAliveTimers.schedule(keepAlive, keepAliveInterval - silent);
+    }
+
+    /**
+     * Decodes a reply of the server and hands an acknowledgement to its stream,
+     * together with the receive window it carries.
+     *
+     * @param received the buffer containing the encoded dataframe.
+     * @return true if the reply was an acknowledgement or faulty, false if it has to be handled by the caller.
+     */
+    private boolean dispatch(ByteBuffer received) {
+        if (!decodeReply(received)) {
+            return true;
+        }
+        Flag flag = DataFrame.readFlag(reply);
+        if (Flag.PROBEACK.equals(flag)) {
+            probeAcked = DataFrame.readSeqNumber(reply);
+            return true;
+        }
+        if (!Flag.DEFAULT.equals(flag) && !Flag.RESET.equals(flag)) {
+            return false;
+        }
+        ClientStream stream = streams.get(DataFrame.readStreamId(reply));
+        if (stream == null) {
+            return true;
+        }
+        if (Flag.RESET.equals(flag)) {
+            stream.reject();
+        } else {
+            int window = reply.remaining() >= DataFrame.HEADER_LENGTH + Integer.BYTES
+                    ? reply.getInt(reply.position() + DataFrame.HEADER_LENGTH) : Integer.MAX_VALUE;
+            if (reply.remaining() >= DataFrame.HEADER_LENGTH + Integer.BYTES + Long.BYTES) {
+                resumptionToken = reply.getLong(reply.position() + DataFrame.HEADER_LENGTH + Integer.BYTES);
+            }
+            stream.acknowledge(DataFrame.readSeqNumber(reply), window);
+        }
+        return true;
+    }
+
+    /**
+     * Sends a control dataframe on a stream and waits for the answer of the server.
+     * Acknowledgements of data which arrive in the meantime are handed to their streams.
+     * Must be called with the lock of the client held.
+     *
+     * @param request  the flag of the dataframe to be sent.
+     * @param expected the flag the server is expected to answer with.
+     * @param stream   the stream the dataframe belongs to.
+     * @return true if the server answered with the expected flag.
+     * @throws SocketTimeoutException if the specified socket timeout duration expires.
+     * @throws IOException            if an I/O error occurs.
+     */
+    private boolean exchange(Flag request, Flag expected, ClientStream stream)
+            throws SocketTimeoutException, IOException {
+        ByteBuffer received = sendRecv(prepare(encoded, stream.getSeq(), stream.getAck(), request,
+                stream.getId(), null));
+        while (dispatch(received) || DataFrame.readStreamId(reply) != stream.getId()) {
+            received = receive();
+        }
+        return expected.equals(DataFrame.readFlag(reply));
+    }
+
+    /**
+     * Builds a dataframe in the frame buffer and encodes it into the target buffer,
+     * which is flipped and ready to be sent afterwards.
+     * Must be called with the lock of the client held.
      *
-     * @param dataFrame the {@code DataFrame} object to be validated.
-     * @return true if the dataframe is valid else false.
+     * @param target    the buffer to encode into, a new buffer is allocated if it is null or too small.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param flag      the flag of the dataframe.
+     * @param streamId  the stream of the dataframe.
+     * @param payload   the payload of the dataframe, may be null.
+     * @return the buffer containing the encoded dataframe.
      */
-    private boolean isValid(DataFrame dataFrame) {
-        return dataFrame.getAckNumber() == this.ack + 1 && dataFrame.getSeqNumber() == this.seq;
+    ByteBuffer prepare(ByteBuffer target, int seqNumber, int ackNumber, Flag flag, int streamId, byte[] payload) {
+        return prepare(target, seqNumber, ackNumber, flag, streamId, payload, 0, payload == null ? 0 : payload.length);
+    }
+
+    /**
+     * Builds a dataframe whose payload is a part of an array in the frame buffer and encodes it
+     * into the target buffer, which is flipped and ready to be sent afterwards.
+     * Must be called with the lock of the client held.
+     *
+     * @param target    the buffer to encode into, a new buffer is allocated if it is null or too small.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param flag      the flag of the dataframe.
+     * @param streamId  the stream of the dataframe.
+     * @param payload   the array containing the payload, may be null.
+     * @param offset    the offset of the payload in the array.
+     * @param count     the length of the payload.
+     * @return the buffer containing the encoded dataframe.
+     */
+    ByteBuffer prepare(ByteBuffer target, int seqNumber, int ackNumber, Flag flag, int streamId, byte[] payload,
+                       int offset, int count) {
+        int length = DataFrame.HEADER_LENGTH + count;
+        if (frame.capacity() < length) {
+            frame = ByteBuffer.allocate(length);
+        }
+        if (target == null || target.capacity() < Encoder.encodedLength(length)) {
+            target = ByteBuffer.allocateDirect(Encoder.encodedLength(length));
+        }
+        frame.clear();
+        DataFrame.writeHeader(frame, seqNumber, ackNumber, flag, streamId);
+        if (payload != null) {
+            frame.put(payload, offset, count);
+        }
+        frame.flip();
+        target.clear();
+        encoder.encode(frame, target);
+        target.flip();
+        lastSent = System.nanoTime();
+        return target;
+    }
+
+    /**
+     * Replaces the header of a dataframe which arrived encoded, e.g. at a relay, with a header of this client,
+     * in place. The words of the payload are kept as they arrived, see {@code Encoder.replaceHeader}.
+     * Must be called with the lock of the client held.
+     *
+     * @param target    the buffer containing the encoded dataframe, its position and limit are not moved.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param flag      the flag of the dataframe.
+     * @param streamId  the stream of the dataframe.
+     * @return true if the header was replaced, false if the dataframe has to be encoded anew.
+     */
+    boolean reframe(ByteBuffer target, int seqNumber, int ackNumber, Flag flag, int streamId) {
+        frame.clear();
+        DataFrame.writeHeader(frame, seqNumber, ackNumber, flag, streamId);
+        frame.flip();
+        if (!encoder.replaceHeader(frame, target)) {
+            return false;
+        }
+        lastSent = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Returns the code the dataframes of the client are encoded with.
+     *
+     * @return the code table of the encoder.
+     */
+    CodeTable getCodeTable() {
+        return encoder.getCodeTable();
+    }
+
+    /**
+     * Builds the header of a {@code FILE} dataframe in the frame buffer and encodes it together with
+     * the data, which is read straight from its buffer, into the target buffer.
+     * Must be called with the lock of the client held.
+     *
+     * @param target    the buffer to encode into, a new buffer is allocated if it is null or too small.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param streamId  the stream of the dataframe.
+     * @param position  the offset of the data in the file.
+     * @param data      the buffer whose remaining bytes are the data, its position is moved to its limit.
+     * @return the buffer containing the encoded dataframe.
+     */
+    ByteBuffer prepare(ByteBuffer target, int seqNumber, int ackNumber, int streamId, long position,
+                       ByteBuffer data) {
+        int length = DataFrame.HEADER_LENGTH + Long.BYTES + data.remaining();
+        if (frame.capacity() < DataFrame.HEADER_LENGTH + Long.BYTES) {
+            frame = ByteBuffer.allocate(DataFrame.HEADER_LENGTH + Long.BYTES);
+        }
+        if (target == null || target.capacity() < Encoder.encodedLength(length)) {
+            target = ByteBuffer.allocateDirect(Encoder.encodedLength(length));
+        }
+        frame.clear();
+        DataFrame.writeHeader(frame, seqNumber, ackNumber, Flag.FILE, streamId);
+        frame.putLong(position);
+        frame.flip();
+        target.clear();
+        encoder.encode(frame, data, target);
+        target.flip();
+        lastSent = System.nanoTime();
+        return target;
+    }
+
+    /**
+     * Builds the header of a {@code PARITY} dataframe in the frame buffer and encodes it together with
+     * the parity, which is read straight from its buffer, into the target buffer.
+     * Must be called with the lock of the client held.
+     *
+     * @param target      the buffer to encode into, a new buffer is allocated if it is null or too small.
+     * @param seqNumber   the sequence number of the first dataframe of the group.
+     * @param description the description of the group, carried as acknowledgment number.
+     * @param streamId    the stream of the dataframe.
+     * @param parity      the buffer whose remaining bytes are the parity, its position is moved to its limit.
+     * @return the buffer containing the encoded dataframe.
+     */
+    ByteBuffer prepareParity(ByteBuffer target, int seqNumber, int description, int streamId, ByteBuffer parity) {
+        int length = DataFrame.HEADER_LENGTH + parity.remaining();
+        if (target == null || target.capacity() < Encoder.encodedLength(length)) {
+            target = ByteBuffer.allocateDirect(Encoder.encodedLength(length));
+        }
+        frame.clear();
+        DataFrame.writeHeader(frame, seqNumber, description, Flag.PARITY, streamId);
+        frame.flip();
+        target.clear();
+        encoder.encode(frame, parity, target);
+        target.flip();
+        lastSent = System.nanoTime();
+        return target;
+    }
+
+    /**
+     * Decodes the datagram received from the server into the reply buffer.
+     * A datagram which does not decode, decodes to more than a reply holds or to less than
+     * a header, or carries an unknown flag is faulty, e.g. a stray or corrupted datagram.
+     *
+     * @param received the buffer containing the encoded dataframe.
+     * @return true if the reply buffer holds a dataframe, false if the datagram is faulty.
+     */
+    private boolean decodeReply(ByteBuffer received) {
+        reply.clear();
+        try {
+            decoder.decode(received, reply);
+        } catch (DecodeException | StartOfPacketException | EndOfPacketException | BufferOverflowException e) {
+            return false;
+        }
+        reply.flip();
+        return reply.remaining() >= DataFrame.HEADER_LENGTH && DataFrame.readFlag(reply) != null;
     }
 }
@@ -0,0 +1,771 @@
+package eit.host;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eit.host.exception.HostException;
+import eit.linecode.DataFrame;
+import eit.linecode.Encoder;
+import eit.linecode.Utils.Flag;
+
+/**
+ * This class represents a logical stream of a {@code Client} connection.
+ * <p>
+ * Every stream has its own sequence space and send window, the stream id is carried
+ * in each dataframe. A lost dataframe only holds back the stream it belongs to,
+ * while the other streams of the same connection keep flowing.
+ * Streams are opened with {@code Client.openStream} and share the connection,
+ * the handshake and the socket of their client.
+ * <p>
+ * The methods of a stream may be called from a different thread than the methods
+ * of other streams of the same client.
+ * <p>
+ * Besides its own window, a stream honours the receive window the server advertises with its
+ * acknowledgements. While that window is closed, the stream waits and probes it with a dataframe
+ * after every timeout; a server answering the probes is not counted as failing to respond.
+ * <p>
+ * With forward error correction, see {@code setFec}, every group of dataframes is followed by parity
+ * dataframes from which the server rebuilds a lost dataframe without waiting for a retransmission.
+ * <p>
+ * With coalescing, see {@code setCoalescing}, small writes are merged into one dataframe, like Nagle's
+ * algorithm does for TCP. The data then arrives as one stream of bytes, the boundaries between
+ * the writes are not kept.
+ * <p>
+ * The encoded dataframes waiting for their acknowledgement are kept in buffers of the {@code BufferPool}
+ * of the client, which go back to the pool when the stream is closed. A payload is encoded straight
+ * from the array it was handed over in, also when it is split into several dataframes.
+ */
+public class ClientStream {
+    private final static int MAXTRIALS = 4; // maximum number of times to try to send a package.
+    private final static long TIMEOUT = 500_000_000L; // nanoseconds to wait for an acknowledgement.
+    private final static int ADAPTINTERVAL = 256; // the number of dataframes after which adaptive FEC is tuned.
+    private final Client client; // the client whose connection the stream uses.
+    private final int id; // the stream id carried in the dataframes.
+    private int seq = 1; // sequence number of the dataframe to be sent.
+    private int ack = 0; // acknowledgement number of the dataframe.
+    private int base = 1; // sequence number of the oldest dataframe not acknowledged yet.
+    private int trials = 0; // number of times the dataframes not acknowledged yet have been sent again.
+    private long deadline; // the System.nanoTime() at which the dataframes not acknowledged are sent again.
+    private boolean retransmitted; // true if the oldest dataframe has already been sent again on a gap.
+    private int peerWindow = Integer.MAX_VALUE; // the number of dataframes after base the server takes in
+    private boolean resuming; // true while a resuming dataframe waits for its acknowledgement.
+    private boolean rejected; // true if the server rejected the resumption token.
+    private PooledBuffer[] window = new PooledBuffer[1]; // the encoded dataframes not acknowledged, indexed by seq
+    private ParityGroup group; // the dataframes protected by the next parity dataframes, null without FEC.
+    private ByteBuffer parityFrame; // the encoded parity dataframe, reused for every parity dataframe.
+    private int groupSize; // the number of dataframes protected by the parity of a group.
+    private int parityCount; // the number of parity dataframes of a group, 0 without FEC.
+    private boolean adaptive; // true if the number of parity dataframes is tuned from the observed loss.
+    private int sentFrames; // the number of dataframes sent since the FEC was last tuned.
+    private int lostFrames; // the number of dataframes sent again since the FEC was last tuned.
+    private final ReentrantLock coalesceLock = new ReentrantLock(); // serialises coalescing data and sending it.
+    private byte[] coalesced; // the small writes not sent yet, null without coalescing.
+    private int coalescedLength; // the number of bytes coalesced.
+    private long coalescedSince; // the System.nanoTime() the first byte not sent yet was coalesced at.
+    private long coalesceDelay; // the nanoseconds coalesced data waits for more before it is sent.
+    private volatile HostException flushFailure; // the failure of sending coalesced data in the background.
+
+    /**
+     * Constructs a stream of the client.
+     *
+     * @param client the client whose connection the stream uses.
+     * @param id     the stream id.
+     */
+    ClientStream(Client client, int id) {
+        this.client = client;
+        this.id = id;
+    }
+
+    /**
+     * Returns the id of the stream.
+     *
+     * @return the stream id, 0 for the default stream of the client.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sends data on this stream.
+     * <p>
+     * Up to {@code windowSize} dataframes may be sent without waiting for their acknowledgement,
+     * this method only blocks when the window of this stream is full.
+     * With the default window size of 1 it returns when the dataframe has been acknowledged.
+     * Data which does not fit into the largest datagram of the client is split into several dataframes.
+     *
+     * @param data the data as {@code byte[]} to be sent
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     * @see Client#setMaxDatagram(int)
+     */
+    public void sendData(byte[] data) {
+        sendData(data, false);
+    }
+
+    /**
+     * Sends data on this stream, like {@code sendData}. With coalescing, the data is merged with
+     * the other small writes into one dataframe, which is sent when it is full, when the delay has passed
+     * or on {@code flush}. An immediate write is sent right away, together with the data coalesced before it.
+     *
+     * @param data      the data as {@code byte[]} to be sent
+     * @param immediate true if the data must not wait for more data to be coalesced.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server,
+     *                       also for coalesced data which was sent in the background.
+     */
+    public void sendData(byte[] data, boolean immediate) {
+        coalesceLock.lock();
+        try {
+            checkFlushFailure();
+            int maxPayload = client.getMaxPayload();
+            if (coalesced == null) {
+                sendFrames(data, maxPayload);
+                return;
+            }
+            if (coalescedLength + data.length > maxPayload) {
+                sendCoalesced();
+            }
+            if (data.length >= maxPayload || immediate && coalescedLength == 0) {
+                sendFrames(data, maxPayload);
+                return;
+            }
+            if (coalesced.length < maxPayload) {
+                coalesced = Arrays.copyOf(coalesced, maxPayload);
+            }
+            System.arraycopy(data, 0, coalesced, coalescedLength, data.length);
+            coalescedLength += data.length;
+            if (immediate || coalescedLength == maxPayload) {
+                sendCoalesced();
+            } else if (coalescedLength == data.length && data.length > 0) {
+                coalescedSince = System.nanoTime();
+                client.scheduleFlush(this);
+            }
+        } finally {
+            coalesceLock.unlock();
+        }
+    }
+
+    /**
+     * Sets how long small writes are coalesced into one dataframe. Data coalesced so far is sent first.
+     *
+     * @param delayMicros the microseconds the first byte of a dataframe waits for more data, 0 to turn it off.
+     * @throws IllegalArgumentException if the delay is negative.
+     * @throws HostException            when the coalesced data could not be delivered.
+     */
+    public void setCoalescing(long delayMicros) {
+        if (delayMicros < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        coalesceLock.lock();
+        try {
+            if (coalescedLength > 0) {
+                sendCoalesced();
+            }
+            coalesceDelay = delayMicros * 1_000L;
+            if (delayMicros == 0) {
+                coalesced = null;
+            } else if (coalesced == null) {
+                coalesced = new byte[client.getMaxPayload()];
+            }
+        } finally {
+            coalesceLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the coalesced data if its delay has passed, called by the flusher of the client.
+     * <p>
+     * The flusher serves all streams of the client, so it never waits: while a writer holds the stream,
+     * the flusher comes back after the delay; while the window is full, the data stays coalesced and is tried
+     * again after another delay, or at the timeout of the window if that is sooner. The dataframe sent is not
+     * waited for either; as long as dataframes are outstanding, the flusher comes back at their timeout and
+     * sends them again if needed, as a writer waiting for them would. A failure is reported by the next write
+     * or flush of the stream.
+     *
+     * @param now the current System.nanoTime().
+     * @return the nanoseconds until the stream is due again, 0 if nothing is left to send or acknowledge.
+     */
+    long flushCoalesced(long now) {
+        if (!coalesceLock.tryLock()) {
+            return Math.max(1, coalesceDelay);
+        }
+        try {
+            long remaining = coalescedLength == 0 ? 0 : coalescedSince + coalesceDelay - now;
+            if (remaining > 0) {
+                return remaining;
+            }
+            synchronized (client) {
+                client.drainReplies();
+                if (coalescedLength > 0 && hasRoom(now)) {
+                    int length = coalescedLength;
+                    coalescedLength = 0;
+                    transmitFrame(Flag.DEFAULT, coalesced, 0, length);
+                }
+                long timeout = seq == base ? deadline - now : expire();
+                if (coalescedLength > 0) {
+                    return Math.max(1, Math.min(coalesceDelay, timeout));
+                }
+                return seq == base ? 0 : Math.max(1, timeout);
+            }
+        } catch (HostException e) {
+            flushFailure = e;
+            coalescedLength = 0;
+            return 0;
+        } finally {
+            coalesceLock.unlock();
+        }
+    }
+
+    /**
+     * Sends data in as few dataframes as the largest payload allows.
+     *
+     * @param data       the data to be sent.
+     * @param maxPayload the largest payload of a dataframe.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    private void sendFrames(byte[] data, int maxPayload) {
+        if (data.length <= maxPayload) {
+            sendFrame(Flag.DEFAULT, data);
+            return;
+        }
+        for (int start = 0; start < data.length; start += maxPayload) {
+            sendFrame(Flag.DEFAULT, data, start, Math.min(maxPayload, data.length - start));
+        }
+    }
+
+    /**
+     * Answers whether a dataframe may be sent without waiting: its slot of the window is free and the
+     * receive window of the server takes it, or nothing is outstanding and the timeout of a closed
+     * receive window has expired, see {@code awaitWindow}. Must be called with the lock of the client held.
+     *
+     * @param now the current System.nanoTime().
+     * @return true if a dataframe may be sent.
+     */
+    private boolean hasRoom(long now) {
+        return seq - base < window.length && (seq - base < peerWindow || seq == base && deadline - now <= 0);
+    }
+
+    /**
+     * Sends the coalesced data in one dataframe. Must be called with the coalesce lock held.
+     *
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    private void sendCoalesced() {
+        int length = coalescedLength;
+        coalescedLength = 0;
+        sendFrame(Flag.DEFAULT, coalesced, 0, length);
+    }
+
+    /**
+     * Throws the failure of sending coalesced data in the background, once.
+     *
+     * @throws HostException if sending coalesced data failed.
+     */
+    private void checkFlushFailure() {
+        HostException failure = flushFailure;
+        if (failure != null) {
+            flushFailure = null;
+            throw failure;
+        }
+    }
+
+    /**
+     * Sends a dataframe with the given flag on this stream, like {@code sendData}.
+     *
+     * @param flag    the flag of the dataframe.
+     * @param payload the payload of the dataframe.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    void sendFrame(Flag flag, byte[] payload) {
+        sendFrame(flag, payload, 0, payload.length);
+    }
+
+    /**
+     * Sends a dataframe with the given flag and a part of an array as payload on this stream.
+     * The payload is encoded before this method returns, the array may be reused afterwards.
+     *
+     * @param flag    the flag of the dataframe.
+     * @param payload the array containing the payload.
+     * @param offset  the offset of the payload in the array.
+     * @param count   the length of the payload.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    private void sendFrame(Flag flag, byte[] payload, int offset, int count) {
+        awaitWindow();
+        synchronized (client) {
+            transmitFrame(flag, payload, offset, count);
+        }
+        awaitOutstanding(window.length - 1);
+    }
+
+    /**
+     * Encodes a dataframe into its slot of the window and sends it, without waiting.
+     * Must be called with the lock of the client held, when the window has room for the dataframe.
+     *
+     * @param flag    the flag of the dataframe.
+     * @param payload the array containing the payload.
+     * @param offset  the offset of the payload in the array.
+     * @param count   the length of the payload.
+     */
+    private void transmitFrame(Flag flag, byte[] payload, int offset, int count) {
+        int slot = Math.floorMod(seq, window.length);
+        if (group != null && flag == Flag.DEFAULT) {
+            group.add(seq, payload, offset, count);
+        }
+        client.prepare(slot(slot, DataFrame.HEADER_LENGTH + count), seq, ack, flag, id, payload, offset, count);
+        transmitNext(slot);
+        protect();
+    }
+
+    /**
+     * Sends a dataframe which arrived encoded, e.g. at a relay, on this stream, like {@code sendData}.
+     * Its header is replaced with one of this stream, the words of its payload are sent as they arrived,
+     * and its buffer is kept in the window for a retransmission instead of an encoded copy.
+     * <p>
+     * The dataframe is not sent if its payload has to be encoded anew: with forward error correction,
+     * whose parity is computed from the payload, with coalescing, if it is larger than the datagrams of
+     * the client, or if its header cannot be replaced, see {@code Encoder.replaceHeader}.
+     *
+     * @param encoded the buffer whose remaining bytes are the encoded dataframe, which the stream changes
+     *                and takes another reference to; nothing else may use its bytes afterwards.
+     * @return true if the dataframe was sent, false if it has to be sent decoded instead.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    boolean forward(PooledBuffer encoded) {
+        int payloadLength = Encoder.decodedLength(encoded.buffer().remaining()) - DataFrame.HEADER_LENGTH;
+        coalesceLock.lock();
+        try {
+            checkFlushFailure();
+            if (coalesced != null || payloadLength > client.getMaxPayload()) {
+                return false;
+            }
+            awaitWindow();
+            synchronized (client) {
+                if (group != null || !client.reframe(encoded.buffer(), seq, ack, Flag.DEFAULT, id)) {
+                    return false;
+                }
+                int slot = Math.floorMod(seq, window.length);
+                if (window[slot] != null) {
+                    window[slot].release();
+                }
+                window[slot] = encoded.retain();
+                transmitNext(slot);
+                protect();
+            }
+            awaitOutstanding(window.length - 1);
+            return true;
+        } finally {
+            coalesceLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a part of a file in a {@code FILE} dataframe on this stream, like {@code sendData}.
+     * The data is encoded straight from the buffer, which may be a mapped file.
+     *
+     * @param position the offset of the data in the file.
+     * @param data     the buffer whose remaining bytes are sent, its position is moved to its limit.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    void sendFile(long position, ByteBuffer data) {
+        awaitWindow();
+        synchronized (client) {
+            int slot = Math.floorMod(seq, window.length);
+            if (group != null) {
+                group.add(seq, position, data);
+            }
+            client.prepare(slot(slot, DataFrame.HEADER_LENGTH + Long.BYTES + data.remaining()), seq, ack, id,
+                    position, data);
+            transmitNext(slot);
+            protect();
+        }
+        awaitOutstanding(window.length - 1);
+    }
+
+    /**
+     * Returns the buffer of a slot of the window, taking a larger one from the pool of the client
+     * if the encoded dataframe does not fit into it. Must be called with the lock of the client held.
+     *
+     * @param slot   the slot of the window.
+     * @param length the length of the dataframe before it is encoded.
+     * @return the buffer the dataframe is encoded into.
+     */
+    private ByteBuffer slot(int slot, int length) {
+        int size = Encoder.encodedLength(length);
+        PooledBuffer buffer = window[slot];
+        if (buffer == null || buffer.capacity() < size) {
+            if (buffer != null) {
+                buffer.release();
+            }
+            buffer = client.getBufferPool().acquire(size);
+            window[slot] = buffer;
+        }
+        return buffer.buffer();
+    }
+
+    /**
+     * Gives the buffers of the window back to the pool, when the stream is closed or its window resized.
+     * Must be called with the lock of the client held, when no dataframe is outstanding.
+     */
+    void releaseWindow() {
+        for (int i = 0; i < window.length; i++) {
+            if (window[i] != null) {
+                window[i].release();
+                window[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Sends the dataframe just prepared in the given slot and moves on to the next sequence number.
+     * Must be called with the lock of the client held.
+     *
+     * @param slot the slot of the window holding the encoded dataframe.
+     */
+    private void transmitNext(int slot) {
+        if (seq == base) {
+            deadline = System.nanoTime() + TIMEOUT;
+        }
+        this.seq++;
+        this.ack++;
+        client.transmit(window[slot].buffer());
+        client.drainReplies();
+    }
+
+    /**
+     * Sends the parity of a full group and tunes an adaptive FEC once enough dataframes have been sent.
+     * Must be called with the lock of the client held.
+     */
+    private void protect() {
+        if (group != null && group.isFull()) {
+            sendParity();
+        }
+        if (adaptive && ++sentFrames == ADAPTINTERVAL) {
+            adapt();
+        }
+    }
+
+    /**
+     * Sends the parity dataframes of the current group and starts the next group.
+     * Parity dataframes do not take a sequence number and are never sent again.
+     * Must be called with the lock of the client held.
+     */
+    private void sendParity() {
+        for (int i = 0; i < group.getParityCount(); i++) {
+            parityFrame = client.prepareParity(parityFrame, group.getStart(), group.getDescription(i), id,
+                    group.getPayload(i));
+            client.transmit(parityFrame);
+        }
+        group.clear();
+    }
+
+    /**
+     * Tunes the number of parity dataframes to the share of dataframes sent again since the last tuning.
+     * The parity is raised at once to twice the number of dataframes expected to be lost in a group,
+     * and lowered by one step at a time, because the losses the parity repairs are no longer observed.
+     * Must be called with the lock of the client held.
+     */
+    private void adapt() {
+        int target = (int) Math.min(Math.min(ParityGroup.MAXPARITY, groupSize),
+                Math.ceil(2.0 * lostFrames * groupSize / sentFrames));
+        int next = target >= parityCount ? target : parityCount - 1;
+        sentFrames = 0;
+        lostFrames = 0;
+        if (next != parityCount) {
+            if (group != null) {
+                sendParity();
+            }
+            parityCount = next;
+            group = next == 0 ? null : new ParityGroup(groupSize, next);
+        }
+    }
+
+    /**
+     * Blocks until all dataframes sent on this stream have been acknowledged by the server.
+     * Coalesced data is sent first, then the parity of a group which is not full yet,
+     * so the last dataframes are protected too.
+     *
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    public void flush() {
+        coalesceLock.lock();
+        try {
+            checkFlushFailure();
+            if (coalescedLength > 0) {
+                sendCoalesced();
+            }
+        } finally {
+            coalesceLock.unlock();
+        }
+        synchronized (client) {
+            if (group != null && group.getParityCount() > 0) {
+                sendParity();
+            }
+        }
+        awaitOutstanding(0);
+    }
+
+    /**
+     * Sets the forward error correction of this stream. Every group of {@code size} dataframes is followed
+     * by {@code parity} parity dataframes; the dataframes of a group are interleaved over the parity dataframes,
+     * so the server can rebuild up to {@code parity} lost dataframes of a group, if they are consecutive,
+     * without a retransmission round trip. The parity costs {@code parity / size} of the bandwidth.
+     * <p>
+     * An adaptive FEC starts with the given parity and tunes it between 0 and 8 from the share
+     * of dataframes which had to be sent again.
+     *
+     * @param size     the number of dataframes in a group, 1 to 32.
+     * @param parity   the number of parity dataframes of a group, 0 to 8 and at most {@code size}; 0 turns FEC off.
+     * @param adaptive true if the number of parity dataframes is tuned from the observed loss.
+     * @throws IllegalArgumentException if the size or the parity is out of range.
+     */
+    public void setFec(int size, int parity, boolean adaptive) {
+        if (size < 1 || size > ParityGroup.MAXSIZE || parity < 0 || parity > ParityGroup.MAXPARITY
+                || parity > size) {
+            throw new IllegalArgumentException("invalid FEC group: " + size + " dataframes, " + parity + " parity");
+        }
+        synchronized (client) {
+            if (group != null && group.getParityCount() > 0) {
+                sendParity();
+            }
+            groupSize = size;
+            parityCount = parity;
+            this.adaptive = adaptive;
+            sentFrames = 0;
+            lostFrames = 0;
+            group = parity == 0 ? null : new ParityGroup(size, parity);
+        }
+    }
+
+    /**
+     * Sets the number of dataframes which may be sent on this stream without waiting
+     * for their acknowledgement. Dataframes not acknowledged yet are flushed first.
+     *
+     * @param windowSize the number of unacknowledged dataframes, at least 1.
+     * @throws IllegalArgumentException if the window size is less than 1.
+     * @throws HostException            when the outstanding dataframes could not be delivered.
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("window size must be at least 1");
+        }
+        coalesceLock.lock();
+        try {
+            flush();
+            synchronized (client) {
+                releaseWindow();
+                window = new PooledBuffer[windowSize];
+            }
+        } finally {
+            coalesceLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the stream and tells the server that no more data follows on it.
+     * The default stream is closed by {@code Client.disconnect} instead.
+     *
+     * @return true if the server acknowledged the end of the stream.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    public boolean close() {
+        flush();
+        return client.closeStream(this);
+    }
+
+    /**
+     * Sends data in a {@code RESUME} dataframe, prefixed with the resumption token, and waits
+     * until it is acknowledged or the token is rejected by the server.
+     * If the token is rejected, the dataframe is withdrawn from the sequence space again.
+     *
+     * @param token the resumption token issued by the server.
+     * @param data  the data as {@code byte[]} to be sent.
+     * @return true if the server accepted the token and the data, false if it rejected the token.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    boolean resume(long token, byte[] data) {
+        flush();
+        byte[] payload = ByteBuffer.allocate(Long.BYTES + data.length).putLong(token).put(data).array();
+        synchronized (client) {
+            resuming = true;
+            rejected = false;
+        }
+        try {
+            sendFrame(Flag.RESUME, payload);
+            flush();
+        } finally {
+            synchronized (client) {
+                resuming = false;
+            }
+        }
+        synchronized (client) {
+            return !rejected;
+        }
+    }
+
+    /**
+     * Processes the rejection of a resumption token by the server.
+     * The resuming dataframe, which is the only one outstanding, is withdrawn,
+     * so the next dataframe reuses its sequence number.
+     * Must be called with the lock of the client held.
+     */
+    void reject() {
+        if (resuming && !rejected) {
+            rejected = true;
+            ack -= seq - base;
+            seq = base;
+            trials = 0;
+        }
+    }
+
+    /**
+     * Returns the number of dataframes which may be sent on this stream without waiting for their acknowledgement.
+     *
+     * @return the window size, 1 unless set with {@code setWindowSize}.
+     */
+    int getWindowSize() {
+        synchronized (client) {
+            return window.length;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the next dataframe.
+     *
+     * @return the sequence number.
+     */
+    int getSeq() {
+        return seq;
+    }
+
+    /**
+     * Returns the acknowledgement number of the next dataframe.
+     *
+     * @return the acknowledgement number.
+     */
+    int getAck() {
+        return ack;
+    }
+
+    /**
+     * Waits until at most the given number of dataframes are not acknowledged.
+     * If no acknowledgement arrives in time, all dataframes not acknowledged yet are sent again.
+     * The lock of the client is only held while replies are processed, so other streams
+     * can send while this one waits.
+     *
+     * @param outstanding the number of dataframes which may stay unacknowledged.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    private void awaitOutstanding(int outstanding) {
+        while (true) {
+            long remaining;
+            synchronized (client) {
+                client.drainReplies();
+                if (seq - base <= outstanding) {
+                    return;
+                }
+                remaining = expire();
+            }
+            client.awaitReply(Math.max(1, remaining / 1_000_000L));
+        }
+    }
+
+    /**
+     * Waits until the receive window of the server takes another dataframe and its slot of the window
+     * is free, which it may not be after the flusher sent coalesced data without waiting.
+     * If the window stays closed with nothing outstanding, the next dataframe is sent anyway
+     * after the timeout, as a probe whose acknowledgement tells whether the window opened.
+     *
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    private void awaitWindow() {
+        while (true) {
+            long remaining;
+            synchronized (client) {
+                client.drainReplies();
+                if (seq - base < Math.min(peerWindow, window.length)) {
+                    return;
+                }
+                if (seq == base) {
+                    remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return;
+                    }
+                } else {
+                    remaining = expire();
+                }
+            }
+            client.awaitReply(Math.max(1, remaining / 1_000_000L));
+        }
+    }
+
+    /**
+     * Sends all dataframes not acknowledged yet again when the timeout has expired.
+     * Must be called with the lock of the client held.
+     *
+     * @return the nanoseconds until the timeout expires.
+     * @throws HostException when the max number of trails ist exceeded without a response from the server.
+     */
+    private long expire() {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            if (trials++ == MAXTRIALS) {
+                throw new HostException("Max retries exceeded");
+            }
+            retransmit(base, seq);
+            deadline = System.nanoTime() + TIMEOUT;
+            remaining = TIMEOUT;
+        }
+        return remaining;
+    }
+
+    /**
+     * Processes an acknowledgement of the server for this stream.
+     * An acknowledgement is valid if its sequence number lies in the window, it then acknowledges
+     * all dataframes up to and including that sequence number.
+     * A repeated acknowledgement of the dataframe before the window means that the server detected a gap,
+     * the oldest dataframe is then sent again once without waiting for the timeout.
+     * A repeated acknowledgement with a closed receive window means that the server had no room
+     * for the dataframe; it is sent again after the timeout, which the server is not blamed for.
+     * Must be called with the lock of the client held.
+     *
+     * @param acknowledged the sequence number acknowledged by the server.
+     * @param window       the receive window advertised by the server.
+     */
+    void acknowledge(int acknowledged, int window) {
+        if (acknowledged - base >= 0 && acknowledged - seq < 0) {
+            base = acknowledged + 1;
+            peerWindow = window;
+            trials = 0;
+            retransmitted = false;
+            deadline = System.nanoTime() + TIMEOUT;
+        } else if (acknowledged == base - 1) {
+            peerWindow = window;
+            if (window == 0) {
+                trials = 0;
+                deadline = System.nanoTime() + TIMEOUT;
+            } else if (base != seq && !retransmitted) {
+                retransmitted = true;
+                retransmit(base, base + 1);
+            }
+        }
+    }
+
+    /**
+     * Sends the encoded dataframes of the given sequence numbers again.
+     * Must be called with the lock of the client held.
+     *
+     * @param from the first sequence number to be sent again.
+     * @param to   the sequence number after the last one to be sent again.
+     */
+    private void retransmit(int from, int to) {
+        lostFrames += to - from;
+        client.countRetransmits(to - from);
+        for (int i = from; i != to; i++) {
+            PooledBuffer encodedFrame = window[Math.floorMod(i, window.length)];
+            if (encodedFrame != null) { // null once the client has been closed
+                encodedFrame.buffer().rewind();
+                client.transmit(encodedFrame.buffer());
+            }
+        }
+    }
+}
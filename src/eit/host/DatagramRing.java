@@ -0,0 +1,146 @@
+package eit.host;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class represents a bounded, lock-free queue of datagrams between exactly one producing
+ * and one consuming thread.
+ * <p>
+ * All slots are allocated up front as direct buffers of the maximum datagram size, so passing
+ * a datagram through the ring does not allocate. The producer claims the next free slot, fills it
+ * and publishes it; the consumer reads the oldest published slot in place and releases it.
+ * Each side only writes its own sequence counter and keeps a cached copy of the other one,
+ * so the counters shared between the threads are only read when the cached copy runs out.
+ * <p>
+ * A consumer with nothing to do may park after announcing it with {@code setWaiting},
+ * the producer then unparks it when it publishes the next datagram.
+ */
+class DatagramRing {
+    private final ByteBuffer[] slots; // the datagrams, reused in a circle
+    private final SocketAddress[] addresses; // the address of the client of each datagram
+    private final int mask; // the number of slots minus one
+    private final AtomicLong published = new AtomicLong(); // the number of datagrams published by the producer
+    private final AtomicLong released = new AtomicLong(); // the number of datagrams released by the consumer
+    private long claimed; // the producer's count of published datagrams, ahead of published while filling
+    private long releasedCache; // the producer's copy of released
+    private long consumed; // the consumer's count of released datagrams
+    private long publishedCache; // the consumer's copy of published
+    private volatile Thread waiting; // the consumer parked waiting for a datagram, null if it is running
+
+    /**
+     * Constructs a ring with the given number of slots, rounded up to a power of two.
+     *
+     * @param capacity     the number of datagrams the ring holds, at least 1.
+     * @param datagramSize the maximum size of a datagram in bytes.
+     */
+    DatagramRing(int capacity, int datagramSize) {
+        int length = Integer.highestOneBit(Math.max(1, capacity));
+        if (length < capacity) {
+            length <<= 1;
+        }
+        slots = new ByteBuffer[length];
+        addresses = new SocketAddress[length];
+        for (int i = 0; i < length; i++) {
+            slots[i] = ByteBuffer.allocateDirect(datagramSize);
+        }
+        mask = length - 1;
+    }
+
+    /**
+     * Returns the next free slot to be filled by the producer, cleared.
+     * The same slot is returned until it is published.
+     *
+     * @return the slot or null if the ring is full.
+     */
+    ByteBuffer claim() {
+        if (claimed - releasedCache > mask) {
+            releasedCache = released.get();
+            if (claimed - releasedCache > mask) {
+                return null;
+            }
+        }
+        ByteBuffer slot = slots[(int) (claimed & mask)];
+        slot.clear();
+        return slot;
+    }
+
+    /**
+     * Publishes the slot returned by {@code claim}, which has to be flipped for reading,
+     * and wakes up the consumer if it is parked.
+     *
+     * @param address the address of the client of the datagram.
+     */
+    void publish(SocketAddress address) {
+        addresses[(int) (claimed & mask)] = address;
+        claimed++;
+        published.set(claimed);
+        Thread consumer = waiting;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Returns the oldest datagram published and not released yet, ready for reading.
+     *
+     * @return the datagram or null if the ring is empty.
+     */
+    ByteBuffer peek() {
+        if (consumed == publishedCache) {
+            publishedCache = published.get();
+            if (consumed == publishedCache) {
+                return null;
+            }
+        }
+        return slots[(int) (consumed & mask)];
+    }
+
+    /**
+     * Returns the address of the client of the datagram returned by {@code peek}.
+     *
+     * @return the address of the client.
+     */
+    SocketAddress peekAddress() {
+        return addresses[(int) (consumed & mask)];
+    }
+
+    /**
+     * Releases the datagram returned by {@code peek}, so that its slot can be filled again.
+     */
+    void release() {
+        addresses[(int) (consumed & mask)] = null;
+        consumed++;
+        released.lazySet(consumed);
+    }
+
+    /**
+     * Announces that the consumer is about to park or has stopped waiting.
+     * The consumer has to check the ring again after announcing, before it parks.
+     *
+     * @param consumer the consumer thread, null when it runs again.
+     */
+    void setWaiting(Thread consumer) {
+        waiting = consumer;
+    }
+
+    /**
+     * Answers whether no datagram is waiting to be consumed. May be called from any thread.
+     *
+     * @return true if the ring is empty.
+     */
+    boolean isEmpty() {
+        return published.get() == released.get();
+    }
+
+    /**
+     * Returns the number of datagrams waiting to be consumed. May be called from any thread.
+     *
+     * @return the depth of the ring.
+     */
+    int size() {
+        return (int) Math.max(0, published.get() - released.get());
+    }
+}
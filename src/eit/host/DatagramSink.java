@@ -0,0 +1,21 @@
+package eit.host;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface represents the destination of the datagrams sent by a server
+ * which does not send on a channel of its own, like a worker of a {@code StagedServer}.
+ */
+interface DatagramSink {
+    /**
+     * Sends the remaining bytes of the buffer as one datagram to the given address.
+     * The bytes are copied before this method returns, the position of the buffer is moved to its limit.
+     *
+     * @param buffer the data to be sent.
+     * @param target the address of the client.
+     * @throws IOException if an I/O error occurs.
+     */
+    void send(ByteBuffer buffer, SocketAddress target) throws IOException;
+}
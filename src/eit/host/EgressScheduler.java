@@ -0,0 +1,211 @@
+package eit.host;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class represents the queues of the datagrams a server sends, served fairly among its clients.
+ * <p>
+ * Every client has a queue of its own. Control datagrams, which open, close or reset a session,
+ * bypass these queues and are always sent first. The queues are served by deficit round robin:
+ * in every round a client may send up to its weight times the quantum in bytes, so that a client
+ * sending a stream of acknowledgements gets its share of the transport and no more, while a client
+ * with a single datagram pending has it sent within one round.
+ * <p>
+ * The datagrams are copied into buffers of a {@code BufferPool}, which go back to the pool once they
+ * have been sent, so the scheduler does not allocate once the pool holds its largest backlog.
+ * It is used by the server thread only, except for the weights, which may be set from any thread.
+ */
+class EgressScheduler {
+    private final static int QUANTUM = AbstractServer.MAXDATAGRAM; // the bytes a client of weight 1 sends per round
+    private final static int MAXWEIGHT = 64; // the highest weight of a client
+    private final int capacity; // the maximum number of datagrams queued
+    private final BufferPool pool; // provides the buffers the datagrams are copied into
+    private final ArrayDeque<PooledBuffer> control = new ArrayDeque<>(); // the control datagrams, sent first
+    private final ArrayDeque<SocketAddress> controlTargets = new ArrayDeque<>(); // the receivers of the control datagrams
+    private final Map<SocketAddress, Flow> flows = new HashMap<>(); // the clients with datagrams queued
+    private final ArrayDeque<Flow> active = new ArrayDeque<>(); // the clients in the order they are served
+    private final Map<SocketAddress, Integer> weights = new ConcurrentHashMap<>(); // the weights other than 1
+    private int size; // the number of datagrams queued
+    private long dropped; // the number of datagrams dropped because the queues were full
+
+    /**
+     * This class represents the queue of one client.
+     */
+    private static class Flow {
+        private final SocketAddress target; // the address of the client
+        private final ArrayDeque<PooledBuffer> queue = new ArrayDeque<>(); // the datagrams to the client
+        private long deficit; // the bytes the client may still send in this round
+        private boolean credited; // true if the quantum of this round was added to the deficit
+
+        /**
+         * Initialises the queue of a client.
+         *
+         * @param target the address of the client.
+         */
+        private Flow(SocketAddress target) {
+            this.target = target;
+        }
+    }
+
+    /**
+     * Initialises the scheduler.
+     *
+     * @param capacity the maximum number of datagrams queued, at least 1.
+     * @param pool     the pool of the buffers the datagrams are copied into.
+     * @throws IllegalArgumentException if the capacity is less than 1.
+     */
+    EgressScheduler(int capacity, BufferPool pool) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the share of a client. A client of weight 4 may send four times the bytes of a client
+     * of weight 1 while both have datagrams queued.
+     *
+     * @param target the address of the client.
+     * @param weight the weight from 1 to 64.
+     * @throws IllegalArgumentException if the weight is out of range.
+     */
+    void setWeight(SocketAddress target, int weight) {
+        if (weight < 1 || weight > MAXWEIGHT) {
+            throw new IllegalArgumentException("weight must be between 1 and " + MAXWEIGHT);
+        }
+        if (weight == 1) {
+            weights.remove(target);
+        } else {
+            weights.put(target, weight);
+        }
+    }
+
+    /**
+     * Copies a datagram into the queue of its client, or ahead of all queues if it is a control datagram.
+     * A datagram which is no control datagram is dropped if the queues are full, like a datagram lost
+     * on the way; the client sends its dataframes again and gets the acknowledgement then.
+     * The position of the buffer is moved to its limit.
+     *
+     * @param buffer  the datagram.
+     * @param target  the address of the client.
+     * @param control true if the datagram opens, closes or resets a session.
+     */
+    void offer(ByteBuffer buffer, SocketAddress target, boolean control) {
+        if (!control && size >= capacity) {
+            dropped++;
+            buffer.position(buffer.limit());
+            return;
+        }
+        PooledBuffer copy = pool.acquire(buffer.remaining());
+        copy.buffer().put(buffer).flip();
+        size++;
+        if (control) {
+            this.control.add(copy);
+            controlTargets.add(target);
+            return;
+        }
+        Flow flow = flows.get(target);
+        if (flow == null) {
+            flow = new Flow(target);
+            flows.put(target, flow);
+            active.add(flow);
+        }
+        flow.queue.add(copy);
+    }
+
+    /**
+     * Sends the queued datagrams on the transport until the queues are empty or the transport has no room.
+     * Control datagrams are sent first, the others in rounds of deficit round robin.
+     *
+     * @param transport the transport to send on.
+     * @return true if all datagrams were sent, false if some are still queued.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean drain(Transport transport) throws IOException {
+        PooledBuffer datagram;
+        while ((datagram = control.peek()) != null) {
+            if (!transport.send(datagram.buffer(), controlTargets.peek())) {
+                return false;
+            }
+            release(control.poll());
+            controlTargets.poll();
+        }
+        Flow flow;
+        while ((flow = active.peek()) != null) {
+            if (!flow.credited) {
+                flow.deficit += (long) QUANTUM * weights.getOrDefault(flow.target, 1);
+                flow.credited = true;
+            }
+            while ((datagram = flow.queue.peek()) != null && datagram.buffer().remaining() <= flow.deficit) {
+                int length = datagram.buffer().remaining();
+                if (!transport.send(datagram.buffer(), flow.target)) {
+                    return false;
+                }
+                flow.deficit -= length;
+                release(flow.queue.poll());
+            }
+            active.poll();
+            flow.credited = false;
+            if (flow.queue.isEmpty()) {
+                flows.remove(flow.target);
+            } else {
+                active.add(flow);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Answers whether datagrams are queued.
+     *
+     * @return true if no datagram is waiting to be sent.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of datagrams dropped because the queues were full.
+     *
+     * @return the number of datagrams dropped since the scheduler was created.
+     */
+    long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Drops the datagrams still queued and gives their buffers back to the pool, when the server stops.
+     */
+    void clear() {
+        for (PooledBuffer datagram : control) {
+            datagram.release();
+        }
+        control.clear();
+        controlTargets.clear();
+        for (Flow flow : active) {
+            for (PooledBuffer datagram : flow.queue) {
+                datagram.release();
+            }
+        }
+        active.clear();
+        flows.clear();
+        size = 0;
+    }
+
+    /**
+     * Gives the buffer of a datagram which was sent back to the pool.
+     *
+     * @param datagram the buffer of the datagram.
+     */
+    private void release(PooledBuffer datagram) {
+        size--;
+        datagram.release();
+    }
+}
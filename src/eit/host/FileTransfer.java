@@ -0,0 +1,244 @@
+package eit.host;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class represents a file received on a stream of a {@code Server}.
+ * <p>
+ * Every dataframe of a file carries the offset of its data in the file, so its data is written
+ * at that offset with a positional write as soon as it arrives, in order or not.
+ * Nothing is buffered in memory, the heap used does not depend on the size of the file.
+ * <p>
+ * The data is written by the thread of the server; the thread waiting in {@code await}
+ * is released when the client closes the stream.
+ * <p>
+ * A resumable transfer has an id and keeps track of the end of the data received without a gap
+ * from the start of the file. Every 4 MB the file is forced to disk and then this offset is saved
+ * to a progress file next to it, so a server which is started again resumes the transfer from there.
+ * When the stream carrying the file ends without being closed, the progress is saved as well and
+ * the transfer waits for the client to resume it on another stream.
+ */
+class FileTransfer {
+    private final static long CHECKPOINT = 4L << 20; // the bytes received without a gap between two saves
+    private final static String SUFFIX = ".resume"; // appended to the name of the file for its progress file
+    private final FileChannel channel; // the file written to
+    private final CountDownLatch done = new CountDownLatch(1); // released when the transfer has ended
+    private final long id; // the id of a resumable transfer
+    private final Path progress; // the progress file of a resumable transfer, null if it is not resumable
+    private final TreeMap<Long, Long> ahead = new TreeMap<>(); // the ends of the data written ahead of a gap by start
+    private long size; // the end of the data written furthest into the file
+    private long contiguous; // the end of the data received without a gap from the start of the file
+    private long saved; // the offset saved to the progress file last
+    private ServerStream stream; // the stream carrying a resumable transfer, null while there is none
+    private IOException failure; // the first error of the transfer, null if there is none
+
+    /**
+     * Creates the file, or truncates it if it exists.
+     *
+     * @param path the path of the file.
+     * @throws IOException if the file cannot be opened for writing.
+     */
+    FileTransfer(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        id = 0;
+        progress = null;
+    }
+
+    /**
+     * Opens the file of a resumable transfer. If its progress file names the same transfer,
+     * the data up to the offset saved there is kept, otherwise the file is truncated.
+     *
+     * @param path the path of the file.
+     * @param id   the id of the transfer.
+     * @throws IOException if the file or its progress cannot be opened.
+     */
+    FileTransfer(Path path, long id) throws IOException {
+        this.id = id;
+        this.progress = path.resolveSibling(path.getFileName() + SUFFIX);
+        ByteBuffer record = ByteBuffer.allocate(Long.BYTES + Long.BYTES);
+        if (Files.isRegularFile(progress)) {
+            try (FileChannel file = FileChannel.open(progress, StandardOpenOption.READ)) {
+                while (record.hasRemaining() && file.read(record) >= 0) {
+                    // reads the id and the offset
+                }
+            }
+        }
+        if (!record.hasRemaining() && record.getLong(0) == id) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            contiguous = Math.min(record.getLong(Long.BYTES), channel.size());
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        this.size = contiguous;
+        this.saved = contiguous;
+    }
+
+    /**
+     * Returns the offset a resumed transfer continues at, the end of the data received without a gap.
+     *
+     * @return the offset in the file.
+     */
+    synchronized long getOffset() {
+        return contiguous;
+    }
+
+    /**
+     * Returns the stream carrying a resumable transfer.
+     *
+     * @return the stream, null if the transfer waits for the client to resume it.
+     */
+    synchronized ServerStream getStream() {
+        return stream;
+    }
+
+    /**
+     * Sets the stream carrying a resumable transfer.
+     *
+     * @param stream the stream the client resumes the transfer on.
+     */
+    synchronized void setStream(ServerStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Writes the data of a dataframe at the offset it carries.
+     * An error is kept and reported by {@code await}, later data is ignored.
+     *
+     * @param payload the buffer whose remaining bytes are the offset in the file followed by the data.
+     *                Its position is not changed.
+     */
+    synchronized void write(ByteBuffer payload) {
+        if (failure != null || payload.remaining() < Long.BYTES) {
+            return;
+        }
+        int offset = payload.position();
+        long position = payload.getLong(offset);
+        long start = position;
+        payload.position(offset + Long.BYTES);
+        try {
+            while (payload.hasRemaining()) {
+                position += channel.write(payload, position);
+            }
+            size = Math.max(size, position);
+            if (progress != null) {
+                advance(start, position);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            payload.position(offset);
+        }
+    }
+
+    /**
+     * Ends the stream carrying the file without the client closing it, e.g. when its session ends.
+     * A resumable transfer saves its progress and waits for the client to resume it, any other is aborted.
+     */
+    synchronized void detach() {
+        if (progress == null) {
+            complete(true);
+            return;
+        }
+        stream = null;
+        try {
+            save();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Ends the transfer and closes the file. A resumable transfer which was aborted keeps its progress,
+     * one which is complete deletes its progress file.
+     *
+     * @param aborted true if the stream ended without the client closing it.
+     */
+    synchronized void complete(boolean aborted) {
+        if (aborted && failure == null) {
+            failure = new IOException("file transfer aborted");
+        }
+        try {
+            if (progress != null && aborted && channel.isOpen()) {
+                save();
+            } else if (progress != null && failure == null) {
+                Files.deleteIfExists(progress);
+            }
+            channel.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        done.countDown();
+    }
+
+    /**
+     * Waits until the client has closed the stream.
+     *
+     * @return the size of the file received.
+     * @throws IOException          if the file could not be written or the transfer was aborted.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    long await() throws IOException, InterruptedException {
+        done.await();
+        if (failure != null) {
+            throw failure;
+        }
+        return size;
+    }
+
+    /**
+     * Moves the end of the data received without a gap over the data written, and over the data written
+     * ahead of the gap it fills. The progress is saved every 4 MB.
+     *
+     * @param start the offset of the data written.
+     * @param end   the end of the data written.
+     * @throws IOException if the progress cannot be saved.
+     */
+    private void advance(long start, long end) throws IOException {
+        if (start > contiguous) {
+            ahead.merge(start, end, Math::max);
+            return;
+        }
+        contiguous = Math.max(contiguous, end);
+        Map.Entry<Long, Long> next;
+        while ((next = ahead.firstEntry()) != null && next.getKey() <= contiguous) {
+            contiguous = Math.max(contiguous, next.getValue());
+            ahead.remove(next.getKey());
+        }
+        if (contiguous - saved >= CHECKPOINT) {
+            save();
+        }
+    }
+
+    /**
+     * Forces the data to disk and then saves the id of the transfer and the end of the data received
+     * without a gap to the progress file, so the offset saved never covers data which could still be lost.
+     *
+     * @throws IOException if the file cannot be forced or the progress cannot be written.
+     */
+    private void save() throws IOException {
+        channel.force(false);
+        ByteBuffer record = ByteBuffer.allocate(Long.BYTES + Long.BYTES).putLong(id).putLong(contiguous);
+        record.flip();
+        try (FileChannel file = FileChannel.open(progress, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (record.hasRemaining()) {
+                file.write(record, record.position());
+            }
+            file.force(false);
+        }
+        saved = contiguous;
+    }
+}
@@ -0,0 +1,21 @@
+package eit.host;
+
+/**
+ * This interface represents what a thread polling for datagrams does while none arrive.
+ * <p>
+ * Instead of blocking in the kernel until a datagram wakes it up, a polling thread checks
+ * its transport again and again and calls {@code idle} after every empty check, which decides
+ * how long to back off. As soon as a check finds a datagram, {@code reset} starts the backoff over.
+ * An instance keeps the backoff state of one thread and is not shared between threads.
+ */
+public interface IdleStrategy {
+    /**
+     * Backs off after a check which found nothing, a little longer the more checks in a row were empty.
+     */
+    void idle();
+
+    /**
+     * Starts the backoff over after a check which found a datagram.
+     */
+    void reset();
+}
@@ -0,0 +1,237 @@
+package eit.host;
+
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class represents a transport passing datagrams between transports of the same process,
+ * without sockets or system calls.
+ * <p>
+ * Every transport is bound to a port of an in-memory network, separate from the ports of the kernel,
+ * and is addressed with the loopback address and that port. A datagram is copied straight into
+ * a preallocated slot of the receiver's queue. The queue is bounded and lock-free: any number
+ * of senders claim slots with a compare-and-set on a shared counter and publish them through
+ * a sequence number per slot, the one receiver reads and frees them in order. Like UDP, a datagram
+ * sent to an unbound address is dropped; one sent to a full queue is refused and left to the sender.
+ * <p>
+ * A receiver waiting in {@code await} is only woken up by a sender when someone actually waits,
+ * so the send path takes no lock while the receiver is busy.
+ */
+public class MemoryTransport implements Transport {
+    private final static int MAXDATAGRAM = 1500; // the maximum size of a datagram in bytes by default
+    private final static int LARGESTDATAGRAM = 65507; // the largest datagram a transport can be bound for
+    private final static Map<SocketAddress, MemoryTransport> BOUND =
+            new ConcurrentHashMap<>(); // the transports of the in-memory network by their address
+    private final static AtomicInteger NEXTPORT = new AtomicInteger(1); // the next port tried by bind(0)
+    private final static int MAXPORT = 65535; // the highest port of the in-memory network
+    private final InetSocketAddress address; // the address of the transport
+    private final ByteBuffer[] slots; // the datagrams received, reused in a circle
+    private final SocketAddress[] senders; // the address of the sender of each datagram
+    private final AtomicLongArray sequences; // the turn of each slot: free for its sender or filled for the receiver
+    private final int mask; // the number of slots minus one
+    private final AtomicLong claimed = new AtomicLong(); // the number of slots claimed by senders
+    private final AtomicLong dropped = new AtomicLong(); // the number of datagrams refused because the queue was full
+    private final Object lock = new Object(); // the monitor waited on by await
+    private long consumed; // the number of datagrams received, only used by the receiver
+    private volatile int waiters; // the number of threads waiting in await
+    private volatile boolean closed; // true after close
+
+    /**
+     * Constructs a transport at the given address with the given number of slots, rounded up to a power of two.
+     *
+     * @param address     the address of the transport.
+     * @param capacity    the number of datagrams the queue holds.
+     * @param maxDatagram the size of a slot in bytes.
+     */
+    private MemoryTransport(InetSocketAddress address, int capacity, int maxDatagram) {
+        this.address = address;
+        int length = Integer.highestOneBit(Math.max(1, capacity));
+        if (length < capacity) {
+            length <<= 1;
+        }
+        slots = new ByteBuffer[length];
+        senders = new SocketAddress[length];
+        sequences = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            slots[i] = ByteBuffer.allocate(maxDatagram);
+            sequences.set(i, i);
+        }
+        mask = length - 1;
+    }
+
+    /**
+     * Binds a transport to a port of the in-memory network, taking datagrams of up to 1500 bytes.
+     *
+     * @param port     the port, 0 for any free port.
+     * @param capacity the number of datagrams the queue of the transport holds, at least 1.
+     * @return the transport.
+     * @throws BindException            if the port is in use or no port is free.
+     * @throws IllegalArgumentException if the port is out of range or the capacity is less than 1.
+     */
+    public static MemoryTransport bind(int port, int capacity) throws BindException {
+        return bind(port, capacity, MAXDATAGRAM);
+    }
+
+    /**
+     * Binds a transport to a port of the in-memory network. A longer datagram sent to it is cut off,
+     * like one received into a buffer which is too small.
+     *
+     * @param port        the port, 0 for any free port.
+     * @param capacity    the number of datagrams the queue of the transport holds, at least 1.
+     * @param maxDatagram the size of the largest datagram taken in, from 1 to 65507 bytes.
+     * @return the transport.
+     * @throws BindException            if the port is in use or no port is free.
+     * @throws IllegalArgumentException if the port, the capacity or the size is out of range.
+     */
+    public static MemoryTransport bind(int port, int capacity, int maxDatagram) throws BindException {
+        if (port < 0 || port > MAXPORT || capacity < 1 || maxDatagram < 1 || maxDatagram > LARGESTDATAGRAM) {
+            throw new IllegalArgumentException("invalid port, capacity or size: " + port + ", " + capacity + ", "
+                    + maxDatagram);
+        }
+        for (int i = 0; i < MAXPORT; i++) {
+            int candidate = port != 0 ? port : Math.floorMod(NEXTPORT.getAndIncrement(), MAXPORT) + 1;
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), candidate);
+            MemoryTransport transport = new MemoryTransport(address, capacity, maxDatagram);
+            if (BOUND.putIfAbsent(address, transport) == null) {
+                return transport;
+            }
+            if (port != 0) {
+                throw new BindException("Address already in use: " + address);
+            }
+        }
+        throw new BindException("No free port");
+    }
+
+    /**
+     * Copies the datagram into the queue of the transport bound to the target address.
+     * The datagram is dropped if no transport is bound there and refused if its queue is full.
+     *
+     * @param buffer the data to be sent.
+     * @param target the address of the receiver.
+     * @return true if the datagram was queued or dropped, false if the queue of the receiver was full.
+     * @throws ClosedChannelException if this transport is closed.
+     */
+    @Override
+    public boolean send(ByteBuffer buffer, SocketAddress target) throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        MemoryTransport receiver = BOUND.get(target);
+        if (receiver == null) {
+            buffer.position(buffer.limit());
+            return true;
+        }
+        return receiver.offer(buffer, address);
+    }
+
+    @Override
+    public SocketAddress receive(ByteBuffer buffer) throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        int index = (int) (consumed & mask);
+        if (sequences.get(index) != consumed + 1) {
+            return null;
+        }
+        ByteBuffer slot = slots[index];
+        if (slot.remaining() > buffer.remaining()) {
+            slot.limit(slot.position() + buffer.remaining());
+        }
+        buffer.put(slot);
+        SocketAddress sender = senders[index];
+        senders[index] = null;
+        sequences.set(index, consumed + slots.length);
+        consumed++;
+        return sender;
+    }
+
+    @Override
+    public void await(long millis) {
+        synchronized (lock) {
+            waiters++;
+            try {
+                if (!closed && sequences.get((int) (consumed & mask)) != consumed + 1) {
+                    lock.wait(millis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the number of datagrams refused because the queue of this transport was full.
+     *
+     * @return the number of datagrams refused since the transport was bound.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Unbinds the transport from its port and wakes up the threads waiting in {@code await}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        BOUND.remove(address, this);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Copies a datagram into the next free slot and publishes it, called by the sender.
+     * Bytes which do not fit into a slot are discarded.
+     *
+     * @param buffer the datagram, its position is moved to its limit unless the queue is full.
+     * @param sender the address of the sender.
+     * @return true if the datagram was queued, false if the queue was full.
+     */
+    private boolean offer(ByteBuffer buffer, SocketAddress sender) {
+        long position = claimed.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long turn = sequences.get(index) - position;
+            if (turn == 0 && claimed.compareAndSet(position, position + 1)) {
+                break;
+            } else if (turn < 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            position = claimed.get();
+        }
+        ByteBuffer slot = slots[index];
+        slot.clear();
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + Math.min(buffer.remaining(), slot.capacity()));
+        slot.put(buffer);
+        buffer.limit(limit).position(limit);
+        slot.flip();
+        senders[index] = sender;
+        sequences.set(index, position + 1);
+        if (waiters > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+        return true;
+    }
+}
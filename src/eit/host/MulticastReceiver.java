@@ -0,0 +1,333 @@
+package eit.host;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.fra.uas.oop.Terminal;
+import eit.linecode.DataFrame;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+import eit.linecode.Utils.Flag;
+import eit.linecode.exception.DecodeException;
+import eit.linecode.exception.EndOfPacketException;
+import eit.linecode.exception.StartOfPacketException;
+
+/**
+ * This class represents a member of a multicast group which receives the stream of a {@code MulticastSender}.
+ * <p>
+ * The dataframes are put back into the order of their sequence numbers; a dataframe arriving ahead of a gap
+ * is kept, in the pooled buffer it was decoded into, until the gap is filled. A gap, also one at the end of the stream which a heartbeat of the sender
+ * reveals, is reported to the sender with a {@code NACK} listing the missing dataframes, after a few
+ * milliseconds in which reordered dataframes may still arrive. The NACK is repeated while the gap stays open.
+ * When the sender does not repair the first gap after 5 NACKs, the dataframes are given up and counted as lost,
+ * and the data after the gap is read.
+ * <p>
+ * The receiver follows the first sender it hears from and starts with the first dataframe it receives,
+ * so a receiver joining late misses the data sent before. The data is read with {@code read}; once the
+ * {@code FIN} of the sender has arrived and all dataframes before it have been read or given up,
+ * {@code isClosed} answers true. The datagrams are received by a thread of the receiver.
+ */
+public class MulticastReceiver implements Closeable {
+    private final static int MAXDATAGRAM = 1500; // the maximum size of a datagram in bytes
+    private final static int WINDOW = 4096; // the number of dataframes asked for ahead of the first gap
+    private final static long NACKDELAY = 5; // the milliseconds a gap may be due to reordering
+    private final static long NACKINTERVAL = 40; // the milliseconds between the NACKs for the same gap
+    private final static int MAXNACKS = 5; // the number of NACKs after which the first gap is given up
+    private final static long IDLE = 100; // the milliseconds waited for a datagram without a gap
+    private final static int MAXRANGES =
+            (Encoder.decodedLength(MAXDATAGRAM) - DataFrame.HEADER_LENGTH) / (2 * Integer.BYTES); // per NACK
+    private final Transport transport; // receives from the group and sends the NACKs
+    private final Encoder encoder; // encodes the NACKs
+    private final Decoder decoder; // decodes the dataframes
+    private final ByteBuffer received = ByteBuffer.allocate(MAXDATAGRAM); // the datagram received last
+    private final ByteBuffer message = ByteBuffer.allocate(MAXDATAGRAM); // the dataframe of the NACK being built
+    private final ByteBuffer nack = ByteBuffer.allocate(MAXDATAGRAM); // the NACK being built, encoded
+    private final ServerStream stream = new ServerStream(null, 0, 0, null); // the data in order, read by read()
+    private final TreeMap<Integer, PooledBuffer> ahead = new TreeMap<>(); // the payloads which arrived ahead of a gap
+    private final Thread receiver = new Thread(this::run, "multicast-receiver"); // receives the datagrams
+    private PooledBuffer decoded; // the buffer the dataframe is decoded into, null until the next datagram once a payload is kept
+    private SocketAddress sender; // the address of the sender, null until it is heard from
+    private int expectedSeq; // the sequence number of the next dataframe in order
+    private int endSeq; // the sequence number after the last dataframe known to be sent
+    private boolean finished; // true once the FIN of the sender has arrived
+    private long nackAt; // the time the next NACK is due, 0 if there is no gap
+    private int tries; // the number of NACKs sent since the first gap moved last
+    private long lostCount; // the number of dataframes given up
+    private long nackCount; // the number of NACKs sent
+
+    /**
+     * Joins the given group on the given interface and starts receiving.
+     *
+     * @param encoder          the encoder of the NACKs.
+     * @param decoder          the decoder of the dataframes.
+     * @param group            the address and port of the multicast group.
+     * @param networkInterface the interface the group is joined on, e.g. the loopback interface.
+     * @throws IOException if an I/O error occurs, e.g. the interface does not support multicast.
+     */
+    public MulticastReceiver(Encoder encoder, Decoder decoder, InetSocketAddress group,
+                             NetworkInterface networkInterface) throws IOException {
+        this(encoder, decoder, UdpTransport.join(group, networkInterface));
+    }
+
+    /**
+     * Starts receiving on the given transport, which has to receive the datagrams sent to the group.
+     * The transport is closed together with the receiver.
+     *
+     * @param encoder   the encoder of the NACKs.
+     * @param decoder   the decoder of the dataframes.
+     * @param transport the transport of the receiver.
+     */
+    public MulticastReceiver(Encoder encoder, Decoder decoder, Transport transport) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.transport = transport;
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Reads the bytes received in order.
+     * The buffer is emptied after this method is called.
+     *
+     * @return the data as {@code byte[]} received from the sender.
+     */
+    public byte[] read() {
+        return stream.read();
+    }
+
+    /**
+     * Answers whether the stream has ended, because the sender closed it or the receiver was closed.
+     * Data received before can still be read.
+     *
+     * @return true if no more data will arrive.
+     */
+    public boolean isClosed() {
+        return stream.isClosed();
+    }
+
+    /**
+     * Returns the number of dataframes which were given up, since the sender did not repair them.
+     *
+     * @return the number of dataframes lost.
+     */
+    public synchronized long getLostCount() {
+        return lostCount;
+    }
+
+    /**
+     * Returns the number of NACKs sent to the sender.
+     *
+     * @return the number of NACKs.
+     */
+    public synchronized long getNackCount() {
+        return nackCount;
+    }
+
+    /**
+     * Leaves the group and ends the stream.
+     */
+    @Override
+    public void close() {
+        transport.close();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stream.close();
+    }
+
+    /**
+     * Receives the datagrams and sends the NACKs until the stream ends, run by the thread of the receiver.
+     */
+    private void run() {
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                transport.await(nackAt == 0 ? IDLE : Math.max(1, (nackAt - now) / 1_000_000L));
+                SocketAddress from;
+                while (true) {
+                    received.clear();
+                    if ((from = transport.receive(received)) == null) {
+                        break;
+                    }
+                    if (sender == null || sender.equals(from)) {
+                        received.flip();
+                        handle(from);
+                    }
+                }
+                if (finished && expectedSeq == endSeq) {
+                    break;
+                }
+                checkGaps(System.nanoTime());
+            }
+        } catch (ClosedChannelException e) {
+            // the receiver is closed
+        } catch (IOException e) {
+            Terminal.printError(e.getMessage());
+        }
+        if (decoded != null) {
+            decoded.release();
+            decoded = null;
+        }
+        for (PooledBuffer payload : ahead.values()) {
+            payload.release();
+        }
+        ahead.clear();
+        stream.close();
+    }
+
+    /**
+     * Handles a datagram of the sender: a dataframe of data is put in order, a heartbeat or
+     * the {@code FIN} moves the end of the stream. Faulty datagrams are dropped.
+     *
+     * @param from the address of the sender.
+     */
+    private void handle(SocketAddress from) {
+        if (decoded == null) {
+            decoded = BufferPool.shared().acquire(Encoder.decodedLength(MAXDATAGRAM));
+        }
+        ByteBuffer frame = decoded.buffer();
+        frame.clear();
+        try {
+            decoder.decode(received, frame);
+        } catch (DecodeException | StartOfPacketException | EndOfPacketException e) {
+            return;
+        }
+        frame.flip();
+        if (frame.remaining() < DataFrame.HEADER_LENGTH) {
+            return;
+        }
+        Flag flag = DataFrame.readFlag(frame);
+        int seq = DataFrame.readSeqNumber(frame);
+        if (flag == null || flag == Flag.NACK) {
+            return;
+        }
+        if (sender == null) {
+            sender = from;
+            expectedSeq = seq;
+            endSeq = seq;
+        }
+        if (flag == Flag.FIN) {
+            finished = true;
+            endSeq = Math.max(endSeq, seq);
+            return;
+        }
+        if (seq - endSeq > 0 && flag == Flag.ACK) {
+            endSeq = seq;
+            return;
+        }
+        if (flag != Flag.DEFAULT) {
+            return;
+        }
+        if (seq - endSeq >= 0) {
+            endSeq = seq + 1;
+        }
+        int distance = seq - expectedSeq;
+        if (distance < 0 || distance >= WINDOW || ahead.containsKey(seq)) {
+            return;
+        }
+        frame.position(frame.position() + DataFrame.HEADER_LENGTH);
+        if (distance > 0) {
+            ahead.put(seq, decoded.slice());
+            decoded.release();
+            decoded = null;
+            return;
+        }
+        stream.append(frame);
+        expectedSeq++;
+        tries = 0;
+        deliverAhead();
+    }
+
+    /**
+     * Appends the payloads kept ahead of a gap which has been filled.
+     */
+    private void deliverAhead() {
+        PooledBuffer next;
+        while ((next = ahead.remove(expectedSeq)) != null) {
+            stream.append(next.buffer());
+            next.release();
+            expectedSeq++;
+        }
+    }
+
+    /**
+     * Sends a NACK when a gap has been open for long enough, or gives the first gap up
+     * after too many NACKs.
+     *
+     * @param now the current time.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void checkGaps(long now) throws IOException {
+        if (expectedSeq == endSeq) {
+            nackAt = 0;
+            tries = 0;
+            return;
+        }
+        if (nackAt == 0) {
+            nackAt = now + NACKDELAY * 1_000_000L;
+            return;
+        }
+        if (now - nackAt < 0) {
+            return;
+        }
+        if (tries == MAXNACKS) {
+            int next = ahead.isEmpty() ? endSeq : ahead.firstKey();
+            synchronized (this) {
+                lostCount += next - expectedSeq;
+            }
+            expectedSeq = next;
+            tries = 0;
+            deliverAhead();
+            nackAt = 0;
+            return;
+        }
+        sendNack();
+        tries++;
+        nackAt = now + NACKINTERVAL * 1_000_000L;
+    }
+
+    /**
+     * Sends a NACK listing the missing dataframes as ranges of a first sequence number and a count,
+     * from the first gap on as far as one NACK holds.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void sendNack() throws IOException {
+        message.clear();
+        DataFrame.writeHeader(message, 0, 0, Flag.NACK);
+        int limit = endSeq - expectedSeq > WINDOW ? expectedSeq + WINDOW : endSeq;
+        int cursor = expectedSeq;
+        int ranges = 0;
+        for (Map.Entry<Integer, PooledBuffer> entry : ahead.entrySet()) {
+            int seq = entry.getKey();
+            if (ranges == MAXRANGES || seq - limit >= 0) {
+                break;
+            }
+            if (seq - cursor > 0) {
+                message.putInt(cursor).putInt(seq - cursor);
+                ranges++;
+            }
+            cursor = seq + 1;
+        }
+        if (ranges < MAXRANGES && limit - cursor > 0) {
+            message.putInt(cursor).putInt(limit - cursor);
+        }
+        message.flip();
+        nack.clear();
+        encoder.encode(message, nack);
+        nack.flip();
+        transport.send(nack, sender);
+        synchronized (this) {
+            nackCount++;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package eit.host;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.TreeSet;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.fra.uas.oop.Terminal;
+import eit.host.exception.HostException;
+import eit.linecode.DataFrame;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+import eit.linecode.Utils.Flag;
+import eit.linecode.exception.DecodeException;
+import eit.linecode.exception.EndOfPacketException;
+import eit.linecode.exception.StartOfPacketException;
+
+/**
+ * This class represents a sender which distributes one stream of data to any number of receivers
+ * through a multicast group.
+ * <p>
+ * Every dataframe is encoded once and sent once to the group, whatever the number of receivers;
+ * the network or the loopback interface makes the copies. The receivers do not acknowledge
+ * what they got. A {@code MulticastReceiver} that finds a gap in the sequence numbers asks for
+ * the missing dataframes with a {@code NACK} sent to the sender alone.
+ * <p>
+ * The NACKs are not answered one by one. The dataframes asked for are collected for a few milliseconds,
+ * so that the NACKs of all receivers missing the same dataframe are merged, and each of them is then sent
+ * to the group once more, from the encoded copy kept since it was first sent. A NACK for a dataframe which
+ * has just been repaired crossed the repair on its way and is ignored. The last 4096 dataframes are kept.
+ * <p>
+ * As there are no acknowledgements to slow it down, the sender paces the dataframes to a rate,
+ * see {@code setRate}. While no data is sent, a heartbeat tells the receivers the next sequence number,
+ * so that the loss of the last dataframes is noticed as well. {@code close} ends the stream with a {@code FIN}
+ * and waits until the receivers stop asking for repairs.
+ * <p>
+ * The encoded dataframes are kept in buffers of the shared {@code BufferPool}. A dataframe is sent by one
+ * thread at a time: the repair thread only sends it once a NACK for it arrived, which needs the first copy
+ * to have been sent, and takes a reference of its own so that the dataframe outlives its slot in the history.
+ */
+public class MulticastSender implements Closeable {
+    /**
+     * The number of datagrams sent per second by default.
+     */
+    public final static int DEFAULT_RATE = 20000;
+    private final static int MAXDATAGRAM = 1500; // the maximum size of a datagram in bytes
+    private final static int HISTORY = 4096; // the number of dataframes kept for repairs, a power of 2
+    private final static int BURST = 16; // the number of datagrams which may be sent at once after a pause
+    private final static long HEARTBEAT = 20; // the milliseconds of silence after which a heartbeat is sent
+    private final static long AGGREGATE = 5; // the milliseconds NACKs are collected before the repairs are sent
+    private final static long HOLDOFF = 20; // the milliseconds a NACK for a dataframe just repaired is ignored
+    private final static long LINGER = 200; // the milliseconds without a NACK after which a closing sender ends
+    private final Transport transport; // sends to the group and receives the NACKs
+    private final SocketAddress group; // the address of the multicast group
+    private final Encoder encoder; // encodes the dataframes, guarded by the lock of sending
+    private final Decoder decoder; // decodes the NACKs, only used by the repair thread
+    private final int maxPayload = Encoder.decodedLength(MAXDATAGRAM) - DataFrame.HEADER_LENGTH; // per dataframe
+    private final ByteBuffer frame = ByteBuffer.allocate(MAXDATAGRAM); // the dataframe being encoded, by sending
+    private final ByteBuffer received = ByteBuffer.allocate(MAXDATAGRAM); // the NACK received last
+    private final ByteBuffer nack = ByteBuffer.allocate(MAXDATAGRAM); // the decoded NACK
+    private final PooledBuffer[] history = new PooledBuffer[HISTORY]; // the encoded dataframes, by sequence number
+    private final int[] historySeq = new int[HISTORY]; // the sequence number of each encoded dataframe
+    private final long[] repairedAt = new long[HISTORY]; // the time each dataframe was repaired last
+    private final TreeSet<Integer> pending = new TreeSet<>(); // the dataframes asked for, by the repair thread
+    private final Object sending = new Object(); // keeps the dataframes of one call of send together
+    private PooledBuffer heartbeat; // the encoded heartbeat or FIN, null until data has been sent, guarded by this
+    private final Thread repairer = new Thread(this::run, "multicast-repair"); // answers the NACKs
+    private int nextSeq = 1; // the sequence number of the next dataframe, only changed while sending
+    private long lastSent; // the time the last datagram was sent
+    private long interval = 1_000_000_000L / DEFAULT_RATE; // the nanoseconds between two datagrams
+    private long nextSlot; // the earliest time the next dataframe may be sent, guarded by the lock of sending
+    private long flushAt; // the time the collected repairs are sent, by the repair thread
+    private long lastNack; // the time the last NACK arrived, by the repair thread
+    private long encodedCount; // the number of dataframes encoded
+    private long repairCount; // the number of dataframes sent again
+    private long nackCount; // the number of NACKs received
+    private long suppressedCount; // the number of dataframes asked for which were not sent again
+    private volatile boolean closing; // true once close was called
+
+    /**
+     * Initialises a sender to the given group, which sends through the given interface.
+     *
+     * @param encoder          the encoder of the dataframes.
+     * @param decoder          the decoder of the NACKs.
+     * @param group            the address and port of the multicast group.
+     * @param networkInterface the interface the datagrams leave through, e.g. the loopback interface.
+     * @throws IOException if an I/O error occurs.
+     */
+    public MulticastSender(Encoder encoder, Decoder decoder, InetSocketAddress group,
+                           NetworkInterface networkInterface) throws IOException {
+        this(encoder, decoder, UdpTransport.multicast(networkInterface), group);
+    }
+
+    /**
+     * Initialises a sender to the given group on the given transport.
+     * The transport is closed together with the sender.
+     *
+     * @param encoder   the encoder of the dataframes.
+     * @param decoder   the decoder of the NACKs.
+     * @param transport the transport the group is reached by.
+     * @param group     the address of the group.
+     */
+    public MulticastSender(Encoder encoder, Decoder decoder, Transport transport, SocketAddress group) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.transport = transport;
+        this.group = group;
+        repairer.setDaemon(true);
+        repairer.start();
+    }
+
+    /**
+     * Sets the number of datagrams sent per second, repairs not counted.
+     * The receivers lose what exceeds the rate their sockets are read at, which has to be repaired then.
+     *
+     * @param datagramsPerSecond the rate, at least 1.
+     * @throws IllegalArgumentException if the rate is less than 1.
+     */
+    public synchronized void setRate(int datagramsPerSecond) {
+        if (datagramsPerSecond < 1) {
+            throw new IllegalArgumentException("rate must be at least 1");
+        }
+        interval = 1_000_000_000L / datagramsPerSecond;
+    }
+
+    /**
+     * Sends data to the group. The data is split into dataframes, each of which is encoded once,
+     * kept for repairs and sent to the group, paced to the rate of the sender.
+     * <p>
+     * The dataframes are encoded without holding the lock of the sender, which the repair thread needs
+     * for every NACK; on a single core, a thread holding it while it encodes would starve the repairs.
+     *
+     * @param data the data as {@code byte[]} to be sent.
+     * @throws HostException when the sender is closed.
+     */
+    public void send(byte[] data) {
+        synchronized (sending) {
+            for (int start = 0; start < data.length; start += maxPayload) {
+                if (closing) {
+                    throw new HostException("Sender closed");
+                }
+                PooledBuffer datagram = encode(nextSeq, Flag.DEFAULT, data, start,
+                        Math.min(maxPayload, data.length - start));
+                keep(datagram);
+                pace();
+                transmit(datagram.buffer());
+            }
+            beat(encode(nextSeq, Flag.ACK, null, 0, 0));
+        }
+    }
+
+    /**
+     * Returns the number of dataframes encoded, one for each dataframe of data whatever the number of receivers.
+     *
+     * @return the number of dataframes encoded.
+     */
+    public synchronized long getEncodedCount() {
+        return encodedCount;
+    }
+
+    /**
+     * Returns the number of dataframes sent to the group again on behalf of NACKs.
+     *
+     * @return the number of repairs.
+     */
+    public synchronized long getRepairCount() {
+        return repairCount;
+    }
+
+    /**
+     * Returns the number of NACKs received from the receivers.
+     *
+     * @return the number of NACKs.
+     */
+    public synchronized long getNackCount() {
+        return nackCount;
+    }
+
+    /**
+     * Returns the number of dataframes asked for which were not sent again on their own, because they had just
+     * been repaired, were already waiting to be repaired or were no longer kept.
+     *
+     * @return the number of dataframes suppressed.
+     */
+    public synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * Ends the stream with a {@code FIN}, which is repeated until no receiver has asked for a repair
+     * for 200 milliseconds, and closes the sender.
+     */
+    @Override
+    public void close() {
+        synchronized (sending) {
+            if (!closing) {
+                beat(encode(nextSeq, Flag.FIN, null, 0, 0));
+                closing = true;
+            }
+        }
+        try {
+            repairer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        transport.close();
+        synchronized (this) {
+            for (int slot = 0; slot < HISTORY; slot++) {
+                if (history[slot] != null) {
+                    history[slot].release();
+                    history[slot] = null;
+                }
+            }
+            if (heartbeat != null) {
+                heartbeat.release();
+                heartbeat = null;
+            }
+        }
+    }
+
+    /**
+     * Keeps the encoded dataframe with the next sequence number for repairs and moves on to the next one.
+     * The history takes over the reference to the dataframe and releases the one it displaces.
+     *
+     * @param datagram the encoded dataframe.
+     */
+    private synchronized void keep(PooledBuffer datagram) {
+        int slot = nextSeq & (HISTORY - 1);
+        if (history[slot] != null) {
+            history[slot].release();
+        }
+        history[slot] = datagram;
+        historySeq[slot] = nextSeq;
+        repairedAt[slot] = 0;
+        nextSeq++;
+        encodedCount++;
+        lastSent = System.nanoTime();
+    }
+
+    /**
+     * Replaces the heartbeat, releasing the one sent before.
+     *
+     * @param datagram the encoded heartbeat or FIN.
+     */
+    private synchronized void beat(PooledBuffer datagram) {
+        if (heartbeat != null) {
+            heartbeat.release();
+        }
+        heartbeat = datagram;
+    }
+
+    /**
+     * Builds and encodes a dataframe. Must be called with the lock of sending held.
+     *
+     * @param seqNumber the sequence number of the dataframe.
+     * @param flag      the flag of the dataframe.
+     * @param data      the array containing the payload, may be null.
+     * @param offset    the offset of the payload in the array.
+     * @param count     the length of the payload.
+     * @return the encoded dataframe in a buffer of the shared pool, with one reference.
+     */
+    private PooledBuffer encode(int seqNumber, Flag flag, byte[] data, int offset, int count) {
+        frame.clear();
+        DataFrame.writeHeader(frame, seqNumber, 0, flag);
+        if (data != null) {
+            frame.put(data, offset, count);
+        }
+        frame.flip();
+        PooledBuffer datagram = BufferPool.shared().acquire(Encoder.encodedLength(frame.remaining()));
+        ByteBuffer target = datagram.buffer();
+        encoder.encode(frame, target);
+        target.flip();
+        return datagram;
+    }
+
+    /**
+     * Waits until the next dataframe may be sent at the rate of the sender.
+     * After a pause, a short burst is sent without waiting.
+     */
+    private void pace() {
+        long gap;
+        synchronized (this) {
+            gap = interval;
+        }
+        long now = System.nanoTime();
+        nextSlot = Math.max(nextSlot, now - BURST * gap);
+        if (nextSlot - now > 0) {
+            LockSupport.parkNanos(nextSlot - now);
+        }
+        nextSlot += gap;
+    }
+
+    /**
+     * Sends an encoded dataframe to the group. A dataframe that could not be sent
+     * is treated like a lost one, the receivers ask for it again.
+     *
+     * @param datagram the encoded dataframe, sent from its start.
+     */
+    private void transmit(ByteBuffer datagram) {
+        try {
+            datagram.rewind();
+            transport.send(datagram, group);
+        } catch (IOException e) {
+            // repaired when the receivers ask for it
+        }
+    }
+
+    /**
+     * Answers the NACKs, sends the heartbeats and finally the {@code FIN}, run by the repair thread.
+     */
+    private void run() {
+        try {
+            boolean ending = false;
+            while (true) {
+                long now = System.nanoTime();
+                if (!pending.isEmpty() && now - flushAt >= 0) {
+                    repair(now);
+                }
+                if (closing && !ending) {
+                    ending = true;
+                    lastNack = now;
+                    heartbeat();
+                } else if (ending && pending.isEmpty() && (now - lastNack) / 1_000_000L >= LINGER) {
+                    return;
+                } else if (silence(now) >= HEARTBEAT) {
+                    heartbeat();
+                }
+                long wait = HEARTBEAT - silence(now);
+                if (!pending.isEmpty()) {
+                    wait = Math.min(wait, (flushAt - now) / 1_000_000L);
+                }
+                transport.await(Math.max(1, wait));
+                receiveNacks();
+            }
+        } catch (ClosedChannelException e) {
+            // the sender is closed
+        } catch (IOException e) {
+            Terminal.printError(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns how long the sender has been silent.
+     *
+     * @param now the current time.
+     * @return the milliseconds since the last datagram was sent, 0 if no data has been sent yet.
+     */
+    private synchronized long silence(long now) {
+        return heartbeat == null ? 0 : (now - lastSent) / 1_000_000L;
+    }
+
+    /**
+     * Sends a dataframe without payload carrying the sequence number of the next dataframe,
+     * an {@code ACK} while the stream goes on and a {@code FIN} at its end.
+     * It is encoded by the thread sending the data, whenever the next sequence number changes.
+     */
+    private void heartbeat() {
+        PooledBuffer datagram;
+        synchronized (this) {
+            lastSent = System.nanoTime();
+            datagram = heartbeat.retain();
+        }
+        transmit(datagram.buffer());
+        datagram.release();
+    }
+
+    /**
+     * Receives the NACKs which have arrived and collects the dataframes asked for.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void receiveNacks() throws IOException {
+        while (true) {
+            received.clear();
+            if (transport.receive(received) == null) {
+                return;
+            }
+            received.flip();
+            nack.clear();
+            try {
+                decoder.decode(received, nack);
+            } catch (DecodeException | StartOfPacketException | EndOfPacketException e) {
+                continue;
+            }
+            nack.flip();
+            if (nack.remaining() < DataFrame.HEADER_LENGTH || !Flag.NACK.equals(DataFrame.readFlag(nack))) {
+                continue;
+            }
+            long now = System.nanoTime();
+            lastNack = now;
+            synchronized (this) {
+                nackCount++;
+            }
+            nack.position(nack.position() + DataFrame.HEADER_LENGTH);
+            while (nack.remaining() >= 2 * Integer.BYTES) {
+                int first = nack.getInt();
+                int count = Math.min(nack.getInt(), HISTORY);
+                for (int seq = first; seq - first < count; seq++) {
+                    request(seq, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects a dataframe asked for, unless it is no longer kept or has just been repaired.
+     * The first dataframe collected starts the time the repairs are sent at.
+     *
+     * @param seqNumber the sequence number of the dataframe.
+     * @param now       the current time.
+     */
+    private void request(int seqNumber, long now) {
+        synchronized (this) {
+            int slot = seqNumber & (HISTORY - 1);
+            if (history[slot] == null || historySeq[slot] != seqNumber || nextSeq - seqNumber <= 0
+                    || (repairedAt[slot] != 0 && (now - repairedAt[slot]) / 1_000_000L < HOLDOFF)
+                    || pending.contains(seqNumber)) {
+                suppressedCount++;
+                return;
+            }
+        }
+        if (pending.isEmpty()) {
+            flushAt = now + AGGREGATE * 1_000_000L;
+        }
+        pending.add(seqNumber);
+    }
+
+    /**
+     * Sends every dataframe collected to the group once more.
+     *
+     * @param now the current time.
+     */
+    private void repair(long now) {
+        for (int seq : pending) {
+            PooledBuffer datagram;
+            synchronized (this) {
+                int slot = seq & (HISTORY - 1);
+                if (historySeq[slot] != seq) {
+                    continue;
+                }
+                datagram = history[slot].retain();
+                repairedAt[slot] = now;
+                repairCount++;
+                lastSent = now;
+            }
+            transmit(datagram.buffer());
+            datagram.release();
+        }
+        pending.clear();
+    }
+}
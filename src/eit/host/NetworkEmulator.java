@@ -0,0 +1,434 @@
+package eit.host;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import edu.fra.uas.oop.Terminal;
+
+/**
+ * This class represents a relay between clients and a server which emulates an imperfect network.
+ * <p>
+ * Clients send to the address of the emulator instead of the server. Every client gets a channel
+ * of its own towards the server, so the server still sees one address per client, and the replies
+ * of the server are relayed back to the client they belong to.
+ * <p>
+ * Each direction is a link with the same impairments: loss, burst loss after the Gilbert-Elliott model,
+ * delay with jitter, reordering by an extra delay, duplication, a bandwidth limit and the corruption
+ * of a bit of the encoded datagram. All random decisions are drawn from one generator with a fixed seed,
+ * so a run with the same traffic makes the same decisions. The impairments are set before {@code start}.
+ * <p>
+ * The emulator runs on a thread of its own; the number of datagrams forwarded and affected
+ * by each impairment can be observed while it runs.
+ */
+public class NetworkEmulator {
+    private final static int MAXDATAGRAM = 65507; // the maximum size of a datagram in bytes, the largest UDP payload
+    private final DatagramChannel channel; // the channel the clients send to
+    private final InetSocketAddress server; // the address of the server
+    private final Selector selector; // waits for datagrams on all channels
+    private final Map<SocketAddress, DatagramChannel> upstream = new HashMap<>(); // the channel of each client
+    private final PriorityQueue<Delayed> pending = new PriorityQueue<>(); // datagrams waiting to be delivered
+    private final Random random; // draws all random decisions
+    private final Link toServer = new Link(); // the state of the link from the clients to the server
+    private final Link toClient = new Link(); // the state of the link from the server to the clients
+    private final ByteBuffer buf = ByteBuffer.allocate(MAXDATAGRAM); // the datagram received last
+    private final Thread thread = new Thread(this::run, "network-emulator"); // relays the datagrams
+    private double loss; // the probability of a datagram to be lost outside a burst
+    private double burstStart; // the probability of a burst to start with a datagram
+    private double burstEnd; // the probability of a burst to end with a datagram
+    private double burstLoss; // the probability of a datagram to be lost during a burst
+    private long delay; // the nanoseconds a datagram takes on a link
+    private long jitter; // the nanoseconds the delay varies by in either direction
+    private double reordering; // the probability of a datagram to be held back
+    private long reorderDelay; // the nanoseconds a datagram is held back by
+    private double duplication; // the probability of a datagram to be delivered twice
+    private long bandwidth; // the bytes per second a link carries, 0 if not limited
+    private double corruption; // the probability of a bit of a datagram to be flipped
+    private long sequence; // the number of datagrams queued, keeps datagrams due at once in order
+    private long forwarded; // the number of datagrams delivered
+    private long dropped; // the number of datagrams lost
+    private long duplicated; // the number of datagrams delivered twice
+    private long reordered; // the number of datagrams held back
+    private long corrupted; // the number of datagrams with a flipped bit
+    private volatile boolean active = true; // false after close
+
+    /**
+     * Initialises an emulator in front of a server.
+     *
+     * @param address the address the clients send to, a port of 0 binds to any free port.
+     * @param server  the address of the server.
+     * @param seed    the seed of the random decisions.
+     * @throws IOException if an I/O error occurs.
+     */
+    public NetworkEmulator(InetSocketAddress address, InetSocketAddress server, long seed) throws IOException {
+        this.server = server;
+        random = new Random(seed);
+        selector = Selector.open();
+        channel = DatagramChannel.open();
+        try {
+            channel.bind(address);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the probability of a datagram to be lost, independently of the others.
+     *
+     * @param probability the probability, 0 to 1.
+     * @throws IllegalArgumentException if the probability is out of range.
+     */
+    public void setLoss(double probability) {
+        loss = checkProbability(probability);
+    }
+
+    /**
+     * Sets the loss of datagrams in bursts. Outside a burst datagrams are lost as set by {@code setLoss}.
+     * The mean length of a burst is {@code 1 / end} datagrams.
+     *
+     * @param start       the probability of a burst to start with a datagram, 0 to 1.
+     * @param end         the probability of a burst to end with a datagram, 0 to 1.
+     * @param probability the probability of a datagram to be lost during a burst, 0 to 1.
+     * @throws IllegalArgumentException if a probability is out of range.
+     */
+    public void setBurstLoss(double start, double end, double probability) {
+        burstStart = checkProbability(start);
+        burstEnd = checkProbability(end);
+        burstLoss = checkProbability(probability);
+    }
+
+    /**
+     * Sets the time a datagram takes on a link.
+     *
+     * @param delayMillis  the mean delay in milliseconds.
+     * @param jitterMillis the milliseconds the delay varies by in either direction, evenly distributed.
+     * @throws IllegalArgumentException if a value is negative.
+     */
+    public void setDelay(long delayMillis, long jitterMillis) {
+        if (delayMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("delay and jitter must not be negative");
+        }
+        delay = delayMillis * 1_000_000L;
+        jitter = jitterMillis * 1_000_000L;
+    }
+
+    /**
+     * Sets the reordering of datagrams: a datagram held back is overtaken by the ones sent after it.
+     *
+     * @param probability the probability of a datagram to be held back, 0 to 1.
+     * @param delayMillis the milliseconds a datagram is held back by.
+     * @throws IllegalArgumentException if the probability is out of range or the delay is negative.
+     */
+    public void setReordering(double probability, long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        reordering = checkProbability(probability);
+        reorderDelay = delayMillis * 1_000_000L;
+    }
+
+    /**
+     * Sets the probability of a datagram to be delivered twice.
+     *
+     * @param probability the probability, 0 to 1.
+     * @throws IllegalArgumentException if the probability is out of range.
+     */
+    public void setDuplication(double probability) {
+        duplication = checkProbability(probability);
+    }
+
+    /**
+     * Sets the bandwidth of each link. Datagrams are sent one after the other at this rate
+     * and wait for the link while it is busy, before their delay starts.
+     *
+     * @param bytesPerSecond the bytes per second, 0 for no limit.
+     * @throws IllegalArgumentException if the bandwidth is negative.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bandwidth must not be negative");
+        }
+        bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * Sets the probability of a datagram to have one bit of its encoded bytes flipped.
+     * With the 8b/10b line code, this turns one symbol of the code word into the other.
+     *
+     * @param probability the probability, 0 to 1.
+     * @throws IllegalArgumentException if the probability is out of range.
+     */
+    public void setCorruption(double probability) {
+        corruption = checkProbability(probability);
+    }
+
+    /**
+     * Starts relaying datagrams.
+     */
+    public void start() {
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the address the clients send to.
+     *
+     * @return the local address of the emulator.
+     * @throws IOException if an I/O error occurs.
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * Returns the number of datagrams delivered, duplicates included.
+     *
+     * @return the number of datagrams forwarded since the start.
+     */
+    public synchronized long getForwardedCount() {
+        return forwarded;
+    }
+
+    /**
+     * Returns the number of datagrams lost, independently or in bursts.
+     *
+     * @return the number of datagrams dropped since the start.
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Returns the number of datagrams delivered twice.
+     *
+     * @return the number of datagrams duplicated since the start.
+     */
+    public synchronized long getDuplicatedCount() {
+        return duplicated;
+    }
+
+    /**
+     * Returns the number of datagrams held back to be overtaken.
+     *
+     * @return the number of datagrams reordered since the start.
+     */
+    public synchronized long getReorderedCount() {
+        return reordered;
+    }
+
+    /**
+     * Returns the number of datagrams with a flipped bit.
+     *
+     * @return the number of datagrams corrupted since the start.
+     */
+    public synchronized long getCorruptedCount() {
+        return corrupted;
+    }
+
+    /**
+     * Closes all channels and stops the emulator. Datagrams still waiting are discarded.
+     */
+    public void close() {
+        active = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+            for (DatagramChannel client : upstream.values()) {
+                client.close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * Receives the datagrams of both directions and delivers them when they are due,
+     * waiting for the next datagram or the next delivery.
+     */
+    private void run() {
+        while (active) {
+            try {
+                long now = System.nanoTime();
+                while (!pending.isEmpty() && pending.peek().due - now <= 0) {
+                    Delayed next = pending.poll();
+                    next.channel.send(ByteBuffer.wrap(next.datagram), next.target);
+                }
+                if (pending.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1, (pending.peek().due - now + 999_999L) / 1_000_000L));
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    receive(key);
+                }
+            } catch (ClosedChannelException e) {
+                active = false;
+            } catch (IOException e) {
+                Terminal.printError(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Receives all datagrams waiting on a channel and passes them to the link of their direction.
+     * A datagram of a new client opens a channel towards the server for it.
+     *
+     * @param key the key of the channel.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void receive(SelectionKey key) throws IOException {
+        DatagramChannel source = (DatagramChannel) key.channel();
+        SocketAddress sender;
+        buf.clear();
+        while ((sender = source.receive(buf)) != null) {
+            buf.flip();
+            if (source == channel) {
+                DatagramChannel client = upstream.get(sender);
+                if (client == null) {
+                    client = DatagramChannel.open();
+                    client.connect(server);
+                    client.configureBlocking(false);
+                    client.register(selector, SelectionKey.OP_READ, sender);
+                    upstream.put(sender, client);
+                }
+                transfer(toServer, client, server);
+            } else {
+                transfer(toClient, channel, (SocketAddress) key.attachment());
+            }
+            buf.clear();
+        }
+    }
+
+    /**
+     * Applies the impairments of a link to the datagram received last and queues it for delivery.
+     *
+     * @param link   the link the datagram travels on.
+     * @param target the channel the datagram is sent on.
+     * @param to     the address the datagram is sent to.
+     */
+    private synchronized void transfer(Link link, DatagramChannel target, SocketAddress to) {
+        if (link.isLost()) {
+            dropped++;
+            return;
+        }
+        byte[] datagram = new byte[buf.remaining()];
+        buf.get(datagram);
+        if (datagram.length > 0 && random.nextDouble() < corruption) {
+            datagram[random.nextInt(datagram.length)] ^= 1 << random.nextInt(Byte.SIZE);
+            corrupted++;
+        }
+        long now = System.nanoTime();
+        long departure = now;
+        if (bandwidth > 0) {
+            departure = Math.max(now, link.free) + datagram.length * 1_000_000_000L / bandwidth;
+            link.free = departure;
+        }
+        long due = departure + delay;
+        if (jitter > 0) {
+            due += (long) ((random.nextDouble() * 2 - 1) * jitter);
+        }
+        if (random.nextDouble() < reordering) {
+            due += reorderDelay;
+            reordered++;
+        }
+        due = Math.max(now, due);
+        pending.add(new Delayed(datagram, target, to, due, sequence++));
+        forwarded++;
+        if (random.nextDouble() < duplication) {
+            pending.add(new Delayed(datagram, target, to, due, sequence++));
+            forwarded++;
+            duplicated++;
+        }
+    }
+
+    /**
+     * Checks that a value is a probability.
+     *
+     * @param probability the value.
+     * @return the value.
+     * @throws IllegalArgumentException if the value is not between 0 and 1.
+     */
+    private static double checkProbability(double probability) {
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("probability must be between 0 and 1: " + probability);
+        }
+        return probability;
+    }
+
+    /**
+     * This class represents the state of one direction of the emulated network.
+     */
+    private class Link {
+        private boolean burst; // true while the link is in a burst of losses
+        private long free = System.nanoTime(); // the System.nanoTime() at which the link has sent all datagrams
+
+        /**
+         * Moves the burst state on by one datagram and decides whether the datagram is lost.
+         *
+         * @return true if the datagram is lost.
+         */
+        boolean isLost() {
+            if (burst ? random.nextDouble() < burstEnd : random.nextDouble() < burstStart) {
+                burst = !burst;
+            }
+            return random.nextDouble() < (burst ? burstLoss : loss);
+        }
+    }
+
+    /**
+     * This class represents a datagram waiting to be delivered.
+     */
+    private static class Delayed implements Comparable<Delayed> {
+        private final byte[] datagram; // the bytes of the datagram
+        private final DatagramChannel channel; // the channel the datagram is sent on
+        private final SocketAddress target; // the address the datagram is sent to
+        private final long due; // the System.nanoTime() at which the datagram is delivered
+        private final long order; // the order in which the datagrams were queued
+
+        /**
+         * Constructs a datagram waiting to be delivered.
+         *
+         * @param datagram the bytes of the datagram.
+         * @param channel  the channel the datagram is sent on.
+         * @param target   the address the datagram is sent to.
+         * @param due      the System.nanoTime() at which the datagram is delivered.
+         * @param order    the order in which the datagrams were queued.
+         */
+        Delayed(byte[] datagram, DatagramChannel channel, SocketAddress target, long due, long order) {
+            this.datagram = datagram;
+            this.channel = channel;
+            this.target = target;
+            this.due = due;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            int byDue = Long.compare(due - other.due, 0);
+            return byDue != 0 ? byDue : Long.compare(order, other.order);
+        }
+    }
+}
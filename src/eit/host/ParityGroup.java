@@ -0,0 +1,187 @@
+package eit.host;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class builds the parity dataframes of a group of consecutive dataframes of a stream.
+ * <p>
+ * The dataframes of a group are dealt round-robin to {@code parity} interleaved classes,
+ * and each class is protected by the XOR of its payloads. The receiver can rebuild one lost
+ * dataframe per class from the parity and the other dataframes of the class, without a retransmission.
+ * Interleaving lets a group survive a burst of up to {@code parity} consecutive losses.
+ * <p>
+ * A parity dataframe carries the sequence number of the first dataframe of the group. Its acknowledgement
+ * number describes the group, see {@code pack}, and its payload is the XOR of the payloads of its class,
+ * padded with zeros to the longest of them. So a parity dataframe is never longer than the longest
+ * dataframe it protects and always fits into a datagram.
+ */
+class ParityGroup {
+    /**
+     * The largest number of dataframes in a group.
+     */
+    final static int MAXSIZE = 32;
+    /**
+     * The largest number of parity dataframes of a group.
+     */
+    final static int MAXPARITY = 8;
+    private final int size; // the number of dataframes in a full group
+    private final int parity; // the number of interleaved classes, each with one parity dataframe
+    private final byte[][] xor; // the XOR of the payloads of each class
+    private final ByteBuffer[] views; // wrap the XOR of each class for encoding
+    private final int[] lengths; // the XOR of the payload lengths of each class
+    private final int[] longest; // the length of the longest payload of each class
+    private int start; // the sequence number of the first dataframe of the group
+    private int count; // the number of dataframes in the group
+
+    /**
+     * Constructs an empty group.
+     *
+     * @param size   the number of dataframes in a full group, 1 to 32.
+     * @param parity the number of parity dataframes of a group, 1 to 8 and at most {@code size}.
+     */
+    ParityGroup(int size, int parity) {
+        this.size = size;
+        this.parity = parity;
+        xor = new byte[parity][0];
+        views = new ByteBuffer[parity];
+        lengths = new int[parity];
+        longest = new int[parity];
+    }
+
+    /**
+     * Adds a dataframe with a payload held in an array to the group.
+     * A dataframe which does not follow the last one starts a new group.
+     *
+     * @param seqNumber the sequence number of the dataframe.
+     * @param payload   the array containing the payload.
+     * @param offset    the offset of the payload in the array.
+     * @param count     the length of the payload.
+     */
+    void add(int seqNumber, byte[] payload, int offset, int count) {
+        int index = next(seqNumber, count);
+        for (int i = 0; i < count; i++) {
+            xor[index][i] ^= payload[offset + i];
+        }
+    }
+
+    /**
+     * Adds a dataframe of a file to the group, whose payload is the offset of the data followed by the data.
+     * The position of the data is not changed.
+     *
+     * @param seqNumber the sequence number of the dataframe.
+     * @param position  the offset of the data in the file.
+     * @param data      the buffer whose remaining bytes are the data.
+     */
+    void add(int seqNumber, long position, ByteBuffer data) {
+        int index = next(seqNumber, Long.BYTES + data.remaining());
+        for (int i = 0; i < Long.BYTES; i++) {
+            xor[index][i] ^= (byte) (position >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+        }
+        for (int i = 0; i < data.remaining(); i++) {
+            xor[index][Long.BYTES + i] ^= data.get(data.position() + i);
+        }
+    }
+
+    /**
+     * Answers whether the group is full and its parity has to be sent.
+     *
+     * @return true if the group holds {@code size} dataframes.
+     */
+    boolean isFull() {
+        return count == size;
+    }
+
+    /**
+     * Returns the number of parity dataframes the group needs; classes without a dataframe need none.
+     *
+     * @return the number of parity dataframes.
+     */
+    int getParityCount() {
+        return Math.min(count, parity);
+    }
+
+    /**
+     * Returns the sequence number of the first dataframe of the group.
+     *
+     * @return the sequence number carried by the parity dataframes.
+     */
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the acknowledgement number of a parity dataframe, which describes the group.
+     *
+     * @param index the class of the parity dataframe.
+     * @return the packed description of the group.
+     */
+    int getDescription(int index) {
+        return pack(count, parity, index, lengths[index]);
+    }
+
+    /**
+     * Returns the payload of a parity dataframe, ready for reading.
+     *
+     * @param index the class of the parity dataframe.
+     * @return the XOR of the payloads of the class.
+     */
+    ByteBuffer getPayload(int index) {
+        if (views[index] == null || views[index].array() != xor[index]) {
+            views[index] = ByteBuffer.wrap(xor[index]);
+        }
+        views[index].limit(longest[index]).position(0);
+        return views[index];
+    }
+
+    /**
+     * Empties the group, the next dataframe starts a new one.
+     */
+    void clear() {
+        for (int i = 0; i < parity; i++) {
+            Arrays.fill(xor[i], 0, longest[i], (byte) 0);
+            lengths[i] = 0;
+            longest[i] = 0;
+        }
+        count = 0;
+    }
+
+    /**
+     * Describes a group in the acknowledgement number of a parity dataframe: the number of dataframes
+     * in the high byte, then the number of classes minus one and the class in four bits each,
+     * then the XOR of the payload lengths of the class in the low 16 bits.
+     *
+     * @param count  the number of dataframes in the group.
+     * @param parity the number of classes.
+     * @param index  the class.
+     * @param length the XOR of the payload lengths of the class.
+     * @return the packed description.
+     */
+    static int pack(int count, int parity, int index, int length) {
+        return count << 24 | (parity - 1) << 20 | index << 16 | length & 0xFFFF;
+    }
+
+    /**
+     * Adds the next dataframe to the bookkeeping of the group and makes room for its payload.
+     *
+     * @param seqNumber the sequence number of the dataframe.
+     * @param length    the length of the payload.
+     * @return the class of the dataframe.
+     */
+    private int next(int seqNumber, int length) {
+        if (count > 0 && seqNumber != start + count) {
+            clear();
+        }
+        if (count == 0) {
+            start = seqNumber;
+        }
+        int index = count % parity;
+        if (xor[index].length < length) {
+            xor[index] = Arrays.copyOf(xor[index], length);
+        }
+        lengths[index] ^= length;
+        longest[index] = Math.max(longest[index], length);
+        count++;
+        return index;
+    }
+}
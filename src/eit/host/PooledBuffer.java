@@ -0,0 +1,173 @@
+package eit.host;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents a direct buffer of a {@code BufferPool}, counted by reference.
+ * <p>
+ * A buffer is acquired with one reference. A stage which keeps the buffer beyond the one
+ * handing it over takes a reference of its own with {@code retain}, every reference is given up
+ * with {@code release}; the buffer goes back to its pool with the last one. So an encoded dataframe
+ * can be kept for a retransmission and sent by another thread at the same time, without copying it.
+ * Once released, the buffer must not be used any more; {@code buffer} then throws.
+ * <p>
+ * A stage which keeps only a part of the buffer, e.g. the payload of a decoded dataframe, takes
+ * a {@code slice} of it. The slice shares the bytes and the references of the buffer, but has a position
+ * and limit of its own, so neither the stages before it nor those after it disturb one another.
+ */
+public final class PooledBuffer {
+    private final BufferPool pool; // the pool the buffer goes back to
+    private final ByteBuffer buffer; // the bytes of the buffer
+    private final int sizeClass; // the size class of the buffer in its pool
+    private final AtomicInteger references; // the number of references, 0 if released, shared by the slices
+    private final PooledBuffer root; // the buffer of the pool, this buffer unless it is a slice
+    private Throwable acquiredAt; // where the buffer was acquired, null unless the pool is debugging
+
+    /**
+     * Wraps a buffer allocated by a pool.
+     *
+     * @param pool      the pool of the buffer.
+     * @param buffer    the direct buffer.
+     * @param sizeClass the size class of the buffer.
+     */
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        this.references = new AtomicInteger();
+        this.root = this;
+    }
+
+    /**
+     * Wraps a slice of a buffer of a pool.
+     *
+     * @param root  the buffer of the pool.
+     * @param slice the part of its bytes.
+     */
+    private PooledBuffer(PooledBuffer root, ByteBuffer slice) {
+        this.pool = root.pool;
+        this.buffer = slice;
+        this.sizeClass = root.sizeClass;
+        this.references = root.references;
+        this.root = root;
+    }
+
+    /**
+     * Returns the bytes of the buffer. The position and limit are left as the last user set them.
+     *
+     * @return the direct buffer.
+     * @throws IllegalStateException if the buffer has been released.
+     */
+    public ByteBuffer buffer() {
+        if (references.get() <= 0) {
+            throw new IllegalStateException("buffer already released");
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes the buffer holds.
+     *
+     * @return the capacity of the buffer.
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns a view of the remaining bytes of the buffer, which takes another reference to the buffer.
+     * The view starts at position 0 and has its own position and limit; releasing it gives up its reference.
+     *
+     * @return the slice.
+     * @throws IllegalStateException if the buffer has been released.
+     */
+    public PooledBuffer slice() {
+        ByteBuffer slice = buffer().slice();
+        retain();
+        return new PooledBuffer(root, slice);
+    }
+
+    /**
+     * Takes another reference to the buffer, which has to be released on its own.
+     *
+     * @return this buffer.
+     * @throws IllegalStateException if the buffer has been released.
+     */
+    public PooledBuffer retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Gives up a reference to the buffer. The last reference gives the buffer back to its pool.
+     *
+     * @return true if the buffer went back to its pool.
+     * @throws IllegalStateException if the buffer has been released already.
+     */
+    public boolean release() {
+        int count = references.decrementAndGet();
+        if (count < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("buffer released twice");
+        }
+        if (count == 0) {
+            pool.release(root);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of references to the buffer.
+     *
+     * @return the number of references, 0 once the buffer is back in its pool.
+     */
+    public int getReferenceCount() {
+        return references.get();
+    }
+
+    /**
+     * Hands the buffer out again with one reference, called by the pool.
+     *
+     * @param acquiredAt where the buffer is acquired, null unless the pool is debugging.
+     */
+    void reset(Throwable acquiredAt) {
+        this.acquiredAt = acquiredAt;
+        buffer.clear();
+        references.set(1);
+    }
+
+    /**
+     * Returns the bytes of the buffer without checking the references, for the pool.
+     *
+     * @return the direct buffer.
+     */
+    ByteBuffer bytes() {
+        return buffer;
+    }
+
+    /**
+     * Returns the size class of the buffer in its pool.
+     *
+     * @return the size class.
+     */
+    int getSizeClass() {
+        return sizeClass;
+    }
+
+    /**
+     * Returns where the buffer was acquired.
+     *
+     * @return the stack trace of the acquisition, null unless the pool is debugging.
+     */
+    Throwable getAcquiredAt() {
+        return acquiredAt;
+    }
+}
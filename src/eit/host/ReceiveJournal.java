@@ -0,0 +1,320 @@
+package eit.host;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * This class represents a journal on disk of the payloads a {@code Server} receives on its default streams.
+ * <p>
+ * The payloads are appended to segment files of a fixed size, which are mapped into memory, so appending
+ * is a copy into memory without a system call. Every record is the length of the payload followed by
+ * the payload. A segment is named after the number of its first record; when a record does not fit
+ * into a segment any more, the next segment is started.
+ * <p>
+ * Appending does not make a record durable. {@code commit} forces all records appended since the last
+ * commit to disk at once and then writes the end of the committed records to a small index file,
+ * which is forced after the segments. After a crash, the index tells where the committed records end;
+ * records behind it are dropped when the journal is opened again.
+ * A server with a journal holds back the acknowledgement of a dataframe until a commit covers it,
+ * and commits at the interval of the journal, so many dataframes share one commit.
+ * <p>
+ * The records are read with {@code replay}, and segments no longer needed are deleted with {@code release}.
+ * The payloads are appended by the server thread; the methods may be called from any thread.
+ */
+public class ReceiveJournal implements Closeable {
+    /**
+     * The size of a segment in bytes by default, 64 MB.
+     */
+    public final static int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    /**
+     * The interval of the commits in milliseconds by default.
+     */
+    public final static long DEFAULT_COMMIT_INTERVAL = 5;
+    private final static int MINSEGMENT = 64 << 10; // the smallest segment, which takes the largest payload
+    private final static String SUFFIX = ".log"; // the suffix of the segment files
+    private final static String INDEX = "journal.idx"; // the name of the index file
+    private final static int INDEXSIZE = Long.BYTES + Integer.BYTES; // the first record and end of the last segment
+    private final Path directory; // the directory of the segments and the index
+    private final int segmentSize; // the size of a new segment in bytes
+    private final long commitInterval; // the milliseconds between the commits of a server
+    private final MappedByteBuffer index; // the committed end of the journal
+    private final TreeSet<Long> bases = new TreeSet<>(); // the numbers of the first records of the segments
+    private final List<MappedByteBuffer> unforced = new ArrayList<>(); // full segments not forced yet
+    private MappedByteBuffer segment; // the segment appended to, its position is the end of the records
+    private long base; // the number of the first record of the segment appended to
+    private long records; // the number of records appended
+    private long committed; // the number of records committed
+    private long committedBase; // the number of the first record of the segment the committed records end in
+    private int committedEnd; // the end of the committed records in that segment
+    private IOException failure; // the first error while appending, null if there is none
+    private boolean closed; // true once the journal is closed
+
+    /**
+     * Opens the journal in the given directory with segments of 64 MB and a commit every 5 milliseconds.
+     *
+     * @param directory the directory of the journal, created if it does not exist.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public ReceiveJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * Opens the journal in the given directory. Committed records of an earlier run are kept
+     * and appended to, records which were not committed are dropped.
+     *
+     * @param directory      the directory of the journal, created if it does not exist.
+     * @param segmentSize    the size of a segment in bytes, at least 64 KB.
+     * @param commitInterval the maximum time in milliseconds a server waits before it commits, at least 1.
+     * @throws IOException              if the journal cannot be opened.
+     * @throws IllegalArgumentException if the segment size or the interval is out of range.
+     */
+    public ReceiveJournal(Path directory, int segmentSize, long commitInterval) throws IOException {
+        if (segmentSize < MINSEGMENT || commitInterval < 1) {
+            throw new IllegalArgumentException("segments of at least " + MINSEGMENT
+                    + " bytes and an interval of at least 1 ms are required");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commitInterval = commitInterval;
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(directory.resolve(INDEX), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEXSIZE);
+        }
+        base = index.getLong(0);
+        committedBase = base;
+        committedEnd = index.getInt(Long.BYTES);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("not a journal: " + directory);
+        }
+        for (Long later : new ArrayList<>(bases.tailSet(base, false))) {
+            Files.delete(segmentPath(later));
+            bases.remove(later);
+        }
+        bases.add(base);
+        segment = map(base);
+        records = base;
+        while (segment.position() < committedEnd) {
+            segment.position(segment.position() + Integer.BYTES + segment.getInt(segment.position()));
+            records++;
+        }
+        committed = records;
+    }
+
+    /**
+     * Returns the maximum time a server waits before it commits.
+     *
+     * @return the interval of the commits in milliseconds.
+     */
+    long getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * Appends a payload, starting the next segment if it does not fit. It is durable after the next commit.
+     * An error is kept and reported by {@code commit}, later payloads are ignored.
+     *
+     * @param payload the buffer whose remaining bytes are the payload, an empty payload is not appended.
+     *                Its position is not changed.
+     */
+    synchronized void append(ByteBuffer payload) {
+        int count = payload.remaining();
+        if (failure != null || closed || count == 0) {
+            return;
+        }
+        try {
+            if (segment.remaining() < Integer.BYTES + count) {
+                rotate(count);
+            }
+            int start = payload.position();
+            segment.putInt(count).put(payload);
+            payload.position(start);
+            records++;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Forces the records appended since the last commit to disk and then the index, which makes them durable.
+     * Nothing is written if no record was appended.
+     *
+     * @return the number of records committed since the journal was created.
+     * @throws IOException if a record could not be appended or written.
+     */
+    public synchronized long commit() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (records == committed || closed) {
+            return committed;
+        }
+        for (MappedByteBuffer full : unforced) {
+            full.force();
+        }
+        unforced.clear();
+        segment.force();
+        index.putLong(0, base).putInt(Long.BYTES, segment.position());
+        index.force();
+        committed = records;
+        committedBase = base;
+        committedEnd = segment.position();
+        return committed;
+    }
+
+    /**
+     * Returns the number of records which have been committed, also those of released segments.
+     *
+     * @return the number of the first record not committed yet.
+     */
+    public synchronized long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * Hands the committed records kept in the journal to the consumer, oldest first.
+     * Records appended or committed while the journal is replayed are not included.
+     *
+     * @param consumer the consumer of the payloads.
+     * @return the number of the first record replayed, 0 unless segments have been released.
+     * @throws IOException if a segment cannot be read.
+     */
+    public long replay(Consumer<byte[]> consumer) throws IOException {
+        List<Long> segments;
+        long last;
+        int end;
+        ByteBuffer live = null;
+        synchronized (this) {
+            segments = new ArrayList<>(bases.headSet(committedBase, true));
+            last = committedBase;
+            end = committedEnd;
+            if (committedBase == base) {
+                live = segment.duplicate();
+                live.clear();
+            }
+        }
+        for (Long first : segments) {
+            ByteBuffer records = first == last ? live : null;
+            if (records == null) {
+                try (FileChannel channel = FileChannel.open(segmentPath(first), StandardOpenOption.READ)) {
+                    records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            if (first == last) {
+                records.limit(end);
+            }
+            replay(records, consumer);
+        }
+        return segments.get(0);
+    }
+
+    /**
+     * Deletes the segments whose records all come before the given record, e.g. once they have been processed.
+     * Segments holding records which are not committed yet are kept.
+     *
+     * @param record the number of the first record which has to be kept.
+     * @return the number of segments deleted.
+     * @throws IOException if a segment cannot be deleted.
+     */
+    public synchronized int release(long record) throws IOException {
+        int deleted = 0;
+        Long next;
+        while ((next = bases.higher(bases.first())) != null && next <= record && next <= committedBase) {
+            Files.delete(segmentPath(bases.pollFirst()));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Commits the records appended and closes the journal. Later payloads are not appended.
+     *
+     * @throws IOException if the records could not be committed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            closed = true;
+        }
+    }
+
+    /**
+     * Ends the segment appended to with an empty record, unless it is full, and starts the next one.
+     * The full segment is forced by the next commit.
+     *
+     * @param count the length of the payload which did not fit.
+     * @throws IOException if the payload does not fit into a segment or the segment cannot be created.
+     */
+    private void rotate(int count) throws IOException {
+        if (Integer.BYTES + count > segmentSize) {
+            throw new IOException("payload of " + count + " bytes exceeds a segment");
+        }
+        if (segment.remaining() >= Integer.BYTES) {
+            segment.putInt(segment.position(), 0);
+        }
+        unforced.add(segment);
+        segment = map(records);
+        base = records;
+        bases.add(base);
+    }
+
+    /**
+     * Maps the segment starting with the given record, creating the file if it does not exist.
+     *
+     * @param first the number of the first record of the segment.
+     * @return the segment, positioned at its start.
+     * @throws IOException if the segment cannot be mapped.
+     */
+    private MappedByteBuffer map(long first) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(first), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentSize));
+        }
+    }
+
+    /**
+     * Returns the path of the segment starting with the given record.
+     *
+     * @param first the number of the first record of the segment.
+     * @return the path of the segment file.
+     */
+    private Path segmentPath(long first) {
+        return directory.resolve(String.format("%020d%s", first, SUFFIX));
+    }
+
+    /**
+     * Hands the records of a segment to the consumer up to its limit or its first empty record.
+     *
+     * @param records  the records, from the start of the segment.
+     * @param consumer the consumer of the payloads.
+     */
+    private static void replay(ByteBuffer records, Consumer<byte[]> consumer) {
+        int length;
+        while (records.remaining() >= Integer.BYTES && (length = records.getInt()) > 0) {
+            byte[] payload = new byte[length];
+            records.get(payload);
+            consumer.accept(payload);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package eit.host;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import eit.host.exception.HostException;
+import eit.linecode.DataFrame;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * This class represents a hop between the clients and a server: it receives data as a {@code Server}
+ * and forwards it to the next hop, another relay or the final server, as a {@code Client}.
+ * <p>
+ * The data is forwarded frame by frame. Every payload is handed to the forwarding thread as soon as it
+ * is in order and sent on right away, while further dataframes are still arriving; nothing waits for
+ * a read of the server or for the whole data. The two links are independent: the server acknowledges the
+ * upstream dataframes on its own schedule, and the client keeps its own window towards the next hop.
+ * Unless a larger window was set with {@code Client.setWindowSize}, {@code start} opens that window from
+ * its default of 1 to as many dataframes as payloads may wait, so the next link is not run stop-and-wait.
+ * So the latency of several hops comes close to the sum of the latencies of their links.
+ * <p>
+ * Each link numbers, acknowledges and repeats its dataframes on its own, so that a loss is repaired on
+ * the link it happened on. When both links use the same {@code CodeTable}, a dataframe is passed on
+ * cut-through: the server only decodes its header and checks the other words against the code, and the
+ * client replaces the header with one carrying its own sequence and acknowledgement numbers and sends the
+ * words of the payload as they arrived, from the same pooled buffer, which it keeps for a retransmission.
+ * The payload is neither decoded nor encoded again on the way. A dataframe whose payload has to be encoded
+ * anew, e.g. since the client sends parity dataframes, is decoded and sent like any data. With different
+ * code tables on the two links, every payload is decoded on arrival and encoded again for the next hop.
+ * <p>
+ * The payloads waiting to be forwarded are bounded. When the next hop falls behind, they fill up and
+ * the receive window advertised upstream closes, which holds the sender back. A dataframe lost on the
+ * next link is repeated when the next payload is forwarded or on {@code finish}.
+ * <p>
+ * When forwarding fails, e.g. since the next hop does not answer any more, the relay stops forwarding and
+ * {@code finish} throws the failure. The data arriving afterwards is dropped when it was passed on cut-through,
+ * since it is not decoded, and kept for {@code Server.read} otherwise.
+ */
+public class Relay implements Closeable {
+    /**
+     * The number of payloads waiting to be forwarded by default, the largest window advertised upstream.
+     */
+    public final static int DEFAULT_QUEUE = 256;
+    private final Server upstream; // receives the data and acknowledges it upstream
+    private final Client downstream; // forwards the data to the next hop
+    private final int maxQueued; // the number of payloads waiting to be forwarded
+    private final ExecutorService forwarder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "relay-forwarder");
+        thread.setDaemon(true);
+        return thread;
+    }); // sends the payloads to the next hop, one at a time
+    private long forwardedCount; // the number of payloads forwarded
+    private long forwardedBytes; // the number of bytes forwarded
+    private volatile HostException failure; // the failure which stopped the forwarding, null if there is none
+
+    /**
+     * Initialises a relay between the given server and client, with up to 256 payloads waiting.
+     * Neither of them may be started or connected yet; they are closed together with the relay.
+     *
+     * @param upstream   the server the clients send to.
+     * @param downstream the client sending to the next hop.
+     */
+    public Relay(Server upstream, Client downstream) {
+        this(upstream, downstream, DEFAULT_QUEUE);
+    }
+
+    /**
+     * Initialises a relay between the given server and client.
+     * Neither of them may be started or connected yet; they are closed together with the relay.
+     *
+     * @param upstream   the server the clients send to.
+     * @param downstream the client sending to the next hop.
+     * @param maxQueued  the number of payloads which may wait to be forwarded, at least 1.
+     * @throws IllegalArgumentException if {@code maxQueued} is less than 1.
+     */
+    public Relay(Server upstream, Client downstream, int maxQueued) {
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException("at least one payload has to be queued");
+        }
+        this.upstream = upstream;
+        this.downstream = downstream;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Connects to the next hop and starts receiving. The next hop has to be running.
+     * The window of the client towards the next hop is opened to {@code maxQueued} dataframes,
+     * unless a window larger than 1 was set before.
+     *
+     * @throws SocketTimeoutException if the next hop did not answer in time.
+     * @throws IOException            if an I/O error occurs.
+     * @throws HostException          if the next hop refused the connection.
+     */
+    public void start() throws SocketTimeoutException, IOException {
+        if (!downstream.connect()) {
+            throw new HostException("Next hop not connected");
+        }
+        if (downstream.getWindowSize() == 1) {
+            downstream.setWindowSize(maxQueued);
+        }
+        if (upstream.getCodeTable().equals(downstream.getCodeTable())) {
+            upstream.forward(new CutThrough(), forwarder, maxQueued);
+        } else {
+            upstream.subscribe(new Forwarder(), forwarder, maxQueued);
+        }
+        upstream.start();
+    }
+
+    /**
+     * Waits until the client upstream has disconnected and all of its data has been forwarded,
+     * then disconnects from the next hop once it has acknowledged everything.
+     *
+     * @param timeoutMillis the milliseconds to wait for the client upstream and the forwarding.
+     * @return true if the data has been forwarded and the next hop is disconnected,
+     * false if the client upstream did not disconnect in time.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws IOException          if an I/O error occurs.
+     * @throws HostException        if the forwarding failed.
+     */
+    public boolean finish(long timeoutMillis) throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        upstream.join(timeoutMillis);
+        if (upstream.isAlive()) {
+            return false;
+        }
+        forwarder.shutdown();
+        if (!forwarder.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        downstream.flush();
+        return downstream.disconnect();
+    }
+
+    /**
+     * Returns the number of payloads forwarded to the next hop.
+     *
+     * @return the number of payloads.
+     */
+    public synchronized long getForwardedCount() {
+        return forwardedCount;
+    }
+
+    /**
+     * Returns the number of bytes forwarded to the next hop.
+     *
+     * @return the number of bytes.
+     */
+    public synchronized long getForwardedBytes() {
+        return forwardedBytes;
+    }
+
+    /**
+     * Counts a payload forwarded to the next hop.
+     *
+     * @param length the length of the payload.
+     */
+    private synchronized void count(int length) {
+        forwardedCount++;
+        forwardedBytes += length;
+    }
+
+    /**
+     * Stops the relay without waiting for the data, and closes the server and the client.
+     */
+    @Override
+    public void close() {
+        upstream.close();
+        forwarder.shutdownNow();
+        downstream.close();
+    }
+
+    /**
+     * This class represents the subscriber which forwards the payloads of the server to the next hop.
+     * It is signalled on the forwarding thread, so a payload waiting for the window of the next hop
+     * holds back the following ones, which queue up in the server.
+     */
+    private class Forwarder implements Flow.Subscriber<byte[]> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(byte[] payload) {
+            try {
+                downstream.sendData(payload, true);
+            } catch (HostException e) {
+                failure = e;
+                throw e; // ends the subscription, finish reports the failure
+            }
+            count(payload.length);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // the server does not signal errors to its subscriber
+        }
+
+        @Override
+        public void onComplete() {
+            // the server keeps receiving until it stops
+        }
+    }
+
+    /**
+     * This class represents the subscriber which passes the dataframes of the server on to the next hop
+     * as they arrived, replacing only their headers. A dataframe which cannot be passed on like this
+     * is decoded and sent as data.
+     */
+    private class CutThrough implements Flow.Subscriber<PooledBuffer> {
+        private final Decoder decoder = new Decoder(upstream.getCodeTable()); // decodes what cannot be passed on
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(PooledBuffer frame) {
+            int length = Encoder.decodedLength(frame.buffer().remaining()) - DataFrame.HEADER_LENGTH;
+            try {
+                if (!downstream.forward(frame)) {
+                    downstream.sendData(decode(frame), true);
+                }
+            } catch (HostException e) {
+                failure = e;
+                throw e; // ends the subscription, finish reports the failure
+            } finally {
+                frame.release();
+            }
+            count(length);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // the server does not signal errors to its subscriber
+        }
+
+        @Override
+        public void onComplete() {
+            // the server keeps receiving until it stops
+        }
+
+        /**
+         * Decodes the payload of a dataframe which has to be encoded anew.
+         *
+         * @param frame the buffer whose remaining bytes are the encoded dataframe, its position is not moved.
+         * @return the payload.
+         */
+        private byte[] decode(PooledBuffer frame) {
+            ByteBuffer decoded = ByteBuffer.allocate(Encoder.decodedLength(frame.buffer().remaining()));
+            decoder.decode(frame.buffer().duplicate(), decoded);
+            decoded.flip().position(DataFrame.HEADER_LENGTH);
+            byte[] payload = new byte[decoded.remaining()];
+            decoded.get(payload);
+            return payload;
+        }
+    }
+}
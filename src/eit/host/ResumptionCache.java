@@ -0,0 +1,70 @@
+package eit.host;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class holds the resumption tokens a {@code Server} has issued in its {@code SYNACK}s
+ * and in the acknowledgements of resuming dataframes.
+ * <p>
+ * A client presenting a known token which has not expired may send data in its very first
+ * dataframe without a new handshake. The cache is bounded: when it is full, the least recently
+ * issued token is dropped, so a client whose token is gone falls back to a full handshake.
+ * <p>
+ * A token opens one session only: it is removed when it is redeemed, and the session it opens
+ * hands the client a new one. A resuming dataframe which is delayed or replayed after its
+ * session has ended is rejected, instead of opening a new session and delivering its data twice.
+ * <p>
+ * The cache may be shared by the shards of a {@code ShardedServer}, since a client resuming from
+ * a new address may be served by a different shard than the one that issued its token.
+ */
+class ResumptionCache {
+    final static int DEFAULT_CAPACITY = 1024; // the number of tokens kept by default
+    final static long DEFAULT_TTL = 60_000; // milliseconds a token is valid by default
+    private final SecureRandom random = new SecureRandom(); // the source of the tokens
+    private final Map<Long, Long> expiries; // the time at which each token expires, in System.nanoTime()
+    private final long ttl; // the time a token is valid in nanoseconds
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param capacity  the maximum number of tokens kept.
+     * @param ttlMillis the time a token is valid in milliseconds.
+     */
+    ResumptionCache(int capacity, long ttlMillis) {
+        this.ttl = ttlMillis * 1_000_000L;
+        this.expiries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Issues a new token.
+     *
+     * @return a token which is not 0.
+     */
+    synchronized long issue() {
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0 || expiries.containsKey(token));
+        expiries.put(token, System.nanoTime() + ttl);
+        return token;
+    }
+
+    /**
+     * Redeems a token: answers whether it has been issued and not expired yet,
+     * and removes it, so it cannot be presented again.
+     *
+     * @param token the token presented by a client.
+     * @return true if the client may resume.
+     */
+    synchronized boolean redeem(long token) {
+        Long expiry = expiries.remove(token);
+        return expiry != null && System.nanoTime() - expiry <= 0;
+    }
+}
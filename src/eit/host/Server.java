@@ -1,26 +1,80 @@
 package eit.host;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import edu.fra.uas.oop.Terminal;
+import eit.linecode.CodeTable;
 import eit.linecode.DataFrame;
 import eit.linecode.Decoder;
 import eit.linecode.Encoder;
 import eit.linecode.Utils.Flag;
+import eit.linecode.exception.DecodeException;
+import eit.linecode.exception.EndOfPacketException;
+import eit.linecode.exception.StartOfPacketException;
 
 /**
  * <p>
  * This class represents a server for receiving and answering datagram packets.
  * This class is a subclass of {@code AbstractServer}. This
- * subclass overrides the {@code accept}, {@code isDisconnect}, and {@code reacts} methods
- * of the AbstractClass {@code AbstractServer}. The AbstractClass {@code AbstractServer}
+ * subclass implements the {@code onDatagram} method of the AbstractClass {@code AbstractServer},
+ * which decodes the datagram once and hands the dataframe to {@code onFrame}. The AbstractClass {@code AbstractServer}
  * is also a subclass of {@code Thread} which means an instance of this class can then be
  * allocated and started using the inherited method {@code start}.
  * <p>
+ * Data of the default stream is read with {@code read}. Further logical streams opened by the
+ * client are handed out by {@code acceptStream}, each with its own sequence space and receive buffer.
+ * Instead of polling {@code read}, the data of the default stream can be pushed to a subscriber with
+ * {@code subscribe}, whose demand limits how much the clients may send.
+ * Files sent with {@code Client.sendFile} are written to disk with {@code receiveFile}; a file sent with
+ * a transfer id resumes where it broke off when the client or the server had to start over.
+ * A transfer striped across the clients of a {@code StripedClient} is merged back into one stream,
+ * which is handed out by {@code acceptStream} like any other.
+ * The data of the default stream can also be written to a {@code ReceiveJournal}, see {@code setJournal}.
+ * <p>
  * A server is the receiving point for data packets.
  */
-public class Server extends AbstractServer {
+public class Server extends AbstractServer implements Flow.Publisher<byte[]> {
     private final Decoder decoder; // The decoder is needed for decrypting the dataframes received from client.
-    private byte[] buffer; // contains the bytes read from the client.
     private final Encoder encoder; //The encoder is needed for encrypting the dataframes before sending them the client
+    private PooledBuffer decoded; // the datagram received, decoded, null until one arrives or while a stream keeps it
+    private PooledBuffer encoded; // the datagram received as it arrived while it is forwarded, null otherwise
+    private final ByteBuffer header = ByteBuffer.allocate(
+            DataFrame.HEADER_LENGTH + Integer.BYTES + Long.BYTES); // the dataframe to be sent
+    private final ByteBuffer response = ByteBuffer.allocateDirect(
+            Encoder.encodedLength(DataFrame.HEADER_LENGTH + Integer.BYTES + Long.BYTES)); // the encoded dataframe
+    private final ServerStream defaultStream = new ServerStream(null, 0, 0, null); // the stream read by read()
+    private final Map<SocketAddress, Session> sessions = new HashMap<>(); // the connected clients
+    private final BlockingQueue<ServerStream> accepted; // new streams
+    private final Map<Integer, StripeGroup> stripes; // the striped transfers by id, shared like the new streams
+    private final BlockingQueue<FileTransfer> receivers = new LinkedBlockingQueue<>(); // files waiting for a client
+    private final Map<Long, FileTransfer> resumable = new ConcurrentHashMap<>(); // resumable files by transfer id
+    private final boolean stopOnDisconnect; // true if the server stops when a client disconnects
+    private ResumptionCache resumption =
+            new ResumptionCache(ResumptionCache.DEFAULT_CAPACITY, ResumptionCache.DEFAULT_TTL); // the tokens issued
+    private int ackFrequency = 1; // the number of dataframes covered by one acknowledgement
+    private long ackDelay = 1; // the maximum time in milliseconds an acknowledgement is delayed
+    private long idleTimeout; // the time in milliseconds after which a silent session is evicted, 0 for never
+    private ReceiveJournal journal; // the journal the default streams are written to, null if there is none
+    private final Set<ServerStream> uncommitted =
+            new LinkedHashSet<>(); // the streams whose acknowledgement waits for the journal to commit
+    private final Set<ServerStream> recovering =
+            new HashSet<>(); // the journaled streams told about a gap since the last commit
+    private final TimingWheel.Timeout commitTimer =
+            new TimingWheel.Timeout(this::commitDelayed); // runs the next commit of the journal
 
     /**
      * Initialises the Server Object.
@@ -32,78 +86,972 @@ public class Server extends AbstractServer {
      */
     public Server(Encoder encoder, Decoder decoder) throws IOException {
         super();
-        buffer = new byte[0];
         this.decoder = decoder;
         this.encoder = encoder;
+        this.accepted = new LinkedBlockingQueue<>();
+        this.stripes = new ConcurrentHashMap<>();
+        this.stopOnDisconnect = true;
+    }
+
+    /**
+     * Initialises the Server Object bound to the given address.
+     *
+     * @param encoder An encoder needed for encrypting dataframes before being sent to the client.
+     * @param decoder A decoder needed for decrypting dataframes received from the client.
+     * @param address the address to bind to, a port of 0 binds to any free port.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Server(Encoder encoder, Decoder decoder, InetSocketAddress address) throws IOException {
+        this(encoder, decoder, address, false, new LinkedBlockingQueue<>(), new ConcurrentHashMap<>(), true);
+    }
+
+    /**
+     * Initialises the Server Object on the given transport, e.g. a {@code MemoryTransport}
+     * to run the protocol inside one process.
+     *
+     * @param encoder   An encoder needed for encrypting dataframes before being sent to the client.
+     * @param decoder   A decoder needed for decrypting dataframes received from the client.
+     * @param transport the transport the server receives and sends on.
+     */
+    public Server(Encoder encoder, Decoder decoder, Transport transport) {
+        super(transport);
+        this.decoder = decoder;
+        this.encoder = encoder;
+        this.accepted = new LinkedBlockingQueue<>();
+        this.stripes = new ConcurrentHashMap<>();
+        this.stopOnDisconnect = true;
+    }
+
+    /**
+     * Initialises a Server Object which may share its address, the queue of new streams
+     * and the striped transfers with other servers.
+     *
+     * @param encoder          An encoder needed for encrypting dataframes before being sent to the client.
+     * @param decoder          A decoder needed for decrypting dataframes received from the client.
+     * @param address          the address to bind to.
+     * @param reusePort        true if other servers may bind to the same address.
+     * @param accepted         the queue new streams are added to.
+     * @param stripes          the striped transfers being merged, by id.
+     * @param stopOnDisconnect true if the server stops when a client disconnects.
+     * @throws IOException if an I/O error occurs.
+     */
+    Server(Encoder encoder, Decoder decoder, InetSocketAddress address, boolean reusePort,
+           BlockingQueue<ServerStream> accepted, Map<Integer, StripeGroup> stripes, boolean stopOnDisconnect)
+            throws IOException {
+        super(address, reusePort);
+        this.decoder = decoder;
+        this.encoder = encoder;
+        this.accepted = accepted;
+        this.stripes = stripes;
+        this.stopOnDisconnect = stopOnDisconnect;
+    }
+
+    /**
+     * Initialises a Server Object without a channel of its own, used as a worker of a {@code StagedServer}.
+     * It is fed with datagrams by the worker and sends its datagrams to the sink.
+     *
+     * @param encoder  An encoder needed for encrypting dataframes before being sent to the client.
+     * @param decoder  A decoder needed for decrypting dataframes received from the client.
+     * @param sink     the destination of the datagrams sent.
+     * @param accepted the queue new streams are added to.
+     * @param stripes  the striped transfers being merged, by id.
+     */
+    Server(Encoder encoder, Decoder decoder, DatagramSink sink, BlockingQueue<ServerStream> accepted,
+           Map<Integer, StripeGroup> stripes) {
+        super(sink);
+        this.decoder = decoder;
+        this.encoder = encoder;
+        this.accepted = accepted;
+        this.stripes = stripes;
+        this.stopOnDisconnect = false;
+    }
+
+    /**
+     * Sets the largest datagram the server receives, and with it the largest dataframe.
+     * Must be called before the server is started.
+     *
+     * @param size the maximum size of a datagram in bytes, from 1500 to 65507.
+     * @throws IllegalArgumentException if the size is out of range.
+     */
+    @Override
+    public void setMaxDatagram(int size) {
+        super.setMaxDatagram(size);
+        if (decoded != null) {
+            decoded.release();
+            decoded = null;
+        }
     }
 
     /**
+     * Decodes the datagram once and hands the dataframe to {@code onFrame},
+     * which also tells whether the client disconnected. A faulty datagram is dropped.
      * <p>
-     * This method analyses the data received from the client.
-     * It checks the received data analyses the {@code Flag} bytes and reacts accordingly
+     * The datagram is decoded into a buffer of the {@code BufferPool}, which is reused for the next datagram
+     * unless a stream kept a payload of it, e.g. ahead of a gap; then the next datagram takes another buffer.
      *
-     * @param receivedData the data as {@code byte[]} received from the client.
+     * @param receivedData the buffer containing the datagram received from the client.
+     * @return true if the server stops because the client disconnected.
      * @throws IOException if an I/O error occurs.
      */
     @Override
-    protected void accept(byte[] receivedData) throws IOException {
-        byte[] res = decoder.decode(new String(receivedData));
-        DataFrame dataFrame = new DataFrame(res);
-        DataFrame response;
-        switch (dataFrame.getFlagAndRes()) {
+    protected boolean onDatagram(ByteBuffer receivedData) throws IOException {
+        if (decoded == null) {
+            decoded = BufferPool.shared().acquire(Encoder.decodedLength(getMaxDatagram()));
+        }
+        try {
+            if (defaultStream.isForwarded() && keepEncoded(receivedData)) {
+                return onFrame(decoded.buffer());
+            }
+            return decode(receivedData) && onFrame(decoded.buffer());
+        } finally {
+            if (encoded != null) {
+                encoded.release();
+                encoded = null;
+            }
+            if (decoded.getReferenceCount() > 1) {
+                decoded.release();
+                decoded = null;
+            }
+        }
+    }
+
+    /**
+     * Gives the buffers the server holds back to the {@code BufferPool}: the one datagrams are decoded into
+     * and the payloads its streams keep ahead of a gap or for parity dataframes.
+     */
+    @Override
+    protected void onStop() {
+        if (decoded != null) {
+            decoded.release();
+            decoded = null;
+        }
+        for (Session session : sessions.values()) {
+            for (ServerStream stream : session.getStreams()) {
+                stream.releaseKept();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * This method analyses a dataframe received from the client.
+     * It checks the {@code Flag} bytes of the dataframe and reacts accordingly
+     * <p>
+     * Every client address has its own session with its own streams.
+     * The datagram has been decoded into a pooled buffer owned by the server and the response is encoded
+     * into another one. The payload is handed to its stream in the pooled buffer, without a copy, and only
+     * copied when it is read or pushed to the subscriber.
+     * The dataframe is only read from {@code frame}, between its position and its limit, also by the
+     * handling of resumptions, files and striped transfers; a subclass may pass a dataframe of its own,
+     * whose payload is then copied into a pooled buffer.
+     *
+     * @param frame the decoded dataframe, ready for reading and valid until the next datagram.
+     * @return true if the server stops because the client disconnected.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected boolean onFrame(ByteBuffer frame) throws IOException {
+        SocketAddress address = getRemoteAddress();
+        Session session = sessions.get(address);
+        if (session != null) {
+            session.touch();
+        }
+        int streamId = DataFrame.readStreamId(frame);
+        ServerStream stream = session == null ? null : session.getStream(streamId);
+        Flag flag = DataFrame.readFlag(frame);
+        switch (flag) {
             case DEFAULT:
-                response = new DataFrame(dataFrame.getSeqNumber(), dataFrame.getAckNumber() + 1, Flag.DEFAULT,
-                        new byte[0]);
-                if (dataFrame.getPayload().length > 0) {
-                    byte[] tmp = new byte[buffer.length + dataFrame.getPayload().length];
-                    System.arraycopy(buffer, 0, tmp, 0, buffer.length);
-                    System.arraycopy(dataFrame.getPayload(), 0, tmp, buffer.length,
-                            dataFrame.getPayload().length);
-                    this.buffer = tmp;
+            case FILE:
+            case STRIPE:
+                if (session == null) {
+                    session = openSession(address);
+                    stream = session.getStream(streamId);
+                }
+                boolean file = flag == Flag.FILE;
+                boolean striped = flag == Flag.STRIPE;
+                if (stream == null) {
+                    stream = session.openStream(streamId);
+                    if (stream == null) {
+                        // a late dataframe of a stream which is already closed
+                        respond(address, DataFrame.readSeqNumber(frame), DataFrame.readAckNumber(frame) + 1,
+                                Flag.DEFAULT, streamId);
+                        break;
+                    }
+                    if (!file && !striped) {
+                        accepted.add(stream);
+                    }
+                }
+                if (striped && !stream.hasStripe() && !joinStripe(stream, frame)) {
+                    break; // a dataframe too short to tell its transfer
+                }
+                if (file) {
+                    stream.markFile();
+                }
+                if (file && !stream.hasTransfer() && streamId != 0) {
+                    FileTransfer transfer = receivers.poll();
+                    if (transfer == null) {
+                        acknowledge(stream, 0); // held back until receiveFile is called
+                        break;
+                    }
+                    stream.setTransfer(transfer);
                 }
-                send(encoder.encode(response.getDataFrame()).getBytes());
+                receive(stream, frame);
                 break;
             case FIN:
-                response = new DataFrame(Flag.FINACK);
-                send(encoder.encode(response.getDataFrame()).getBytes());
+                if (stream != null && stream.isJournaled()) {
+                    commit();
+                }
+                if (stream != null && stream.getUnacknowledged() > 0) {
+                    acknowledge(stream);
+                }
+                if (stream != null && streamId == 0) {
+                    closeSession(session);
+                } else if (stream != null) {
+                    cancelAck(stream);
+                    session.closeStream(stream);
+                }
+                respond(address, 0, 0, Flag.FINACK, streamId);
                 break;
             case SYN:
-                response = new DataFrame(Flag.SYNACK);
-                send(encoder.encode(response.getDataFrame()).getBytes());
+                if (session == null) {
+                    session = openSession(address);
+                }
+                for (ServerStream open : session.getStreams()) {
+                    cancelAck(open);
+                }
+                session.reset(DataFrame.readSeqNumber(frame), DataFrame.readAckNumber(frame));
+                respond(address, 0, 0, Flag.SYNACK, 0, resumption.issue());
+                break;
+            case RESUME:
+                resume(address, session, frame);
+                break;
+            case PROBE:
+                respond(address, DataFrame.readSeqNumber(frame), 0, Flag.PROBEACK, 0);
+                break;
+            case OFFSET:
+                resumeFile(address, session, streamId, frame);
+                break;
+            case PARITY:
+                if (stream != null && !(streamId == 0 && defaultStream.isForwarded()) && recover(stream, frame)) {
+                    acknowledgeReceived(stream);
+                }
                 break;
             case ACK:
             case SYNACK:
             case FINACK:
+            case OFFSETACK:
             default:
                 break;
 
         }
+        return stopOnDisconnect && flag == Flag.FIN && streamId == 0;
     }
 
     /**
-     * Analyses the content of the {@code receivedData} and checks if the client want to disconnect.
+     * Sets how many resumption tokens are kept and how long they are valid.
+     * Tokens issued before are dropped.
+     * <p>
+     * Every {@code SYNACK} carries a new token. A client presenting it in a {@code RESUME} dataframe
+     * may send data without a new handshake, even after it has disconnected.
      *
-     * @param receivedData contains the data as {@code byte[]} received from the client.
-     * @return true if the client sent a FIN flag.
-     * @throws IOException if an I/O error occurs.
+     * @param capacity  the maximum number of tokens kept, at least 1.
+     * @param ttlMillis the time a token is valid in milliseconds, at least 1.
+     * @throws IllegalArgumentException if one of the values is less than 1.
      */
-    @Override
-    protected boolean isDisconnect(byte[] receivedData) throws IOException {
-        DataFrame dataFrame = new DataFrame(decoder.decode(new String(receivedData)));
-        return dataFrame.getFlagAndRes().equals(Flag.FIN);
+    public void setResumption(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("capacity and time to live must be at least 1");
+        }
+        setResumption(new ResumptionCache(capacity, ttlMillis));
+    }
+
+    /**
+     * Sets the cache the resumption tokens are issued from and checked against.
+     *
+     * @param resumption the cache, which may be shared with other servers.
+     */
+    void setResumption(ResumptionCache resumption) {
+        this.resumption = resumption;
     }
 
     /**
+     * Sets how acknowledgements are coalesced.
      * <p>
-     * Reads the bytes received from the client.
+     * One cumulative acknowledgement is sent for every {@code frames} dataframes received in order,
+     * or when the oldest of them has waited for {@code delayMillis}, whichever comes first.
+     * Dataframes arriving out of order or twice, a filled gap and a {@code FIN} are acknowledged immediately.
+     * By default every dataframe is acknowledged immediately, which is required by clients
+     * that wait for each acknowledgement before sending the next dataframe.
+     *
+     * @param frames      the number of dataframes covered by one acknowledgement, at least 1.
+     * @param delayMillis the maximum delay of an acknowledgement in milliseconds, at least 1.
+     * @throws IllegalArgumentException if one of the values is less than 1.
+     */
+    public void setAckCoalescing(int frames, long delayMillis) {
+        if (frames < 1 || delayMillis < 1) {
+            throw new IllegalArgumentException("frames and delay must be at least 1");
+        }
+        this.ackFrequency = frames;
+        this.ackDelay = delayMillis;
+    }
+
+    /**
+     * Writes the data of the default streams to a journal, where it survives the end of the process.
+     * <p>
+     * A dataframe of a default stream is acknowledged only once the journal has committed its payload,
+     * so the client keeps data the server could still lose. The server commits at the interval of the journal
+     * after the first dataframe not committed yet, and before it acknowledges the end of a default stream;
+     * one commit covers all dataframes received in the meantime. The acknowledgement coalescing does not
+     * apply to the default streams then. The data can still be read with {@code read} as before.
+     * Must be called before the server is started.
+     *
+     * @param journal the journal, null to not write the data to a journal.
+     */
+    public void setJournal(ReceiveJournal journal) {
+        this.journal = journal;
+        defaultStream.setJournal(journal);
+    }
+
+    /**
+     * Sets the time after which the session of a client that sent nothing is evicted,
+     * together with all its streams and data not acknowledged yet.
+     * A client keeps its session alive with {@code Client.setKeepAlive}.
+     * By default sessions are kept until the client disconnects.
+     *
+     * @param idleMillis the idle time in milliseconds, 0 to keep sessions forever.
+     * @throws IllegalArgumentException if the idle time is negative.
+     */
+    public void setIdleTimeout(long idleMillis) {
+        if (idleMillis < 0) {
+            throw new IllegalArgumentException("idle timeout must not be negative");
+        }
+        this.idleTimeout = idleMillis;
+    }
+
+    /**
+     * <p>
+     * Reads the bytes received from the clients on their default streams.
      * The buffer is emptied after this method is called.
      *
      * @return the data as {@code byte[]} received from the client.
      */
     @Override
     public byte[] read() {
-        byte[] tmp = buffer;
-        buffer = new byte[0];
-        return tmp;
+        return defaultStream.read();
+    }
+
+    /**
+     * Subscribes to the payloads of the default streams of all clients, which are signalled as they arrive.
+     * While the subscriber does not request more, the clients are held back by their receive window.
+     *
+     * @param subscriber the subscriber.
+     * @see ServerStream#subscribe(Flow.Subscriber)
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super byte[]> subscriber) {
+        defaultStream.subscribe(subscriber);
+    }
+
+    /**
+     * Subscribes to the payloads of the default streams of all clients, which are signalled as they arrive,
+     * on the given executor.
+     *
+     * @param subscriber the subscriber.
+     * @param executor   runs the signals to the subscriber, one at a time.
+     * @param maxQueued  the number of payloads not requested yet which are queued, at least 1.
+     * @throws IllegalArgumentException if {@code maxQueued} is less than 1.
+     * @see ServerStream#subscribe(Flow.Subscriber, Executor, int)
+     */
+    public void subscribe(Flow.Subscriber<? super byte[]> subscriber, Executor executor, int maxQueued) {
+        defaultStream.subscribe(subscriber, executor, maxQueued);
+    }
+
+    /**
+     * Passes the dataframes of the default streams of all clients on to a relay as they arrived, once they are
+     * in order, see {@code ServerStream.forward}. Only their headers are decoded, the other words are checked
+     * against the code, so a corrupted dataframe is dropped here and not passed on.
+     * Must be called before the server is started.
+     *
+     * @param subscriber the subscriber, which releases every dataframe handed to it.
+     * @param executor   runs the signals to the subscriber, one at a time.
+     * @param maxQueued  the number of dataframes not requested yet which are queued, at least 1.
+     * @throws IllegalArgumentException if {@code maxQueued} is less than 1.
+     */
+    void forward(Flow.Subscriber<? super PooledBuffer> subscriber, Executor executor, int maxQueued) {
+        defaultStream.forward(subscriber, executor, maxQueued);
+    }
+
+    /**
+     * Returns the code the dataframes of the clients are decoded with.
+     *
+     * @return the code table of the decoder.
+     */
+    CodeTable getCodeTable() {
+        return decoder.getCodeTable();
+    }
+
+    /**
+     * Receives the next file a client sends with {@code Client.sendFile} and writes it to the given path.
+     * <p>
+     * The data of every dataframe is written at its offset in the file as it arrives, so the heap used
+     * does not depend on the size of the file. A client starting a file before this method is called
+     * is held back by a closed receive window. This method returns when the client has closed the file.
+     *
+     * @param path the path the file is written to, an existing file is truncated.
+     * @return the size of the file received in bytes.
+     * @throws IOException          if the file cannot be written or the client went away before it was complete.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public long receiveFile(Path path) throws IOException, InterruptedException {
+        FileTransfer transfer = new FileTransfer(path);
+        receivers.add(transfer);
+        try {
+            return transfer.await();
+        } catch (InterruptedException e) {
+            if (receivers.remove(transfer)) {
+                transfer.complete(true);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Receives the file a client sends with {@code Client.sendFile} under the given transfer id
+     * and writes it to the given path, resuming where an earlier attempt broke off.
+     * <p>
+     * The end of the data received without a gap is saved to a progress file next to the file,
+     * after the data has been forced to disk, every 4 MB and whenever the client goes away.
+     * When a client, a new one or the same after a failure, sends the file again under the same id,
+     * it is told this offset and only sends the rest. If the server itself was started again,
+     * calling this method with the same path and id picks up the saved offset; otherwise the file
+     * is truncated. The progress file is deleted when the file is complete.
+     * This method returns when the client has closed the file, a client going away does not end it.
+     *
+     * @param path       the path the file is written to.
+     * @param transferId the id of the transfer, chosen by the client.
+     * @return the size of the file received in bytes.
+     * @throws IOException           if the file cannot be written.
+     * @throws InterruptedException  if the thread is interrupted while waiting, the progress is kept.
+     * @throws IllegalStateException if the transfer is being received already.
+     */
+    public long receiveFile(Path path, long transferId) throws IOException, InterruptedException {
+        if (resumable.containsKey(transferId)) {
+            throw new IllegalStateException("transfer " + transferId + " is being received already");
+        }
+        FileTransfer transfer = new FileTransfer(path, transferId);
+        if (resumable.putIfAbsent(transferId, transfer) != null) {
+            transfer.complete(true);
+            throw new IllegalStateException("transfer " + transferId + " is being received already");
+        }
+        try {
+            return transfer.await();
+        } catch (InterruptedException e) {
+            transfer.complete(true);
+            throw e;
+        } finally {
+            resumable.remove(transferId, transfer);
+        }
+    }
+
+    /**
+     * Waits until the client opens a new stream and returns it.
+     *
+     * @return the stream opened by the client.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public ServerStream acceptStream() throws InterruptedException {
+        return accepted.take();
+    }
+
+    /**
+     * Decodes the datagram into the buffer of the server and flips it for reading.
+     * A datagram corrupted on its way is dropped, the client sends it again.
+     *
+     * @param receivedData the buffer containing the encoded dataframe.
+     * @return true if the datagram holds a dataframe, false if it is faulty.
+     */
+    private boolean decode(ByteBuffer receivedData) {
+        ByteBuffer frame = decoded.buffer();
+        frame.clear();
+        try {
+            decoder.decode(receivedData, frame);
+        } catch (DecodeException | StartOfPacketException | EndOfPacketException e) {
+            return false;
+        }
+        frame.flip();
+        return frame.remaining() >= DataFrame.HEADER_LENGTH && DataFrame.readFlag(frame) != null;
+    }
+
+    /**
+     * Decodes only the header of a datagram and checks its other words, for a server whose default streams
+     * are forwarded. A dataframe of a default stream carrying data is copied as it arrived into a pooled buffer,
+     * which is handed to the stream instead of the decoded payload.
+     *
+     * @param receivedData the buffer containing the encoded dataframe.
+     * @return true if the datagram is such a dataframe, its header is then in the decoded buffer;
+     * false if it has to be decoded as a whole, its position is then unchanged.
+     */
+    private boolean keepEncoded(ByteBuffer receivedData) {
+        int start = receivedData.position();
+        ByteBuffer frame = decoded.buffer();
+        frame.clear();
+        try {
+            decoder.decodeHeader(receivedData, frame, DataFrame.HEADER_LENGTH);
+        } catch (DecodeException | StartOfPacketException | EndOfPacketException e) {
+            receivedData.position(start);
+            return false;
+        }
+        frame.flip();
+        int length = receivedData.position() - start;
+        receivedData.position(start);
+        if (length <= Encoder.encodedLength(DataFrame.HEADER_LENGTH) || DataFrame.readFlag(frame) != Flag.DEFAULT
+                || DataFrame.readStreamId(frame) != 0) {
+            return false;
+        }
+        encoded = BufferPool.shared().acquire(length);
+        encoded.buffer().put(receivedData).flip();
+        return true;
+    }
+
+    /**
+     * Encodes a dataframe of a default stream which is forwarded but had to be decoded, e.g. a {@code RESUME}
+     * dataframe, so that it is passed on like the dataframes kept as they arrived. The relay replaces the header.
+     *
+     * @param frame the dataframe, ready for reading, its position is not changed.
+     * @param skip  the number of bytes in front of the payload, the header and what follows it.
+     * @return the pooled buffer containing the encoded dataframe.
+     */
+    private PooledBuffer encodeForwarded(ByteBuffer frame, int skip) {
+        int start = frame.position();
+        ByteBuffer header = frame.duplicate();
+        header.limit(start + DataFrame.HEADER_LENGTH);
+        ByteBuffer payload = frame.duplicate();
+        payload.position(start + skip);
+        PooledBuffer target = BufferPool.shared().acquire(
+                Encoder.encodedLength(DataFrame.HEADER_LENGTH + payload.remaining()));
+        encoder.encode(header, payload, target.buffer());
+        target.buffer().flip();
+        return target;
+    }
+
+    /**
+     * Hands the payload of a dataframe to its stream in the pooled buffer the dataframe was decoded into.
+     * A dataframe which a subclass passed in a buffer of its own is copied into a pooled buffer first.
+     * The payload of a default stream which is forwarded is the encoded dataframe instead.
+     * The position of the frame is not changed.
+     *
+     * @param stream the stream the dataframe belongs to.
+     * @param frame  the dataframe, ready for reading.
+     * @param skip   the number of bytes in front of the payload, the header and what follows it.
+     * @return true if the dataframe has to be acknowledged immediately, see {@code ServerStream.receive}.
+     */
+    private boolean receivePayload(ServerStream stream, ByteBuffer frame, int skip) {
+        int seqNumber = DataFrame.readSeqNumber(frame);
+        int ackNumber = DataFrame.readAckNumber(frame);
+        PooledBuffer payload;
+        int offset = skip;
+        if (stream.getId() == 0 && defaultStream.isForwarded() && (encoded != null || frame.remaining() > skip)) {
+            payload = encoded != null ? encoded.retain() : encodeForwarded(frame, skip);
+            offset = 0;
+        } else if (decoded != null && frame == decoded.buffer()) {
+            payload = decoded.retain();
+        } else {
+            payload = BufferPool.shared().acquire(frame.remaining());
+            payload.buffer().put(frame.duplicate()).flip();
+        }
+        ByteBuffer bytes = payload.buffer();
+        int start = bytes.position();
+        bytes.position(start + offset);
+        try {
+            return stream.receive(seqNumber, ackNumber, payload);
+        } finally {
+            bytes.position(start);
+            payload.release();
+        }
+    }
+
+    /**
+     * Hands a {@code PARITY} dataframe to its stream, which may rebuild a lost dataframe from it.
+     * The position of the frame is not changed.
+     *
+     * @param stream the stream the dataframe belongs to.
+     * @param frame  the dataframe, ready for reading.
+     * @return true if a dataframe was rebuilt and has to be acknowledged immediately.
+     */
+    private boolean recover(ServerStream stream, ByteBuffer frame) {
+        int start = frame.position();
+        int seqNumber = DataFrame.readSeqNumber(frame);
+        int description = DataFrame.readAckNumber(frame);
+        frame.position(start + DataFrame.HEADER_LENGTH);
+        try {
+            return stream.recover(seqNumber, description, frame);
+        } finally {
+            frame.position(start);
+        }
+    }
+
+    /**
+     * Handles a {@code RESUME} dataframe, whose payload is a resumption token followed by data.
+     * <p>
+     * If the token is valid, a session is set up for the client without a handshake, starting at
+     * the sequence number of the dataframe, and the data is acknowledged immediately. The token
+     * is redeemed, the acknowledgement carries a new one for the next resumption.
+     * A resuming dataframe of the session it opened is handled like a data dataframe, so a resent
+     * one is recognised as duplicate. An unknown, expired or already redeemed token is answered
+     * with {@code RESET}, so a resuming dataframe replayed after its session ended delivers nothing.
+     *
+     * @param address the address of the client.
+     * @param session the session of the client, null if there is none.
+     * @param frame   the dataframe, ready for reading.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void resume(SocketAddress address, Session session, ByteBuffer frame) throws IOException {
+        int seqNumber = DataFrame.readSeqNumber(frame);
+        int ackNumber = DataFrame.readAckNumber(frame);
+        int length = frame.remaining() - DataFrame.HEADER_LENGTH - Long.BYTES;
+        if (length < 0 || DataFrame.readStreamId(frame) != 0) {
+            respond(address, seqNumber, ackNumber + 1, Flag.RESET, 0);
+            return;
+        }
+        long token = frame.getLong(frame.position() + DataFrame.HEADER_LENGTH);
+        if (session == null || !session.isResumedWith(token)) {
+            if (!resumption.redeem(token)) {
+                respond(address, seqNumber, ackNumber + 1, Flag.RESET, 0);
+                return;
+            }
+            if (session == null) {
+                session = openSession(address);
+                session.reset(seqNumber, ackNumber);
+            }
+            session.resumed(token, resumption.issue(), seqNumber);
+        }
+        ServerStream stream = session.getDefaultStream();
+        receivePayload(stream, frame, DataFrame.HEADER_LENGTH + Long.BYTES);
+        acknowledgeReceived(stream);
+    }
+
+    /**
+     * Handles an {@code OFFSET} dataframe, whose payload is the id of a file transfer to be resumed.
+     * <p>
+     * The stream of the dataframe takes over the transfer from the stream which carried it before,
+     * which is closed, and the client is told the offset to continue at. A transfer not known yet,
+     * because {@code receiveFile} has not been called, is not answered; the client asks again.
+     *
+     * @param address  the address of the client.
+     * @param session  the session of the client, null if there is none.
+     * @param streamId the stream the file is sent on.
+     * @param frame    the dataframe, ready for reading.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void resumeFile(SocketAddress address, Session session, int streamId, ByteBuffer frame)
+            throws IOException {
+        if (streamId == 0 || frame.remaining() < DataFrame.HEADER_LENGTH + Long.BYTES) {
+            return;
+        }
+        FileTransfer transfer = resumable.get(frame.getLong(frame.position() + DataFrame.HEADER_LENGTH));
+        if (transfer == null) {
+            return;
+        }
+        if (session == null) {
+            session = openSession(address);
+        }
+        ServerStream stream = session.getStream(streamId);
+        if (stream == null) {
+            stream = session.openStream(streamId);
+            if (stream == null) {
+                return; // a late dataframe of a stream which is already closed
+            }
+        }
+        ServerStream previous = transfer.getStream();
+        if (previous != stream) {
+            if (previous != null) {
+                previous.setTransfer(null);
+                cancelAck(previous);
+                previous.getSession().closeStream(previous);
+            }
+            stream.markFile();
+            stream.setTransfer(transfer);
+            transfer.setStream(stream);
+        }
+        respond(address, 0, 0, Flag.OFFSETACK, streamId, transfer.getOffset());
+    }
+
+    /**
+     * Hands a dataframe carrying data to its stream and acknowledges it
+     * immediately or delayed, as configured by the coalescing, or after the next commit of the journal.
+     *
+     * @param stream the stream the dataframe belongs to.
+     * @param frame  the dataframe, ready for reading.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void receive(ServerStream stream, ByteBuffer frame) throws IOException {
+        int pending = stream.getUnacknowledged();
+        boolean immediate = receivePayload(stream, frame, DataFrame.HEADER_LENGTH);
+        if (immediate && stream.isJournaled() && stream.getUnacknowledged() == pending) {
+            // nothing was added to the journal, a gap or a full window is reported at once
+            sendAcknowledgement(stream, stream.getAcknowledged(), stream.getWindow());
+            recovering.add(stream);
+        } else if (immediate || stream.isJournaled() || stream.getUnacknowledged() >= ackFrequency) {
+            acknowledgeReceived(stream);
+            if (stream.isJournaled() && (immediate || recovering.contains(stream))) {
+                commit(); // a client recovering from a gap waits for this acknowledgement, not for the interval
+            }
+        } else {
+            TimingWheel.Timeout timer = stream.getAckTimer();
+            if (timer == null) {
+                timer = new TimingWheel.Timeout(() -> acknowledgeDelayed(stream));
+                stream.setAckTimer(timer);
+            }
+            if (!getTimers().isPending(timer)) {
+                getTimers().schedule(timer, ackDelay);
+            }
+        }
+    }
+
+    /**
+     * Adds a stream to the striped transfer named in its first {@code STRIPE} dataframe. The first stream
+     * of a transfer creates its group, whose merged stream is handed out by {@code acceptStream}.
+     *
+     * @param stream the stream the dataframe was received on.
+     * @param frame  the dataframe, ready for reading.
+     * @return true if the stream joined a transfer, false if the dataframe has no header.
+     */
+    private boolean joinStripe(ServerStream stream, ByteBuffer frame) {
+        if (frame.remaining() < DataFrame.HEADER_LENGTH + StripeGroup.HEADER_LENGTH) {
+            return false;
+        }
+        int id = frame.getInt(frame.position() + DataFrame.HEADER_LENGTH);
+        StripeGroup group = stripes.get(id);
+        if (group == null) {
+            StripeGroup created = new StripeGroup(id, new ServerStream(null, stream.getId(), 0, null), stripes);
+            group = stripes.putIfAbsent(id, created);
+            if (group == null) {
+                group = created;
+                accepted.add(created.getMerged());
+            }
+        }
+        stream.setStripe(group);
+        return true;
+    }
+
+    /**
+     * Acknowledges the dataframes of a stream received so far, after the next commit
+     * if the stream is written to the journal.
+     *
+     * @param stream the stream to be acknowledged.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void acknowledgeReceived(ServerStream stream) throws IOException {
+        cancelAck(stream);
+        if (!stream.isJournaled()) {
+            acknowledge(stream);
+            return;
+        }
+        uncommitted.add(stream);
+        if (!getTimers().isPending(commitTimer)) {
+            getTimers().schedule(commitTimer, journal.getCommitInterval());
+        }
+    }
+
+    /**
+     * Commits the journal and acknowledges the streams which were waiting for it.
+     * An acknowledgement, even one repeated for a duplicate, never covers data the journal could still lose.
+     *
+     * @throws IOException if the journal cannot be committed or an I/O error occurs.
+     */
+    private void commit() throws IOException {
+        getTimers().cancel(commitTimer);
+        journal.commit();
+        for (ServerStream stream : uncommitted) {
+            acknowledge(stream);
+        }
+        uncommitted.clear();
+        recovering.clear();
+    }
+
+    /**
+     * Commits the journal at the end of the commit interval, run by the timers of the server.
+     * A journal which cannot be written stops the server, like an I/O error of its socket.
+     */
+    private void commitDelayed() {
+        try {
+            commit();
+        } catch (IOException e) {
+            Terminal.printError(e.toString());
+            close();
+        }
+    }
+
+    /**
+     * Sends the acknowledgement of a stream delayed by the coalescing, run by the timers of the server.
+     *
+     * @param stream the stream to be acknowledged.
+     */
+    private void acknowledgeDelayed(ServerStream stream) {
+        if (stream.getUnacknowledged() > 0) {
+            try {
+                acknowledge(stream);
+            } catch (IOException e) {
+                // the client sends the dataframes again when no acknowledgement arrives
+            }
+        }
+    }
+
+    /**
+     * Cancels the delayed acknowledgement of a stream, also one waiting for the journal.
+     * Its data stays in the journal and is committed with the next commit.
+     *
+     * @param stream the stream.
+     */
+    private void cancelAck(ServerStream stream) {
+        if (stream.getAckTimer() != null) {
+            getTimers().cancel(stream.getAckTimer());
+        }
+        uncommitted.remove(stream);
+    }
+
+    /**
+     * Creates the session of a client and starts its idle timer.
+     *
+     * @param address the address of the client.
+     * @return the new session.
+     */
+    private Session openSession(SocketAddress address) {
+        Session session = new Session(address, defaultStream);
+        sessions.put(address, session);
+        if (idleTimeout > 0) {
+            TimingWheel.Timeout timer = new TimingWheel.Timeout(() -> checkIdle(session));
+            session.setIdleTimer(timer);
+            getTimers().schedule(timer, idleTimeout);
+        }
+        return session;
+    }
+
+    /**
+     * Evicts a session which has been silent for the idle timeout, or checks again when the
+     * idle timeout has passed since its last dataframe. The timer is only moved when it expires,
+     * so a dataframe does not have to reschedule it.
+     *
+     * @param session the session to be checked.
+     */
+    private void checkIdle(Session session) {
+        long idle = (System.nanoTime() - session.getLastActive()) / 1_000_000L;
+        if (idle < idleTimeout) {
+            getTimers().schedule(session.getIdleTimer(), idleTimeout - idle);
+        } else if (sessions.get(session.getAddress()) == session) {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Removes the session of a client, closes its streams and cancels its timers.
+     *
+     * @param session the session to be closed.
+     */
+    private void closeSession(Session session) {
+        sessions.remove(session.getAddress());
+        if (session.getIdleTimer() != null) {
+            getTimers().cancel(session.getIdleTimer());
+        }
+        for (ServerStream stream : session.getStreams()) {
+            cancelAck(stream);
+        }
+        session.close();
+    }
+
+    /**
+     * Sends a cumulative acknowledgement of all dataframes of the stream received in order.
+     * Its payload is the receive window of the stream, the number of further dataframes it takes in.
+     *
+     * @param stream the stream to be acknowledged.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void acknowledge(ServerStream stream) throws IOException {
+        acknowledge(stream, stream.getWindow());
+    }
+
+    /**
+     * Sends a cumulative acknowledgement of all dataframes of the stream received in order
+     * with the given receive window.
+     *
+     * @param stream the stream to be acknowledged.
+     * @param window the number of further dataframes the stream takes in.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void acknowledge(ServerStream stream, int window) throws IOException {
+        sendAcknowledgement(stream, stream.acknowledge(), window);
+    }
+
+    /**
+     * Sends an acknowledgement of all dataframes of the stream up to the given sequence number.
+     * Repeating the last one tells the client about a gap without acknowledging more.
+     * The acknowledgement of a resuming dataframe carries the token for the next resumption.
+     *
+     * @param stream       the stream to be acknowledged.
+     * @param acknowledged the sequence number acknowledged.
+     * @param window       the number of further dataframes the stream takes in.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void sendAcknowledgement(ServerStream stream, int acknowledged, int window) throws IOException {
+        header.clear();
+        DataFrame.writeHeader(header, acknowledged, stream.getLastAck() + 1, Flag.DEFAULT, stream.getId());
+        header.putInt(window);
+        if (stream.getId() == 0) {
+            long token = stream.getSession().getReissuedToken(acknowledged);
+            if (token != 0) {
+                header.putLong(token);
+            }
+        }
+        transmit(stream.getSession().getAddress(), false);
+    }
+
+    /**
+     * Encodes a dataframe without payload and sends it to the client.
+     *
+     * @param address   the address of the client.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param flag      the flag of the dataframe.
+     * @param streamId  the stream of the dataframe.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void respond(SocketAddress address, int seqNumber, int ackNumber, Flag flag, int streamId)
+            throws IOException {
+        respond(address, seqNumber, ackNumber, flag, streamId, 0);
+    }
+
+    /**
+     * Encodes a dataframe whose payload is a resumption token or an offset and sends it to the client.
+     *
+     * @param address   the address of the client.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param flag      the flag of the dataframe.
+     * @param streamId  the stream of the dataframe.
+     * @param token     the resumption token or the offset, 0 for a dataframe without payload.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void respond(SocketAddress address, int seqNumber, int ackNumber, Flag flag, int streamId, long token)
+            throws IOException {
+        header.clear();
+        DataFrame.writeHeader(header, seqNumber, ackNumber, flag, streamId);
+        if (token != 0) {
+            header.putLong(token);
+        }
+        transmit(address, flag != Flag.DEFAULT);
+    }
+
+    /**
+     * Encodes the dataframe written to the header buffer and sends it to the client.
+     *
+     * @param address the address of the client.
+     * @param control true if the dataframe opens, closes or resets a session.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void transmit(SocketAddress address, boolean control) throws IOException {
+        header.flip();
+        response.clear();
+        encoder.encode(header, response);
+        response.flip();
+        send(response, address, control);
     }
 }
@@ -0,0 +1,708 @@
+package eit.host;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * This class represents a logical stream received by a {@code Server}.
+ * <p>
+ * Every stream has its own sequence space and receive buffer. Payloads are appended in order,
+ * a payload arriving ahead of a gap is kept until the gap is filled. A gap in one stream
+ * does not hold back the data of the other streams of the same connection.
+ * <p>
+ * Streams other than the default stream are handed out by {@code Server.acceptStream}.
+ * The data of a stream is read with {@code read}, which may be called from any thread.
+ * <p>
+ * Instead of being read, the data can be pushed to a subscriber as the payloads arrive in order.
+ * The subscriber is a {@code Flow.Subscriber}, or a plain handler set with {@code setHandler}.
+ * While a subscriber is attached, the payloads it has not requested yet are queued up to a bound,
+ * and the space left is advertised to the client with every acknowledgement as its receive window.
+ * A subscriber that stops requesting therefore stops the client, instead of letting the data pile up.
+ * <p>
+ * Once a client sends parity dataframes, the stream keeps the last payloads received,
+ * so that a lost dataframe can be rebuilt from the parity and the other dataframes of its group.
+ * <p>
+ * The payloads are handed over in the buffers of the {@code BufferPool} they were decoded into.
+ * A payload kept ahead of a gap or for a parity dataframe keeps a reference to its buffer instead of
+ * a copy, and so does a {@code StripeGroup} a payload is handed on to. A payload is only copied when it
+ * leaves the server: into the {@code byte[]} returned by {@code read} or handed to the subscriber,
+ * and into the journal.
+ * <p>
+ * A relay passes the dataframes of a stream on without decoding their payloads, see {@code forward}.
+ * The payloads are then the encoded dataframes as they arrived, which are put in order like any payload
+ * and handed to the forwarding subscriber in their pooled buffers, without a copy.
+ * <p>
+ * A stream carrying a part of a striped transfer hands its payloads to the {@code StripeGroup}
+ * of the transfer, which merges the streams of all clients of the transfer into one stream.
+ * <p>
+ * A stream with a {@code ReceiveJournal} appends every payload to the journal before it is read,
+ * the acknowledgement of the streams delivering to it waits for the journal to commit.
+ */
+public class ServerStream implements Flow.Publisher<byte[]> {
+    private final static int MAXREORDER = 64; // the number of dataframes kept which arrived ahead of a gap
+    private final static int MAXQUEUED = 256; // the number of payloads queued for a subscriber by default
+    private final static int HISTORY = 128; // the number of payloads kept to rebuild lost dataframes, a power of 2
+    private final int id; // the stream id carried in the dataframes.
+    private final Session session; // the connection the stream belongs to, null for the delivery of a server.
+    private final ServerStream delivery; // the stream the payload is appended to, this stream if not shared.
+    private final Map<Integer, PooledBuffer> reorder =
+            new HashMap<>(); // payloads which arrived ahead of a gap, null for a part of a file written already
+    private int expectedSeq; // the sequence number of the next dataframe in order, 0 if not known yet
+    private int lastAck; // the acknowledgement number of the last dataframe received in order
+    private int unacknowledged; // the number of dataframes received in order but not acknowledged yet
+    private byte[] buffer = new byte[0]; // contains the bytes read from the client.
+    private int length; // the number of bytes in the buffer which have not been read yet.
+    private boolean closed; // true if the client sent the end of the stream.
+    private TimingWheel.Timeout ackTimer; // the timer of the delayed acknowledgement, null until first needed.
+    private volatile StreamSubscription<byte[]> subscription; // the subscriber the payload is pushed to, or null
+    private volatile StreamSubscription<PooledBuffer> forwarding; // the relay the dataframes are passed on to, or null
+    private volatile boolean forwarded; // true once the payloads are encoded dataframes passed on by a relay
+    private FileTransfer transfer; // the file the payload is written to, null if the stream is not a file
+    private boolean file; // true if the dataframes of the stream carry parts of a file
+    private StripeGroup stripe; // the striped transfer the payload is merged into, null if the stream is not striped
+    private ReceiveJournal journal; // the journal the payload appended is written to, null if there is none
+    private PooledBuffer[] history; // the buffers of the payloads received last, by sequence number, null until parity
+    private int[] historyOffset; // the index of each payload in the history in its buffer
+    private int[] historySeq; // the sequence number of each payload in the history
+    private int[] historyLength; // the length of each payload in the history, -1 if the slot is empty
+
+    /**
+     * Constructs a stream whose first dataframe has the given sequence number.
+     * <p>
+     * The payload is appended to the receive buffer of {@code delivery}, which allows the default
+     * streams of all sessions of a server to be read together.
+     *
+     * @param session     the connection the stream belongs to, null if the stream only receives payload.
+     * @param id          the stream id.
+     * @param expectedSeq the sequence number of the first dataframe, 0 if not known.
+     * @param delivery    the stream the payload is appended to, null for this stream.
+     */
+    ServerStream(Session session, int id, int expectedSeq, ServerStream delivery) {
+        this.session = session;
+        this.id = id;
+        this.expectedSeq = expectedSeq;
+        this.delivery = delivery == null ? this : delivery;
+    }
+
+    /**
+     * Returns the id of the stream.
+     *
+     * @return the stream id, 0 for the default stream.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Reads the bytes received on this stream.
+     * The buffer is emptied after this method is called.
+     *
+     * @return the data as {@code byte[]} received from the client.
+     */
+    public synchronized byte[] read() {
+        byte[] tmp = Arrays.copyOf(buffer, length);
+        length = 0;
+        return tmp;
+    }
+
+    /**
+     * Subscribes to the payloads of this stream, which are signalled in order as they arrive.
+     * Up to 256 payloads not requested yet are queued. The subscriber is signalled on the common pool.
+     * A stream has at most one subscriber; a second one is signalled an error.
+     *
+     * @param subscriber the subscriber.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super byte[]> subscriber) {
+        subscribe(subscriber, ForkJoinPool.commonPool(), MAXQUEUED);
+    }
+
+    /**
+     * Subscribes to the payloads of this stream, which are signalled in order as they arrive.
+     * A stream has at most one subscriber; a second one is signalled an error.
+     *
+     * @param subscriber the subscriber.
+     * @param executor   runs the signals to the subscriber, one at a time.
+     * @param maxQueued  the number of payloads not requested yet which are queued, at least 1;
+     *                   this is the largest receive window advertised to the client.
+     * @throws IllegalArgumentException if {@code maxQueued} is less than 1.
+     */
+    public void subscribe(Flow.Subscriber<? super byte[]> subscriber, Executor executor, int maxQueued) {
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException("at least one payload has to be queued");
+        }
+        StreamSubscription<byte[]> created = new StreamSubscription<>(this, subscriber, executor, maxQueued,
+                payload -> { });
+        boolean closedAlready;
+        synchronized (this) {
+            if (subscription != null || forwarded) {
+                reject(subscriber, executor, payload -> { });
+                return;
+            }
+            subscription = created;
+            closedAlready = closed;
+        }
+        created.start();
+        if (closedAlready) {
+            created.complete();
+        }
+    }
+
+    /**
+     * Passes the payloads of this stream on to a relay, as they arrive in order. The payloads are
+     * the encoded dataframes as they arrived, in buffers of the {@code BufferPool}; the subscriber
+     * releases each one once it is done with it. The server only hands over encoded dataframes once
+     * the stream forwards, see {@code Server.forward}.
+     * <p>
+     * A stream forwards for good: after the subscription ended, the payloads are dropped,
+     * since they cannot be read without being decoded. They are not written to a journal either.
+     *
+     * @param subscriber the subscriber.
+     * @param executor   runs the signals to the subscriber, one at a time.
+     * @param maxQueued  the number of payloads not requested yet which are queued, at least 1;
+     *                   this is the largest receive window advertised to the client.
+     * @throws IllegalArgumentException if {@code maxQueued} is less than 1.
+     */
+    void forward(Flow.Subscriber<? super PooledBuffer> subscriber, Executor executor, int maxQueued) {
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException("at least one payload has to be queued");
+        }
+        StreamSubscription<PooledBuffer> created = new StreamSubscription<>(this, subscriber, executor, maxQueued,
+                PooledBuffer::release);
+        boolean closedAlready;
+        synchronized (this) {
+            if (subscription != null || forwarded) {
+                reject(subscriber, executor, PooledBuffer::release);
+                return;
+            }
+            forwarding = created;
+            forwarded = true;
+            closedAlready = closed;
+        }
+        created.start();
+        if (closedAlready) {
+            created.complete();
+        }
+    }
+
+    /**
+     * Signals an error to a subscriber which came after the stream already had one.
+     *
+     * @param subscriber the subscriber.
+     * @param executor   runs the signals to the subscriber.
+     * @param discard    takes the payloads which are not handed out.
+     * @param <T>        the type of the payloads.
+     */
+    private <T> void reject(Flow.Subscriber<? super T> subscriber, Executor executor, Consumer<? super T> discard) {
+        executor.execute(() -> {
+            subscriber.onSubscribe(new StreamSubscription<>(this, subscriber, executor, 1, discard));
+            subscriber.onError(new IllegalStateException("stream has a subscriber already"));
+        });
+    }
+
+    /**
+     * Pushes the payloads of this stream to a handler as they arrive, with unbounded demand.
+     * The handler is called on the common pool, one payload at a time.
+     *
+     * @param handler the handler receiving the payloads.
+     */
+    public void setHandler(Consumer<byte[]> handler) {
+        subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(byte[] item) {
+                handler.accept(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                // the handler is not told about errors
+            }
+
+            @Override
+            public void onComplete() {
+                // the handler is not told about the end of the stream
+            }
+        });
+    }
+
+    /**
+     * Answers whether the client has closed this stream. Data received before
+     * the end of the stream can still be read.
+     *
+     * @return true if no more data will arrive on this stream.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Handles a dataframe carrying data. Its payload is appended in order; a payload arriving
+     * ahead of a gap is kept until the gap is filled, a payload arriving twice is dropped.
+     * The payload of a file is written at its offset on arrival instead, also ahead of a gap.
+     * Payloads are only delivered as far as the receive window allows; those kept ahead of a gap
+     * which do not fit any more stay kept until the client sends them again.
+     *
+     * The payload is not copied: a payload kept ahead of a gap is kept as a slice of its buffer.
+     *
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgement number of the dataframe.
+     * @param payload   the buffer whose remaining bytes are the payload, its position is not changed.
+     * @return true if the dataframe has to be acknowledged immediately,
+     * because it was out of order, a duplicate or filled a gap.
+     */
+    boolean receive(int seqNumber, int ackNumber, PooledBuffer payload) {
+        if (expectedSeq == 0) {
+            expectedSeq = seqNumber;
+        }
+        int count = payload.buffer().remaining();
+        int distance = seqNumber - expectedSeq;
+        if (distance > 0) {
+            if (distance < MAXREORDER && !reorder.containsKey(seqNumber)) {
+                remember(seqNumber, payload);
+                if (transfer != null) {
+                    transfer.write(payload.buffer());
+                    reorder.put(seqNumber, null);
+                } else {
+                    reorder.put(seqNumber, payload.slice());
+                }
+            }
+            return true;
+        }
+        if (distance < 0) {
+            return true;
+        }
+        if (transfer != null) {
+            transfer.write(payload.buffer());
+        } else if (count > 0 && getDeliveryWindow() == 0) {
+            return true; // no room left, the client sends it again when the window opens
+        } else if (count > 0) {
+            deliver(payload);
+        }
+        remember(seqNumber, payload);
+        discard(reorder.remove(seqNumber)); // kept when the window closed while the gap was filled
+        expectedSeq++;
+        lastAck = ackNumber;
+        unacknowledged++;
+        boolean gapFilled = false;
+        while (reorder.containsKey(expectedSeq)) {
+            PooledBuffer next = reorder.get(expectedSeq);
+            if (next != null && next.buffer().hasRemaining()) {
+                if (getDeliveryWindow() == 0) {
+                    return true; // the rest stays until the client sends it again when the window opens
+                }
+                deliver(next);
+            }
+            discard(reorder.remove(expectedSeq));
+            expectedSeq++;
+            lastAck++;
+            unacknowledged++;
+            gapFilled = true;
+        }
+        return gapFilled;
+    }
+
+    /**
+     * Returns the number of payloads the stream the payload is delivered to still takes.
+     *
+     * @return the number of payloads, {@code Integer.MAX_VALUE} if it is not limited.
+     */
+    private int getDeliveryWindow() {
+        return stripe != null ? stripe.getWindow() : delivery.getWindow();
+    }
+
+    /**
+     * Starts a new sequence space, as announced by the {@code SYN} of a new connection.
+     * Data not read yet is kept.
+     *
+     * @param seqNumber the sequence number of the next dataframe.
+     * @param ackNumber the acknowledgement number of the next dataframe.
+     */
+    void reset(int seqNumber, int ackNumber) {
+        expectedSeq = seqNumber;
+        lastAck = ackNumber - 1;
+        unacknowledged = 0;
+        releaseKept();
+    }
+
+    /**
+     * Gives up the payloads kept ahead of a gap and for parity dataframes, which go back to their pool.
+     */
+    void releaseKept() {
+        for (PooledBuffer kept : reorder.values()) {
+            discard(kept);
+        }
+        reorder.clear();
+        if (history != null) {
+            for (PooledBuffer kept : history) {
+                discard(kept);
+            }
+            history = null;
+        }
+    }
+
+    /**
+     * Gives up a reference to a payload kept.
+     *
+     * @param kept the payload, null if none was kept.
+     */
+    private static void discard(PooledBuffer kept) {
+        if (kept != null) {
+            kept.release();
+        }
+    }
+
+    /**
+     * Handles a parity dataframe: if exactly one dataframe of its class is missing and the payloads
+     * of the others are still kept, the missing dataframe is rebuilt and received as if it had arrived.
+     * The first parity dataframe starts keeping payloads.
+     *
+     * @param start       the sequence number of the first dataframe of the group.
+     * @param description the description of the group, see {@code ParityGroup.pack}.
+     * @param parity      the buffer whose remaining bytes are the parity, its position is not changed.
+     * @return true if a dataframe was rebuilt and has to be acknowledged immediately.
+     */
+    boolean recover(int start, int description, ByteBuffer parity) {
+        if (expectedSeq == 0 || file && transfer == null) {
+            return false;
+        }
+        int count = parity.remaining();
+        if (history == null) {
+            history = new PooledBuffer[HISTORY];
+            historyOffset = new int[HISTORY];
+            historySeq = new int[HISTORY];
+            historyLength = new int[HISTORY];
+            Arrays.fill(historyLength, -1);
+        }
+        int size = description >>> 24;
+        int stride = ((description >>> 20) & 0xF) + 1;
+        int length = description & 0xFFFF;
+        int missing = 0;
+        int lost = 0;
+        for (int i = (description >>> 16) & 0xF; i < size; i += stride) {
+            int seqNumber = start + i;
+            if (seqNumber - expectedSeq >= 0 && !reorder.containsKey(seqNumber)) {
+                missing++;
+                lost = seqNumber;
+            } else if (historySeq[seqNumber & (HISTORY - 1)] != seqNumber
+                    || historyLength[seqNumber & (HISTORY - 1)] < 0) {
+                return false; // received before the payloads were kept
+            } else if (historyLength[seqNumber & (HISTORY - 1)] > count) {
+                return false; // the parity is shorter than a payload it covers, so it is faulty
+            } else {
+                length ^= historyLength[seqNumber & (HISTORY - 1)];
+            }
+        }
+        if (missing != 1 || length > count || lost - expectedSeq >= MAXREORDER) {
+            return false;
+        }
+        PooledBuffer rebuilt = BufferPool.shared().acquire(count);
+        ByteBuffer bytes = rebuilt.buffer();
+        for (int j = 0; j < count; j++) {
+            bytes.put(j, parity.get(parity.position() + j));
+        }
+        for (int i = (description >>> 16) & 0xF; i < size; i += stride) {
+            int slot = (start + i) & (HISTORY - 1);
+            if (start + i != lost) {
+                ByteBuffer kept = history[slot].buffer();
+                for (int j = 0; j < historyLength[slot]; j++) {
+                    bytes.put(j, (byte) (bytes.get(j) ^ kept.get(historyOffset[slot] + j)));
+                }
+            }
+        }
+        bytes.limit(length);
+        try {
+            receive(lost, lost - 1, rebuilt);
+        } finally {
+            rebuilt.release();
+        }
+        return true;
+    }
+
+    /**
+     * Makes the stream write its payload to a file.
+     *
+     * @param transfer the file the payload is written to.
+     */
+    void setTransfer(FileTransfer transfer) {
+        this.transfer = transfer;
+    }
+
+    /**
+     * Marks the stream as carrying a file, whose dataframes are not rebuilt before its file is known.
+     */
+    void markFile() {
+        file = true;
+    }
+
+    /**
+     * Makes the stream hand its payload to the group of a striped transfer.
+     *
+     * @param stripe the group the payload is merged into.
+     */
+    void setStripe(StripeGroup stripe) {
+        this.stripe = stripe;
+    }
+
+    /**
+     * Answers whether the payload of the stream is merged into a striped transfer.
+     *
+     * @return true if the stream belongs to a striped transfer.
+     */
+    boolean hasStripe() {
+        return stripe != null;
+    }
+
+    /**
+     * Makes the stream write every payload appended to it to a journal.
+     *
+     * @param journal the journal, null to stop writing the payload to a journal.
+     */
+    void setJournal(ReceiveJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Answers whether the payload of the stream ends up in a journal,
+     * so that it must not be acknowledged before the journal has committed it.
+     *
+     * @return true if the stream the payload is appended to has a journal.
+     */
+    boolean isJournaled() {
+        return stripe == null && transfer == null && delivery.journal != null;
+    }
+
+    /**
+     * Answers whether the payload of the stream is written to a file.
+     *
+     * @return true if the stream has a file.
+     */
+    boolean hasTransfer() {
+        return transfer != null;
+    }
+
+    /**
+     * Ends the stream without the client closing it, e.g. when its session ends.
+     * A file being received is reported as incomplete unless it can be resumed,
+     * a striped transfer ends with a gap.
+     */
+    void abort() {
+        if (transfer != null) {
+            transfer.detach();
+            transfer = null;
+        }
+        if (stripe != null) {
+            stripe.end(true);
+            stripe = null;
+        }
+        close();
+    }
+
+    /**
+     * Marks the stream as closed by the client, which completes the subscriber, the file
+     * or its part of a striped transfer.
+     */
+    void close() {
+        releaseKept();
+        if (transfer != null) {
+            transfer.complete(false);
+            transfer = null;
+        }
+        if (stripe != null) {
+            stripe.end(false);
+            stripe = null;
+        }
+        StreamSubscription<?> current;
+        synchronized (this) {
+            closed = true;
+            current = forwarded ? forwarding : subscription;
+        }
+        if (current != null) {
+            current.complete();
+        }
+    }
+
+    /**
+     * Returns the number of payloads which can still be taken in, advertised to the client.
+     * Without a subscriber the space is not limited.
+     *
+     * @return the receive window of the stream.
+     */
+    int getWindow() {
+        StreamSubscription<?> current = forwarded ? forwarding : subscription;
+        return current == null ? Integer.MAX_VALUE : current.getWindow();
+    }
+
+    /**
+     * Detaches a subscriber whose subscription ended, later payloads are kept for {@code read},
+     * or dropped if the stream forwards.
+     *
+     * @param ended the subscription which ended.
+     */
+    synchronized void unsubscribe(StreamSubscription<?> ended) {
+        if (subscription == ended) {
+            subscription = null;
+        }
+        if (forwarding == ended) {
+            forwarding = null;
+        }
+    }
+
+    /**
+     * Answers whether the payloads of this stream are passed on encoded to a relay, see {@code forward}.
+     *
+     * @return true if the stream forwards.
+     */
+    boolean isForwarded() {
+        return forwarded;
+    }
+
+    /**
+     * Returns the connection the stream belongs to.
+     *
+     * @return the session of the stream.
+     */
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * Returns the timer of the delayed acknowledgement of the stream.
+     *
+     * @return the timer, null if no acknowledgement has been delayed yet.
+     */
+    TimingWheel.Timeout getAckTimer() {
+        return ackTimer;
+    }
+
+    /**
+     * Sets the timer of the delayed acknowledgement, which is reused for every delayed acknowledgement.
+     *
+     * @param ackTimer the timer.
+     */
+    void setAckTimer(TimingWheel.Timeout ackTimer) {
+        this.ackTimer = ackTimer;
+    }
+
+    /**
+     * Returns the number of dataframes received in order but not acknowledged yet.
+     *
+     * @return the number of unacknowledged dataframes.
+     */
+    int getUnacknowledged() {
+        return unacknowledged;
+    }
+
+    /**
+     * Returns the sequence number of the last dataframe received in order and
+     * marks all dataframes up to it as acknowledged.
+     *
+     * @return the sequence number to be acknowledged.
+     */
+    int acknowledge() {
+        unacknowledged = 0;
+        return expectedSeq - 1;
+    }
+
+    /**
+     * Returns the sequence number of the last dataframe acknowledged, without acknowledging more.
+     *
+     * @return the sequence number acknowledged last.
+     */
+    int getAcknowledged() {
+        return expectedSeq - 1 - unacknowledged;
+    }
+
+    /**
+     * Returns the acknowledgement number of the last dataframe received in order.
+     *
+     * @return the acknowledgement number.
+     */
+    int getLastAck() {
+        return lastAck;
+    }
+
+    /**
+     * Keeps a payload received, once parity dataframes arrive, by taking a reference to its buffer.
+     * The slot of a payload is reused for the payload {@code HISTORY} sequence numbers later,
+     * the payload kept in it before goes back to its pool.
+     *
+     * @param seqNumber the sequence number of the dataframe.
+     * @param payload   the buffer whose remaining bytes are the payload.
+     */
+    private void remember(int seqNumber, PooledBuffer payload) {
+        if (history == null) {
+            return;
+        }
+        int slot = seqNumber & (HISTORY - 1);
+        discard(history[slot]);
+        history[slot] = payload.retain();
+        historyOffset[slot] = payload.buffer().position();
+        historySeq[slot] = seqNumber;
+        historyLength[slot] = payload.buffer().remaining();
+    }
+
+    /**
+     * Hands a payload received in order to the stream it is appended to, or to its striped transfer.
+     *
+     * @param payload the buffer whose remaining bytes are the payload, its position is not changed.
+     */
+    private void deliver(PooledBuffer payload) {
+        if (stripe != null) {
+            stripe.add(payload);
+        } else if (delivery.forwarded) {
+            delivery.pass(payload);
+        } else {
+            delivery.append(payload.buffer());
+        }
+    }
+
+    /**
+     * Queues an encoded dataframe for the relay the stream forwards to, as a slice of its buffer.
+     * It is dropped if the forwarding subscription has ended.
+     *
+     * @param payload the buffer whose remaining bytes are the encoded dataframe, its position is not changed.
+     */
+    private void pass(PooledBuffer payload) {
+        StreamSubscription<PooledBuffer> current = forwarding;
+        if (current != null) {
+            current.offer(payload.slice());
+        }
+    }
+
+    /**
+     * Appends the payload to the bytes not read yet, or queues a copy of it for the subscriber,
+     * and writes it to the journal of the stream. This is where the payload leaves its pooled buffer.
+     * The buffer grows by doubling its size, so appending does not allocate in the steady state.
+     *
+     * @param payload the buffer whose remaining bytes are the payload, its position is not changed.
+     */
+    synchronized void append(ByteBuffer payload) {
+        int start = payload.position();
+        int count = payload.remaining();
+        if (journal != null) {
+            journal.append(payload);
+        }
+        if (subscription != null) {
+            byte[] copy = new byte[count];
+            payload.get(copy).position(start);
+            subscription.offer(copy);
+            return;
+        }
+        if (length + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length + count, buffer.length * 2));
+        }
+        payload.get(buffer, length, count).position(start);
+        length += count;
+    }
+}
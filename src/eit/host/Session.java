@@ -0,0 +1,207 @@
+package eit.host;
+
+import java.net.SocketAddress;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class holds the state a {@code Server} keeps for one connected client:
+ * its address and the streams of the connection.
+ * <p>
+ * A session is only used by the thread of the server it belongs to and needs no locking.
+ */
+class Session {
+    private final SocketAddress address; // the address of the client.
+    private final ServerStream defaultStream; // the stream with id 0.
+    private final Map<Integer, ServerStream> streams = new HashMap<>(); // the open streams by their id
+    private final BitSet usedStreamIds = new BitSet(); // the stream ids seen on the connection
+    private long lastActive = System.nanoTime(); // the System.nanoTime() of the last dataframe of the client
+    private TimingWheel.Timeout idleTimer; // the timer evicting the session, null if it is never evicted
+    private long resumedWith; // the token the session was resumed with, 0 if it started with a handshake
+    private long reissuedToken; // the token the client resumes its next session with, 0 if there is none
+    private int resumedAt; // the sequence number of the resuming dataframe
+
+    /**
+     * Constructs the session of a client.
+     *
+     * @param address  the address of the client.
+     * @param delivery the stream the payload of the default stream is appended to.
+     */
+    Session(SocketAddress address, ServerStream delivery) {
+        this.address = address;
+        this.defaultStream = new ServerStream(this, 0, 0, delivery);
+        streams.put(0, defaultStream);
+    }
+
+    /**
+     * Returns the address of the client.
+     *
+     * @return the address of the client.
+     */
+    SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the default stream of the connection.
+     *
+     * @return the stream with id 0.
+     */
+    ServerStream getDefaultStream() {
+        return defaultStream;
+    }
+
+    /**
+     * Returns an open stream of the connection.
+     *
+     * @param streamId the id of the stream.
+     * @return the stream or null if it is not open.
+     */
+    ServerStream getStream(int streamId) {
+        return streams.get(streamId);
+    }
+
+    /**
+     * Returns the open streams of the connection, including the default stream.
+     *
+     * @return the open streams.
+     */
+    Collection<ServerStream> getStreams() {
+        return streams.values();
+    }
+
+    /**
+     * Records that a dataframe of the client has arrived.
+     */
+    void touch() {
+        lastActive = System.nanoTime();
+    }
+
+    /**
+     * Returns the time the last dataframe of the client arrived.
+     *
+     * @return the time as {@code System.nanoTime()}.
+     */
+    long getLastActive() {
+        return lastActive;
+    }
+
+    /**
+     * Returns the timer evicting the session when the client stays silent.
+     *
+     * @return the timer, null if the session is never evicted.
+     */
+    TimingWheel.Timeout getIdleTimer() {
+        return idleTimer;
+    }
+
+    /**
+     * Sets the timer evicting the session when the client stays silent.
+     *
+     * @param idleTimer the timer.
+     */
+    void setIdleTimer(TimingWheel.Timeout idleTimer) {
+        this.idleTimer = idleTimer;
+    }
+
+    /**
+     * Records that the session was opened by a resuming dataframe instead of a handshake.
+     *
+     * @param token         the token the client presented.
+     * @param reissuedToken the token issued for the next session of the client.
+     * @param seqNumber     the sequence number of the resuming dataframe.
+     */
+    void resumed(long token, long reissuedToken, int seqNumber) {
+        this.resumedWith = token;
+        this.reissuedToken = reissuedToken;
+        this.resumedAt = seqNumber;
+    }
+
+    /**
+     * Answers whether the session was opened by a resuming dataframe with the given token,
+     * so another one with that token is a duplicate.
+     *
+     * @param token the token presented by the client.
+     * @return true if the session was resumed with the token.
+     */
+    boolean isResumedWith(long token) {
+        return resumedWith != 0 && resumedWith == token;
+    }
+
+    /**
+     * Returns the token to be handed to the client with an acknowledgement of the default stream.
+     * The token travels with the acknowledgements of the resuming dataframe, which the client waits
+     * for before sending more data, so it is repeated for as long as the client may have missed it.
+     *
+     * @param acknowledged the sequence number acknowledged.
+     * @return the token, 0 if the acknowledgement does not carry one.
+     */
+    long getReissuedToken(int acknowledged) {
+        return acknowledged == resumedAt ? reissuedToken : 0;
+    }
+
+    /**
+     * Opens the stream with the given id, if it has not been seen on the connection before.
+     *
+     * @param streamId the id of the stream.
+     * @return the new stream or null if the id has already been used.
+     */
+    ServerStream openStream(int streamId) {
+        if (streamId == 0 || usedStreamIds.get(streamId)) {
+            return null;
+        }
+        usedStreamIds.set(streamId);
+        ServerStream stream = new ServerStream(this, streamId, 1, null);
+        streams.put(streamId, stream);
+        return stream;
+    }
+
+    /**
+     * Closes a stream other than the default stream.
+     *
+     * @param stream the stream to be closed.
+     */
+    void closeStream(ServerStream stream) {
+        if (stream != defaultStream) {
+            streams.remove(stream.getId());
+            stream.close();
+        }
+    }
+
+    /**
+     * Closes all streams other than the default stream and starts a new sequence space
+     * on the default stream, as announced by the {@code SYN} of a new connection.
+     *
+     * @param seqNumber the sequence number of the next dataframe.
+     * @param ackNumber the acknowledgement number of the next dataframe.
+     */
+    void reset(int seqNumber, int ackNumber) {
+        for (ServerStream stream : streams.values()) {
+            if (stream != defaultStream) {
+                stream.abort();
+            }
+        }
+        streams.clear();
+        streams.put(0, defaultStream);
+        usedStreamIds.clear();
+        defaultStream.reset(seqNumber, ackNumber);
+        resumedWith = 0;
+        reissuedToken = 0;
+    }
+
+    /**
+     * Closes all streams of the session. The default stream only gives up the payloads it keeps,
+     * its data has been appended to the default stream of the server.
+     */
+    void close() {
+        for (ServerStream stream : streams.values()) {
+            if (stream != defaultStream) {
+                stream.abort();
+            }
+        }
+        streams.clear();
+        defaultStream.releaseKept();
+    }
+}
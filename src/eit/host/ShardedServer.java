@@ -0,0 +1,186 @@
+package eit.host;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * This class represents a server which spreads the receiving and decoding of datagrams over several threads.
+ * <p>
+ * It starts a number of {@code Server} shards, each with its own datagram channel bound to the same
+ * address with {@code SO_REUSEPORT}. The kernel distributes the datagrams among the channels by a hash
+ * of the address of the client, so every client is served by exactly one shard. Each shard runs its own
+ * event loop with its own encoder, decoder and sessions, no session state is shared between the shards.
+ * <p>
+ * Unlike a single {@code Server}, the shards keep running when a client disconnects;
+ * the sharded server is stopped with {@code close}.
+ */
+public class ShardedServer {
+    private final Server[] shards; // the servers sharing the address
+    private final BlockingQueue<ServerStream> accepted = new LinkedBlockingQueue<>(); // new streams of all shards
+    private final Map<Integer, StripeGroup> stripes =
+            new ConcurrentHashMap<>(); // the striped transfers of all shards, whose streams may reach different shards
+
+    /**
+     * Initialises a sharded server with one shard per available processor.
+     *
+     * @param codeTable the code table the encoders and decoders of the shards are created with.
+     * @param address   the address all shards bind to.
+     * @throws IOException                   if an I/O error occurs.
+     * @throws UnsupportedOperationException if {@code SO_REUSEPORT} is not supported by the platform.
+     */
+    public ShardedServer(CodeTable codeTable, InetSocketAddress address) throws IOException {
+        this(codeTable, address, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initialises a sharded server.
+     * If the port of the address is 0, the first shard binds to any free port and the others follow it.
+     *
+     * @param codeTable the code table the encoders and decoders of the shards are created with.
+     * @param address   the address all shards bind to.
+     * @param count     the number of shards, at least 1.
+     * @throws IOException                   if an I/O error occurs.
+     * @throws IllegalArgumentException      if the number of shards is less than 1.
+     * @throws UnsupportedOperationException if {@code SO_REUSEPORT} is not supported by the platform.
+     */
+    public ShardedServer(CodeTable codeTable, InetSocketAddress address, int count) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+        shards = new Server[count];
+        ResumptionCache resumption = new ResumptionCache(ResumptionCache.DEFAULT_CAPACITY,
+                ResumptionCache.DEFAULT_TTL);
+        try {
+            for (int i = 0; i < count; i++) {
+                shards[i] = new Server(new Encoder(codeTable), new Decoder(codeTable), address, true,
+                        accepted, stripes, false);
+                shards[i].setResumption(resumption);
+                shards[i].setName("shard-" + i);
+                if (i == 0) {
+                    address = (InetSocketAddress) shards[0].getLocalAddress();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the event loops of all shards.
+     */
+    public void start() {
+        for (Server shard : shards) {
+            shard.start();
+        }
+    }
+
+    /**
+     * Sets how acknowledgements are coalesced on all shards.
+     *
+     * @param frames      the number of dataframes covered by one acknowledgement, at least 1.
+     * @param delayMillis the maximum delay of an acknowledgement in milliseconds, at least 1.
+     * @throws IllegalArgumentException if one of the values is less than 1.
+     * @see Server#setAckCoalescing(int, long)
+     */
+    public void setAckCoalescing(int frames, long delayMillis) {
+        for (Server shard : shards) {
+            shard.setAckCoalescing(frames, delayMillis);
+        }
+    }
+
+    /**
+     * Sets the time after which the session of a silent client is evicted on all shards.
+     *
+     * @param idleMillis the idle time in milliseconds, 0 to keep sessions forever.
+     * @throws IllegalArgumentException if the idle time is negative.
+     * @see Server#setIdleTimeout(long)
+     */
+    public void setIdleTimeout(long idleMillis) {
+        for (Server shard : shards) {
+            shard.setIdleTimeout(idleMillis);
+        }
+    }
+
+    /**
+     * Sets how many resumption tokens are kept and how long they are valid.
+     * The tokens are shared by all shards, so a client may resume on any of them.
+     *
+     * @param capacity  the maximum number of tokens kept, at least 1.
+     * @param ttlMillis the time a token is valid in milliseconds, at least 1.
+     * @throws IllegalArgumentException if one of the values is less than 1.
+     * @see Server#setResumption(int, long)
+     */
+    public void setResumption(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("capacity and time to live must be at least 1");
+        }
+        ResumptionCache resumption = new ResumptionCache(capacity, ttlMillis);
+        for (Server shard : shards) {
+            shard.setResumption(resumption);
+        }
+    }
+
+    /**
+     * Reads the bytes received on the default streams of all clients.
+     * The data of the shards is returned one shard after the other.
+     *
+     * @return the data as {@code byte[]} received from the clients.
+     */
+    public byte[] read() {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (Server shard : shards) {
+            data.writeBytes(shard.read());
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * Waits until a client opens a new stream on any shard and returns it.
+     *
+     * @return the stream opened by the client.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public ServerStream acceptStream() throws InterruptedException {
+        return accepted.take();
+    }
+
+    /**
+     * Returns the address the shards are bound to.
+     *
+     * @return the local address of the shards.
+     * @throws IOException if an I/O error occurs.
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) shards[0].getLocalAddress();
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Closes the channels of all shards, which ends their event loops.
+     */
+    public void close() {
+        for (Server shard : shards) {
+            if (shard != null) {
+                shard.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package eit.host;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.fra.uas.oop.Terminal;
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * This class represents a server which splits the handling of datagrams into stages running on their own threads.
+ * <p>
+ * A receive thread only drains the socket: it copies every datagram into a preallocated ring buffer
+ * of a worker and goes on receiving, so a slow decoder does not make the kernel drop datagrams.
+ * The workers decode the datagrams and run the protocol, each with its own encoder, decoder,
+ * sessions and timers. The sessions of a client are pinned to one worker by a hash of its address,
+ * which keeps its datagrams in order. The responses of the workers are put into ring buffers of their own,
+ * which an egress thread drains and sends in batches.
+ * <p>
+ * Every ring buffer has exactly one producer and one consumer and needs no locks. The depth of the
+ * rings and the number of datagrams dropped because a worker could not keep up can be observed.
+ * Like a {@code ShardedServer}, a staged server keeps running when a client disconnects
+ * and is stopped with {@code close}.
+ */
+public class StagedServer {
+    private final static int MAXDATAGRAM = 1500; // the maximum size of a datagram in bytes
+    private final static int BATCH = 64; // the number of datagrams sent from one ring before the next is served
+    private final DatagramChannel channel; // the channel shared by the receive and the egress thread
+    private final Server[] workers; // the protocol handlers, each used by its worker thread only
+    private final DatagramRing[] inbound; // the datagrams received for each worker
+    private final DatagramRing[] outbound; // the datagrams sent by each worker
+    private final Thread[] threads; // the receive thread, the egress thread and the worker threads
+    private final BlockingQueue<ServerStream> accepted = new LinkedBlockingQueue<>(); // new streams of all workers
+    private final Map<Integer, StripeGroup> stripes =
+            new ConcurrentHashMap<>(); // the striped transfers of all workers, whose streams may reach different workers
+    private final AtomicLong dropped = new AtomicLong(); // the datagrams dropped because a worker was behind
+    private volatile boolean active = true; // false after close
+
+    /**
+     * Initialises a staged server with one worker per available processor.
+     *
+     * @param codeTable the code table the encoders and decoders of the workers are created with.
+     * @param address   the address to bind to.
+     * @param depth     the number of datagrams each ring buffer holds.
+     * @throws IOException if an I/O error occurs.
+     */
+    public StagedServer(CodeTable codeTable, InetSocketAddress address, int depth) throws IOException {
+        this(codeTable, address, Runtime.getRuntime().availableProcessors(), depth);
+    }
+
+    /**
+     * Initialises a staged server.
+     *
+     * @param codeTable the code table the encoders and decoders of the workers are created with.
+     * @param address   the address to bind to, a port of 0 binds to any free port.
+     * @param count     the number of workers, at least 1.
+     * @param depth     the number of datagrams each ring buffer holds, at least 1.
+     * @throws IOException              if an I/O error occurs.
+     * @throws IllegalArgumentException if the number of workers or the depth is less than 1.
+     */
+    public StagedServer(CodeTable codeTable, InetSocketAddress address, int count, int depth) throws IOException {
+        if (count < 1 || depth < 1) {
+            throw new IllegalArgumentException("at least one worker and one slot are required");
+        }
+        channel = DatagramChannel.open();
+        try {
+            channel.bind(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        workers = new Server[count];
+        inbound = new DatagramRing[count];
+        outbound = new DatagramRing[count];
+        threads = new Thread[count + 2];
+        ResumptionCache resumption = new ResumptionCache(ResumptionCache.DEFAULT_CAPACITY,
+                ResumptionCache.DEFAULT_TTL);
+        for (int i = 0; i < count; i++) {
+            DatagramRing in = new DatagramRing(depth, MAXDATAGRAM);
+            DatagramRing out = new DatagramRing(depth, MAXDATAGRAM);
+            Server worker = new Server(new Encoder(codeTable), new Decoder(codeTable),
+                    (buffer, target) -> enqueue(out, buffer, target), accepted, stripes);
+            worker.setResumption(resumption);
+            inbound[i] = in;
+            outbound[i] = out;
+            workers[i] = worker;
+            threads[i + 2] = new Thread(() -> work(worker, in), "worker-" + i);
+        }
+        threads[0] = new Thread(this::receive, "receive");
+        threads[1] = new Thread(this::egress, "egress");
+    }
+
+    /**
+     * Starts the receive, worker and egress threads.
+     */
+    public void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Sets how acknowledgements are coalesced on all workers. Must be called before {@code start}.
+     *
+     * @param frames      the number of dataframes covered by one acknowledgement, at least 1.
+     * @param delayMillis the maximum delay of an acknowledgement in milliseconds, at least 1.
+     * @throws IllegalArgumentException if one of the values is less than 1.
+     * @see Server#setAckCoalescing(int, long)
+     */
+    public void setAckCoalescing(int frames, long delayMillis) {
+        for (Server worker : workers) {
+            worker.setAckCoalescing(frames, delayMillis);
+        }
+    }
+
+    /**
+     * Sets the time after which the session of a silent client is evicted on all workers.
+     * Must be called before {@code start}.
+     *
+     * @param idleMillis the idle time in milliseconds, 0 to keep sessions forever.
+     * @throws IllegalArgumentException if the idle time is negative.
+     * @see Server#setIdleTimeout(long)
+     */
+    public void setIdleTimeout(long idleMillis) {
+        for (Server worker : workers) {
+            worker.setIdleTimeout(idleMillis);
+        }
+    }
+
+    /**
+     * Reads the bytes received on the default streams of all clients.
+     * The data of the workers is returned one worker after the other.
+     *
+     * @return the data as {@code byte[]} received from the clients.
+     */
+    public byte[] read() {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (Server worker : workers) {
+            data.writeBytes(worker.read());
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * Waits until a client opens a new stream and returns it.
+     *
+     * @return the stream opened by the client.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public ServerStream acceptStream() throws InterruptedException {
+        return accepted.take();
+    }
+
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return the local address of the server.
+     * @throws IOException if an I/O error occurs.
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * Returns the number of workers.
+     *
+     * @return the number of workers.
+     */
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the number of received datagrams waiting for a worker.
+     *
+     * @param worker the index of the worker.
+     * @return the depth of the inbound ring of the worker.
+     */
+    public int getInboundDepth(int worker) {
+        return inbound[worker].size();
+    }
+
+    /**
+     * Returns the number of datagrams of a worker waiting to be sent.
+     *
+     * @param worker the index of the worker.
+     * @return the depth of the outbound ring of the worker.
+     */
+    public int getOutboundDepth(int worker) {
+        return outbound[worker].size();
+    }
+
+    /**
+     * Returns the number of datagrams dropped because the inbound ring of their worker was full.
+     * The clients send them again when no acknowledgement arrives.
+     *
+     * @return the number of datagrams dropped since the start.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Closes the channel and stops all threads.
+     */
+    public void close() {
+        active = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Receives datagrams and hands each one to the worker its client is pinned to.
+     * A datagram is dropped if the ring of the worker is full.
+     */
+    private void receive() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(MAXDATAGRAM);
+        while (active) {
+            try {
+                buf.clear();
+                SocketAddress sender = channel.receive(buf);
+                DatagramRing ring = inbound[Math.floorMod(sender.hashCode(), inbound.length)];
+                ByteBuffer slot = ring.claim();
+                if (slot == null) {
+                    dropped.incrementAndGet();
+                    continue;
+                }
+                buf.flip();
+                slot.put(buf);
+                slot.flip();
+                ring.publish(sender);
+            } catch (ClosedChannelException e) {
+                active = false;
+            } catch (IOException e) {
+                Terminal.printError(e.toString());
+                active = false;
+            }
+        }
+    }
+
+    /**
+     * Processes the datagrams of a worker and runs its timers, parking while there is nothing to do.
+     * A faulty datagram is reported and does not stop the worker.
+     *
+     * @param worker the protocol handler of the worker.
+     * @param ring   the datagrams received for the worker.
+     */
+    private void work(Server worker, DatagramRing ring) {
+        Thread self = Thread.currentThread();
+        while (active) {
+            try {
+                ByteBuffer datagram = ring.peek();
+                if (datagram != null) {
+                    try {
+                        worker.deliver(datagram, ring.peekAddress());
+                    } finally {
+                        ring.release();
+                    }
+                    continue;
+                }
+                long wait = worker.runTimers();
+                ring.setWaiting(self);
+                if (ring.peek() == null && active) {
+                    if (wait < 0) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                }
+                ring.setWaiting(null);
+            } catch (IOException | RuntimeException e) {
+                Terminal.printError(e.toString());
+            }
+        }
+        worker.onStop();
+    }
+
+    /**
+     * Copies a datagram sent by a worker into its outbound ring.
+     * While the ring is full, the worker waits for the egress thread.
+     *
+     * @param ring   the outbound ring of the worker.
+     * @param buffer the datagram to be sent.
+     * @param target the address of the client.
+     * @throws ClosedChannelException if the server has been closed.
+     */
+    private void enqueue(DatagramRing ring, ByteBuffer buffer, SocketAddress target) throws ClosedChannelException {
+        ByteBuffer slot;
+        while ((slot = ring.claim()) == null) {
+            if (!active) {
+                throw new ClosedChannelException();
+            }
+            Thread.yield();
+        }
+        slot.put(buffer);
+        slot.flip();
+        ring.publish(target);
+    }
+
+    /**
+     * Sends the datagrams of all workers, up to a batch from each ring in turn,
+     * parking while all rings are empty.
+     */
+    private void egress() {
+        Thread self = Thread.currentThread();
+        while (active) {
+            try {
+                boolean idle = true;
+                for (DatagramRing ring : outbound) {
+                    ByteBuffer datagram;
+                    for (int i = 0; i < BATCH && (datagram = ring.peek()) != null; i++) {
+                        idle = false;
+                        try {
+                            channel.send(datagram, ring.peekAddress());
+                        } finally {
+                            ring.release();
+                        }
+                    }
+                }
+                if (idle) {
+                    park(self);
+                }
+            } catch (ClosedChannelException e) {
+                active = false;
+            } catch (IOException e) {
+                Terminal.printError(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Parks the egress thread until a worker publishes a datagram.
+     *
+     * @param self the egress thread.
+     */
+    private void park(Thread self) {
+        for (DatagramRing ring : outbound) {
+            ring.setWaiting(self);
+        }
+        boolean empty = true;
+        for (DatagramRing ring : outbound) {
+            empty &= ring.peek() == null;
+        }
+        if (empty && active) {
+            LockSupport.park(this);
+        }
+        for (DatagramRing ring : outbound) {
+            ring.setWaiting(null);
+        }
+    }
+}
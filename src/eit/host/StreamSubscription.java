@@ -0,0 +1,199 @@
+package eit.host;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This class represents the subscription of a subscriber to the payload of a {@code ServerStream}.
+ * <p>
+ * Payloads received in order are queued and handed to the subscriber as it requests them.
+ * The queue is bounded: the space left in it is advertised to the client as its receive window,
+ * so a subscriber that does not request more stops the sender instead of letting the queue grow.
+ * <p>
+ * The subscriber is signalled by tasks run on the executor, one task at a time, so its methods
+ * are never called concurrently and never by the thread of the server.
+ * <p>
+ * The payloads are copies the subscriber keeps, or the pooled buffers a relay forwards, see
+ * {@code ServerStream.forward}. A payload which is not handed out, because the subscription ended,
+ * is given to the discard action, which releases a pooled buffer.
+ *
+ * @param <T> the type of the payloads.
+ */
+class StreamSubscription<T> implements Flow.Subscription {
+    private final ServerStream stream; // the stream subscribed to
+    private final Flow.Subscriber<? super T> subscriber; // the subscriber signalled
+    private final Executor executor; // runs the signals to the subscriber
+    private final int capacity; // the maximum number of payloads queued
+    private final Consumer<? super T> discard; // takes the payloads which are not handed out
+    private final Deque<T> queue = new ArrayDeque<>(); // the payloads not handed to the subscriber yet
+    private final AtomicInteger work = new AtomicInteger(); // the number of drains requested while one runs
+    private boolean announced; // true once onSubscribe has been signalled, only used by the drain
+    private long demand; // the number of payloads requested and not handed out yet
+    private boolean completed; // true if the client closed the stream
+    private boolean cancelled; // true if the subscription has ended
+    private Throwable error; // the error to be signalled instead of the next payload, null if there is none
+
+    /**
+     * Constructs a subscription, which is not announced to the subscriber yet.
+     *
+     * @param stream     the stream subscribed to.
+     * @param subscriber the subscriber.
+     * @param executor   runs the signals to the subscriber.
+     * @param capacity   the maximum number of payloads queued.
+     * @param discard    takes the payloads which are not handed out.
+     */
+    StreamSubscription(ServerStream stream, Flow.Subscriber<? super T> subscriber, Executor executor,
+                       int capacity, Consumer<? super T> discard) {
+        this.stream = stream;
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.discard = discard;
+    }
+
+    /**
+     * Announces the subscription to the subscriber.
+     */
+    void start() {
+        drain();
+    }
+
+    /**
+     * Requests more payloads, which frees space in the receive window of the stream.
+     *
+     * @param n the number of payloads, a non-positive number ends the subscription with an error.
+     */
+    @Override
+    public void request(long n) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Ends the subscription. Payloads arriving afterwards are kept for {@code read}.
+     */
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            clear();
+        }
+        stream.unsubscribe(this);
+    }
+
+    /**
+     * Queues a payload received in order.
+     *
+     * @param payload the payload.
+     */
+    void offer(T payload) {
+        synchronized (this) {
+            if (cancelled) {
+                discard.accept(payload);
+                return;
+            }
+            queue.add(payload);
+        }
+        drain();
+    }
+
+    /**
+     * Signals the end of the stream once the queued payloads have been handed out.
+     */
+    void complete() {
+        synchronized (this) {
+            completed = true;
+        }
+        drain();
+    }
+
+    /**
+     * Returns the number of payloads which can still be queued.
+     *
+     * @return the receive window of the stream.
+     */
+    synchronized int getWindow() {
+        return Math.max(0, capacity - queue.size());
+    }
+
+    /**
+     * Gives the queued payloads to the discard action. Must be called with the lock of the subscription held.
+     */
+    private void clear() {
+        T payload;
+        while ((payload = queue.poll()) != null) {
+            discard.accept(payload);
+        }
+    }
+
+    /**
+     * Hands the queued payloads to the subscriber as far as it requested them.
+     * Only one drain runs at a time; a drain requested meanwhile is taken over by the running one.
+     */
+    private void drain() {
+        if (work.getAndIncrement() == 0) {
+            executor.execute(this::run);
+        }
+    }
+
+    /**
+     * Runs the drain on the executor until no further drain has been requested.
+     * The first drain announces the subscription, so no payload is signalled before {@code onSubscribe}.
+     */
+    private void run() {
+        int missed = 1;
+        do {
+            if (!announced) {
+                announced = true;
+                subscriber.onSubscribe(this);
+            }
+            while (true) {
+                T next;
+                Throwable failure;
+                boolean done;
+                synchronized (this) {
+                    if (cancelled) {
+                        break;
+                    }
+                    failure = error;
+                    done = completed && queue.isEmpty();
+                    next = failure == null && !done && demand > 0 ? queue.poll() : null;
+                    if (failure != null || done) {
+                        cancelled = true;
+                        clear();
+                    } else if (next == null) {
+                        break;
+                    } else {
+                        demand--;
+                    }
+                }
+                if (failure != null) {
+                    stream.unsubscribe(this);
+                    subscriber.onError(failure);
+                } else if (done) {
+                    subscriber.onComplete();
+                } else {
+                    try {
+                        subscriber.onNext(next);
+                    } catch (RuntimeException e) {
+                        cancel(); // a failing subscriber is treated as cancelled
+                    }
+                }
+            }
+            missed = work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
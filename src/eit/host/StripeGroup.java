@@ -0,0 +1,129 @@
+package eit.host;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents a transfer striped across several clients, merged back into one stream.
+ * <p>
+ * A {@code StripedClient} opens a stream on each of its clients and spreads the parts of one transfer
+ * over them. Every {@code STRIPE} dataframe starts with a header of the id of the transfer, whose lowest
+ * byte is the number of streams, and the index of its part in the transfer. Each stream delivers
+ * its parts in its own order; the group puts them back into the order of their indices and appends
+ * them to the merged stream, keeping a part ahead of a gap until the gap is filled. A part kept
+ * is a slice of the pooled buffer it was received in, not a copy.
+ * The merged stream ends when all streams of the transfer have been closed, or as soon as one is aborted.
+ * <p>
+ * The streams of a transfer may belong to different servers sharing the groups, like the shards
+ * of a {@code ShardedServer}, so the methods are synchronized.
+ */
+class StripeGroup {
+    /**
+     * The length of the header of a {@code STRIPE} payload, the id of the transfer and the index of the part.
+     */
+    final static int HEADER_LENGTH = Integer.BYTES + Integer.BYTES;
+    private final int id; // the id of the transfer
+    private final int flows; // the number of streams the transfer is striped across
+    private final ServerStream merged; // the stream the parts are appended to in order
+    private final Map<Integer, StripeGroup> groups; // the groups of the server, this group is removed when it ends
+    private final Map<Integer, PooledBuffer> reorder = new HashMap<>(); // parts which arrived ahead of a gap
+    private int next; // the index of the next part in order
+    private int closedFlows; // the number of streams closed by the client
+    private boolean ended; // true once the merged stream has ended
+
+    /**
+     * Constructs the group of a transfer.
+     *
+     * @param id     the id of the transfer, its lowest byte is the number of streams.
+     * @param merged the stream the parts are appended to.
+     * @param groups the groups of the server, from which this group removes itself when it ends.
+     */
+    StripeGroup(int id, ServerStream merged, Map<Integer, StripeGroup> groups) {
+        this.id = id;
+        this.flows = Math.max(1, id & 0xFF);
+        this.merged = merged;
+        this.groups = groups;
+    }
+
+    /**
+     * Returns the stream the transfer is merged into.
+     *
+     * @return the merged stream.
+     */
+    ServerStream getMerged() {
+        return merged;
+    }
+
+    /**
+     * Returns the number of parts the merged stream can still take in, advertised to the streams of the transfer.
+     *
+     * @return the receive window of the merged stream.
+     */
+    int getWindow() {
+        return merged.getWindow();
+    }
+
+    /**
+     * Takes a part delivered in order by one of the streams and appends it, and the parts
+     * which were waiting for it, to the merged stream. A part without data announces a stream.
+     *
+     * @param payload the buffer whose remaining bytes are the payload, starting with the header.
+     *                Its position is not changed.
+     */
+    synchronized void add(PooledBuffer payload) {
+        ByteBuffer bytes = payload.buffer();
+        int offset = bytes.position();
+        if (ended || bytes.remaining() <= HEADER_LENGTH) {
+            return;
+        }
+        int index = bytes.getInt(offset + Integer.BYTES);
+        if (index - next < 0) {
+            return;
+        }
+        bytes.position(offset + HEADER_LENGTH);
+        try {
+            if (index != next) {
+                PooledBuffer old = reorder.put(index, payload.slice());
+                if (old != null) {
+                    old.release();
+                }
+                return;
+            }
+            merged.append(bytes);
+        } finally {
+            bytes.position(offset);
+        }
+        next++;
+        PooledBuffer part;
+        while ((part = reorder.remove(next)) != null) {
+            try {
+                merged.append(part.buffer());
+            } finally {
+                part.release();
+            }
+            next++;
+        }
+    }
+
+    /**
+     * Ends one stream of the transfer. The merged stream ends with the last stream closed by the client,
+     * or with the first stream aborted, e.g. because its session ended, which leaves a gap for good.
+     *
+     * @param aborted true if the stream ended without the client closing it.
+     */
+    void end(boolean aborted) {
+        synchronized (this) {
+            if (ended || !aborted && ++closedFlows < flows) {
+                return;
+            }
+            ended = true;
+            for (PooledBuffer part : reorder.values()) {
+                part.release();
+            }
+            reorder.clear();
+        }
+        groups.remove(id, this);
+        merged.close();
+    }
+}
@@ -0,0 +1,287 @@
+package eit.host;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import eit.host.exception.HostException;
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+import eit.linecode.Utils.Flag;
+
+/**
+ * This class represents a client which stripes one transfer across several connections to the same server.
+ * <p>
+ * Every connection is a {@code Client} of its own, with its own local port, socket, window and timeouts.
+ * The data of a transfer is cut into parts of one dataframe each; every part is numbered and taken by
+ * the sender thread of whichever connection has room for it, so a fast connection carries more
+ * parts than a slow one. The server merges the parts back into one stream in the order of their numbers,
+ * which it hands out by {@code acceptStream}. Since every connection has its own address, the kernel
+ * of the server and a {@code ShardedServer} spread the connections over several sockets and cores.
+ * <p>
+ * A transfer is opened by the first {@code sendData} and ended with {@code finish}, which makes the
+ * merged stream on the server end as well.
+ */
+public class StripedClient {
+    private final static int MAXFLOWS = 255; // the highest number of connections, carried in one byte
+    private final static byte[] END = new byte[0]; // tells a sender thread that the transfer has ended
+    private final static long POLL = 10; // the milliseconds between checks for a failed connection while waiting
+    private final Client[] clients; // the connections the transfers are striped across
+    private final Random random = new Random(); // chooses the ids of the transfers
+    private int windowSize = 16; // the window of each stream of a transfer
+    private ClientStream[] streams; // the streams of the open transfer, null if no transfer is open
+    private Thread[] senders; // the sender threads of the open transfer
+    private BlockingQueue<byte[]> parts; // the parts not taken by a sender thread yet
+    private int id; // the id of the open transfer, its lowest byte is the number of connections
+    private int next; // the number of the next part of the open transfer
+    private volatile HostException failure; // the first failure of a sender thread of the open transfer
+
+    /**
+     * Initialises a striped client with the given number of connections, each from a port of its own.
+     *
+     * @param codeTable the code table the encoders and decoders of the connections are created with.
+     * @param server    the address of the server.
+     * @param flows     the number of connections, from 1 to 255.
+     * @throws IOException              if an I/O error occurs.
+     * @throws IllegalArgumentException if the number of connections is out of range.
+     */
+    public StripedClient(CodeTable codeTable, InetSocketAddress server, int flows) throws IOException {
+        if (flows < 1 || flows > MAXFLOWS) {
+            throw new IllegalArgumentException("between 1 and " + MAXFLOWS + " connections are required");
+        }
+        clients = new Client[flows];
+        try {
+            for (int i = 0; i < flows; i++) {
+                clients[i] = new Client(new Encoder(codeTable), new Decoder(codeTable), server);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Establishes all connections to the server.
+     *
+     * @return true if every connection was established.
+     * @throws SocketTimeoutException if the server did not answer a connection in time.
+     * @throws IOException            if an I/O error occurs.
+     */
+    public boolean connect() throws SocketTimeoutException, IOException {
+        boolean connected = true;
+        for (Client client : clients) {
+            connected &= client.connect();
+        }
+        return connected;
+    }
+
+    /**
+     * Sets the number of dataframes each connection sends without waiting for their acknowledgement,
+     * applied from the next transfer on.
+     *
+     * @param windowSize the window of each connection, at least 1.
+     * @throws IllegalArgumentException if the window size is less than 1.
+     */
+    public synchronized void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("window size must be at least 1");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Finds the largest datagram which reaches the server, with the first connection,
+     * and sizes the parts of all connections to fill it. The connections share the path to the server.
+     *
+     * @param limit the largest size tried in bytes, from 230 to 65507.
+     * @return the largest size which got through.
+     * @throws IllegalArgumentException if the limit is out of range.
+     * @see Client#probeMaxDatagram(int)
+     */
+    public int probeMaxDatagram(int limit) {
+        int size = clients[0].probeMaxDatagram(limit);
+        for (Client client : clients) {
+            client.setMaxDatagram(size);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of connections the transfers are striped across.
+     *
+     * @return the number of connections.
+     */
+    public int getFlowCount() {
+        return clients.length;
+    }
+
+    /**
+     * Sends data as part of the open transfer, opening one if there is none.
+     * The data is cut into parts which fill the largest datagram of the connections,
+     * which are handed to the sender threads; this method only blocks while all connections are busy.
+     *
+     * @param data the data as {@code byte[]} to be sent.
+     * @throws HostException when a connection failed, the transfer cannot be completed then.
+     */
+    public synchronized void sendData(byte[] data) {
+        if (streams == null) {
+            open();
+        }
+        int chunk = clients[0].getMaxPayload() - StripeGroup.HEADER_LENGTH;
+        for (int start = 0; start < data.length; start += chunk) {
+            int count = Math.min(chunk, data.length - start);
+            byte[] part = ByteBuffer.allocate(StripeGroup.HEADER_LENGTH + count).putInt(id).putInt(next++)
+                    .put(data, start, count).array();
+            put(part);
+        }
+    }
+
+    /**
+     * Waits until every part of the open transfer has been acknowledged and closes its streams,
+     * which ends the merged stream on the server.
+     *
+     * @return true if the server acknowledged the end of every stream, also if no transfer was open.
+     * @throws HostException when a connection failed, the transfer is incomplete then.
+     */
+    public synchronized boolean finish() {
+        if (streams == null) {
+            return true;
+        }
+        try {
+            for (int i = 0; i < senders.length; i++) {
+                put(END);
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HostException("Transfer interrupted");
+        } finally {
+            for (Thread sender : senders) {
+                sender.interrupt();
+            }
+            if (failure != null) {
+                streams = null;
+            }
+        }
+        if (streams == null) {
+            throw failure;
+        }
+        boolean closed = true;
+        for (ClientStream stream : streams) {
+            closed &= stream.close();
+        }
+        streams = null;
+        return closed;
+    }
+
+    /**
+     * Ends the open transfer and disconnects all connections from the server.
+     *
+     * @return true if every connection was disconnected.
+     * @throws SocketTimeoutException if the server did not answer a disconnect in time.
+     * @throws IOException            if an I/O error occurs.
+     * @throws HostException          when a connection failed while the transfer was open.
+     */
+    public boolean disconnect() throws SocketTimeoutException, IOException {
+        boolean disconnected = finish();
+        for (Client client : clients) {
+            disconnected &= client.disconnect();
+        }
+        return disconnected;
+    }
+
+    /**
+     * Stops the sender threads and closes all connections.
+     */
+    public void close() {
+        Thread[] current;
+        synchronized (this) {
+            current = senders;
+        }
+        if (current != null) {
+            for (Thread sender : current) {
+                sender.interrupt();
+            }
+        }
+        for (Client client : clients) {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Opens a transfer: a new stream on every connection with a sender thread of its own.
+     */
+    private void open() {
+        id = random.nextInt() & ~0xFF | clients.length;
+        next = 0;
+        failure = null;
+        parts = new ArrayBlockingQueue<>(clients.length * windowSize);
+        streams = new ClientStream[clients.length];
+        senders = new Thread[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            ClientStream stream = clients[i].openStream();
+            stream.setWindowSize(windowSize);
+            streams[i] = stream;
+            senders[i] = new Thread(() -> send(stream), "stripe-" + i);
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    /**
+     * Hands a part to the sender threads, waiting while all of them are busy.
+     *
+     * @param part the part, {@code END} to stop one sender thread.
+     * @throws HostException when a connection failed.
+     */
+    private void put(byte[] part) {
+        try {
+            while (!parts.offer(part, POLL, TimeUnit.MILLISECONDS)) {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HostException("Transfer interrupted");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Sends parts on one stream until the transfer ends, run by a sender thread.
+     * The stream is announced to the server first, so that the server knows all streams
+     * of the transfer even if one of them carries no part.
+     *
+     * @param stream the stream of the connection.
+     */
+    private void send(ClientStream stream) {
+        try {
+            stream.sendFrame(Flag.STRIPE, ByteBuffer.allocate(StripeGroup.HEADER_LENGTH).putInt(id).putInt(-1)
+                    .array());
+            byte[] part;
+            while ((part = parts.take()) != END) {
+                stream.sendFrame(Flag.STRIPE, part);
+            }
+            stream.flush();
+        } catch (HostException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } catch (InterruptedException e) {
+            // the client is closed
+        }
+    }
+}
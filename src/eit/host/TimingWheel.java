@@ -0,0 +1,275 @@
+package eit.host;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.fra.uas.oop.Terminal;
+
+/**
+ * This class represents a hashed timing wheel, which runs tasks after a delay.
+ * <p>
+ * Time is divided into ticks of a fixed duration. The wheel is an array of buckets, one per tick,
+ * which is walked round by round; a timeout is put into the bucket of the tick at which it expires,
+ * together with the number of full rounds still to pass. Scheduling and cancelling a timeout are
+ * O(1) and do not allocate, since the timeouts themselves are the nodes of the bucket lists and can
+ * be scheduled again and again. A timeout expires up to one tick late, never early.
+ * <p>
+ * The wheel is driven either by the thread owning it, which calls {@code advance} from its
+ * event loop, or by a timer thread of its own started with {@code start}. All methods may be
+ * called from any thread. The tasks are run by the thread that advances the wheel, without
+ * holding the lock of the wheel, so a task may schedule timeouts again.
+ */
+public class TimingWheel {
+    private final Timeout[] buckets; // the first timeout of the list of each tick
+    private final int mask; // the number of buckets minus one
+    private final long tickNanos; // the duration of a tick in nanoseconds
+    private final long startTime; // the System.nanoTime() at which tick 0 began
+    private final List<Timeout> expired = new ArrayList<>(); // the timeouts collected by the last tick
+    private long tick; // the next tick to be processed
+    private int size; // the number of pending timeouts
+    private Thread timer; // the thread driving the wheel, null if it is driven by its owner
+
+    /**
+     * This class represents a timeout which runs a task when it expires.
+     * A timeout is scheduled on one wheel at a time and may be reused after it expired or was cancelled.
+     */
+    public static class Timeout {
+        private final Runnable task; // the task run on expiry
+        private Timeout prev; // the previous timeout in the bucket
+        private Timeout next; // the next timeout in the bucket
+        private int bucket = -1; // the bucket the timeout is in, -1 if it is not pending
+        private long rounds; // the number of rounds of the wheel left before the timeout expires
+        private boolean expiring; // true if the timeout expired but its task has not been run yet
+
+        /**
+         * Constructs a timeout which is not scheduled yet.
+         *
+         * @param task the task to be run when the timeout expires.
+         */
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * Constructs a timing wheel, which starts ticking immediately.
+     * The number of buckets is rounded up to a power of two.
+     * Timeouts further ahead than one round of the wheel wait for several rounds,
+     * so the number of buckets only needs to cover the usual delays.
+     *
+     * @param tickMillis the duration of a tick in milliseconds, at least 1.
+     * @param wheelSize  the number of buckets, at least 1.
+     * @throws IllegalArgumentException if one of the values is less than 1.
+     */
+    public TimingWheel(long tickMillis, int wheelSize) {
+        if (tickMillis < 1 || wheelSize < 1 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("tick and wheel size must be at least 1");
+        }
+        int length = Integer.highestOneBit(wheelSize);
+        if (length < wheelSize) {
+            length <<= 1;
+        }
+        this.buckets = new Timeout[length];
+        this.mask = length - 1;
+        this.tickNanos = tickMillis * 1_000_000L;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Schedules the timeout to expire after the given delay.
+     * A timeout which is already pending is moved to its new expiry.
+     *
+     * @param timeout     the timeout to be scheduled.
+     * @param delayMillis the delay in milliseconds.
+     */
+    public synchronized void schedule(Timeout timeout, long delayMillis) {
+        if (timeout.bucket >= 0) {
+            unlink(timeout);
+        }
+        timeout.expiring = false;
+        long elapsed = System.nanoTime() - startTime;
+        if (size == 0) {
+            tick = Math.max(tick, elapsed / tickNanos); // an idle wheel is not advanced by its owner
+        }
+        long due = elapsed + Math.max(0, delayMillis) * 1_000_000L;
+        long target = Math.max(tick, (due + tickNanos - 1) / tickNanos - 1);
+        timeout.rounds = (target - tick) / buckets.length;
+        timeout.bucket = (int) (target & mask);
+        timeout.prev = null;
+        timeout.next = buckets[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        size++;
+    }
+
+    /**
+     * Cancels the timeout. Its task is not run, even if it already expired but has not been run yet.
+     * Cancelling a timeout which is not pending has no effect.
+     *
+     * @param timeout the timeout to be cancelled.
+     */
+    public synchronized void cancel(Timeout timeout) {
+        timeout.expiring = false;
+        if (timeout.bucket >= 0) {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * Answers whether the timeout is scheduled and has not expired yet.
+     *
+     * @param timeout the timeout.
+     * @return true if the task of the timeout will be run.
+     */
+    public synchronized boolean isPending(Timeout timeout) {
+        return timeout.bucket >= 0 || timeout.expiring;
+    }
+
+    /**
+     * Answers whether no timeout is pending.
+     *
+     * @return true if no timeout is pending.
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the time at which the next tick ends and timeouts may expire.
+     *
+     * @return the time as {@code System.nanoTime()}.
+     */
+    public synchronized long nextTick() {
+        return startTime + (tick + 1) * tickNanos;
+    }
+
+    /**
+     * Processes all ticks which have ended by the given time and runs the tasks of the
+     * timeouts expired in them. A task which throws is reported and does not keep the
+     * others from running. Must only be called by one thread at a time.
+     *
+     * @param now the current time as {@code System.nanoTime()}.
+     */
+    public void advance(long now) {
+        synchronized (this) {
+            while (now - (startTime + (tick + 1) * tickNanos) >= 0) {
+                if (size == 0) {
+                    tick = (now - startTime) / tickNanos; // nothing to expire in the ticks skipped
+                    break;
+                }
+                expire(buckets[(int) (tick & mask)]);
+                tick++;
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < expired.size(); i++) {
+            Timeout timeout = expired.get(i);
+            synchronized (this) {
+                if (!timeout.expiring) {
+                    continue;
+                }
+                timeout.expiring = false;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                Terminal.printError(e.toString()); // the other timeouts of the tick still run
+            }
+        }
+        expired.clear();
+    }
+
+    /**
+     * Starts a timer thread which advances the wheel at every tick,
+     * for a wheel which is not driven by an event loop of its owner.
+     * The thread is a daemon thread and ends with {@code close}.
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = new Thread(this::tickLoop, "timing-wheel");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * Stops the timer thread started with {@code start}. Pending timeouts do not expire anymore.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = timer;
+            timer = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Advances the wheel at the end of every tick until the timer thread is stopped.
+     * A task which throws an exception does not stop the timer thread.
+     */
+    private void tickLoop() {
+        Thread self = Thread.currentThread();
+        while (!self.isInterrupted()) {
+            long remaining = nextTick() - System.nanoTime();
+            if (remaining > 0) {
+                LockSupport.parkNanos(this, remaining);
+                continue;
+            }
+            try {
+                advance(System.nanoTime());
+            } catch (RuntimeException e) {
+                Terminal.printError(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Walks the list of a bucket, moving the timeouts expiring in this round to the expired list
+     * and counting down the rounds of the others. Must be called with the lock held.
+     *
+     * @param first the first timeout of the bucket.
+     */
+    private void expire(Timeout first) {
+        Timeout timeout = first;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds == 0) {
+                unlink(timeout);
+                timeout.expiring = true;
+                expired.add(timeout);
+            } else {
+                timeout.rounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Removes a pending timeout from its bucket. Must be called with the lock held.
+     *
+     * @param timeout the timeout to be removed.
+     */
+    private void unlink(Timeout timeout) {
+        if (timeout.prev == null) {
+            buckets[timeout.bucket] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+}
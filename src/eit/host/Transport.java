@@ -0,0 +1,66 @@
+package eit.host;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface represents the way datagrams travel between clients and servers.
+ * <p>
+ * A transport sends and receives whole datagrams without blocking and has an address of its own.
+ * Like UDP, it does not guarantee delivery: a datagram may be lost, the protocol sends it again.
+ * {@code UdpTransport} sends through the kernel, {@code MemoryTransport} between transports
+ * of the same process without any system call.
+ * <p>
+ * Datagrams are received by one thread at a time; sending and waiting may happen on any thread.
+ */
+public interface Transport extends Closeable {
+    /**
+     * Sends the remaining bytes of the buffer as one datagram to the given address.
+     * The bytes are copied before this method returns, the position of the buffer is moved to its limit.
+     * If the transport has no room for the datagram right now, it is not sent and the position is left
+     * unchanged, so that the caller may send it again later or drop it like a lost datagram.
+     *
+     * @param buffer the data to be sent.
+     * @param target the address of the receiver.
+     * @return true if the datagram was sent, false if the transport had no room for it.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean send(ByteBuffer buffer, SocketAddress target) throws IOException;
+
+    /**
+     * Receives the next datagram into the buffer, without waiting.
+     * The datagram is put at the position of the buffer; if it does not fit, the rest is discarded.
+     *
+     * @param buffer the buffer receiving the datagram.
+     * @return the address of the sender, null if no datagram has arrived.
+     * @throws IOException if an I/O error occurs, a {@code ClosedChannelException} once the transport is closed.
+     */
+    SocketAddress receive(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Waits until a datagram may have arrived, the transport is closed or the time has passed.
+     * This method may return early, the caller checks with {@code receive}.
+     * Several threads may wait at the same time.
+     *
+     * @param millis the maximum time to wait in milliseconds, 0 to wait without a time limit.
+     * @throws IOException if an I/O error occurs.
+     */
+    void await(long millis) throws IOException;
+
+    /**
+     * Returns the address the transport receives on.
+     *
+     * @return the local address.
+     * @throws IOException if an I/O error occurs.
+     */
+    SocketAddress getLocalAddress() throws IOException;
+
+    /**
+     * Closes the transport and wakes up the threads waiting in {@code await}.
+     * Closing a transport which is already closed has no effect.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,198 @@
+package eit.host;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * This class represents a transport sending datagrams as UDP packets through a non-blocking channel.
+ * <p>
+ * A transport bound with {@code bind} receives from any sender, like a server.
+ * A transport created with {@code connect} is connected to one remote address and only receives
+ * the datagrams sent from there, like a client.
+ * A transport created with {@code multicast} sends to multicast groups, one created with {@code join}
+ * receives what is sent to a group.
+ */
+public class UdpTransport implements Transport {
+    private final static int RECEIVEBUFFER = 4 << 20; // the receive buffer asked for by a member of a group
+    private final DatagramChannel channel; // the channel the datagrams are sent and received on
+    private final Selector selector; // waits for datagrams to arrive on the channel
+    private final boolean connected; // true if the channel only exchanges datagrams with one address
+
+    /**
+     * Registers the channel for waiting.
+     *
+     * @param channel   the channel, bound or connected.
+     * @param connected true if the channel is connected.
+     * @throws IOException if an I/O error occurs.
+     */
+    private UdpTransport(DatagramChannel channel, boolean connected) throws IOException {
+        this.channel = channel;
+        this.connected = connected;
+        try {
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a transport bound to the given address.
+     * <p>
+     * With {@code reusePort} set, the {@code SO_REUSEPORT} option is enabled before binding,
+     * so that several transports can bind to the same address. The kernel then distributes
+     * the datagrams among them by a hash of the address of the sender.
+     *
+     * @param address   the address to bind to, a port of 0 binds to any free port.
+     * @param reusePort true if other transports may bind to the same address.
+     * @return the transport.
+     * @throws IOException                   if an I/O error occurs.
+     * @throws UnsupportedOperationException if {@code reusePort} is set but not supported by the platform.
+     */
+    public static UdpTransport bind(InetSocketAddress address, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new UnsupportedOperationException("SO_REUSEPORT is not supported");
+                }
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(address);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new UdpTransport(channel, false);
+    }
+
+    /**
+     * Opens a transport bound to any free port and connected to the given address.
+     *
+     * @param remote the address datagrams are exchanged with.
+     * @return the transport.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static UdpTransport connect(InetSocketAddress remote) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.connect(remote);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new UdpTransport(channel, true);
+    }
+
+    /**
+     * Opens a transport bound to any free port which sends to multicast groups through the given interface.
+     * The datagrams it sends are looped back to the receivers on the same host.
+     * The transport receives the datagrams sent to its port, e.g. the NACKs of the receivers.
+     *
+     * @param networkInterface the interface the datagrams to a group leave through, e.g. the loopback interface.
+     * @return the transport.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static UdpTransport multicast(NetworkInterface networkInterface) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            channel.bind(new InetSocketAddress(0));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new UdpTransport(channel, false);
+    }
+
+    /**
+     * Opens a transport which joins the given multicast group on the given interface.
+     * <p>
+     * The transport is bound to the port of the group with {@code SO_REUSEADDR} enabled,
+     * so that several receivers on the same host can join the same group; every one of them
+     * gets a copy of each datagram. Its receive buffer is enlarged to take a burst of datagrams.
+     * The group is left when the transport is closed.
+     *
+     * @param group            the address and port of the group.
+     * @param networkInterface the interface the group is joined on.
+     * @return the transport.
+     * @throws IOException if an I/O error occurs, e.g. the interface does not support multicast.
+     */
+    public static UdpTransport join(InetSocketAddress group, NetworkInterface networkInterface) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVEBUFFER);
+            channel.bind(new InetSocketAddress(group.getPort()));
+            channel.join(group.getAddress(), networkInterface);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new UdpTransport(channel, false);
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer as one datagram.
+     * A connected transport sends to the address it is connected to.
+     * The datagram is not sent while the send buffer of the socket is full.
+     *
+     * @param buffer the data to be sent.
+     * @param target the address of the receiver.
+     * @return true if the datagram was sent, false if the send buffer of the socket was full.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public boolean send(ByteBuffer buffer, SocketAddress target) throws IOException {
+        if (!buffer.hasRemaining()) {
+            return true;
+        }
+        int sent = connected ? channel.write(buffer) : channel.send(buffer, target);
+        return sent > 0;
+    }
+
+    @Override
+    public SocketAddress receive(ByteBuffer buffer) throws IOException {
+        return channel.receive(buffer);
+    }
+
+    @Override
+    public void await(long millis) throws IOException {
+        try {
+            synchronized (selector) {
+                selector.select(millis);
+                selector.selectedKeys().clear();
+            }
+        } catch (ClosedSelectorException e) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+}
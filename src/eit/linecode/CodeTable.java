@@ -1,5 +1,7 @@
 package eit.linecode;
 
+import java.util.Arrays;
+
 import eit.linecode.exception.DecodeException;
 
 /**
@@ -11,6 +13,8 @@ public class CodeTable {
     private static final int END_DELIMITER_IDX = 10;
     // the index of the start Delimiters of the control characters
     private static final int START_DELIMITER_IDX = 9;
+    // the number of bits of an encoded word
+    private static final int WORDLENGTH = 10;
 
     // Control characters kx.y with RD-
     private String[] kxMinusTable = new String[]{
@@ -108,6 +112,38 @@ public class CodeTable {
             "0011100001", "0100011110", "1000011110", "0101001110"
     };
 
+    // 10 bit words of the data tables as integers, indexed like the string tables
+    private final int[] rdMinusCodes = new int[rdMinusTable.length];
+    private final int[] rdPlusCodes = new int[rdPlusTable.length];
+    // reverse lookup from a 10 bit word to its byte value, -1 when the word is not part of the table
+    private final int[] rdMinusPositions = new int[1 << WORDLENGTH];
+    private final int[] rdPlusPositions = new int[1 << WORDLENGTH];
+    // the delimiters as integers
+    private final int startMinusCode = Integer.parseInt(kxMinusTable[START_DELIMITER_IDX], 2);
+    private final int startPlusCode = Integer.parseInt(kxPlusTable[START_DELIMITER_IDX], 2);
+    private final int endMinusCode = Integer.parseInt(kxMinusTable[END_DELIMITER_IDX], 2);
+    private final int endPlusCode = Integer.parseInt(kxPlusTable[END_DELIMITER_IDX], 2);
+
+    /**
+     * Initialises the code table.
+     * <p>
+     * Besides the string tables it prepares integer representations of all 10 bit words
+     * and reverse lookup tables, so that buffer based encoding and decoding can work without
+     * string comparisons.
+     */
+    public CodeTable() {
+        Arrays.fill(rdMinusPositions, -1);
+        Arrays.fill(rdPlusPositions, -1);
+        for (int i = 0; i < rdMinusTable.length; i++) {
+            rdMinusCodes[i] = Integer.parseInt(rdMinusTable[i], 2);
+            rdMinusPositions[rdMinusCodes[i]] = i;
+        }
+        for (int i = 0; i < rdPlusTable.length; i++) {
+            rdPlusCodes[i] = Integer.parseInt(rdPlusTable[i], 2);
+            rdPlusPositions[rdPlusCodes[i]] = i;
+        }
+    }
+
     /**
      * Returns a 8bit (byte)-code which corresponds to the word in the rdPlus table.
      *
@@ -231,5 +267,116 @@ public class CodeTable {
             }
             return result;
         }
+
+    /**
+     * Returns a 8bit (byte)-code which corresponds to the 10 bit word in the rdPlus table.
+     *
+     * @param word the 10 bit word as integer, the most significant bit being the first bit on the wire.
+     * @return the 8 bit code corresponding to the word.
+     * @throws DecodeException when the word is not found in the rdPlus table
+     */
+    public byte getRdPlusPosition(int word) throws DecodeException {
+        int position = word >>> WORDLENGTH == 0 ? rdPlusPositions[word] : -1;
+        if (position < 0) {
+            throw new DecodeException("Invalid data detected!!!");
+        }
+        return (byte) position;
+    }
+
+    /**
+     * Returns a 8bit (byte)-code which corresponds to the 10 bit word in the rdMinus table.
+     *
+     * @param word the 10 bit word as integer, the most significant bit being the first bit on the wire.
+     * @return the 8 bit code corresponding to the word.
+     * @throws DecodeException when the word is not found in the rdMinus table
+     */
+    public byte getRdMinusPosition(int word) throws DecodeException {
+        int position = word >>> WORDLENGTH == 0 ? rdMinusPositions[word] : -1;
+        if (position < 0) {
+            throw new DecodeException("Invalid data detected!!!");
+        }
+        return (byte) position;
     }
 
+    /**
+     * Gives the 10 bit word of the dx.y RD- dataset as integer.
+     *
+     * @param idx it refers to the array index of the dx.y RD- dataset.
+     * @return the 10 bit code of the table rdMinus as integer.
+     */
+    public int getRdMinusCode(int idx) {
+        return rdMinusCodes[Byte.toUnsignedInt((byte) idx)];
+    }
+
+    /**
+     * Gives the 10 bit word of the dx.y RD+ dataset as integer.
+     *
+     * @param idx it refers to the array index of the dx.y RD+ dataset.
+     * @return the 10 bit code of the table rdPlus as integer.
+     */
+    public int getRdPlusCode(int idx) {
+        return rdPlusCodes[Byte.toUnsignedInt((byte) idx)];
+    }
+
+    /**
+     * Gives the kx.y start-delimiter as integer based on value of the parameter.
+     *
+     * @param rdPlus it is a boolean that indicates whether to use rdPlus or rdMinus.
+     * @return the 10 bit code of the start delimiter as integer.
+     */
+    public int getStartDelimiterCode(boolean rdPlus) {
+        return rdPlus ? startPlusCode : startMinusCode;
+    }
+
+    /**
+     * Gives the kx.y end-delimiter as integer based on value of the parameter.
+     *
+     * @param rdPlus it is a boolean that indicates whether to use rdPlus or rdMinus.
+     * @return the 10 bit code of the end delimiter as integer.
+     */
+    public int getEndDelimiterCode(boolean rdPlus) {
+        return rdPlus ? endPlusCode : endMinusCode;
+    }
+
+    /**
+     * Calculates the disparity of a 10-bit code given as integer.
+     *
+     * @param word the 10 bit code as integer.
+     * @return the disparity of the 10-bit code.
+     */
+    public int calculateDisparity(int word) {
+        return Integer.bitCount(word) * 2 - WORDLENGTH;
+    }
+
+    /**
+     * Compares the code of this table with the code of another one. Two tables are equal if they encode
+     * every byte into the same words and use the same delimiters, so that a package encoded with one of them
+     * can be passed on as it is to a decoder using the other.
+     *
+     * @param other the object to compare with.
+     * @return true if the other object is a code table with the same code.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CodeTable)) {
+            return false;
+        }
+        CodeTable table = (CodeTable) other;
+        return Arrays.equals(rdMinusCodes, table.rdMinusCodes) && Arrays.equals(rdPlusCodes, table.rdPlusCodes)
+                && startMinusCode == table.startMinusCode && startPlusCode == table.startPlusCode
+                && endMinusCode == table.endMinusCode && endPlusCode == table.endPlusCode;
+    }
+
+    /**
+     * Returns a hash code of the code of this table, consistent with {@code equals}.
+     *
+     * @return the hash code.
+     */
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(rdMinusCodes) + Arrays.hashCode(rdPlusCodes);
+    }
+}
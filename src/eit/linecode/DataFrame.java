@@ -1,5 +1,6 @@
 package eit.linecode;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 
@@ -16,9 +17,21 @@ public class DataFrame {
     private static final int BYTES = 4;
     private static final int FRAMELENGHT = 12; // length of frame without the payload
 
+    /**
+     * The length of a dataframe without its payload in bytes.
+     */
+    public static final int HEADER_LENGTH = FRAMELENGHT;
+
+    /**
+     * The largest stream id a dataframe can carry.
+     */
+    public static final int MAX_STREAM_ID = 0xFFFF;
+    private static final int FLAGMASK = 0xFF000000; // the flag bits of the flag and reserved bytes
+
     private final int seqNumber; // the sequence number
     private final int ackNumber; // the acknowledgement number
     private final Flag flagAndRes; // the flag and reserved bytes of the dataframe
+    private final int streamId; // the stream the dataframe belongs to, carried in the reserved bytes
     private final byte[] payload; // the payload of the dataframe
 
     /**
@@ -30,9 +43,27 @@ public class DataFrame {
      * @param payload   the payload of the {@code DataFrame} object.
      */
     public DataFrame(int seqNumber, int ackNumber, Flag flag, byte[] payload) {
+        this(seqNumber, ackNumber, flag, 0, payload);
+    }
+
+    /**
+     * Constructs a {@code DataFrame} of a stream using the provided parameters.
+     *
+     * @param seqNumber the sequence number of the {@code DataFrame} object.
+     * @param ackNumber the acknowledgment number of the {@code DataFrame} object.
+     * @param flag      the flag and reserved bytes of the {@code DataFrame} object.
+     * @param streamId  the stream of the {@code DataFrame} object, 0 for the default stream.
+     * @param payload   the payload of the {@code DataFrame} object.
+     * @throws IllegalArgumentException if the stream id is not between 0 and {@code MAX_STREAM_ID}.
+     */
+    public DataFrame(int seqNumber, int ackNumber, Flag flag, int streamId, byte[] payload) {
+        if (streamId < 0 || streamId > MAX_STREAM_ID) {
+            throw new IllegalArgumentException("Invalid stream id " + streamId);
+        }
         this.seqNumber = seqNumber;
         this.ackNumber = ackNumber;
         this.flagAndRes = flag;
+        this.streamId = streamId;
         this.payload = payload;
     }
 
@@ -63,7 +94,8 @@ public class DataFrame {
         }
         this.seqNumber = Utils.toInteger(seq);
         this.ackNumber = Utils.toInteger(ack);
-        this.flagAndRes = Flag.getValueOf(Utils.toInteger(flagbytes));
+        this.flagAndRes = Flag.getValueOf(Utils.toInteger(flagbytes) & FLAGMASK);
+        this.streamId = Utils.toInteger(flagbytes) & MAX_STREAM_ID;
         this.payload = data;
     }
 
@@ -75,7 +107,7 @@ public class DataFrame {
     public byte[] getDataFrame() {
         byte[] seq = Utils.intToByteArray(this.seqNumber);
         byte[] ack = Utils.intToByteArray(this.ackNumber);
-        byte[] flag = Utils.intToByteArray(this.flagAndRes.getValue());
+        byte[] flag = Utils.intToByteArray(this.flagAndRes.getValue() | this.streamId);
 
         byte[] dataframe = new byte[seq.length + ack.length + flag.length + payload.length];
         System.arraycopy(seq, 0, dataframe, 0, seq.length);
@@ -85,6 +117,89 @@ public class DataFrame {
         return dataframe;
     }
 
+    /**
+     * Writes the {@code DataFrame} object into the buffer, in the same layout as {@link #getDataFrame()}.
+     *
+     * @param target the buffer the dataframe is written to.
+     */
+    public void write(ByteBuffer target) {
+        writeHeader(target, seqNumber, ackNumber, flagAndRes, streamId);
+        target.put(payload);
+    }
+
+    /**
+     * Writes the header of a dataframe into the buffer. The payload, if any,
+     * is expected to be put into the buffer directly afterwards.
+     *
+     * @param target    the buffer the header is written to.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param flag      the flag and reserved bytes of the dataframe.
+     */
+    public static void writeHeader(ByteBuffer target, int seqNumber, int ackNumber, Flag flag) {
+        writeHeader(target, seqNumber, ackNumber, flag, 0);
+    }
+
+    /**
+     * Writes the header of a dataframe of a stream into the buffer. The stream id is
+     * carried in the lower two of the reserved bytes.
+     *
+     * @param target    the buffer the header is written to.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param ackNumber the acknowledgment number of the dataframe.
+     * @param flag      the flag and reserved bytes of the dataframe.
+     * @param streamId  the stream of the dataframe, 0 for the default stream.
+     */
+    public static void writeHeader(ByteBuffer target, int seqNumber, int ackNumber, Flag flag, int streamId) {
+        target.putInt(seqNumber);
+        target.putInt(ackNumber);
+        target.putInt(flag.getValue() | (streamId & MAX_STREAM_ID));
+    }
+
+    /**
+     * Reads the sequence number of the dataframe starting at the position of the buffer.
+     * The position of the buffer is not changed.
+     *
+     * @param dataFrame the buffer containing a dataframe.
+     * @return the sequence number of the dataframe.
+     */
+    public static int readSeqNumber(ByteBuffer dataFrame) {
+        return dataFrame.getInt(dataFrame.position());
+    }
+
+    /**
+     * Reads the acknowledgment number of the dataframe starting at the position of the buffer.
+     * The position of the buffer is not changed.
+     *
+     * @param dataFrame the buffer containing a dataframe.
+     * @return the acknowledgment number of the dataframe.
+     */
+    public static int readAckNumber(ByteBuffer dataFrame) {
+        return dataFrame.getInt(dataFrame.position() + BYTES);
+    }
+
+    /**
+     * Reads the flag of the dataframe starting at the position of the buffer.
+     * The position of the buffer is not changed.
+     *
+     * @param dataFrame the buffer containing a dataframe.
+     * @return the flag of the dataframe or null if the flag bytes are not valid.
+     */
+    public static Flag readFlag(ByteBuffer dataFrame) {
+        return Flag.getValueOf(dataFrame.getInt(dataFrame.position() + BYTES + BYTES) & FLAGMASK);
+    }
+
+    /**
+     * Reads the stream id of the dataframe starting at the position of the buffer.
+     * The position of the buffer is not changed.
+     *
+     * @param dataFrame the buffer containing a dataframe.
+     * @return the stream id of the dataframe, 0 for the default stream.
+     */
+    public static int readStreamId(ByteBuffer dataFrame) {
+        return dataFrame.getInt(dataFrame.position() + BYTES + BYTES) & MAX_STREAM_ID;
+    }
+
     /**
      * Returns the sequence number of the dataframe.
      *
@@ -112,6 +227,15 @@ public class DataFrame {
         return flagAndRes;
     }
 
+    /**
+     * Returns the stream the dataframe belongs to.
+     *
+     * @return the stream id of the dataframe, 0 for the default stream.
+     */
+    public int getStreamId() {
+        return streamId;
+    }
+
     /**
      * Returns the payload of the dataframe.
      *
@@ -131,6 +255,7 @@ public class DataFrame {
         return "".concat("seq_number -> " + this.seqNumber + "\n").
                 concat("ackNumber -> " + this.ackNumber + "\n").
                 concat("flagAndRes -> " + this.flagAndRes.name() + "\n").
+                concat("streamId -> " + this.streamId + "\n").
                 concat("payload -> " + Arrays.toString(this.payload) + "\n");
     }
 
@@ -1,5 +1,7 @@
 package eit.linecode;
 
+import java.nio.ByteBuffer;
+
 import eit.linecode.exception.DecodeException;
 import eit.linecode.exception.EndOfPacketException;
 import eit.linecode.exception.StartOfPacketException;
@@ -18,6 +20,9 @@ public class Decoder {
     private CodeTable codeTable;
     private static final int WORDLENGTH = 10;
     private static final int NEUTRAL = 0;
+    // the characters a bit of an encoded word is transmitted as
+    private static final byte ZERO = '0';
+    private static final byte ONE = '1';
 
     /**
      * <p>
@@ -30,6 +35,15 @@ public class Decoder {
         this.codeTable = codeTable;
     }
 
+    /**
+     * Returns the code table of the decoder.
+     *
+     * @return the code table.
+     */
+    public CodeTable getCodeTable() {
+        return codeTable;
+    }
+
     /**
      * <p>
      * This function  analysis a word (preferably 10bit) and checks if it is a 10bit RdPlus start delimiter
@@ -148,5 +162,112 @@ public class Decoder {
         }
         return result;
     }
-}
 
+    /**
+     * <p>
+     * Decodes the remaining bytes of {@code data} with the same rules as {@link #decode(String)}
+     * and writes the decoded bytes directly into {@code target}.
+     * The bytes of {@code data} are expected to be the characters {@code '0'} and {@code '1'}
+     * as produced by {@link Encoder#encode(ByteBuffer, ByteBuffer)}.
+     * <p>
+     * The position of {@code data} is moved to its limit, the position of {@code target}
+     * is moved behind the last decoded byte. No objects are allocated on success.
+     *
+     * @param data   a buffer containing a stream of 8b/10b encoded words with its end and start delimiters
+     * @param target the buffer the decoded bytes are written to.
+     * @return the number of decoded bytes.
+     * @throws StartOfPacketException when the start-delimiter of the encoded word is faulty
+     * @throws EndOfPacketException   when the end-delimiter the encoded word is faulty
+     * @throws DecodeException        when the word to be decoded is faulty.
+     */
+    public int decode(ByteBuffer data, ByteBuffer target) {
+        return decode(data, target, Integer.MAX_VALUE);
+    }
+
+    /**
+     * <p>
+     * Decodes the first {@code length} bytes of the package in {@code data} like
+     * {@link #decode(ByteBuffer, ByteBuffer)} and only checks the words following them: each has to be
+     * a word of the code in its running disparity, and the package has to end with the matching end delimiter.
+     * So the header of a package can be read and its remaining words passed on as they are,
+     * without decoding them, e.g. by a relay.
+     * <p>
+     * The position of {@code data} is moved to its limit, the position of {@code target}
+     * is moved behind the last decoded byte. No objects are allocated on success.
+     *
+     * @param data   a buffer containing a stream of 8b/10b encoded words with its end and start delimiters
+     * @param target the buffer the decoded bytes are written to.
+     * @param length the number of bytes to be decoded.
+     * @return the number of decoded bytes, less than {@code length} if the package is shorter.
+     * @throws StartOfPacketException when the start-delimiter of the encoded word is faulty
+     * @throws EndOfPacketException   when the end-delimiter the encoded word is faulty
+     * @throws DecodeException        when a word of the package is faulty.
+     */
+    public int decodeHeader(ByteBuffer data, ByteBuffer target, int length) {
+        return decode(data, target, length);
+    }
+
+    /**
+     * Decodes the first {@code length} bytes of the package and checks the words following them.
+     *
+     * @param data   a buffer containing a stream of 8b/10b encoded words with its end and start delimiters
+     * @param target the buffer the decoded bytes are written to.
+     * @param length the number of bytes to be decoded.
+     * @return the number of decoded bytes.
+     */
+    private int decode(ByteBuffer data, ByteBuffer target, int length) {
+        if (data.remaining() < WORDLENGTH) {
+            throw new StartOfPacketException("Start of Packet not detected!!!");
+        }
+        int startDelimiter = readWord(data);
+        boolean isRdPlus;
+        if (startDelimiter == codeTable.getStartDelimiterCode(false)) {
+            isRdPlus = false;
+        } else if (startDelimiter == codeTable.getStartDelimiterCode(true)) {
+            isRdPlus = true;
+        } else {
+            throw new StartOfPacketException("Start of Packet not detected!!!");
+        }
+        if (data.remaining() % WORDLENGTH != NEUTRAL || data.remaining() < WORDLENGTH) {
+            throw new DecodeException("Invalid data detected!!!");
+        }
+        int counter = 0;
+        while (data.remaining() > WORDLENGTH) {
+            int next = readWord(data);
+            byte decoded = isRdPlus ? codeTable.getRdPlusPosition(next) : codeTable.getRdMinusPosition(next);
+            if (counter < length) {
+                target.put(decoded);
+                counter++;
+            }
+            if (codeTable.calculateDisparity(next) != NEUTRAL) {
+                isRdPlus = !isRdPlus;
+            }
+        }
+        if (readWord(data) != codeTable.getEndDelimiterCode(isRdPlus)) {
+            throw new EndOfPacketException("End of Packet not detected!!!");
+        }
+        return counter;
+    }
+
+    /**
+     * Reads the next ten characters of the buffer as 10-bit word.
+     *
+     * @param data the buffer to read from.
+     * @return the 10-bit word, the first character being the most significant bit.
+     * @throws DecodeException when a character is neither {@code '0'} nor {@code '1'}.
+     */
+    private int readWord(ByteBuffer data) {
+        int word = 0;
+        for (int i = 0; i < WORDLENGTH; i++) {
+            byte bit = data.get();
+            if (bit == ONE) {
+                word = (word << 1) | 1;
+            } else if (bit == ZERO) {
+                word = word << 1;
+            } else {
+                throw new DecodeException("Invalid data detected!!!");
+            }
+        }
+        return word;
+    }
+}
@@ -1,5 +1,7 @@
 package eit.linecode;
 
+import java.nio.ByteBuffer;
+
 /**
  * The Encoder Class implements the encoder functionality of the 8b/10B encoder.
  *<p>
@@ -13,6 +15,11 @@ public class Encoder {
     private CodeTable codeTable;
     // the value for neutral disparity
     private static final int NEUTRAL = 0;
+    // the number of bits of an encoded word
+    private static final int WORDLENGTH = 10;
+    // the characters a bit of an encoded word is transmitted as
+    private static final byte ZERO = '0';
+    private static final byte ONE = '1';
     // toggles between rdPlus and rdMinus
     private boolean isRdPlus;
 
@@ -28,6 +35,15 @@ public class Encoder {
         isRdPlus = false;
     }
 
+    /**
+     * Returns the code table of the encoder.
+     *
+     * @return the code table.
+     */
+    public CodeTable getCodeTable() {
+        return codeTable;
+    }
+
     /**
      * <p>
      * With the help of the code-table object, the rules and principles of the 8B/10B code
@@ -63,4 +79,221 @@ public class Encoder {
         result.append(codeTable.getEndDelimiter(isRdPlus));
         return result.toString();
     }
+
+    /**
+     * <p>
+     * Encodes the remaining bytes of {@code data} with the same rules as {@link #encode(byte[])}
+     * and writes the result directly into {@code target}.
+     * Every bit of the 10-bit code is written as the character {@code '0'} or {@code '1'},
+     * so that the bytes put into {@code target} are exactly the bytes of {@code encode(data).getBytes()}.
+     * <p>
+     * The position of {@code data} is moved to its limit, the position of {@code target}
+     * is moved behind the last written byte. No objects are allocated.
+     *
+     * @param data   the buffer containing the bytes(information) to be encoded.
+     * @param target the buffer the encoded 10-bit code with end and start delimiters is written to.
+     * @return the number of bytes written to {@code target}.
+     * @throws java.nio.BufferOverflowException if {@code target} has not enough space remaining,
+     *                                          see {@link #encodedLength(int)}.
+     */
+    public int encode(ByteBuffer data, ByteBuffer target) {
+        int start = target.position();
+        putWord(target, codeTable.getStartDelimiterCode(this.isRdPlus));
+        int currentDisparity = encodeWords(data, target, NEUTRAL);
+        if (currentDisparity != NEUTRAL) {
+            isRdPlus = !isRdPlus;
+        }
+        putWord(target, codeTable.getEndDelimiterCode(isRdPlus));
+        return target.position() - start;
+    }
+
+    /**
+     * <p>
+     * Encodes the remaining bytes of {@code header} followed by the remaining bytes of {@code payload}
+     * as one package, exactly like {@link #encode(ByteBuffer, ByteBuffer)} encodes their concatenation.
+     * This allows the payload to be encoded straight from where it lies, e.g. a mapped file,
+     * without copying it behind the header first.
+     * <p>
+     * The positions of {@code header} and {@code payload} are moved to their limits.
+     *
+     * @param header  the buffer containing the first bytes to be encoded.
+     * @param payload the buffer containing the bytes following the header.
+     * @param target  the buffer the encoded 10-bit code with end and start delimiters is written to.
+     * @return the number of bytes written to {@code target}.
+     * @throws java.nio.BufferOverflowException if {@code target} has not enough space remaining.
+     */
+    public int encode(ByteBuffer header, ByteBuffer payload, ByteBuffer target) {
+        int start = target.position();
+        putWord(target, codeTable.getStartDelimiterCode(this.isRdPlus));
+        int currentDisparity = encodeWords(header, target, NEUTRAL);
+        currentDisparity = encodeWords(payload, target, currentDisparity);
+        if (currentDisparity != NEUTRAL) {
+            isRdPlus = !isRdPlus;
+        }
+        putWord(target, codeTable.getEndDelimiterCode(isRdPlus));
+        return target.position() - start;
+    }
+
+    /**
+     * <p>
+     * Replaces the first words of an encoded package in place with the encoding of {@code header} and keeps
+     * the words following them as they are, e.g. to pass a payload on under a new header without encoding it
+     * again. The words kept were encoded for the running disparity at their start, so the start delimiter
+     * is chosen such that the new header ends in that disparity, which keeps the package valid.
+     * <p>
+     * The position of {@code header} is moved to its limit if the header was replaced. The position and
+     * the limit of {@code packet} are not moved. The running disparity of the encoder is not changed,
+     * the start delimiter of the next package may be either one.
+     *
+     * @param header the buffer containing the bytes of the new header, as many as the header they replace.
+     * @param packet the buffer containing the encoded package with its start and end delimiter.
+     * @return true if the header was replaced, false if the code has no start delimiter for which
+     * the new header ends in the running disparity of the words kept; the package is then unchanged.
+     * @throws IllegalArgumentException if the package does not start with a start delimiter
+     *                                  or is shorter than the header.
+     */
+    public boolean replaceHeader(ByteBuffer header, ByteBuffer packet) {
+        int start = packet.position();
+        int length = header.remaining();
+        if (packet.remaining() < encodedLength(length)) {
+            throw new IllegalArgumentException("package shorter than the header");
+        }
+        int delimiter = getWord(packet, start);
+        boolean kept;
+        if (delimiter == codeTable.getStartDelimiterCode(true)) {
+            kept = true;
+        } else if (delimiter == codeTable.getStartDelimiterCode(false)) {
+            kept = false;
+        } else {
+            throw new IllegalArgumentException("no start delimiter");
+        }
+        for (int i = 1; i <= length; i++) {
+            if (codeTable.calculateDisparity(getWord(packet, start + i * WORDLENGTH)) != NEUTRAL) {
+                kept = !kept;
+            }
+        }
+        boolean rdPlus;
+        if (encodeHeader(header, false, null, 0) == kept) {
+            rdPlus = false;
+        } else if (encodeHeader(header, true, null, 0) == kept) {
+            rdPlus = true;
+        } else {
+            return false;
+        }
+        putWord(packet, start, codeTable.getStartDelimiterCode(rdPlus));
+        encodeHeader(header, rdPlus, packet, start + WORDLENGTH);
+        header.position(header.limit());
+        return true;
+    }
+
+    /**
+     * Encodes the remaining bytes of {@code header} starting in the given running disparity,
+     * without moving the position of {@code header}.
+     *
+     * @param header the buffer containing the bytes to be encoded.
+     * @param rdPlus the running disparity of the first word.
+     * @param target the buffer the words are written to, null to only find the running disparity at the end.
+     * @param index  the index in {@code target} of the first word.
+     * @return the running disparity following the last word, true for RD+.
+     */
+    private boolean encodeHeader(ByteBuffer header, boolean rdPlus, ByteBuffer target, int index) {
+        int currentDisparity = NEUTRAL;
+        for (int i = header.position(); i < header.limit(); i++) {
+            if (currentDisparity != NEUTRAL) {
+                rdPlus = !rdPlus;
+            }
+            byte idx = header.get(i);
+            int word = rdPlus ? codeTable.getRdPlusCode(idx) : codeTable.getRdMinusCode(idx);
+            if (target != null) {
+                putWord(target, index, word);
+                index += WORDLENGTH;
+            }
+            currentDisparity = codeTable.calculateDisparity(word);
+        }
+        return currentDisparity != NEUTRAL ? !rdPlus : rdPlus;
+    }
+
+    /**
+     * Encodes the remaining bytes of {@code data} into words, switching the running disparity
+     * after every word which is not neutral.
+     *
+     * @param data              the buffer containing the bytes to be encoded.
+     * @param target            the buffer to write to.
+     * @param currentDisparity  the disparity of the word written before.
+     * @return the disparity of the last word written.
+     */
+    private int encodeWords(ByteBuffer data, ByteBuffer target, int currentDisparity) {
+        while (data.hasRemaining()) {
+            byte idx = data.get();
+            if (currentDisparity != NEUTRAL) {
+                isRdPlus = !isRdPlus;
+            }
+            int word = isRdPlus ? codeTable.getRdPlusCode(idx) : codeTable.getRdMinusCode(idx);
+            putWord(target, word);
+            currentDisparity = codeTable.calculateDisparity(word);
+        }
+        return currentDisparity;
+    }
+
+    /**
+     * Returns the number of bytes the encoding of {@code length} bytes takes,
+     * including the start and end delimiter.
+     *
+     * @param length the number of bytes to be encoded.
+     * @return the length of the encoded data.
+     */
+    public static int encodedLength(int length) {
+        return (length + 2) * WORDLENGTH;
+    }
+
+    /**
+     * Returns the largest number of bytes whose encoding fits into {@code encodedLength} bytes,
+     * including the start and end delimiter.
+     *
+     * @param encodedLength the number of bytes available for the encoding.
+     * @return the length of the data which can be encoded, 0 if not even the delimiters fit.
+     */
+    public static int decodedLength(int encodedLength) {
+        return Math.max(0, encodedLength / WORDLENGTH - 2);
+    }
+
+    /**
+     * Writes the 10 bits of a word as characters, most significant bit first.
+     *
+     * @param target the buffer to write to.
+     * @param word   the 10-bit word.
+     */
+    private void putWord(ByteBuffer target, int word) {
+        for (int bit = WORDLENGTH - 1; bit >= 0; bit--) {
+            target.put(((word >>> bit) & 1) == 0 ? ZERO : ONE);
+        }
+    }
+
+    /**
+     * Writes the 10 bits of a word as characters at the given index, most significant bit first.
+     *
+     * @param target the buffer to write to, its position is not moved.
+     * @param index  the index of the first character.
+     * @param word   the 10-bit word.
+     */
+    private void putWord(ByteBuffer target, int index, int word) {
+        for (int bit = WORDLENGTH - 1; bit >= 0; bit--) {
+            target.put(index++, ((word >>> bit) & 1) == 0 ? ZERO : ONE);
+        }
+    }
+
+    /**
+     * Reads the 10 characters of a word at the given index, a character other than {@code '1'} counting as 0.
+     *
+     * @param source the buffer to read from, its position is not moved.
+     * @param index  the index of the first character.
+     * @return the 10-bit word.
+     */
+    private static int getWord(ByteBuffer source, int index) {
+        int word = 0;
+        for (int i = 0; i < WORDLENGTH; i++) {
+            word = (word << 1) | (source.get(index + i) == ONE ? 1 : 0);
+        }
+        return word;
+    }
 }
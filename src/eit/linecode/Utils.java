@@ -63,8 +63,19 @@ public class Utils {
         FIN(0x20000000), // the fin flag
         FINACK(0xa0000000), // the finack flag
         SYN(0x40000000), // the syn flag
-        SYNACK(0xc0000000); // the synack flag.
+        SYNACK(0xc0000000), // the synack flag.
+        PROBE(0x60000000), // the probe flag, the payload pads the datagram to the size being probed.
+        PROBEACK(0xe0000000), // the probeack flag, confirms that a probe got through.
+        OFFSET(0x44000000), // the offset flag, the payload is the id of a file transfer to be resumed.
+        OFFSETACK(0xc4000000), // the offsetack flag, the payload is the offset the file transfer resumes at.
+        RESUME(0x10000000), // the resume flag, the payload starts with a resumption token.
+        RESET(0x08000000), // the reset flag, rejects a resumption.
+        NACK(0x88000000), // the nack flag, the payload lists the dataframes of a multicast missing at a receiver.
+        FILE(0x04000000), // the file flag, the payload is the offset of the data in the file followed by the data.
+        PARITY(0x02000000), // the parity flag, the payload is the XOR of the payloads of a group of dataframes.
+        STRIPE(0x01000000); // the stripe flag, the payload is a part of a transfer striped across several clients.
         private final int value; //The value of the flag.
+        private static final Flag[] VALUES = values(); // values() returns a new copy on every call
 
         /**
          * Constructs a Flag.
@@ -93,7 +104,7 @@ public class Utils {
          * @return Returns a Flag if the value param is a valid flag else null
          */
         public static Flag getValueOf(int value) {
-            for (Flag e : values()) {
+            for (Flag e : VALUES) {
                 if (e.value == value) {
                     return e;
                 }
@@ -0,0 +1,124 @@
+package eit.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@code LatencyHistogram}: the boundaries of its sub-buckets, its precision and merging.
+ */
+class LatencyHistogramTest {
+
+    /**
+     * The values below 128 have a sub-bucket of their own, 128 and 129 share the first one above.
+     */
+    @Test
+    void linearRangeEndsAt127() {
+        for (int value = 0; value < 128; value++) {
+            assertEquals(value, LatencyHistogram.index(value));
+            assertEquals(value, LatencyHistogram.highest(value));
+        }
+        assertEquals(128, LatencyHistogram.index(128));
+        assertEquals(128, LatencyHistogram.index(129));
+        assertEquals(129, LatencyHistogram.highest(128));
+        assertEquals(129, LatencyHistogram.index(130));
+    }
+
+    /**
+     * A power of 2 starts a sub-bucket and the value before it ends one, up to the largest value.
+     */
+    @Test
+    void powersOfTwoStartSubBuckets() {
+        for (int exponent = 7; exponent < Long.SIZE - 1; exponent++) {
+            long power = 1L << exponent;
+            int index = LatencyHistogram.index(power);
+            assertEquals(index - 1, LatencyHistogram.index(power - 1), "2^" + exponent);
+            assertEquals(power - 1, LatencyHistogram.highest(index - 1), "2^" + exponent);
+            assertEquals(power + (power >>> 6) - 1, LatencyHistogram.highest(index), "2^" + exponent);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highest(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    /**
+     * The sub-buckets follow each other without a gap: the value after the largest one of a sub-bucket
+     * is counted in the next.
+     */
+    @Test
+    void subBucketsAreContiguous() {
+        int last = LatencyHistogram.index(Long.MAX_VALUE);
+        for (int index = 0; index < last; index++) {
+            long highest = LatencyHistogram.highest(index);
+            assertEquals(index, LatencyHistogram.index(highest));
+            assertEquals(index + 1, LatencyHistogram.index(highest + 1));
+        }
+    }
+
+    /**
+     * Every value, and every percentile of 200000 values spread over ten orders of magnitude,
+     * is reported at most 1/64 of itself too large and never too small.
+     */
+    @Test
+    void withinOneSixtyFourth() {
+        Random random = new Random(7);
+        long[] values = new long[200_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(1e10));
+            histogram.record(values[i]);
+            long reported = LatencyHistogram.highest(LatencyHistogram.index(values[i]));
+            assertTrue(reported >= values[i] && reported - values[i] <= values[i] / 64, "value " + values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] {0, 1, 10, 25, 50, 75, 90, 99, 99.9, 99.99, 100}) {
+            long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * values.length) - 1)];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(reported >= exact && reported - exact <= exact / 64,
+                    "percentile " + percentile + ": " + reported + " for " + exact);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    }
+
+    /**
+     * Adding histograms gives the histogram of all their values.
+     */
+    @Test
+    void addMergesCounts() {
+        Random random = new Random(11);
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextInt(5_000_000);
+            all.record(value);
+            (i % 3 == 0 ? first : second).record(value);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(first);
+        merged.add(second);
+        assertEquals(all.getTotalCount(), merged.getTotalCount());
+        assertEquals(all.getMax(), merged.getMax());
+        for (double percentile = 0; percentile <= 100; percentile += 0.5) {
+            assertEquals(all.getValueAtPercentile(percentile), merged.getValueAtPercentile(percentile));
+        }
+    }
+
+    /**
+     * Negative values count as 0, an empty histogram reports 0, and a percentile out of range is refused.
+     */
+    @Test
+    void edgeCases() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        histogram.record(-5);
+        assertEquals(1, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(100.5));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(-1));
+    }
+}
@@ -0,0 +1,159 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * Tests the cumulative and delayed acknowledgements of a {@code Server} with a {@code Client}
+ * over a {@code MemoryTransport}, also when dataframes or acknowledgements are lost or reordered.
+ */
+class AcknowledgementTest {
+    private final static int FRAMES = 64; // the number of dataframes sent
+    private final static int SIZE = 10; // the number of bytes of a payload
+    private final CodeTable codeTable = new CodeTable(); // the code of both sides
+    private LossyTransport clientTransport; // the transport of the client
+    private LossyTransport serverTransport; // the transport of the server
+    private Server server; // receives the data
+    private Client client; // sends the data
+
+    /**
+     * Creates a server and a client on the in-memory network, the server is not started yet.
+     *
+     * @throws IOException if no port is free.
+     */
+    @BeforeEach
+    void bind() throws IOException {
+        serverTransport = new LossyTransport(MemoryTransport.bind(0, 1024));
+        clientTransport = new LossyTransport(MemoryTransport.bind(0, 1024));
+        server = new Server(new Encoder(codeTable), new Decoder(codeTable), serverTransport);
+        client = new Client(new Encoder(codeTable), new Decoder(codeTable), clientTransport,
+                serverTransport.getLocalAddress());
+        client.setWindowSize(2 * 8);
+    }
+
+    /**
+     * Closes the client and stops the server.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the server.
+     */
+    @AfterEach
+    void close() throws InterruptedException {
+        client.close();
+        server.close();
+        server.join(1000);
+    }
+
+    /**
+     * One cumulative acknowledgement covers 8 dataframes, none of them is sent twice.
+     */
+    @Test
+    void acknowledgesEightFramesAtOnce() throws IOException {
+        server.setAckCoalescing(8, 1000);
+        server.start();
+        assertTrue(client.connect());
+        int before = serverTransport.getSentCount();
+        byte[] data = send();
+        assertEquals(FRAMES / 8, serverTransport.getSentCount() - before);
+        assertEquals(0, client.getRetransmitCount());
+        assertArrayEquals(data, readAll(data.length));
+    }
+
+    /**
+     * Dataframes which do not fill a group are acknowledged once the delay has passed.
+     */
+    @Test
+    void acknowledgesLateFramesAfterDelay() throws IOException {
+        server.setAckCoalescing(8, 20);
+        server.start();
+        assertTrue(client.connect());
+        int before = serverTransport.getSentCount();
+        for (int i = 0; i < 3; i++) {
+            client.sendData(new byte[]{(byte) i});
+        }
+        client.flush();
+        assertEquals(1, serverTransport.getSentCount() - before);
+        assertEquals(0, client.getRetransmitCount());
+        assertArrayEquals(new byte[]{0, 1, 2}, readAll(3));
+    }
+
+    /**
+     * Lost and reordered dataframes are sent again and put in order, the data arrives as it was sent.
+     */
+    @Test
+    void repairsLostAndReorderedFrames() throws IOException {
+        server.setAckCoalescing(8, 20);
+        server.start();
+        assertTrue(client.connect());
+        int first = clientTransport.getSentCount();
+        clientTransport.setLoss(number -> number == first + 5 || number == first + 40);
+        clientTransport.setReordering(number -> number == first + 11 || number == first + 23);
+        byte[] data = send();
+        assertEquals(2, clientTransport.getLostCount());
+        assertTrue(client.getRetransmitCount() >= 2);
+        assertArrayEquals(data, readAll(data.length));
+    }
+
+    /**
+     * A lost acknowledgement is made up for by the next one, which covers the same dataframes.
+     */
+    @Test
+    void coversLostAcknowledgement() throws IOException {
+        server.setAckCoalescing(8, 1000);
+        server.start();
+        assertTrue(client.connect());
+        int first = serverTransport.getSentCount();
+        serverTransport.setLoss(number -> number == first);
+        byte[] data = send();
+        assertEquals(1, serverTransport.getLostCount());
+        assertEquals(0, client.getRetransmitCount());
+        assertArrayEquals(data, readAll(data.length));
+    }
+
+    /**
+     * Sends the payloads of the test and waits until all of them have been acknowledged.
+     *
+     * @return the data sent.
+     */
+    private byte[] send() {
+        byte[] data = new byte[FRAMES * SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] payload = new byte[SIZE];
+            System.arraycopy(data, i * SIZE, payload, 0, SIZE);
+            client.sendData(payload);
+        }
+        client.flush();
+        return data;
+    }
+
+    /**
+     * Reads from the server until the given number of bytes has arrived.
+     *
+     * @param length the number of bytes expected.
+     * @return the bytes read.
+     */
+    private byte[] readAll(int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (out.size() < length && System.nanoTime() < deadline) {
+            byte[] bytes = server.read();
+            out.write(bytes, 0, bytes.length);
+            Thread.onSpinWait();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,150 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * Tests the coalescing of small writes of a {@code Client} into few dataframes over a {@code MemoryTransport}:
+ * on a full dataframe, on {@code flush}, after the delay and for an immediate write, also when a dataframe is lost.
+ */
+class CoalescingTest {
+    private final static int WRITES = 100; // the number of small writes
+    private final static int SIZE = 3; // the number of bytes of a small write
+    private final CodeTable codeTable = new CodeTable(); // the code of both sides
+    private LossyTransport clientTransport; // the transport of the client
+    private Server server; // receives the data
+    private Client client; // coalesces the writes
+
+    /**
+     * Starts a server and connects a client on the in-memory network.
+     *
+     * @throws IOException if no port is free or the client cannot connect.
+     */
+    @BeforeEach
+    void connect() throws IOException {
+        MemoryTransport serverTransport = MemoryTransport.bind(0, 1024);
+        clientTransport = new LossyTransport(MemoryTransport.bind(0, 1024));
+        server = new Server(new Encoder(codeTable), new Decoder(codeTable), serverTransport);
+        server.start();
+        client = new Client(new Encoder(codeTable), new Decoder(codeTable), clientTransport,
+                serverTransport.getLocalAddress());
+        assertTrue(client.connect());
+    }
+
+    /**
+     * Closes the client and stops the server.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the server.
+     */
+    @AfterEach
+    void close() throws InterruptedException {
+        client.close();
+        server.close();
+        server.join(1000);
+    }
+
+    /**
+     * Many small writes fill as few dataframes as their bytes need, and arrive in order.
+     */
+    @Test
+    void mergesSmallWrites() {
+        client.setCoalescing(1_000_000);
+        int before = clientTransport.getSentCount();
+        byte[] data = writeAll();
+        client.flush();
+        int frames = (data.length + client.getMaxPayload() - 1) / client.getMaxPayload();
+        assertEquals(frames, clientTransport.getSentCount() - before);
+        assertArrayEquals(data, readAll(data.length));
+    }
+
+    /**
+     * A small write which is not followed by more data is sent once the delay has passed,
+     * without a {@code flush}.
+     */
+    @Test
+    void sendsAfterDelay() {
+        client.setCoalescing(2000);
+        int before = clientTransport.getSentCount();
+        client.sendData(new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, readAll(3));
+        assertEquals(1, clientTransport.getSentCount() - before);
+    }
+
+    /**
+     * An immediate write is sent at once, in one dataframe together with the data coalesced before it.
+     */
+    @Test
+    void immediateWriteBypassesDelay() {
+        client.setCoalescing(10_000_000);
+        int before = clientTransport.getSentCount();
+        client.sendData(new byte[]{1, 2});
+        assertEquals(before, clientTransport.getSentCount());
+        client.sendData(new byte[]{3}, true);
+        assertEquals(1, clientTransport.getSentCount() - before);
+        assertArrayEquals(new byte[]{1, 2, 3}, readAll(3));
+    }
+
+    /**
+     * A lost coalesced dataframe is sent again like any other, the data arrives in order.
+     */
+    @Test
+    void repairsLostCoalescedFrame() {
+        client.setCoalescing(1_000_000);
+        client.setWindowSize(4);
+        int first = clientTransport.getSentCount();
+        clientTransport.setLoss(number -> number == first);
+        clientTransport.setReordering(number -> number == first + 2);
+        byte[] data = writeAll();
+        client.flush();
+        assertEquals(1, clientTransport.getLostCount());
+        assertTrue(client.getRetransmitCount() >= 1);
+        assertArrayEquals(data, readAll(data.length));
+    }
+
+    /**
+     * Makes the small writes of the test.
+     *
+     * @return the bytes of all writes.
+     */
+    private byte[] writeAll() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < WRITES; i++) {
+            byte[] write = new byte[SIZE];
+            for (int j = 0; j < SIZE; j++) {
+                write[j] = (byte) (i * SIZE + j);
+            }
+            client.sendData(write);
+            out.write(write, 0, SIZE);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads from the server until the given number of bytes has arrived.
+     *
+     * @param length the number of bytes expected.
+     * @return the bytes read.
+     */
+    private byte[] readAll(int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (out.size() < length && System.nanoTime() < deadline) {
+            byte[] bytes = server.read();
+            out.write(bytes, 0, bytes.length);
+            Thread.onSpinWait();
+        }
+        return out.toByteArray();
+    }
+}
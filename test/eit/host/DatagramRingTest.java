@@ -0,0 +1,108 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@code DatagramRing}: its bounds and the wraparound of its slots, with one thread and with two.
+ */
+class DatagramRingTest {
+    private final static SocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 4711); // the sender
+
+    /**
+     * The datagrams come out in order and with their address, many times round the ring.
+     */
+    @Test
+    void wrapsAroundInOrder() {
+        DatagramRing ring = new DatagramRing(3, 16); // rounded up to 4 slots
+        int next = 0;
+        for (int sent = 0; sent < 1000; ) {
+            for (int i = 0; i < 3; i++) {
+                publish(ring, sent++);
+            }
+            assertEquals(3, ring.size());
+            for (int i = 0; i < 3; i++) {
+                ByteBuffer datagram = ring.peek();
+                assertNotNull(datagram);
+                assertEquals(next++, datagram.getInt(0));
+                assertSame(CLIENT, ring.peekAddress());
+                ring.release();
+            }
+            assertTrue(ring.isEmpty());
+            assertNull(ring.peek());
+        }
+    }
+
+    /**
+     * A full ring refuses to hand out a slot until the oldest datagram has been released.
+     */
+    @Test
+    void fullRingRefusesClaim() {
+        DatagramRing ring = new DatagramRing(4, 16);
+        for (int i = 0; i < 4; i++) {
+            publish(ring, i);
+        }
+        assertNull(ring.claim());
+        assertEquals(0, ring.peek().getInt(0));
+        ring.release();
+        publish(ring, 4);
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, ring.peek().getInt(0));
+            ring.release();
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    /**
+     * A producer and a consumer thread pass many datagrams through a small ring without losing
+     * or reordering one.
+     */
+    @Test
+    void producerAndConsumerThreads() throws InterruptedException {
+        DatagramRing ring = new DatagramRing(8, 16);
+        int count = 100_000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer slot;
+                while ((slot = ring.claim()) == null) {
+                    Thread.yield();
+                }
+                slot.putInt(i).flip();
+                ring.publish(CLIENT);
+            }
+        });
+        producer.start();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer datagram;
+            while ((datagram = ring.peek()) == null) {
+                Thread.yield();
+            }
+            assertEquals(i, datagram.getInt(0));
+            ring.release();
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+
+    /**
+     * Publishes a datagram holding a number.
+     *
+     * @param ring   the ring.
+     * @param number the number.
+     */
+    private static void publish(DatagramRing ring, int number) {
+        ByteBuffer slot = ring.claim();
+        assertNotNull(slot);
+        slot.putInt(number).flip();
+        ring.publish(CLIENT);
+    }
+}
@@ -0,0 +1,107 @@
+package eit.host;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.function.IntPredicate;
+
+/**
+ * A transport for the tests which loses and reorders the datagrams it sends, chosen by their number,
+ * and counts them. The datagrams are numbered from 0 in the order they are sent, lost ones included,
+ * so a test meets the same losses on every run. A delayed datagram is sent right after the next one.
+ */
+class LossyTransport implements Transport {
+    private final Transport transport; // sends the datagrams which are not lost and receives
+    private IntPredicate lost = number -> false; // true for the numbers of the datagrams lost
+    private IntPredicate delayed = number -> false; // true for the numbers of the datagrams sent after the next
+    private int sentCount; // the number of datagrams sent, lost ones included
+    private int lostCount; // the number of datagrams lost
+    private ByteBuffer held; // the datagram delayed, null if there is none
+    private SocketAddress heldTarget; // the address the delayed datagram is sent to
+
+    /**
+     * Initialises a transport which loses nothing until told to.
+     *
+     * @param transport the transport the datagrams are sent and received on.
+     */
+    LossyTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the datagrams which are lost.
+     *
+     * @param lost true for the numbers of the datagrams lost.
+     */
+    synchronized void setLoss(IntPredicate lost) {
+        this.lost = lost;
+    }
+
+    /**
+     * Sets the datagrams which are sent after the datagram following them.
+     *
+     * @param delayed true for the numbers of the datagrams delayed.
+     */
+    synchronized void setReordering(IntPredicate delayed) {
+        this.delayed = delayed;
+    }
+
+    /**
+     * Returns the number of datagrams sent so far, lost ones included.
+     *
+     * @return the number of datagrams sent.
+     */
+    synchronized int getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * Returns the number of datagrams lost so far.
+     *
+     * @return the number of datagrams lost.
+     */
+    synchronized int getLostCount() {
+        return lostCount;
+    }
+
+    @Override
+    public synchronized boolean send(ByteBuffer buffer, SocketAddress target) throws IOException {
+        int number = sentCount++;
+        if (lost.test(number)) {
+            lostCount++;
+            buffer.position(buffer.limit());
+            return true;
+        }
+        if (held == null && delayed.test(number)) {
+            held = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+            heldTarget = target;
+            return true;
+        }
+        boolean sent = transport.send(buffer, target);
+        if (held != null) {
+            transport.send(held, heldTarget);
+            held = null;
+        }
+        return sent;
+    }
+
+    @Override
+    public SocketAddress receive(ByteBuffer buffer) throws IOException {
+        return transport.receive(buffer);
+    }
+
+    @Override
+    public void await(long millis) throws IOException {
+        transport.await(millis);
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() throws IOException {
+        return transport.getLocalAddress();
+    }
+
+    @Override
+    public void close() {
+        transport.close();
+    }
+}
@@ -0,0 +1,118 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@code MemoryTransport}: the wraparound of its queue, a full queue and the addressing.
+ */
+class MemoryTransportTest {
+    private MemoryTransport sender; // sends the datagrams
+    private MemoryTransport receiver; // receives the datagrams, with a queue of 4
+
+    /**
+     * Binds the two transports to free ports.
+     *
+     * @throws BindException if no port is free.
+     */
+    @BeforeEach
+    void bind() throws BindException {
+        sender = MemoryTransport.bind(0, 4);
+        receiver = MemoryTransport.bind(0, 4, 64);
+    }
+
+    /**
+     * Unbinds the transports, the in-memory network is shared by the whole process.
+     */
+    @AfterEach
+    void close() {
+        sender.close();
+        receiver.close();
+    }
+
+    /**
+     * The datagrams come out in order and with the address of their sender, many times round the queue.
+     */
+    @Test
+    void wrapsAroundInOrder() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sender.send(datagram(i), receiver.getLocalAddress()));
+            if (i % 3 == 2) {
+                for (int j = i - 2; j <= i; j++) {
+                    buffer.clear();
+                    assertEquals(sender.getLocalAddress(), receiver.receive(buffer));
+                    assertEquals(j, buffer.flip().getInt());
+                }
+            }
+        }
+        buffer.clear();
+        assertEquals(sender.getLocalAddress(), receiver.receive(buffer));
+        assertEquals(999, buffer.flip().getInt());
+        assertNull(receiver.receive(buffer.clear()));
+        assertEquals(0, receiver.getDroppedCount());
+    }
+
+    /**
+     * A datagram sent to a full queue is refused and counted, the datagrams queued are kept.
+     */
+    @Test
+    void fullQueueRefuses() throws IOException {
+        SocketAddress target = receiver.getLocalAddress();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(sender.send(datagram(i), target));
+        }
+        ByteBuffer refused = datagram(4);
+        assertFalse(sender.send(refused, target));
+        assertEquals(0, refused.position());
+        assertEquals(1, receiver.getDroppedCount());
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (int i = 0; i < 4; i++) {
+            receiver.receive(buffer.clear());
+            assertEquals(i, buffer.flip().getInt());
+        }
+        assertTrue(sender.send(refused, target));
+    }
+
+    /**
+     * A datagram longer than the slots is cut off, one sent to an unbound port is dropped,
+     * and a closed transport can neither send nor receive.
+     */
+    @Test
+    void truncatesDropsAndCloses() throws IOException {
+        assertTrue(sender.send(ByteBuffer.allocate(100), receiver.getLocalAddress()));
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        receiver.receive(buffer);
+        assertEquals(64, buffer.position());
+
+        SocketAddress unbound = receiver.getLocalAddress();
+        receiver.close();
+        ByteBuffer lost = datagram(1);
+        assertTrue(sender.send(lost, unbound));
+        assertFalse(lost.hasRemaining());
+        assertThrows(ClosedChannelException.class, () -> receiver.receive(buffer.clear()));
+    }
+
+    /**
+     * Builds a datagram holding a number.
+     *
+     * @param number the number.
+     * @return the datagram, ready for reading.
+     */
+    private static ByteBuffer datagram(int number) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(number).flip();
+    }
+}
@@ -0,0 +1,259 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import eit.linecode.CodeTable;
+import eit.linecode.DataFrame;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+import eit.linecode.Utils.Flag;
+
+/**
+ * Tests the distribution of one stream by a {@code MulticastSender} to several {@code MulticastReceiver}s
+ * over a {@code MemoryTransport} which copies every datagram to the group to each receiver:
+ * every dataframe is encoded once, and gaps are repaired after a {@code NACK}.
+ */
+class MulticastTest {
+    private final static int RECEIVERS = 3; // the number of members of the group
+    private final static int FRAMES = 50; // the number of dataframes sent
+    private final static int SIZE = 20; // the number of bytes of a payload
+    private final static SocketAddress GROUP = new InetSocketAddress("239.1.2.3", 4446); // stands for the group
+    private final CodeTable codeTable = new CodeTable(); // the code of all sides
+    private final List<MulticastReceiver> receivers = new ArrayList<>(); // the members of the group
+    private Group group; // the transport of the sender, which copies the datagrams to the members
+    private MulticastSender sender; // sends the stream
+
+    /**
+     * Creates the receivers and a sender whose datagrams to the group reach all of them.
+     *
+     * @throws IOException if no port is free.
+     */
+    @BeforeEach
+    void join() throws IOException {
+        group = new Group(MemoryTransport.bind(0, 1024), codeTable);
+        for (int i = 0; i < RECEIVERS; i++) {
+            MemoryTransport transport = MemoryTransport.bind(0, 1024);
+            group.add(transport.getLocalAddress());
+            receivers.add(new MulticastReceiver(new Encoder(codeTable), new Decoder(codeTable), transport));
+        }
+        sender = new MulticastSender(new Encoder(codeTable), new Decoder(codeTable), group, GROUP);
+    }
+
+    /**
+     * Closes the sender and the receivers.
+     */
+    @AfterEach
+    void close() {
+        sender.close();
+        for (MulticastReceiver receiver : receivers) {
+            receiver.close();
+        }
+    }
+
+    /**
+     * Without losses, every receiver gets the whole stream and its end, and every dataframe
+     * was encoded once, not once per receiver.
+     */
+    @Test
+    void deliversToAllReceivers() {
+        byte[] data = send();
+        sender.close();
+        for (MulticastReceiver receiver : receivers) {
+            assertArrayEquals(data, readAll(receiver, data.length));
+            assertEquals(0, receiver.getNackCount());
+        }
+        assertEquals(FRAMES, sender.getEncodedCount());
+        assertEquals(0, sender.getRepairCount());
+    }
+
+    /**
+     * Two receivers lose the same dataframe and a third another one. Their NACKs are merged into one repair
+     * of each dataframe from the copies kept by the sender, and every receiver gets the whole stream
+     * without giving anything up.
+     */
+    @Test
+    void repairsGapsAfterNack() {
+        group.setLoss(0, seq -> seq == 10);
+        group.setLoss(1, seq -> seq == 10);
+        group.setLoss(2, seq -> seq == 30);
+        byte[] data = send();
+        sender.close();
+        for (MulticastReceiver receiver : receivers) {
+            assertArrayEquals(data, readAll(receiver, data.length));
+            assertEquals(0, receiver.getLostCount());
+        }
+        assertEquals(3, group.getLostCount());
+        assertTrue(sender.getNackCount() >= 3);
+        assertEquals(2, sender.getRepairCount());
+        assertEquals(FRAMES, sender.getEncodedCount());
+    }
+
+    /**
+     * The last dataframe is lost by every receiver; the heartbeat of the sender reveals the gap,
+     * which is repaired before the end of the stream.
+     */
+    @Test
+    void repairsLostLastFrame() {
+        for (int i = 0; i < RECEIVERS; i++) {
+            group.setLoss(i, seq -> seq == FRAMES);
+        }
+        byte[] data = send();
+        sender.close();
+        for (MulticastReceiver receiver : receivers) {
+            assertArrayEquals(data, readAll(receiver, data.length));
+            assertTrue(receiver.isClosed());
+        }
+        assertEquals(RECEIVERS, group.getLostCount());
+        assertTrue(sender.getRepairCount() >= 1);
+    }
+
+    /**
+     * Sends the payloads of the test, one dataframe each.
+     *
+     * @return the data sent.
+     */
+    private byte[] send() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] payload = new byte[SIZE];
+            for (int j = 0; j < SIZE; j++) {
+                payload[j] = (byte) (i + j);
+            }
+            sender.send(payload);
+            out.write(payload, 0, SIZE);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads from a receiver until the given number of bytes has arrived and the stream has ended.
+     *
+     * @param receiver the receiver.
+     * @param length   the number of bytes expected.
+     * @return the bytes read.
+     */
+    private static byte[] readAll(MulticastReceiver receiver, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while ((out.size() < length || !receiver.isClosed()) && System.nanoTime() < deadline) {
+            byte[] bytes = receiver.read();
+            out.write(bytes, 0, bytes.length);
+            Thread.onSpinWait();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A transport which copies every datagram sent to the group to each member, like the loopback
+     * interface does for a multicast group. A member may lose the first copy of chosen dataframes;
+     * the repairs sent later reach it.
+     */
+    private static class Group implements Transport {
+        private final MemoryTransport transport; // sends the copies and receives the NACKs
+        private final Decoder decoder; // reads the headers of the datagrams
+        private final ByteBuffer header = ByteBuffer.allocate(DataFrame.HEADER_LENGTH); // the decoded header
+        private final List<SocketAddress> members = new ArrayList<>(); // the addresses of the receivers
+        private final List<IntPredicate> losses = new ArrayList<>(); // true for the seqs a member loses
+        private final List<Set<Integer>> lost = new ArrayList<>(); // the seqs each member has lost
+        private int lostCount; // the number of copies lost
+
+        /**
+         * Initialises a group without members.
+         *
+         * @param transport the transport of the sender.
+         * @param codeTable the code of the dataframes.
+         */
+        Group(MemoryTransport transport, CodeTable codeTable) {
+            this.transport = transport;
+            this.decoder = new Decoder(codeTable);
+        }
+
+        /**
+         * Adds a member, which loses nothing until told to.
+         *
+         * @param member the address of the receiver.
+         */
+        synchronized void add(SocketAddress member) {
+            members.add(member);
+            losses.add(seq -> false);
+            lost.add(new HashSet<>());
+        }
+
+        /**
+         * Sets the dataframes of data whose first copy a member loses.
+         *
+         * @param member the number of the member.
+         * @param loss   true for the sequence numbers lost.
+         */
+        synchronized void setLoss(int member, IntPredicate loss) {
+            losses.set(member, loss);
+        }
+
+        /**
+         * Returns the number of copies lost.
+         *
+         * @return the number of copies lost by all members.
+         */
+        synchronized int getLostCount() {
+            return lostCount;
+        }
+
+        @Override
+        public synchronized boolean send(ByteBuffer buffer, SocketAddress target) throws IOException {
+            if (!GROUP.equals(target)) {
+                return transport.send(buffer, target);
+            }
+            header.clear();
+            decoder.decodeHeader(buffer.duplicate(), header, DataFrame.HEADER_LENGTH);
+            header.flip();
+            boolean data = DataFrame.readFlag(header) == Flag.DEFAULT;
+            int seq = DataFrame.readSeqNumber(header);
+            for (int i = 0; i < members.size(); i++) {
+                if (data && losses.get(i).test(seq) && lost.get(i).add(seq)) {
+                    lostCount++;
+                } else {
+                    transport.send(buffer.duplicate(), members.get(i));
+                }
+            }
+            buffer.position(buffer.limit());
+            return true;
+        }
+
+        @Override
+        public SocketAddress receive(ByteBuffer buffer) throws IOException {
+            return transport.receive(buffer);
+        }
+
+        @Override
+        public void await(long millis) throws IOException {
+            transport.await(millis);
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return transport.getLocalAddress();
+        }
+
+        @Override
+        public void close() {
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import eit.host.exception.HostException;
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+import eit.linecode.Utils;
+
+/**
+ * Tests the file transfers resumed from the offset the server received without a gap, over a
+ * {@code MemoryTransport}: after the link of a client went down, and after the server was started again.
+ */
+class OffsetResumeTest {
+    private final static long TRANSFER = 42; // the id of the transfer
+    private final static int SIZE = 64 * 1024; // the size of the file
+    private final static int CUT = 200; // the number of datagrams of the file sent before the link goes down
+    private final CodeTable codeTable = new CodeTable(); // the code of both sides
+    private final List<Client> clients = new ArrayList<>(); // the clients created by the test
+    private final List<Server> servers = new ArrayList<>(); // the servers created by the test
+    private final ExecutorService receiver = Executors.newSingleThreadExecutor(); // runs receiveFile
+    private byte[] data; // the content of the file
+    private Path source; // the file sent
+    private Path target; // the file received
+
+    @TempDir
+    Path directory; // holds the files
+
+    /**
+     * Writes the file to be sent.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    @BeforeEach
+    void writeFile() throws IOException {
+        data = Utils.getRandomBytes(SIZE);
+        source = Files.write(directory.resolve("source.bin"), data);
+        target = directory.resolve("target.bin");
+    }
+
+    /**
+     * Closes the clients and stops the servers and the receiving thread.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for a server.
+     */
+    @AfterEach
+    void close() throws InterruptedException {
+        for (Client client : clients) {
+            client.close();
+        }
+        receiver.shutdownNow();
+        for (Server server : servers) {
+            server.close();
+            server.join(1000);
+        }
+    }
+
+    /**
+     * The link of the first client goes down in the middle of the file; a new client continues
+     * the transfer where the server stopped receiving and sends less than the whole file.
+     */
+    @Test
+    void continuesAfterLinkWentDown() throws Exception {
+        Server server = server();
+        Future<Long> received = receiver.submit(() -> server.receiveFile(target, TRANSFER));
+        LossyTransport broken = transport();
+        Client first = client(broken, server);
+        assertTrue(first.connect());
+        int cut = broken.getSentCount() + CUT;
+        broken.setLoss(number -> number >= cut);
+        assertThrows(HostException.class, () -> first.sendFile(source, TRANSFER));
+
+        LossyTransport transport = transport();
+        Client second = client(transport, server);
+        assertTrue(second.connect());
+        int before = transport.getSentCount();
+        assertTrue(second.sendFile(source, TRANSFER));
+        assertTrue(transport.getSentCount() - before < frames() - CUT / 2);
+        assertEquals(SIZE, received.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertFalse(Files.exists(directory.resolve("target.bin.resume")));
+    }
+
+    /**
+     * The server is stopped in the middle of the file and started again; the progress it saved
+     * tells the next client where to continue.
+     */
+    @Test
+    void continuesAfterServerRestart() throws Exception {
+        Server server = server();
+        Future<Long> stopped = receiver.submit(() -> server.receiveFile(target, TRANSFER));
+        LossyTransport broken = transport();
+        Client first = client(broken, server);
+        assertTrue(first.connect());
+        int cut = broken.getSentCount() + CUT;
+        broken.setLoss(number -> number >= cut);
+        assertThrows(HostException.class, () -> first.sendFile(source, TRANSFER));
+        stopped.cancel(true);
+        awaitProgress();
+        server.close();
+        server.join(1000);
+
+        Server restarted = server();
+        Future<Long> received = receiver.submit(() -> restarted.receiveFile(target, TRANSFER));
+        LossyTransport transport = transport();
+        Client second = client(transport, restarted);
+        assertTrue(second.connect());
+        int before = transport.getSentCount();
+        assertTrue(second.sendFile(source, TRANSFER));
+        assertTrue(transport.getSentCount() - before < frames() - CUT / 2);
+        assertEquals(SIZE, received.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    /**
+     * Waits until the receiving thread has saved the progress of the transfer it was interrupted in.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws ExecutionException   if the task of the receiving thread failed.
+     * @throws TimeoutException     if the progress was not saved in time.
+     */
+    private void awaitProgress() throws InterruptedException, ExecutionException, TimeoutException {
+        receiver.submit(() -> { }).get(5, TimeUnit.SECONDS);
+        assertTrue(Files.exists(directory.resolve("target.bin.resume")));
+    }
+
+    /**
+     * Returns the number of dataframes the whole file takes.
+     *
+     * @return the number of dataframes.
+     */
+    private int frames() {
+        int chunk = clients.get(0).getMaxPayload() - Long.BYTES;
+        return (SIZE + chunk - 1) / chunk;
+    }
+
+    /**
+     * Starts a server on the in-memory network, stopped after the test.
+     *
+     * @return the server.
+     * @throws IOException if no port is free.
+     */
+    private Server server() throws IOException {
+        Server server = new Server(new Encoder(codeTable), new Decoder(codeTable), MemoryTransport.bind(0, 1024));
+        servers.add(server);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Binds a transport for a client.
+     *
+     * @return the transport, which loses nothing until told to.
+     * @throws IOException if no port is free.
+     */
+    private LossyTransport transport() throws IOException {
+        return new LossyTransport(MemoryTransport.bind(0, 1024));
+    }
+
+    /**
+     * Creates a client of the given server on the given transport, closed after the test.
+     *
+     * @param transport the transport of the client.
+     * @param server    the server.
+     * @return the client.
+     * @throws IOException if the address of the server cannot be told.
+     */
+    private Client client(Transport transport, Server server) throws IOException {
+        Client client = new Client(new Encoder(codeTable), new Decoder(codeTable), transport,
+                server.getLocalAddress());
+        clients.add(client);
+        return client;
+    }
+}
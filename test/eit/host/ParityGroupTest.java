@@ -0,0 +1,205 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@code ParityGroup} and the rebuilding of lost dataframes from its parity by a {@code ServerStream}.
+ */
+class ParityGroupTest {
+    private final static int SIZE = 8; // the dataframes of a group
+    private final static int PARITY = 2; // the parity dataframes of a group
+
+    /**
+     * Every dataframe of a group can be rebuilt from the parity of its class and the other
+     * dataframes of the class, its length included, whatever the lengths of the payloads.
+     */
+    @Test
+    void parityRebuildsEveryDataframe() {
+        byte[][] payloads = payloads(new Random(1), 100, SIZE);
+        ParityGroup group = new ParityGroup(SIZE, PARITY);
+        for (int i = 0; i < SIZE; i++) {
+            group.add(100 + i, payloads[i], 0, payloads[i].length);
+        }
+        assertTrue(group.isFull());
+        assertEquals(100, group.getStart());
+        for (int lost = 0; lost < SIZE; lost++) {
+            int index = lost % PARITY;
+            ByteBuffer parity = group.getPayload(index);
+            byte[] rebuilt = new byte[parity.remaining()];
+            parity.get(rebuilt);
+            int length = group.getDescription(index) & 0xFFFF;
+            for (int i = index; i < SIZE; i += PARITY) {
+                if (i != lost) {
+                    for (int j = 0; j < payloads[i].length; j++) {
+                        rebuilt[j] ^= payloads[i][j];
+                    }
+                    length ^= payloads[i].length;
+                }
+            }
+            assertEquals(payloads[lost].length, length);
+            for (int j = length; j < rebuilt.length; j++) {
+                assertEquals(0, rebuilt[j], "padding of dataframe " + lost);
+            }
+            assertArrayEquals(payloads[lost], Arrays.copyOf(rebuilt, length), "dataframe " + lost);
+        }
+    }
+
+    /**
+     * A burst of as many consecutive losses as there are parity dataframes is rebuilt by the stream,
+     * which delivers all payloads in order without a retransmission.
+     */
+    @Test
+    void streamRebuildsBurst() {
+        byte[][] payloads = payloads(new Random(2), 60, 2 * SIZE);
+        ByteArrayOutputStream delivered = new ByteArrayOutputStream();
+        ServerStream stream = subscribed(delivered);
+        ParityGroup group = new ParityGroup(SIZE, PARITY);
+        for (int i = 0; i < 2 * SIZE; i++) {
+            int seqNumber = i + 1;
+            group.add(seqNumber, payloads[i], 0, payloads[i].length);
+            if (seqNumber != 11 && seqNumber != 12) {
+                receive(stream, seqNumber, payloads[i]);
+            }
+            if (group.isFull()) {
+                boolean rebuilt = false;
+                for (int index = 0; index < PARITY; index++) {
+                    rebuilt |= recover(stream, group, index);
+                }
+                assertEquals(seqNumber == 16, rebuilt); // the first parity only starts keeping payloads
+                group.clear();
+            }
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (byte[] payload : payloads) {
+            expected.writeBytes(payload);
+        }
+        assertArrayEquals(expected.toByteArray(), delivered.toByteArray());
+        assertEquals(16, stream.acknowledge());
+    }
+
+    /**
+     * The payloads a stream keeps ahead of a gap and for parity dataframes are slices of the pooled buffers
+     * they were received in, which go back to the pool once the stream gives them up.
+     */
+    @Test
+    void keptPayloadsAreReleased() {
+        ServerStream stream = subscribed(new ByteArrayOutputStream());
+        stream.recover(1, ParityGroup.pack(2, 1, 0, 0), ByteBuffer.allocate(4)); // starts keeping payloads
+        PooledBuffer first = BufferPool.shared().acquire(4);
+        first.buffer().putInt(1).flip();
+        PooledBuffer ahead = BufferPool.shared().acquire(4);
+        ahead.buffer().putInt(3).flip();
+        stream.receive(1, 0, first);
+        stream.receive(3, 2, ahead);
+        assertEquals(2, first.getReferenceCount()); // kept for a parity dataframe
+        assertEquals(3, ahead.getReferenceCount()); // kept ahead of the gap and for a parity dataframe
+        stream.releaseKept();
+        assertEquals(1, first.getReferenceCount());
+        assertEquals(1, ahead.getReferenceCount());
+        first.release();
+        ahead.release();
+    }
+
+    /**
+     * A parity dataframe shorter than a payload of its class cannot be right and is ignored.
+     */
+    @Test
+    void shortParityIsIgnored() {
+        ServerStream stream = subscribed(new ByteArrayOutputStream());
+        int description = ParityGroup.pack(2, 1, 0, 10 ^ 1);
+        assertFalse(stream.recover(1, description, ByteBuffer.allocate(2))); // starts keeping payloads
+        receive(stream, 1, new byte[10]);
+        assertFalse(stream.recover(1, description, ByteBuffer.allocate(2)));
+        assertEquals(1, stream.acknowledge());
+    }
+
+    /**
+     * Hands a parity dataframe of the group to the stream.
+     *
+     * @param stream the stream.
+     * @param group  the group.
+     * @param index  the class of the parity dataframe.
+     * @return true if a dataframe was rebuilt.
+     */
+    private static boolean recover(ServerStream stream, ParityGroup group, int index) {
+        return stream.recover(group.getStart(), group.getDescription(index), group.getPayload(index));
+    }
+
+    /**
+     * Hands a payload to the stream in a pooled buffer, as the server does.
+     *
+     * @param stream    the stream.
+     * @param seqNumber the sequence number of the dataframe.
+     * @param payload   the payload.
+     */
+    private static void receive(ServerStream stream, int seqNumber, byte[] payload) {
+        PooledBuffer buffer = BufferPool.shared().acquire(payload.length);
+        buffer.buffer().put(payload).flip();
+        try {
+            stream.receive(seqNumber, seqNumber - 1, buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Builds a stream starting at sequence number 1 whose payloads are written to the given output.
+     *
+     * @param delivered the output.
+     * @return the stream.
+     */
+    private static ServerStream subscribed(ByteArrayOutputStream delivered) {
+        ServerStream stream = new ServerStream(null, 0, 0, null);
+        stream.reset(1, 1);
+        stream.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(byte[] item) {
+                delivered.writeBytes(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                // not expected
+            }
+
+            @Override
+            public void onComplete() {
+                // not expected
+            }
+        }, Runnable::run, 64);
+        return stream;
+    }
+
+    /**
+     * Builds payloads of random lengths and contents.
+     *
+     * @param random    the source of the lengths and contents.
+     * @param maxLength the longest payload.
+     * @param count     the number of payloads.
+     * @return the payloads.
+     */
+    private static byte[][] payloads(Random random, int maxLength, int count) {
+        byte[][] payloads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            payloads[i] = new byte[1 + random.nextInt(maxLength)];
+            random.nextBytes(payloads[i]);
+        }
+        return payloads;
+    }
+}
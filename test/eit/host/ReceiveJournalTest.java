@@ -0,0 +1,153 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@code ReceiveJournal}: what survives a crash, the rotation of its segments and their release.
+ */
+class ReceiveJournalTest {
+    private final static int SEGMENT = 64 << 10; // the smallest segment
+    private final static int LARGE = 30_000; // two records of this size fill a segment
+    @TempDir
+    Path directory; // the directory of the journal
+
+    /**
+     * A record appended but not committed before a crash is dropped when the journal is opened again,
+     * and the next record takes its place.
+     */
+    @Test
+    void reopenDropsUncommittedRecords() throws IOException {
+        ReceiveJournal crashed = new ReceiveJournal(directory, SEGMENT, 1);
+        append(crashed, payload(1, 10));
+        assertEquals(1, crashed.commit());
+        append(crashed, payload(2, 20)); // not committed, the journal is not closed either
+
+        ReceiveJournal reopened = new ReceiveJournal(directory, SEGMENT, 1);
+        assertEquals(1, reopened.getCommitted());
+        assertRecords(reopened, payload(1, 10));
+        append(reopened, payload(3, 5));
+        reopened.close();
+
+        ReceiveJournal again = new ReceiveJournal(directory, SEGMENT, 1);
+        assertEquals(2, again.getCommitted());
+        assertRecords(again, payload(1, 10), payload(3, 5));
+        again.close();
+    }
+
+    /**
+     * Records which do not fit into a segment any more start the next one,
+     * and all of them are replayed in order, also after the journal is opened again.
+     */
+    @Test
+    void rotationKeepsOrderOnReplay() throws IOException {
+        ReceiveJournal journal = new ReceiveJournal(directory, SEGMENT, 1);
+        byte[][] payloads = new byte[5][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = payload(i, LARGE);
+            append(journal, payloads[i]);
+        }
+        assertEquals(5, journal.commit());
+        assertEquals(3, segments());
+        assertRecords(journal, payloads);
+        journal.close();
+
+        ReceiveJournal reopened = new ReceiveJournal(directory, SEGMENT, 1);
+        assertEquals(5, reopened.getCommitted());
+        assertRecords(reopened, payloads);
+        reopened.close();
+    }
+
+    /**
+     * Releasing deletes the segments whose records all come before the record given,
+     * but never the segment the committed records end in.
+     */
+    @Test
+    void releaseDeletesOnlyEarlierSegments() throws IOException {
+        ReceiveJournal journal = new ReceiveJournal(directory, SEGMENT, 1);
+        for (int i = 0; i < 5; i++) {
+            append(journal, payload(i, LARGE));
+        }
+        journal.commit();
+
+        assertEquals(0, journal.release(1)); // record 1 is in the first segment
+        assertEquals(1, journal.release(3)); // records 0 and 1 are gone
+        assertEquals(2, segments());
+        List<byte[]> replayed = new ArrayList<>();
+        assertEquals(2, journal.replay(replayed::add));
+        assertEquals(3, replayed.size());
+        assertArrayEquals(payload(2, LARGE), replayed.get(0));
+
+        assertEquals(1, journal.release(Long.MAX_VALUE));
+        assertEquals(1, segments());
+        assertEquals(4, journal.replay(payload -> { }));
+        journal.close();
+
+        ReceiveJournal reopened = new ReceiveJournal(directory, SEGMENT, 1);
+        assertRecords(reopened, payload(4, LARGE));
+        reopened.close();
+    }
+
+    /**
+     * Appends a whole array to the journal.
+     *
+     * @param journal the journal.
+     * @param payload the payload.
+     */
+    private static void append(ReceiveJournal journal, byte[] payload) {
+        journal.append(ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Asserts that the journal replays exactly the given payloads.
+     *
+     * @param journal  the journal.
+     * @param expected the payloads in order.
+     * @throws IOException if a segment cannot be read.
+     */
+    private static void assertRecords(ReceiveJournal journal, byte[]... expected) throws IOException {
+        List<byte[]> replayed = new ArrayList<>();
+        journal.replay(replayed::add);
+        assertEquals(expected.length, replayed.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], replayed.get(i), "record " + i);
+        }
+    }
+
+    /**
+     * Counts the segment files of the journal.
+     *
+     * @return the number of segments.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    /**
+     * Builds a payload whose bytes tell it apart from the others.
+     *
+     * @param mark   the value of its bytes.
+     * @param length the length of the payload.
+     * @return the payload.
+     */
+    private static byte[] payload(int mark, int length) {
+        byte[] payload = new byte[length];
+        Arrays.fill(payload, (byte) (mark + 1));
+        return payload;
+    }
+}
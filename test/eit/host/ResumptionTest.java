@@ -0,0 +1,207 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * Tests the resumption tokens of a {@code Server} with clients reconnecting over a {@code MemoryTransport}:
+ * a token opens a session with the data in the first dataframe, a used or expired token falls back
+ * to a handshake, and a lost {@code RESUME} dataframe or acknowledgement is repeated without delivering twice.
+ */
+class ResumptionTest {
+    private final static byte[] FIRST = {1, 2, 3}; // the data sent after the handshake
+    private final static byte[] RESUMED = {4, 5, 6, 7}; // the data sent with the token
+    private final CodeTable codeTable = new CodeTable(); // the code of both sides
+    private final List<Client> clients = new ArrayList<>(); // the clients created by the test
+    private LossyTransport serverTransport; // the transport of the server
+    private Server server; // receives the data, not started yet
+
+    /**
+     * Creates a server on the in-memory network.
+     *
+     * @throws IOException if no port is free.
+     */
+    @BeforeEach
+    void bind() throws IOException {
+        serverTransport = new LossyTransport(MemoryTransport.bind(0, 1024));
+        server = new Server(new Encoder(codeTable), new Decoder(codeTable), serverTransport);
+    }
+
+    /**
+     * Closes the clients and stops the server.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the server.
+     */
+    @AfterEach
+    void close() throws InterruptedException {
+        for (Client client : clients) {
+            client.close();
+        }
+        server.close();
+        server.join(1000);
+    }
+
+    /**
+     * A new client given the token of an earlier one sends its data in a single datagram, without a handshake,
+     * and is handed a new token with the acknowledgement.
+     */
+    @Test
+    void resumesWithoutHandshake() throws IOException {
+        server.start();
+        long token = connectAndClose();
+        LossyTransport transport = transport();
+        Client resumed = client(transport);
+        resumed.setResumptionToken(token);
+        assertTrue(resumed.resume(RESUMED));
+        assertEquals(1, transport.getSentCount());
+        assertNotEquals(0, resumed.getResumptionToken());
+        assertNotEquals(token, resumed.getResumptionToken());
+        assertArrayEquals(concat(FIRST, RESUMED), readAll(FIRST.length + RESUMED.length));
+    }
+
+    /**
+     * A token opens one session only; a second client presenting it is rejected and makes a handshake,
+     * after which its data is delivered all the same.
+     */
+    @Test
+    void usedTokenFallsBackToHandshake() throws IOException {
+        server.start();
+        long token = connectAndClose();
+        Client resumed = client(transport());
+        resumed.setResumptionToken(token);
+        assertTrue(resumed.resume(RESUMED));
+        LossyTransport transport = transport();
+        Client again = client(transport);
+        again.setResumptionToken(token);
+        assertTrue(again.resume(RESUMED));
+        assertTrue(transport.getSentCount() > 1);
+        assertArrayEquals(concat(FIRST, RESUMED, RESUMED), readAll(FIRST.length + 2 * RESUMED.length));
+    }
+
+    /**
+     * An expired token is rejected and the client falls back to a handshake.
+     */
+    @Test
+    void expiredTokenFallsBackToHandshake() throws IOException, InterruptedException {
+        server.setResumption(16, 20);
+        server.start();
+        long token = connectAndClose();
+        Thread.sleep(100);
+        LossyTransport transport = transport();
+        Client resumed = client(transport);
+        resumed.setResumptionToken(token);
+        assertTrue(resumed.resume(RESUMED));
+        assertTrue(transport.getSentCount() > 1);
+        assertArrayEquals(concat(FIRST, RESUMED), readAll(FIRST.length + RESUMED.length));
+    }
+
+    /**
+     * The {@code RESUME} dataframe and then its acknowledgement are lost; the dataframe is sent again,
+     * the repeated token is taken for the session it opened, and the data is delivered once.
+     */
+    @Test
+    void repeatsLostResumption() throws IOException {
+        server.start();
+        long token = connectAndClose();
+        LossyTransport transport = transport();
+        transport.setLoss(number -> number == 0);
+        int acknowledgement = serverTransport.getSentCount();
+        serverTransport.setLoss(number -> number == acknowledgement);
+        Client resumed = client(transport);
+        resumed.setResumptionToken(token);
+        assertTrue(resumed.resume(RESUMED));
+        assertEquals(1, transport.getLostCount());
+        assertEquals(1, serverTransport.getLostCount());
+        assertEquals(3, transport.getSentCount());
+        assertArrayEquals(concat(FIRST, RESUMED), readAll(FIRST.length + RESUMED.length));
+        assertEquals(0, server.read().length);
+    }
+
+    /**
+     * Connects a client, sends the first data and closes the client without disconnecting,
+     * which would stop the server.
+     *
+     * @return the resumption token the client was issued.
+     * @throws IOException if no port is free or the client cannot connect.
+     */
+    private long connectAndClose() throws IOException {
+        Client client = client(transport());
+        assertTrue(client.connect());
+        long token = client.getResumptionToken();
+        assertNotEquals(0, token);
+        client.sendData(FIRST);
+        client.close();
+        return token;
+    }
+
+    /**
+     * Binds a transport for a client.
+     *
+     * @return the transport, which loses nothing until told to.
+     * @throws IOException if no port is free.
+     */
+    private LossyTransport transport() throws IOException {
+        return new LossyTransport(MemoryTransport.bind(0, 1024));
+    }
+
+    /**
+     * Creates a client of the server on the given transport, closed after the test.
+     *
+     * @param transport the transport of the client.
+     * @return the client.
+     * @throws IOException if the address of the server cannot be told.
+     */
+    private Client client(Transport transport) throws IOException {
+        SocketAddress address = serverTransport.getLocalAddress();
+        Client client = new Client(new Encoder(codeTable), new Decoder(codeTable), transport, address);
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Reads from the server until the given number of bytes has arrived.
+     *
+     * @param length the number of bytes expected.
+     * @return the bytes read.
+     */
+    private byte[] readAll(int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (out.size() < length && System.nanoTime() < deadline) {
+            byte[] bytes = server.read();
+            out.write(bytes, 0, bytes.length);
+            Thread.onSpinWait();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Joins byte arrays.
+     *
+     * @param parts the arrays.
+     * @return the bytes of all arrays one after the other.
+     */
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
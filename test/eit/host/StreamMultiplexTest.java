@@ -0,0 +1,140 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import eit.linecode.CodeTable;
+import eit.linecode.Decoder;
+import eit.linecode.Encoder;
+
+/**
+ * Tests the logical streams of one {@code Client} connection and their {@code ServerStream}s
+ * over a {@code MemoryTransport}: their data is kept apart, and a loss only holds back its own stream.
+ */
+class StreamMultiplexTest {
+    private final static int FRAMES = 20; // the number of dataframes sent on a stream
+    private final static Duration LIMIT = Duration.ofSeconds(5); // the time a stream may take to arrive
+    private final CodeTable codeTable = new CodeTable(); // the code of both sides
+    private LossyTransport clientTransport; // the transport of the client
+    private Server server; // receives the streams
+    private Client client; // opens the streams
+
+    /**
+     * Starts a server and connects a client on the in-memory network.
+     *
+     * @throws IOException if no port is free or the client cannot connect.
+     */
+    @BeforeEach
+    void connect() throws IOException {
+        MemoryTransport serverTransport = MemoryTransport.bind(0, 1024);
+        clientTransport = new LossyTransport(MemoryTransport.bind(0, 1024));
+        server = new Server(new Encoder(codeTable), new Decoder(codeTable), serverTransport);
+        server.start();
+        client = new Client(new Encoder(codeTable), new Decoder(codeTable), clientTransport,
+                serverTransport.getLocalAddress());
+        assertTrue(client.connect());
+    }
+
+    /**
+     * Closes the client and stops the server.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the server.
+     */
+    @AfterEach
+    void close() throws InterruptedException {
+        client.close();
+        server.close();
+        server.join(1000);
+    }
+
+    /**
+     * The writes of two streams and of the default stream are interleaved, each stream
+     * receives its own bytes in order and the server learns about the end of each.
+     */
+    @Test
+    void keepsStreamsApart() {
+        ClientStream first = client.openStream();
+        ClientStream second = client.openStream();
+        for (int i = 0; i < FRAMES; i++) {
+            first.sendData(new byte[]{1, (byte) i});
+            second.sendData(new byte[]{2, (byte) i});
+            client.sendData(new byte[]{0, (byte) i});
+        }
+        assertTrue(first.close());
+        assertTrue(second.close());
+
+        ServerStream accepted = assertTimeoutPreemptively(LIMIT, server::acceptStream);
+        ServerStream other = assertTimeoutPreemptively(LIMIT, server::acceptStream);
+        ServerStream firstAccepted = accepted.getId() == first.getId() ? accepted : other;
+        ServerStream secondAccepted = accepted == firstAccepted ? other : accepted;
+        assertEquals(second.getId(), secondAccepted.getId());
+        assertTrue(firstAccepted.isClosed());
+        assertTrue(secondAccepted.isClosed());
+        assertArrayEquals(expected(1), firstAccepted.read());
+        assertArrayEquals(expected(2), secondAccepted.read());
+        assertArrayEquals(expected(0), server.read());
+    }
+
+    /**
+     * The first dataframe of one stream is lost; another stream is sent completely while the first one
+     * still waits for its retransmission, and the first one arrives whole afterwards.
+     */
+    @Test
+    void lossHoldsBackOnlyItsStream() throws InterruptedException {
+        ClientStream slow = client.openStream();
+        ClientStream fast = client.openStream();
+        int lost = clientTransport.getSentCount();
+        clientTransport.setLoss(number -> number == lost);
+        Thread sender = new Thread(() -> {
+            for (int i = 0; i < FRAMES; i++) {
+                slow.sendData(new byte[]{1, (byte) i});
+            }
+            slow.close();
+        });
+        sender.start();
+        while (clientTransport.getLostCount() == 0) {
+            Thread.onSpinWait();
+        }
+        for (int i = 0; i < FRAMES; i++) {
+            fast.sendData(new byte[]{2, (byte) i});
+        }
+        assertTrue(fast.close());
+        assertTrue(sender.isAlive());
+
+        ServerStream accepted = assertTimeoutPreemptively(LIMIT, server::acceptStream);
+        assertEquals(fast.getId(), accepted.getId());
+        assertTrue(accepted.isClosed());
+        assertArrayEquals(expected(2), accepted.read());
+
+        sender.join(LIMIT.toMillis());
+        ServerStream late = assertTimeoutPreemptively(LIMIT, server::acceptStream);
+        assertEquals(slow.getId(), late.getId());
+        assertTrue(late.isClosed());
+        assertArrayEquals(expected(1), late.read());
+    }
+
+    /**
+     * Builds the bytes a stream is expected to receive.
+     *
+     * @param mark the first byte of every write of the stream.
+     * @return the bytes of all writes of the stream.
+     */
+    private static byte[] expected(int mark) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            out.write(mark);
+            out.write(i);
+        }
+        return out.toByteArray();
+    }
+}
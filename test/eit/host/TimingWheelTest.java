@@ -0,0 +1,110 @@
+package eit.host;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@code TimingWheel}, advanced by hand with times made up from {@code System.nanoTime()},
+ * so the tests do not depend on how fast the machine is.
+ */
+class TimingWheelTest {
+    private final static long TICK = 1_000_000L; // a tick of 1 millisecond in nanoseconds
+
+    /**
+     * A timeout never expires before its delay has passed, and expires within one tick after it.
+     */
+    @Test
+    void neverFiresEarly() {
+        for (long delay = 0; delay < 40; delay++) {
+            TimingWheel wheel = new TimingWheel(1, 16);
+            AtomicInteger runs = new AtomicInteger();
+            long before = System.nanoTime();
+            wheel.schedule(new TimingWheel.Timeout(runs::incrementAndGet), delay);
+            long after = System.nanoTime();
+            for (long now = before; now - (before + delay * TICK) < 0; now += TICK / 4) {
+                wheel.advance(now);
+                assertEquals(0, runs.get(), "expired early with a delay of " + delay);
+            }
+            wheel.advance(after + delay * TICK + TICK);
+            assertEquals(1, runs.get(), "not expired with a delay of " + delay);
+            assertTrue(wheel.isEmpty());
+        }
+    }
+
+    /**
+     * A timeout further ahead than the wheel is long waits for its rounds, also when the wheel is advanced
+     * through every tick, and also when several ticks are processed at once.
+     */
+    @Test
+    void waitsForItsRounds() {
+        TimingWheel wheel = new TimingWheel(1, 4);
+        AtomicInteger runs = new AtomicInteger();
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(runs::incrementAndGet);
+        long before = System.nanoTime();
+        wheel.schedule(timeout, 10);
+        long after = System.nanoTime();
+        for (long now = before; now - (before + 10 * TICK) < 0; now += TICK) {
+            wheel.advance(now);
+        }
+        assertEquals(0, runs.get());
+        assertTrue(wheel.isPending(timeout));
+        wheel.advance(after + 11 * TICK);
+        assertEquals(1, runs.get());
+
+        wheel = new TimingWheel(1, 4); // the time of a wheel does not go back
+        before = System.nanoTime();
+        wheel.schedule(timeout, 25);
+        after = System.nanoTime();
+        wheel.advance(before + 24 * TICK);
+        assertEquals(1, runs.get());
+        wheel.advance(after + 26 * TICK);
+        assertEquals(2, runs.get());
+    }
+
+    /**
+     * A cancelled timeout is not run, and a timeout scheduled again only runs at its new expiry.
+     */
+    @Test
+    void cancelAndReschedule() {
+        TimingWheel wheel = new TimingWheel(1, 8);
+        AtomicInteger runs = new AtomicInteger();
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(runs::incrementAndGet);
+        long start = System.nanoTime();
+        wheel.schedule(timeout, 3);
+        wheel.cancel(timeout);
+        assertFalse(wheel.isPending(timeout));
+        wheel.advance(start + 10 * TICK);
+        assertEquals(0, runs.get());
+
+        wheel = new TimingWheel(1, 8); // the time of a wheel does not go back
+        start = System.nanoTime();
+        wheel.schedule(timeout, 2);
+        wheel.schedule(timeout, 6);
+        wheel.advance(start + 5 * TICK);
+        assertEquals(0, runs.get());
+        wheel.advance(System.nanoTime() + 7 * TICK);
+        assertEquals(1, runs.get());
+    }
+
+    /**
+     * A task which throws does not keep the other timeouts of its tick from running.
+     */
+    @Test
+    void failingTaskDoesNotDropTheRest() {
+        TimingWheel wheel = new TimingWheel(1, 8);
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(new TimingWheel.Timeout(runs::incrementAndGet), 1);
+        wheel.schedule(new TimingWheel.Timeout(() -> {
+            throw new IllegalStateException("failing task");
+        }), 1);
+        wheel.schedule(new TimingWheel.Timeout(runs::incrementAndGet), 1);
+        wheel.advance(System.nanoTime() + 3 * TICK);
+        assertEquals(2, runs.get());
+        assertTrue(wheel.isEmpty());
+    }
+}